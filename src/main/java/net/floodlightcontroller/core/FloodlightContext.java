@@ -17,19 +17,86 @@
 
 package net.floodlightcontroller.core;
 
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is a context object where floodlight listeners can register 
  * and later retrieve context information associated with an
  * event
+ *
+ * Every key is assigned a dense integer slot the first time a value is
+ * stored under it and values live in a plain array indexed by slot. Hot
+ * paths can look the slot up once with {@link #getSlot(String)} and use
+ * the slot based accessors of {@link FloodlightContextStore}. A context
+ * belongs to the thread handling its event and must not be shared
+ * between threads.
  * @author readams
  */
 public class FloodlightContext {
-    protected ConcurrentHashMap<String, Object> storage =
-            new ConcurrentHashMap<String, Object>();
+    private static final ConcurrentHashMap<String, Integer> slots =
+            new ConcurrentHashMap<String, Integer>();
 
-    public ConcurrentHashMap<String, Object> getStorage() {
-        return storage;
+    private static final Object[] EMPTY = new Object[0];
+
+    // allocated on the first put, kept across reset()
+    protected Object[] storage = EMPTY;
+    // all slots at or above this are null
+    protected int used;
+
+    /**
+     * Get the slot of a key, assigning the next free slot if the key
+     * doesn't have one yet
+     * @param key the context key
+     * @return the slot
+     */
+    public static int getSlot(String key) {
+        Integer slot = slots.get(key);
+        if (slot != null)
+            return slot;
+        synchronized (slots) {
+            slot = slots.get(key);
+            if (slot == null) {
+                slot = slots.size();
+                slots.put(key, slot);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * @return the slot of a key or -1 if nothing was ever stored under it
+     */
+    static int findSlot(String key) {
+        Integer slot = slots.get(key);
+        return (slot == null) ? -1 : slot;
+    }
+
+    Object get(int slot) {
+        return (slot >= 0 && slot < used) ? storage[slot] : null;
+    }
+
+    void put(int slot, Object value) {
+        if (slot >= storage.length) {
+            // room for every key registered so far
+            int size = Math.max(slot + 1, Math.max(slots.size(), 8));
+            storage = Arrays.copyOf(storage, size);
+        }
+        storage[slot] = value;
+        if (slot >= used)
+            used = slot + 1;
+    }
+
+    void remove(int slot) {
+        if (slot >= 0 && slot < used)
+            storage[slot] = null;
+    }
+
+    /**
+     * Remove all values so the context can be reused for another event
+     */
+    public void reset() {
+        Arrays.fill(storage, 0, used, null);
+        used = 0;
     }
 }
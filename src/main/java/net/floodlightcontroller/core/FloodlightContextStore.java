@@ -17,18 +17,41 @@
 
 package net.floodlightcontroller.core;
 
+/**
+ * Typed access to the values of a FloodlightContext.
+ *
+ * Values can be addressed by their key or, cheaper, by the slot of the
+ * key from {@link FloodlightContext#getSlot(String)}.
+ */
 public class FloodlightContextStore<V> {
     
     @SuppressWarnings("unchecked")
     public V get(FloodlightContext bc, String key) {
-        return (V)bc.storage.get(key);
+        return (V)bc.get(FloodlightContext.findSlot(key));
     }
     
     public void put(FloodlightContext bc, String key, V value) {
-        bc.storage.put(key, value);
+        if (value == null)
+            throw new NullPointerException("value must not be null");
+        bc.put(FloodlightContext.getSlot(key), value);
     }
     
     public void remove(FloodlightContext bc, String key) {
-        bc.storage.remove(key);
+        bc.remove(FloodlightContext.findSlot(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(FloodlightContext bc, int slot) {
+        return (V)bc.get(slot);
+    }
+
+    public void put(FloodlightContext bc, int slot, V value) {
+        if (value == null)
+            throw new NullPointerException("value must not be null");
+        bc.put(slot, value);
+    }
+
+    public void remove(FloodlightContext bc, int slot) {
+        bc.remove(slot);
     }
 }
@@ -0,0 +1,277 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFTableFeatures;
+import org.openflow.protocol.statistics.OFTableStatistics;
+
+/**
+ * Tracks how full the flow tables of a switch are.
+ *
+ * The capacity of each table comes from TABLE_FEATURES statistics and the
+ * number of entries from TABLE statistics. Between two TABLE replies the
+ * flow-mods adding a flow are counted on top of the last active count, so
+ * a burst of reactive installs is noticed before the next poll. A
+ * TABLES_FULL error from the switch makes it full until the next TABLE
+ * reply, which also covers switches that don't report their capacity.
+ * The switch asks for TABLE statistics after such an error, so the error
+ * doesn't stick without a statistics poller.
+ *
+ * The {@link Level} of a table only goes down again once it is a few
+ * percent below the threshold, so it doesn't flap around it.
+ */
+public class FlowTableOccupancy {
+    public enum Level {
+        /** there is room */
+        NORMAL,
+        /** install coarser flows to save entries */
+        HIGH,
+        /** don't install reactive flows */
+        FULL
+    }
+
+    public static final int DEFAULT_HIGH_PERCENT = 80;
+    public static final int DEFAULT_FULL_PERCENT = 95;
+    // how far below a threshold a table must be to leave its level
+    private static final int HYSTERESIS_PERCENT = 5;
+
+    private static class Table {
+        final int tableId;
+        // 0 if unknown
+        int maxEntries;
+        int activeCount;
+        // flows added since the last TABLE reply
+        int added;
+        Level level = Level.NORMAL;
+
+        Table(int tableId) {
+            this.tableId = tableId;
+        }
+    }
+
+    private final int highPercent;
+    private final int fullPercent;
+    private final Table[] tables = new Table[256];
+    private final List<Table> knownTables = new ArrayList<Table>();
+    private boolean tablesFullError;
+    private long failedFlowMods;
+    // the highest level of all tables, read without the lock
+    private volatile Level level = Level.NORMAL;
+
+    public FlowTableOccupancy() {
+        this(DEFAULT_HIGH_PERCENT, DEFAULT_FULL_PERCENT);
+    }
+
+    /**
+     * @param highPercent how full a table is at level HIGH
+     * @param fullPercent how full a table is at level FULL
+     */
+    public FlowTableOccupancy(int highPercent, int fullPercent) {
+        if (highPercent <= HYSTERESIS_PERCENT || fullPercent < highPercent ||
+                fullPercent > 100)
+            throw new IllegalArgumentException("Invalid flow table thresholds");
+        this.highPercent = highPercent;
+        this.fullPercent = fullPercent;
+    }
+
+    private Table getTable(int tableId) {
+        Table t = tables[tableId & 0xff];
+        if (t == null) {
+            t = new Table(tableId & 0xff);
+            tables[tableId & 0xff] = t;
+            knownTables.add(t);
+        }
+        return t;
+    }
+
+    /**
+     * Learn the capacity of the tables from a TABLE_FEATURES reply
+     */
+    public synchronized void updateTableFeatures(
+            List<? extends OFStatistics> stats) {
+        for (OFStatistics s : stats) {
+            if (!(s instanceof OFTableFeatures))
+                continue;
+            OFTableFeatures f = (OFTableFeatures) s;
+            getTable(f.getTableFeaturesId()).maxEntries =
+                    Math.max(0, f.getMaxEntries());
+        }
+        updateLevels();
+    }
+
+    /**
+     * Take the active counts from a TABLE reply. Forgets the flows added
+     * since the last reply and a TABLES_FULL error.
+     */
+    public synchronized void updateTableStats(
+            List<? extends OFStatistics> stats) {
+        for (OFStatistics s : stats) {
+            if (!(s instanceof OFTableStatistics))
+                continue;
+            OFTableStatistics ts = (OFTableStatistics) s;
+            Table t = getTable(ts.getTableId());
+            t.activeCount = Math.max(0, ts.getActiveCount());
+            t.added = 0;
+        }
+        tablesFullError = false;
+        updateLevels();
+    }
+
+    /**
+     * A flow-mod adding a flow was written to the switch
+     */
+    public synchronized void flowAdded(int tableId) {
+        Table t = getTable(tableId);
+        t.added++;
+        if (t.maxEntries > 0 && updateLevel(t))
+            updateLevel();
+    }
+
+    /**
+     * The switch rejected a flow-mod because its tables are full
+     */
+    public synchronized void tablesFull() {
+        failedFlowMods++;
+        tablesFullError = true;
+        updateLevel();
+    }
+
+    private void updateLevels() {
+        for (Table t : knownTables)
+            updateLevel(t);
+        updateLevel();
+    }
+
+    /**
+     * @return true if the level of the table changed
+     */
+    private boolean updateLevel(Table t) {
+        Level next = Level.NORMAL;
+        int percent = percentFull(t);
+        if (percent >= fullPercent || (t.level == Level.FULL &&
+                percent >= fullPercent - HYSTERESIS_PERCENT)) {
+            next = Level.FULL;
+        } else if (percent >= highPercent || (t.level != Level.NORMAL &&
+                percent >= highPercent - HYSTERESIS_PERCENT)) {
+            next = Level.HIGH;
+        }
+        if (next == t.level)
+            return false;
+        t.level = next;
+        return true;
+    }
+
+    private void updateLevel() {
+        Level next = tablesFullError ? Level.FULL : Level.NORMAL;
+        for (Table t : knownTables) {
+            if (t.level.compareTo(next) > 0)
+                next = t.level;
+        }
+        level = next;
+    }
+
+    /**
+     * @return how full the table is in percent, -1 if its capacity is
+     * unknown
+     */
+    private static int percentFull(Table t) {
+        if (t.maxEntries <= 0)
+            return -1;
+        return (int)(((long)t.activeCount + t.added) * 100 / t.maxEntries);
+    }
+
+    /**
+     * @return the highest level of all tables
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    public synchronized Level getLevel(int tableId) {
+        Table t = tables[tableId & 0xff];
+        if (tablesFullError)
+            return Level.FULL;
+        return t == null ? Level.NORMAL : t.level;
+    }
+
+    /**
+     * @return the capacity of the table, 0 if unknown
+     */
+    public synchronized int getMaxEntries(int tableId) {
+        Table t = tables[tableId & 0xff];
+        return t == null ? 0 : t.maxEntries;
+    }
+
+    /**
+     * @return the estimated number of entries in the table
+     */
+    public synchronized int getActiveEntries(int tableId) {
+        Table t = tables[tableId & 0xff];
+        return t == null ? 0 : t.activeCount + t.added;
+    }
+
+    /**
+     * @return how full the table is in percent, -1 if its capacity is
+     * unknown
+     */
+    public synchronized int getPercentFull(int tableId) {
+        Table t = tables[tableId & 0xff];
+        return t == null ? -1 : percentFull(t);
+    }
+
+    /**
+     * @return true if the capacity of any table is known
+     */
+    public synchronized boolean isCapacityKnown() {
+        for (Table t : knownTables) {
+            if (t.maxEntries > 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the switch reported full tables since the last TABLE
+     * reply
+     */
+    public synchronized boolean isTablesFullError() {
+        return tablesFullError;
+    }
+
+    /**
+     * @return the number of flow-mods the switch rejected because its
+     * tables were full
+     */
+    public synchronized long getFailedFlowMods() {
+        return failedFlowMods;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("FlowTableOccupancy [level=");
+        sb.append(level);
+        for (Table t : knownTables) {
+            sb.append(", table ").append(t.tableId).append("=")
+              .append(t.activeCount + t.added).append("/")
+              .append(t.maxEntries > 0 ? String.valueOf(t.maxEntries) : "?");
+        }
+        return sb.append(", failed=").append(failedFlowMods).append("]")
+                 .toString();
+    }
+}
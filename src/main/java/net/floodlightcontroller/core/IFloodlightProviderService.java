@@ -46,6 +46,8 @@ public interface IFloodlightProviderService extends
      */
     public static final String CONTEXT_PI_PAYLOAD =
             "net.floodlightcontroller.core.IFloodlightProvider.piPayload";
+    public static final int CONTEXT_PI_PAYLOAD_SLOT =
+            FloodlightContext.getSlot(CONTEXT_PI_PAYLOAD);
 
     /**
      * The role of the controller as used by the OF 1.2 and OVS failover and
@@ -178,6 +180,28 @@ public interface IFloodlightProviderService extends
      */
     public void removeOFSwitchListener(IOFSwitchListener listener);
 
+    /**
+     * Add a listener for switches becoming congested
+     * @param listener The module that wants to listen for events
+     */
+    public void addSwitchBackpressureListener(
+            IOFSwitchBackpressureListener listener);
+
+    /**
+     * Remove a listener for switches becoming congested
+     * @param listener The module that no longer wants to listen for events
+     */
+    public void removeSwitchBackpressureListener(
+            IOFSwitchBackpressureListener listener);
+
+    /**
+     * Notify the backpressure listeners that a switch became congested or
+     * is no longer congested. Called by the switch.
+     * @param sw the switch
+     * @param congested whether writes to the switch are held back
+     */
+    public void handleSwitchBackpressure(IOFSwitch sw, boolean congested);
+
     /**
      * Adds a listener for HA role events
      * @param listener The module that wants to listen for events
@@ -23,15 +23,18 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
 import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 import net.floodlightcontroller.core.internal.Controller;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterException;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
+import net.floodlightcontroller.util.LatencyHistogram;
+import net.floodlightcontroller.util.Log2Histogram;
 import net.floodlightcontroller.util.OrderedCollection;
 
 import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFError;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPortStatus;
@@ -41,6 +44,8 @@ import org.openflow.protocol.statistics.OFPortDescription;
 import org.openflow.protocol.statistics.OFDescriptionStatistics;
 import org.openflow.protocol.statistics.OFStatistics;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  *
  *
@@ -287,6 +292,14 @@ public interface IOFSwitch {
      */
     public Collection<Integer> getEnabledPortNumbers();
 
+    /**
+     * Get the port numbers of all enabled ports like
+     * getEnabledPortNumbers() but without boxing. The array is shared
+     * and replaced when the ports change.
+     * @return the enabled port numbers, must not be modified
+     */
+    public int[] getEnabledPortNumberArray();
+
     /**
      * Retrieve the port object by the port number. The port object
      * is the one that reflects the port status updates that have been
@@ -416,25 +429,25 @@ public interface IOFSwitch {
 
     /**
      * Returns a Future object that can be used to retrieve the asynchronous
-     * OFStatisticsReply when it is available.
+     * OFStatisticsReply when it is available. Listeners added to the future
+     * run when the reply is complete or the request is cancelled or times
+     * out, so callers don't need to block in get().
      *
      * @param request statistics request
      * @return Future object wrapping OFStatisticsReply
      * @throws IOException
      */
-    public Future<List<OFStatistics>> queryStatistics(OFStatisticsRequest request)
-
-            throws IOException;
+    public ListenableFuture<List<OFStatistics>>
+            queryStatistics(OFStatisticsRequest request) throws IOException;
 
     /**
      * Returns a Future object that can be used to retrieve the asynchronous
-     * OFStatisticsReply when it is available.
+     * OFFeaturesReply when it is available.
      *
-     * @param request statistics request
-     * @return Future object wrapping OFStatisticsReply
+     * @return Future object wrapping OFFeaturesReply
      * @throws IOException
      */
-    public Future<OFFeaturesReply> querySwitchFeaturesReply()
+    public ListenableFuture<OFFeaturesReply> querySwitchFeaturesReply()
             throws IOException;
 
     /**
@@ -503,6 +516,63 @@ public interface IOFSwitch {
      */
     public void cancelAllStatisticsReplies();
 
+    /**
+     * Write a batch of messages, typically flow-mods, followed by a barrier
+     * request. The messages are assigned consecutive transaction ids. Any
+     * messages buffered by write() on this thread are sent first.
+     *
+     * The returned future completes with the barrier reply once the switch
+     * has processed all messages, or fails with an {@link OFErrorException}
+     * if the switch sends an error for any of them. Several transactions
+     * can be outstanding on a switch at the same time.
+     *
+     * @param msglist the messages to write
+     * @param bc the context of the write
+     * @return future for the barrier reply
+     * @throws IOException
+     */
+    public ListenableFuture<OFBarrierReply>
+            writeTransaction(List<OFMessage> msglist, FloodlightContext bc)
+            throws IOException;
+
+    /**
+     * Deliver a barrier reply to the transaction waiting for it
+     * @param reply the reply to deliver
+     */
+    public void deliverBarrierReply(OFBarrierReply reply);
+
+    /**
+     * Deliver an error to the transaction the offending message belongs to
+     * @param error the error to deliver
+     * @return true if the message belonged to a transaction
+     */
+    public boolean deliverTransactionError(OFError error);
+
+    /**
+     * Cancel the transaction whose barrier has the given transaction ID
+     * @param transactionId the transaction ID of the barrier
+     */
+    public void cancelTransaction(int transactionId);
+
+    /**
+     * Cancel all outstanding transactions
+     */
+    public void cancelAllTransactions();
+
+    /**
+     * Get the histogram of the time from writing a transaction to receiving
+     * its barrier reply
+     * @return the histogram
+     */
+    public LatencyHistogram getFlowInstallLatency();
+
+    /**
+     * Get the histogram of the number of messages in the batches written
+     * to the switch
+     * @return the histogram
+     */
+    public Log2Histogram getWriteBatchSizes();
+
     /**
      * Checks if a specific switch property exists for this switch
      * @param name name of property
@@ -613,10 +683,34 @@ public interface IOFSwitch {
     public boolean isWriteThrottleEnabled();
 
     /**
-     * Set the flow table full flag in the switch
+     * Return whether the switch is congested, i.e., too many bytes written
+     * to it are still buffered and further writes are held back
+     * @see IOFSwitchBackpressureListener
+     */
+    public boolean isBackpressured();
+
+    /**
+     * Get the number of bytes written to the switch that weren't sent yet
+     * @return the bytes buffered by the channel and held back
+     */
+    public long getBufferedWriteBytes();
+
+    /**
+     * Set the flow table full flag in the switch. A full table is also
+     * reported by getFlowTableOccupancy() until the next TABLE statistics,
+     * which the switch queries itself a few seconds later.
      */
     public void setTableFull(boolean isFull);
 
+    /**
+     * Get how full the flow tables of the switch are. Reactive
+     * applications should install coarser flows at level HIGH and none at
+     * level FULL.
+     * @return the occupancy, updated by TABLE and TABLE_FEATURES
+     * statistics, the flow-mods written and table full errors
+     */
+    public FlowTableOccupancy getFlowTableOccupancy();
+
     /**
      * Set the suggested priority to use when installing access flows in
      * this switch.
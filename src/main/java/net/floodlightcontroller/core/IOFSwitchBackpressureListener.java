@@ -0,0 +1,20 @@
+package net.floodlightcontroller.core;
+
+/**
+ * Notified when a switch doesn't read the messages written to it fast
+ * enough. While a switch is congested further writes are queued in
+ * memory, so modules sending a lot of optional messages to it (LLDPs,
+ * packet-outs) should send fewer of them.
+ *
+ * Called on the thread that caused the change, often a Netty I/O thread,
+ * so implementations must be quick and must not block or write to the
+ * switch.
+ */
+public interface IOFSwitchBackpressureListener {
+    /**
+     * @param sw the switch
+     * @param congested true if writes to the switch are being held back,
+     * false once they are not anymore
+     */
+    public void switchBackpressureChanged(IOFSwitch sw, boolean congested);
+}
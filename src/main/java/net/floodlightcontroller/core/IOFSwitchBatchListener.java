@@ -0,0 +1,36 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core;
+
+import java.util.List;
+
+/**
+ * A switch listener that handles switch lifecycle notifications in
+ * batches.
+ *
+ * The controller collects runs of switch notifications and calls
+ * {@link #switchesChanged(List)} once per run instead of calling the
+ * individual notification methods of {@link IOFSwitchListener}, which are
+ * never called on a batch listener. The same threading and happens-after
+ * guarantees apply.
+ */
+public interface IOFSwitchBatchListener extends IOFSwitchListener {
+    /**
+     * Fired for a run of switch lifecycle notifications
+     * @param changes the net change of every switch in the run, ordered by
+     * the first notification of each switch. Never empty.
+     */
+    public void switchesChanged(List<SwitchChange> changes);
+}
@@ -0,0 +1,39 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core;
+
+import org.openflow.protocol.OFError;
+
+/**
+ * The switch answered a message with an OFError. Futures of requests to
+ * a switch fail with this exception as their cause.
+ */
+public class OFErrorException extends Exception {
+    private static final long serialVersionUID = -4402916436049725383L;
+
+    private final OFError error;
+
+    public OFErrorException(OFError error) {
+        super(error.toString());
+        this.error = error;
+    }
+
+    /**
+     * @return the error sent by the switch
+     */
+    public OFError getError() {
+        return error;
+    }
+}
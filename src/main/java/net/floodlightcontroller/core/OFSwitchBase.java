@@ -20,7 +20,6 @@ package net.floodlightcontroller.core;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -29,17 +28,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
+import net.floodlightcontroller.core.internal.CoalescingWriter;
 import net.floodlightcontroller.core.internal.Controller;
+import net.floodlightcontroller.core.internal.FlowModRateLimiter;
 import net.floodlightcontroller.core.internal.OFFeaturesReplyFuture;
 import net.floodlightcontroller.core.internal.OFStatisticsFuture;
+import net.floodlightcontroller.core.internal.OFTransactionFuture;
+import net.floodlightcontroller.core.internal.OutboundQueue;
 import net.floodlightcontroller.core.util.AppCookie;
 import net.floodlightcontroller.core.web.serializers.DPIDSerializer;
 import net.floodlightcontroller.debugcounter.IDebugCounter;
@@ -49,9 +55,15 @@ import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterType;
 import net.floodlightcontroller.debugcounter.NullDebugCounter;
 import net.floodlightcontroller.devicemanager.SwitchPort;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.PacketHeaderView;
 import net.floodlightcontroller.routing.ForwardingBase;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
+import net.floodlightcontroller.util.EwmaRate;
+import net.floodlightcontroller.util.HeavyHitterSketch;
+import net.floodlightcontroller.util.LatencyHistogram;
+import net.floodlightcontroller.util.Log2Histogram;
 import net.floodlightcontroller.util.LinkedHashSetWrapper;
+import net.floodlightcontroller.util.LongTimedCache;
 import net.floodlightcontroller.util.MACAddress;
 import net.floodlightcontroller.util.OrderedCollection;
 import net.floodlightcontroller.util.TimedCache;
@@ -60,8 +72,13 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFError;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
@@ -77,7 +94,6 @@ import org.openflow.protocol.statistics.OFPortDescription;
 import org.openflow.protocol.statistics.OFDescriptionStatistics;
 import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.statistics.OFStatisticsType;
-import org.openflow.protocol.statistics.OFTableStatistics;
 import org.openflow.util.HexString;
 import org.openflow.util.U16;
 import org.slf4j.Logger;
@@ -119,6 +135,9 @@ public abstract class OFSwitchBase implements IOFSwitch {
     private final Map<Integer,OFStatisticsFuture> statsFutureMap;
     private final Map<Integer, IOFMessageListener> iofMsgListenersMap;
     private final Map<Integer,OFFeaturesReplyFuture> featuresFutureMap;
+    // outstanding transactions by the transaction id of their barrier
+    private final ConcurrentNavigableMap<Integer,OFTransactionFuture> transactionMap;
+    private final LatencyHistogram flowInstallLatency;
     private volatile boolean connected;
     private volatile Role role;
     private final TimedCache<Long> timedCache;
@@ -134,16 +153,64 @@ public abstract class OFSwitchBase implements IOFSwitch {
     private int packetInRateThresholdLow = 1;
     private int packetInRatePerMacThreshold = 50;
     private int packetInRatePerPortThreshold = 100;
-    private long messageCount = 0;
-    private long messageCountUniqueOFMatch = 0;
-    private long lastMessageTime;
     private int currentRate = 0;
-    private TimedCache<OFMatch> ofMatchCache;
-    private TimedCache<Long> macCache;
-    private TimedCache<Long> macBlockedCache;
-    private TimedCache<Integer> portCache;
-    private TimedCache<Integer> portBlockedCache;
+    // Throttling state is allocated once per switch and reset whenever
+    // throttling is enabled, so the slow path doesn't allocate while the
+    // controller is overloaded. Only used by the thread handling the
+    // switch's packet-ins.
+    private final EwmaRate packetInRate;
+    private final LongTimedCache flowCache;
+    private final HeavyHitterSketch macSketch;
+    private final HeavyHitterSketch portSketch;
+    private final LongTimedCache macBlockedCache;
+    private final LongTimedCache portBlockedCache;
     private boolean flowTableFull = false;
+    private final FlowTableOccupancy flowTableOccupancy;
+    private static final int FLOW_TABLE_HIGH_PERCENT =
+            Integer.parseInt(System.getProperty("flowtable_high_percent",
+                    String.valueOf(FlowTableOccupancy.DEFAULT_HIGH_PERCENT)));
+    private static final int FLOW_TABLE_FULL_PERCENT =
+            Integer.parseInt(System.getProperty("flowtable_full_percent",
+                    String.valueOf(FlowTableOccupancy.DEFAULT_FULL_PERCENT)));
+    private volatile boolean tableFeaturesRequested;
+    // TABLE statistics are queried this long after a table full error, and
+    // again until a reply clears it
+    private int tableFullRecheckMs = 5000;
+    private final AtomicBoolean tableFullRecheck = new AtomicBoolean();
+
+    // Outbound flow-mod pacing. Drivers can change the limits with
+    // setFlowModRateLimit; a rate of 0 disables it.
+    private final FlowModRateLimiter flowModLimiter;
+    private static final int DEFAULT_FLOWMOD_RATE =
+            Integer.parseInt(System.getProperty("flowmod_rate", "2000"));
+    private static final int DEFAULT_FLOWMOD_BURST =
+            Integer.parseInt(System.getProperty("flowmod_burst", "500"));
+    private static final int DEFAULT_FLOWMOD_QUEUE =
+            Integer.parseInt(System.getProperty("flowmod_queue", "4096"));
+
+    // Batches the messages written by any thread
+    private final CoalescingWriter coalescingWriter;
+    private static final int WRITE_BATCH_BYTES =
+            Integer.parseInt(System.getProperty("write_batch_bytes", "16384"));
+    private static final long WRITE_COALESCE_US =
+            Long.parseLong(System.getProperty("write_coalesce_us", "200"));
+
+    // Bounds the bytes buffered for the channel. Drivers can change the
+    // limits with setOutboundQueueLimits.
+    private final OutboundQueue outboundQueue;
+    private static final int DEFAULT_OUTBOUND_HIGH_WATERMARK =
+            Integer.parseInt(System.getProperty("outbound_high_watermark",
+                                                "262144"));
+    private static final int DEFAULT_OUTBOUND_LOW_WATERMARK =
+            Integer.parseInt(System.getProperty("outbound_low_watermark",
+                                                "65536"));
+    private static final int DEFAULT_OUTBOUND_QUEUE =
+            Integer.parseInt(System.getProperty("outbound_queue_bytes",
+                                                "1048576"));
+    private static final OutboundQueue.OverflowPolicy DEFAULT_OVERFLOW_POLICY =
+            OutboundQueue.OverflowPolicy.valueOf(
+                    System.getProperty("outbound_overflow_policy",
+                                       "COALESCE_FLOW_MODS"));
 
     protected OFDescriptionStatistics description;
 
@@ -151,18 +218,16 @@ public abstract class OFSwitchBase implements IOFSwitch {
     @SuppressWarnings("unused")
     private IDebugCounter ctrSwitch, ctrSwitchPktin, ctrSwitchWrite;
     private IDebugCounter ctrSwitchPktinDrops, ctrSwitchWriteDrops;
+    private IDebugCounter ctrFlowModQueued, ctrFlowModReleased;
+    private IDebugCounter ctrFlowModCoalesced, ctrFlowModDrops;
+    private IDebugCounter ctrWriteCongested, ctrWriteCoalesced;
+    private IDebugCounter ctrWriteOverflowDrops;
+    private final IDebugCounter[] ctrWriteFlushReasons =
+            new IDebugCounter[CoalescingWriter.FlushReason.values().length];
 
     private static final String PACKAGE = OFSwitchBase.class.getPackage().getName();
 
 
-    protected final static ThreadLocal<Map<IOFSwitch,List<OFMessage>>> local_msg_buffer =
-            new ThreadLocal<Map<IOFSwitch,List<OFMessage>>>() {
-        @Override
-        protected Map<IOFSwitch,List<OFMessage>> initialValue() {
-            return new HashMap<IOFSwitch,List<OFMessage>>();
-        }
-    };
-
     public static final int OFSWITCH_APP_ID = 5;
     static {
         AppCookie.registerApp(OFSwitchBase.OFSWITCH_APP_ID, "switch");
@@ -176,12 +241,72 @@ public abstract class OFSwitchBase implements IOFSwitch {
         this.connected = false;
         this.statsFutureMap = new ConcurrentHashMap<Integer,OFStatisticsFuture>();
         this.featuresFutureMap = new ConcurrentHashMap<Integer,OFFeaturesReplyFuture>();
+        this.transactionMap = new ConcurrentSkipListMap<Integer,OFTransactionFuture>();
+        this.flowInstallLatency = new LatencyHistogram();
         this.iofMsgListenersMap = new ConcurrentHashMap<Integer,IOFMessageListener>();
         this.role = null;
         this.timedCache = new TimedCache<Long>(100, 5*1000 );  // 5 seconds interval
         this.portBroadcastCacheHitMap = new ConcurrentHashMap<Integer, AtomicLong>();
         this.description = new OFDescriptionStatistics();
-        this.lastMessageTime = System.currentTimeMillis();
+        this.packetInRate = new EwmaRate(100, 0.5, System.nanoTime());
+        this.flowCache = new LongTimedCache(1024, 5000); // 5 second interval
+        this.macSketch = new HeavyHitterSketch(4, 256, 16, 1000); // per second
+        this.portSketch = new HeavyHitterSketch(4, 64, 16, 1000);
+        this.macBlockedCache = new LongTimedCache(256, 5000);
+        this.portBlockedCache = new LongTimedCache(64, 5000);
+        this.flowTableOccupancy = new FlowTableOccupancy(
+                FLOW_TABLE_HIGH_PERCENT, FLOW_TABLE_FULL_PERCENT);
+
+        this.outboundQueue = new OutboundQueue(new OutboundQueue.Listener() {
+            @Override
+            public void backpressureChanged(boolean congested) {
+                handleBackpressure(congested);
+            }
+
+            @Override
+            public void overflowed() {
+                handleOutboundOverflow();
+            }
+
+            @Override
+            public void dropped(OFMessage msg) {
+                failTransaction(msg);
+            }
+
+            @Override
+            public void sent(List<OFMessage> msglist) {
+                // not the ones the rate limiter or the queue dropped
+                countAddedFlows(msglist);
+            }
+        });
+        this.outboundQueue.setLimits(DEFAULT_OUTBOUND_HIGH_WATERMARK,
+                DEFAULT_OUTBOUND_LOW_WATERMARK, DEFAULT_OUTBOUND_QUEUE,
+                DEFAULT_OVERFLOW_POLICY);
+        this.flowModLimiter = new FlowModRateLimiter(
+                new FlowModRateLimiter.Sink() {
+                    @Override
+                    public void send(List<OFMessage> msglist) {
+                        if (isConnected())
+                            outboundQueue.write(msglist);
+                    }
+
+                    @Override
+                    public void dropped(OFMessage msg) {
+                        failTransaction(msg);
+                    }
+                });
+        this.flowModLimiter.setLimits(DEFAULT_FLOWMOD_RATE,
+                DEFAULT_FLOWMOD_BURST, DEFAULT_FLOWMOD_QUEUE,
+                System.nanoTime());
+
+        this.coalescingWriter = new CoalescingWriter(
+                new CoalescingWriter.Sink() {
+                    @Override
+                    public void send(List<OFMessage> msglist) {
+                        write(msglist);
+                    }
+                }, Controller.BATCH_MAX_SIZE, WRITE_BATCH_BYTES,
+                WRITE_COALESCE_US);
 
         this.portManager = new PortManager();
 
@@ -197,6 +322,77 @@ public abstract class OFSwitchBase implements IOFSwitch {
 
 
 
+    /**
+     * An immutable view of the ports of a switch. Port numbers are kept in
+     * an open-addressing table, so looking up a port by number neither
+     * boxes nor allocates, and the enabled ports are computed once.
+     */
+    private static final class PortSnapshot {
+        static final PortSnapshot EMPTY = new PortSnapshot(
+                Collections.<ImmutablePort>emptyList(),
+                Collections.<Integer,ImmutablePort>emptyMap(),
+                Collections.<String,ImmutablePort>emptyMap());
+
+        final List<ImmutablePort> portList;
+        final List<ImmutablePort> enabledPortList;
+        final List<Integer> enabledPortNumbers;
+        final int[] enabledPortNumberArray;
+        // for the writers, which build the next snapshot from them
+        final Map<Integer,ImmutablePort> portsByNumber;
+        final Map<String,ImmutablePort> portsByName;
+        // linear probing, at most half full; a null port is a free slot
+        private final int[] numbers;
+        private final ImmutablePort[] ports;
+        private final int mask;
+
+        PortSnapshot(List<ImmutablePort> portList,
+                     Map<Integer,ImmutablePort> portsByNumber,
+                     Map<String,ImmutablePort> portsByName) {
+            int capacity = 4;
+            while (capacity < 2 * portList.size())
+                capacity <<= 1;
+            numbers = new int[capacity];
+            ports = new ImmutablePort[capacity];
+            mask = capacity - 1;
+            List<ImmutablePort> enabled = new ArrayList<ImmutablePort>();
+            for (ImmutablePort p: portList) {
+                int i = slot(p.getPortNumber());
+                while (ports[i] != null)
+                    i = (i + 1) & mask;
+                numbers[i] = p.getPortNumber();
+                ports[i] = p;
+                if (p.isEnabled())
+                    enabled.add(p);
+            }
+            List<Integer> enabledNumbers =
+                    new ArrayList<Integer>(enabled.size());
+            enabledPortNumberArray = new int[enabled.size()];
+            for (int i = 0; i < enabledPortNumberArray.length; i++) {
+                enabledPortNumberArray[i] = enabled.get(i).getPortNumber();
+                enabledNumbers.add(enabledPortNumberArray[i]);
+            }
+            this.portList = Collections.unmodifiableList(portList);
+            this.enabledPortList = Collections.unmodifiableList(enabled);
+            this.enabledPortNumbers =
+                    Collections.unmodifiableList(enabledNumbers);
+            this.portsByNumber = Collections.unmodifiableMap(portsByNumber);
+            this.portsByName = Collections.unmodifiableMap(portsByName);
+        }
+
+        private int slot(int portNumber) {
+            int h = portNumber * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        ImmutablePort getPort(int portNumber) {
+            for (int i = slot(portNumber);; i = (i + 1) & mask) {
+                ImmutablePort p = ports[i];
+                if (p == null || numbers[i] == portNumber)
+                    return p;
+            }
+        }
+    }
+
     /**
      * Manages the ports of this switch.
      *
@@ -215,73 +411,48 @@ public abstract class OFSwitchBase implements IOFSwitch {
      * changes.
      *
      * Implementation notes:
-     * - We keep several different representations of the ports to allow for
-     *   fast lookups
-     * - Ports are stored in unchangeable lists. When a port is modified new
-     *   data structures are allocated.
-     * - We use a read-write-lock for synchronization, so multiple readers are
-     *   allowed.
+     * - The ports are published as an immutable PortSnapshot that keeps
+     *   several different representations of them to allow for fast
+     *   lookups. When a port is modified a new snapshot is allocated.
+     * - Readers only read the volatile snapshot, they never lock. Writers
+     *   are serialized by a lock.
      */
     protected class PortManager {
-        private final ReentrantReadWriteLock lock;
-        private List<ImmutablePort> portList;
-        private List<ImmutablePort> enabledPortList;
-        private List<Integer> enabledPortNumbers;
-        private Map<Integer,ImmutablePort> portsByNumber;
-        private Map<String,ImmutablePort> portsByName;
-
-
-
+        private final ReentrantLock lock;
+        private volatile PortSnapshot snapshot;
 
         public PortManager() {
-            this.lock = new ReentrantReadWriteLock();
-            this.portList = Collections.emptyList();
-            this.enabledPortList = Collections.emptyList();
-            this.enabledPortNumbers = Collections.emptyList();
-            this.portsByName = Collections.emptyMap();
-            this.portsByNumber = Collections.emptyMap();
+            this.lock = new ReentrantLock();
+            this.snapshot = PortSnapshot.EMPTY;
         }
 
         /**
          * Set the internal data structure storing this switch's port
          * to the ports specified by newPortsByNumber
          *
-         * CALLER MUST HOLD WRITELOCK
+         * CALLER MUST HOLD THE LOCK
          *
          * @param newPortsByNumber
          * @throws IllegaalStateException if called without holding the
-         * writelock
+         * lock
          */
         private void updatePortsWithNewPortsByNumber(
                 Map<Integer,ImmutablePort> newPortsByNumber) {
-            if (!lock.writeLock().isHeldByCurrentThread()) {
+            if (!lock.isHeldByCurrentThread()) {
                 throw new IllegalStateException("Method called without " +
-                                                "holding writeLock");
+                                                "holding lock");
             }
             Map<String,ImmutablePort> newPortsByName =
                     new HashMap<String, ImmutablePort>();
             List<ImmutablePort> newPortList =
                     new ArrayList<ImmutablePort>();
-            List<ImmutablePort> newEnabledPortList =
-                    new ArrayList<ImmutablePort>();
-            List<Integer> newEnabledPortNumbers = new ArrayList<Integer>();
 
             for(ImmutablePort p: newPortsByNumber.values()) {
                 newPortList.add(p);
                 newPortsByName.put(p.getName().toLowerCase(), p);
-                if (p.isEnabled()) {
-                    newEnabledPortList.add(p);
-                    newEnabledPortNumbers.add(p.getPortNumber());
-                }
             }
-            portsByName = Collections.unmodifiableMap(newPortsByName);
-            portsByNumber =
-                    Collections.unmodifiableMap(newPortsByNumber);
-            enabledPortList =
-                    Collections.unmodifiableList(newEnabledPortList);
-            enabledPortNumbers =
-                    Collections.unmodifiableList(newEnabledPortNumbers);
-            portList = Collections.unmodifiableList(newPortList);
+            snapshot = new PortSnapshot(newPortList, newPortsByNumber,
+                                        newPortsByName);
         }
 
         /**
@@ -301,17 +472,18 @@ public abstract class OFSwitchBase implements IOFSwitch {
          */
         private OrderedCollection<PortChangeEvent>
                 handlePortStatusDelete(ImmutablePort delPort) {
-            lock.writeLock().lock();
+            lock.lock();
             OrderedCollection<PortChangeEvent> events =
                     new LinkedHashSetWrapper<PortChangeEvent>();
             try {
+                PortSnapshot snap = snapshot;
                 Map<Integer,ImmutablePort> newPortByNumber =
-                        new HashMap<Integer, ImmutablePort>(portsByNumber);
+                        new HashMap<Integer, ImmutablePort>(snap.portsByNumber);
                 ImmutablePort prevPort =
-                        portsByNumber.get(delPort.getPortNumber());
+                        snap.getPort(delPort.getPortNumber());
                 if (prevPort == null) {
                     // so such port. Do we have a port with the name?
-                    prevPort = portsByName.get(delPort.getName());
+                    prevPort = snap.portsByName.get(delPort.getName());
                     if (prevPort != null) {
                         newPortByNumber.remove(prevPort.getPortNumber());
                         events.add(new PortChangeEvent(prevPort,
@@ -330,7 +502,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
                     events.add(new PortChangeEvent(prevPort,
                                                    PortChangeType.DELETE));
                     // is there another port that has delPort's name?
-                    prevPort = portsByName.get(delPort.getName().toLowerCase());
+                    prevPort = snap.portsByName.get(delPort.getName().toLowerCase());
                     if (prevPort != null) {
                         newPortByNumber.remove(prevPort.getPortNumber());
                         events.add(new PortChangeEvent(prevPort,
@@ -340,7 +512,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
                 updatePortsWithNewPortsByNumber(newPortByNumber);
                 return events;
             } finally {
-                lock.writeLock().unlock();
+                lock.unlock();
             }
         }
 
@@ -358,7 +530,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
                 throw new NullPointerException("OFPortStatus message must " +
                                                "not be null");
             }
-            lock.writeLock().lock();
+            lock.lock();
             try {
                 ImmutablePort port =
                         ImmutablePort.fromOFPhysicalPort(ps.getDesc());
@@ -381,7 +553,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
                 // notion of ADD vs. MODIFY can also be hazy. So we just
                 // compare the new port to the existing ones.
                 Map<Integer,ImmutablePort> newPortByNumber =
-                    new HashMap<Integer, ImmutablePort>(portsByNumber);
+                    new HashMap<Integer, ImmutablePort>(snapshot.portsByNumber);
                 OrderedCollection<PortChangeEvent> events = getSinglePortChanges(port);
                 for (PortChangeEvent e: events) {
                     switch(e.type) {
@@ -404,7 +576,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
                 updatePortsWithNewPortsByNumber(newPortByNumber);
                 return events;
             } finally {
-                lock.writeLock().unlock();
+                lock.unlock();
             }
 
         }
@@ -415,8 +587,8 @@ public abstract class OFSwitchBase implements IOFSwitch {
          * this switch to include / represent the new port. The ports stored
          * by this switch are <b>NOT</b> updated.
          *
-         * This method acquires the readlock and is thread-safe by itself.
-         * Most callers will need to acquire the write lock before calling
+         * This method reads a single snapshot and is thread-safe by itself.
+         * Most callers will need to acquire the lock before calling
          * this method though (if the caller wants to update the ports stored
          * by this switch)
          *
@@ -425,66 +597,61 @@ public abstract class OFSwitchBase implements IOFSwitch {
          */
         public OrderedCollection<PortChangeEvent>
                 getSinglePortChanges(ImmutablePort newPort) {
-            lock.readLock().lock();
-            try {
-                OrderedCollection<PortChangeEvent> events =
-                        new LinkedHashSetWrapper<PortChangeEvent>();
-                // Check if we have a port by the same number in our
-                // old map.
-                ImmutablePort prevPort =
-                        portsByNumber.get(newPort.getPortNumber());
-                if (newPort.equals(prevPort)) {
-                    // nothing has changed
-                    return events;
-                }
-
-                if (prevPort != null &&
-                        prevPort.getName().equals(newPort.getName())) {
-                    // A simple modify of a exiting port
-                    // A previous port with this number exists and it's name
-                    // also matches the new port. Find the differences
-                    if (prevPort.isEnabled() && !newPort.isEnabled()) {
-                        events.add(new PortChangeEvent(newPort,
-                                                       PortChangeType.DOWN));
-                    } else if (!prevPort.isEnabled() && newPort.isEnabled()) {
-                        events.add(new PortChangeEvent(newPort,
-                                                       PortChangeType.UP));
-                    } else {
-                        events.add(new PortChangeEvent(newPort,
-                                   PortChangeType.OTHER_UPDATE));
-                    }
-                    return events;
-                }
+            PortSnapshot snap = snapshot;
+            OrderedCollection<PortChangeEvent> events =
+                    new LinkedHashSetWrapper<PortChangeEvent>();
+            // Check if we have a port by the same number in our
+            // old map.
+            ImmutablePort prevPort = snap.getPort(newPort.getPortNumber());
+            if (newPort.equals(prevPort)) {
+                // nothing has changed
+                return events;
+            }
 
-                if (prevPort != null) {
-                    // There exists a previous port with the same port
-                    // number but the port name is different (otherwise we would
-                    // never have gotten here)
-                    // Remove the port. Name-number mapping(s) have changed
-                    events.add(new PortChangeEvent(prevPort,
-                                                   PortChangeType.DELETE));
+            if (prevPort != null &&
+                    prevPort.getName().equals(newPort.getName())) {
+                // A simple modify of a exiting port
+                // A previous port with this number exists and it's name
+                // also matches the new port. Find the differences
+                if (prevPort.isEnabled() && !newPort.isEnabled()) {
+                    events.add(new PortChangeEvent(newPort,
+                                                   PortChangeType.DOWN));
+                } else if (!prevPort.isEnabled() && newPort.isEnabled()) {
+                    events.add(new PortChangeEvent(newPort,
+                                                   PortChangeType.UP));
+                } else {
+                    events.add(new PortChangeEvent(newPort,
+                               PortChangeType.OTHER_UPDATE));
                 }
+                return events;
+            }
 
-                // We now need to check if there exists a previous port sharing
-                // the same name as the new/updated port.
-                prevPort = portsByName.get(newPort.getName().toLowerCase());
-                if (prevPort != null) {
-                    // There exists a previous port with the same port
-                    // name but the port number is different (otherwise we
-                    // never have gotten here).
-                    // Remove the port. Name-number mapping(s) have changed
-                    events.add(new PortChangeEvent(prevPort,
-                                                   PortChangeType.DELETE));
-                }
+            if (prevPort != null) {
+                // There exists a previous port with the same port
+                // number but the port name is different (otherwise we would
+                // never have gotten here)
+                // Remove the port. Name-number mapping(s) have changed
+                events.add(new PortChangeEvent(prevPort,
+                                               PortChangeType.DELETE));
+            }
 
-                // We always need to add the new port. Either no previous port
-                // existed or we just deleted previous ports with inconsistent
-                // name-number mappings
-                events.add(new PortChangeEvent(newPort, PortChangeType.ADD));
-                return events;
-            } finally {
-                lock.readLock().unlock();
+            // We now need to check if there exists a previous port sharing
+            // the same name as the new/updated port.
+            prevPort = snap.portsByName.get(newPort.getName().toLowerCase());
+            if (prevPort != null) {
+                // There exists a previous port with the same port
+                // name but the port number is different (otherwise we
+                // never have gotten here).
+                // Remove the port. Name-number mapping(s) have changed
+                events.add(new PortChangeEvent(prevPort,
+                                               PortChangeType.DELETE));
             }
+
+            // We always need to add the new port. Either no previous port
+            // existed or we just deleted previous ports with inconsistent
+            // name-number mappings
+            events.add(new PortChangeEvent(newPort, PortChangeType.ADD));
+            return events;
         }
 
         /**
@@ -524,11 +691,9 @@ public abstract class OFSwitchBase implements IOFSwitch {
          * replace the current list of this switch (and update the port maps)
          *
          * Implementation note:
-         * Since this method can optionally modify the current ports and
-         * since it's not possible to upgrade a read-lock to a write-lock
-         * we need to hold the write-lock for the entire operation. If this
-         * becomes a problem and if compares() are common we can consider
-         * splitting in two methods but this requires lots of code duplication
+         * Since this method can optionally modify the current ports we
+         * hold the lock for the entire operation. Readers are not blocked
+         * by it.
          *
          * @param newPorts the list of new ports.
          * @param doUpdate If true the newPortList will replace the current
@@ -545,7 +710,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
             if (newPorts == null) {
                 throw new NullPointerException("newPortsList must not be null");
             }
-            lock.writeLock().lock();
+            lock.lock();
             try {
                 OrderedCollection<PortChangeEvent> events =
                         new LinkedHashSetWrapper<PortChangeEvent>();
@@ -554,10 +719,6 @@ public abstract class OFSwitchBase implements IOFSwitch {
                         new HashMap<Integer, ImmutablePort>();
                 Map<String,ImmutablePort> newPortsByName =
                         new HashMap<String, ImmutablePort>();
-                List<ImmutablePort> newEnabledPortList =
-                        new ArrayList<ImmutablePort>();
-                List<Integer> newEnabledPortNumbers =
-                        new ArrayList<Integer>();
                 List<ImmutablePort> newPortsList =
                         new ArrayList<ImmutablePort>(newPorts);
 
@@ -587,11 +748,6 @@ public abstract class OFSwitchBase implements IOFSwitch {
                                 duplicatePort.toBriefString());
                         throw new IllegalArgumentException(msg);
                     }
-                    if (p.isEnabled()) {
-                        newEnabledPortList.add(p);
-                        newEnabledPortNumbers.add(p.getPortNumber());
-                    }
-
                     // get changes
                     events.addAll(getSinglePortChanges(p));
                 }
@@ -600,7 +756,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
                 // to we can handle changed name<->number mappings correctly
                 // We could pull it into the loop of we address this but
                 // it's probably not worth it
-                for (ImmutablePort oldPort: this.portList) {
+                for (ImmutablePort oldPort: snapshot.portList) {
                     if (!newPortsByNumber.containsKey(oldPort.getPortNumber())) {
                         PortChangeEvent ev =
                                 new PortChangeEvent(oldPort,
@@ -611,18 +767,13 @@ public abstract class OFSwitchBase implements IOFSwitch {
 
 
                 if (doUpdate) {
-                    portsByName = Collections.unmodifiableMap(newPortsByName);
-                    portsByNumber =
-                            Collections.unmodifiableMap(newPortsByNumber);
-                    enabledPortList =
-                            Collections.unmodifiableList(newEnabledPortList);
-                    enabledPortNumbers =
-                            Collections.unmodifiableList(newEnabledPortNumbers);
-                    portList = Collections.unmodifiableList(newPortsList);
+                    snapshot = new PortSnapshot(newPortsList,
+                                                newPortsByNumber,
+                                                newPortsByName);
                 }
                 return events;
             } finally {
-                lock.writeLock().unlock();
+                lock.unlock();
             }
         }
 
@@ -630,48 +781,35 @@ public abstract class OFSwitchBase implements IOFSwitch {
             if (name == null) {
                 throw new NullPointerException("Port name must not be null");
             }
-            lock.readLock().lock();
-            try {
-                return portsByName.get(name.toLowerCase());
-            } finally {
-                lock.readLock().unlock();
-            }
+            return snapshot.portsByName.get(name.toLowerCase());
         }
 
-        public ImmutablePort getPort(Integer portNumber) {
-            lock.readLock().lock();
-            try {
-                return portsByNumber.get(portNumber);
-            } finally {
-                lock.readLock().unlock();
-            }
+        public ImmutablePort getPort(int portNumber) {
+            return snapshot.getPort(portNumber);
+        }
+
+        public boolean portEnabled(int portNumber) {
+            ImmutablePort p = snapshot.getPort(portNumber);
+            return p != null && p.isEnabled();
         }
 
         public List<ImmutablePort> getPorts() {
-            lock.readLock().lock();
-            try {
-                return portList;
-            } finally {
-                lock.readLock().unlock();
-            }
+            return snapshot.portList;
         }
 
         public List<ImmutablePort> getEnabledPorts() {
-            lock.readLock().lock();
-            try {
-                return enabledPortList;
-            } finally {
-                lock.readLock().unlock();
-            }
+            return snapshot.enabledPortList;
         }
 
         public List<Integer> getEnabledPortNumbers() {
-            lock.readLock().lock();
-            try {
-                return enabledPortNumbers;
-            } finally {
-                lock.readLock().unlock();
-            }
+            return snapshot.enabledPortNumbers;
+        }
+
+        /**
+         * @return the enabled port numbers, must not be modified
+         */
+        public int[] getEnabledPortNumberArray() {
+            return snapshot.enabledPortNumberArray;
         }
     }
 
@@ -711,6 +849,86 @@ public abstract class OFSwitchBase implements IOFSwitch {
     @JsonIgnore
     public void setChannel(Channel channel) {
         this.channel = channel;
+        outboundQueue.setChannel(channel);
+    }
+
+    /**
+     * For driver subclasses to set how many flow-mods and group-mods per
+     * second the switch can take
+     * @param rate flow-mods per second, 0 for no limit
+     * @param burst flow-mods that can be sent at once after being idle
+     * @param maxBulkQueue how many reactive installs can be queued before
+     * they are dropped
+     */
+    protected void setFlowModRateLimit(int rate, int burst, int maxBulkQueue) {
+        flowModLimiter.setLimits(rate, burst, maxBulkQueue, System.nanoTime());
+    }
+
+    /**
+     * For driver subclasses to set how soon the flow tables are checked
+     * again after the switch reported them full
+     * @param ms milliseconds until TABLE statistics are queried
+     */
+    protected void setTableFullRecheckInterval(int ms) {
+        this.tableFullRecheckMs = ms;
+    }
+
+    /**
+     * @return the number of flow-mods waiting for the rate limiter
+     */
+    @JsonIgnore
+    public int getFlowModQueueDepth() {
+        return flowModLimiter.getQueueDepth();
+    }
+
+    /**
+     * For driver subclasses to set how much may be buffered for the
+     * switch
+     * @param highWaterMark bytes buffered by the channel above which
+     * messages are queued and the switch is congested
+     * @param lowWaterMark bytes buffered by the channel below which
+     * queued messages are written again
+     * @param maxQueueBytes the maximum size of the queue
+     * @param policy what to do when the queue is full
+     */
+    protected void setOutboundQueueLimits(int highWaterMark, int lowWaterMark,
+                                          int maxQueueBytes,
+                                          OutboundQueue.OverflowPolicy policy) {
+        outboundQueue.setLimits(highWaterMark, lowWaterMark, maxQueueBytes,
+                                policy);
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isBackpressured() {
+        return outboundQueue.isCongested();
+    }
+
+    @Override
+    public long getBufferedWriteBytes() {
+        return outboundQueue.getBufferedBytes();
+    }
+
+    private void handleBackpressure(boolean congested) {
+        if (congested)
+            log.debug("Switch {} is congested, holding back writes", this);
+        else
+            log.debug("Switch {} is no longer congested", this);
+        IFloodlightProviderService provider = floodlightProvider;
+        if (provider != null)
+            provider.handleSwitchBackpressure(this, congested);
+    }
+
+    @LogMessageDoc(level="WARN",
+            message="Disconnecting switch {switch}: outbound queue is full",
+            explanation="The switch didn't read the messages written to it " +
+                    "fast enough and too many were buffered",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    private void handleOutboundOverflow() {
+        log.warn("Disconnecting switch {}: outbound queue is full", this);
+        Channel c = channel;
+        if (c != null)
+            c.close();
     }
 
     // For driver subclass to set throttling
@@ -737,14 +955,12 @@ public abstract class OFSwitchBase implements IOFSwitch {
         if (channel == null || !isConnected())
             return;
         /**
-         * By default, channel uses an unbounded send queue. Enable throttling
-         * prevents the queue from growing big.
-         *
-         * channel.isWritable() returns true when queue length is less than
-         * high water mark (64 kbytes). Once exceeded, isWritable() becomes
-         * false after queue length drops below low water mark (32 kbytes).
+         * Writes are queued while the switch is congested, i.e., after the
+         * bytes buffered by the channel exceeded the high water mark and
+         * until they drop below the low water mark. Enabling throttling
+         * drops them instead.
          */
-        if (!writeThrottleEnabled || channel.isWritable()) {
+        if (!writeThrottleEnabled || !outboundQueue.isCongested()) {
             write(m, bc);
         } else {
             // Let logback duplicate filtering take care of excessive logs
@@ -756,7 +972,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
     @Override
     public void writeThrottled(List<OFMessage> msglist, FloodlightContext bc)
             throws IOException {
-        if (!writeThrottleEnabled || channel.isWritable()) {
+        if (!writeThrottleEnabled || !outboundQueue.isCongested()) {
             write(msglist, bc);
         } else {
             // Let logback duplicate filtering take care of excessive logs
@@ -769,22 +985,8 @@ public abstract class OFSwitchBase implements IOFSwitch {
     public void write(OFMessage m, FloodlightContext bc) {
         if (channel == null || !isConnected())
             return;
-            //throws IOException {
-        Map<IOFSwitch,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
-        List<OFMessage> msg_buffer = msg_buffer_map.get(this);
-        if (msg_buffer == null) {
-            msg_buffer = new ArrayList<OFMessage>();
-            msg_buffer_map.put(this, msg_buffer);
-        }
-
         this.floodlightProvider.handleOutgoingMessage(this, m, bc);
-        msg_buffer.add(m);
-
-        if ((msg_buffer.size() >= Controller.BATCH_MAX_SIZE) ||
-            ((m.getType() != OFType.PACKET_OUT) && (m.getType() != OFType.FLOW_MOD))) {
-            this.write(msg_buffer);
-            msg_buffer.clear();
-        }
+        coalescingWriter.write(m, System.nanoTime());
     }
     @Override
     @LogMessageDoc(level="WARN",
@@ -813,18 +1015,20 @@ public abstract class OFSwitchBase implements IOFSwitch {
             }
             this.floodlightProvider.handleOutgoingMessage(this, m, bc);
         }
-        this.write(msglist);
+        // together with the buffered messages to keep the order
+        coalescingWriter.write(msglist, System.nanoTime());
     }
 
     /**
-     * Not callable by writers, but allow IOFSwitch implementation to override
+     * Not callable by writers, but allow IOFSwitch implementation to override.
+     * Every batch of the coalescing writer ends up here.
      * @param msglist
      * @throws IOException
      */
     protected void write(List<OFMessage> msglist) {
         if (channel == null || !isConnected())
             return;
-        this.channel.write(msglist);
+        flowModLimiter.write(msglist, System.nanoTime());
     }
 
     @Override
@@ -869,6 +1073,12 @@ public abstract class OFSwitchBase implements IOFSwitch {
         return portManager.getEnabledPortNumbers();
     }
 
+    @Override
+    @JsonIgnore
+    public int[] getEnabledPortNumberArray() {
+        return portManager.getEnabledPortNumberArray();
+    }
+
     @Override
     public ImmutablePort getPort(int portNumber) {
         return portManager.getPort(portNumber);
@@ -907,9 +1117,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
 
     @Override
     public boolean portEnabled(int portNumber) {
-        ImmutablePort p = portManager.getPort(portNumber);
-        if (p == null) return false;
-        return p.isEnabled();
+        return portManager.portEnabled(portNumber);
     }
 
     @Override
@@ -973,7 +1181,8 @@ public abstract class OFSwitchBase implements IOFSwitch {
     }
 
     @Override
-    public Future<List<OFStatistics>> queryStatistics(OFStatisticsRequest request) throws IOException {
+    public ListenableFuture<List<OFStatistics>>
+            queryStatistics(OFStatisticsRequest request) throws IOException {
         request.setXid(getNextTransactionId());
         OFStatisticsFuture future = new OFStatisticsFuture(threadPool, this, request.getXid());
         this.statsFutureMap.put(request.getXid(), future);
@@ -1000,43 +1209,133 @@ public abstract class OFSwitchBase implements IOFSwitch {
         }
     }
 
+    private void checkForTableStats(OFStatisticsReply statReply) {
+        FlowTableOccupancy.Level before = flowTableOccupancy.getLevel();
+        if (statReply.getStatisticsType() == OFStatisticsType.TABLE) {
+            flowTableOccupancy.updateTableStats(statReply.getStatistics());
+            if (!tableFeaturesRequested) {
+                // the capacity of the tables isn't in the TABLE reply
+                tableFeaturesRequested = true;
+                queryTableFeatures();
+            }
+        } else if (statReply.getStatisticsType() ==
+                OFStatisticsType.TABLE_FEATURES) {
+            flowTableOccupancy.updateTableFeatures(statReply.getStatistics());
+        } else {
+            return;
+        }
+        checkTableLevel(before);
+    }
+
+    private void queryTableStats() {
+        OFStatisticsRequest req = new OFStatisticsRequest();
+        req.setStatisticsType(OFStatisticsType.TABLE);
+        req.setLengthU(req.getLengthU());
+        try {
+            // the reply is handled by checkForTableStats
+            queryStatistics(req);
+        } catch (IOException e) {
+            log.debug("Failed to query table stats of {}", this);
+        }
+    }
+
+    /**
+     * Query the TABLE statistics after a while, and keep doing so until a
+     * reply clears the table full error
+     */
+    private void scheduleTableFullRecheck() {
+        if (threadPool == null || !tableFullRecheck.compareAndSet(false, true))
+            return;
+        threadPool.getTimer().newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+                tableFullRecheck.set(false);
+                if (!isConnected() || !flowTableOccupancy.isTablesFullError())
+                    return;
+                queryTableStats();
+                // in case the reply doesn't come
+                scheduleTableFullRecheck();
+            }
+        }, tableFullRecheckMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void queryTableFeatures() {
+        OFStatisticsRequest req = new OFStatisticsRequest();
+        req.setStatisticsType(OFStatisticsType.TABLE_FEATURES);
+        req.setLengthU(req.getLengthU());
+        try {
+            // the reply is handled by checkForTableStats
+            queryStatistics(req);
+        } catch (IOException e) {
+            log.debug("Failed to query table features of {}", this);
+        }
+    }
+
+    /**
+     * Count the flows added by the messages written to the channel
+     */
+    private void countAddedFlows(List<OFMessage> msglist) {
+        FlowTableOccupancy.Level before = null;
+        for (OFMessage m : msglist) {
+            if (m.getType() != OFType.FLOW_MOD ||
+                    ((OFFlowMod)m).getCommand() != OFFlowMod.OFPFC_ADD)
+                continue;
+            if (before == null)
+                before = flowTableOccupancy.getLevel();
+            flowTableOccupancy.flowAdded(((OFFlowMod)m).getTableId());
+        }
+        if (before != null)
+            checkTableLevel(before);
+    }
+
     @LogMessageDocs({
         @LogMessageDoc(level="INFO",
-            message="Switch {switch} flow table is full",
-            explanation="The switch flow table at least 98% full, " +
-                    "this requires attention if using reactive flow setup"),
+            message="Switch {switch} flow table is almost full",
+            explanation="A flow table of the switch is almost full, " +
+                    "reactive flows are not installed until there is room " +
+                    "again"),
+        @LogMessageDoc(level="INFO",
+            message="Switch {switch} flow table is filling up",
+            explanation="A flow table of the switch is filling up, " +
+                    "reactive flows match on fewer fields to save entries"),
         @LogMessageDoc(level="INFO",
             message="Switch {switch} flow table capacity back to normal",
-            explanation="The switch flow table is less than 90% full")
+            explanation="The flow tables of the switch have room again")
     })
-    
-    private void checkForTableStats(OFStatisticsReply statReply) {
-        if (statReply.getStatisticsType() != OFStatisticsType.TABLE) {
+    private void checkTableLevel(FlowTableOccupancy.Level before) {
+        FlowTableOccupancy.Level after = flowTableOccupancy.getLevel();
+        if (after == before)
             return;
-        }
-        List<? extends OFStatistics> stats = statReply.getStatistics();
-        // TODO: Support multiple tables
-        // Assume a single table only
-        OFStatistics stat = stats.get(0);
-        if (stat instanceof OFTableStatistics) {
-            OFTableStatistics tableStat = (OFTableStatistics) stat;
-            int activeCount = tableStat.getActiveCount();
-            /* TODO: Query switch for maximum entries of table
-            int maxEntry = tableStat.getMaximumEntries();
-            log.debug("Switch {} active entries {} max entries {}",
-                    new Object[] { this.stringId, activeCount, maxEntry});
-            int percentFull = activeCount * 100 / maxEntry;
-            if (flowTableFull && percentFull < 90) {
-                log.info("Switch {} flow table capacity is back to normal",
-                        toString());
+        switch (after) {
+            case FULL:
+                if (!flowTableFull) {
+                    log.info("Switch {} flow table is almost full", this);
+                    floodlightProvider.addSwitchEvent(this.datapathId,
+                            "SWITCH_FLOW_TABLE_ALMOST_FULL " +
+                            flowTableOccupancy, false);
+                }
+                break;
+            case HIGH:
+                log.info("Switch {} flow table is filling up", this);
                 floodlightProvider.addSwitchEvent(this.datapathId,
-                        "SWITCH_FLOW_TABLE_NORMAL < 90% full", false);
-            } else if (percentFull >= 98) {
-                log.info("Switch {} flow table is almost full", toString());
+                        "SWITCH_FLOW_TABLE_HIGH " + flowTableOccupancy,
+                        false);
+                break;
+            default:
+                log.info("Switch {} flow table capacity back to normal",
+                         this);
                 floodlightProvider.addSwitchEvent(this.datapathId,
-                        "SWITCH_FLOW_TABLE_ALMOST_FULL >= 98% full", false);
-            } */   
+                        "SWITCH_FLOW_TABLE_NORMAL " + flowTableOccupancy,
+                        false);
+                break;
         }
+        flowTableFull = after == FlowTableOccupancy.Level.FULL;
+    }
+
+    @Override
+    @JsonIgnore
+    public FlowTableOccupancy getFlowTableOccupancy() {
+        return flowTableOccupancy;
     }
 
 
@@ -1059,6 +1358,100 @@ public abstract class OFSwitchBase implements IOFSwitch {
         iofMsgListenersMap.clear();
     }
 
+    @Override
+    public ListenableFuture<OFBarrierReply>
+            writeTransaction(List<OFMessage> msglist, FloodlightContext bc)
+            throws IOException {
+        if (channel == null || !isConnected())
+            throw new IOException("Switch " + this + " is not connected");
+        // reserve consecutive transaction ids for the batch and the barrier
+        int n = msglist.size();
+        int firstXid = transactionIdSource.getAndAdd(n + 1) + 1;
+        List<OFMessage> batch = new ArrayList<OFMessage>(n + 1);
+        for (int i = 0; i < n; i++) {
+            OFMessage m = msglist.get(i);
+            m.setXid(firstXid + i);
+            batch.add(m);
+        }
+        OFMessage barrier = floodlightProvider.getOFMessageFactory()
+                .getMessage(OFType.BARRIER_REQUEST);
+        barrier.setXid(firstXid + n);
+        batch.add(barrier);
+
+        OFTransactionFuture future = new OFTransactionFuture(threadPool, this,
+                firstXid, barrier.getXid());
+        this.transactionMap.put(barrier.getXid(), future);
+        future.setSentNanos(System.nanoTime());
+        this.write(batch, bc);
+        return future;
+    }
+
+    @Override
+    public void deliverBarrierReply(OFBarrierReply reply) {
+        OFTransactionFuture future = this.transactionMap.get(reply.getXid());
+        if (future != null) {
+            flowInstallLatency.record(System.nanoTime() -
+                                      future.getSentNanos());
+            // The future will unregister itself and call cancelTransaction
+            future.deliverFuture(this, reply);
+        }
+    }
+
+    @Override
+    public boolean deliverTransactionError(OFError error) {
+        OFTransactionFuture future = findTransaction(error.getXid());
+        if (future == null)
+            return false;
+        future.deliverError(error);
+        return true;
+    }
+
+    /**
+     * @return the pending transaction the message with the given xid
+     * belongs to or null if it doesn't belong to one
+     */
+    private OFTransactionFuture findTransaction(int xid) {
+        // the transaction with the lowest barrier xid at or above the
+        // message's xid. After the xids wrap that may be the first one.
+        Map.Entry<Integer,OFTransactionFuture> e =
+                this.transactionMap.ceilingEntry(xid);
+        if (e == null)
+            e = this.transactionMap.firstEntry();
+        if (e == null || !e.getValue().contains(xid))
+            return null;
+        return e.getValue();
+    }
+
+    /**
+     * Fail the transaction of a message that was dropped instead of
+     * being sent, if it belongs to one
+     * @param msg the dropped message
+     */
+    protected void failTransaction(OFMessage msg) {
+        OFTransactionFuture future = findTransaction(msg.getXid());
+        if (future != null)
+            future.deliverDrop(msg.getXid());
+    }
+
+    @Override
+    public void cancelTransaction(int transactionId) {
+        this.transactionMap.remove(transactionId);
+    }
+
+    @Override
+    public void cancelAllTransactions() {
+        for (OFTransactionFuture f : transactionMap.values()) {
+            f.cancel(true);
+        }
+        transactionMap.clear();
+    }
+
+    @Override
+    @JsonIgnore
+    public LatencyHistogram getFlowInstallLatency() {
+        return flowInstallLatency;
+    }
+
 
     /**
      * @param floodlightProvider the floodlightProvider to set
@@ -1073,6 +1466,8 @@ public abstract class OFSwitchBase implements IOFSwitch {
     @JsonIgnore
     public void setThreadPoolService(IThreadPoolService tp) {
         this.threadPool = tp;
+        flowModLimiter.setTimer(tp.getTimer());
+        coalescingWriter.setExecutor(tp.getScheduledExecutor());
     }
 
     @Override
@@ -1106,6 +1501,11 @@ public abstract class OFSwitchBase implements IOFSwitch {
         else if (!connected)
             this.connectedSince = null;
         this.connected = connected;
+        if (!connected) {
+            coalescingWriter.clear();
+            flowModLimiter.clear();
+            outboundQueue.clear();
+        }
     }
 
     @Override
@@ -1143,7 +1543,9 @@ public abstract class OFSwitchBase implements IOFSwitch {
         List<OFMessage> msglist = new ArrayList<OFMessage>(2);
         msglist.add(fm);
         msglist.add(barrierMsg);
-        channel.write(msglist);
+        // the limiter drops queued installs this delete would remove and
+        // holds it behind the ones already on their way
+        write(msglist, null);
     }
 
     @Override
@@ -1178,33 +1580,21 @@ public abstract class OFSwitchBase implements IOFSwitch {
 
     @Override
     public void flush() {
-        Map<IOFSwitch,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
-        List<OFMessage> msglist = msg_buffer_map.get(this);
-        if ((msglist != null) && (msglist.size() > 0)) {
-            /* ============================ BIG CAVEAT ===============================
-             * This code currently works, but relies on undocumented behavior of
-             * netty.
-             *
-             * The method org.jboss.netty.channel.Channel.write(Object)
-             * (invoked from this.write(List<OFMessage> msg) is currently
-             * documented to be <emph>asynchronous</emph>. If the method /were/ truely
-             * asynchronous, this would break our code (because we are clearing the
-             * msglist right after calling write.
-             *
-             * For now, Netty actually invokes the conversion pipeline before doing
-             * anything asynchronous, so we are safe. But we should probably change
-             * that behavior.
-             */
-            this.write(msglist);
-            msglist.clear();
-        }
+        coalescingWriter.flush();
     }
 
+    /**
+     * Flush the messages buffered for all switches, e.g., at the end of a
+     * train of messages. Not needed for correctness, buffered messages are
+     * written after a short deadline anyway.
+     */
     public static void flush_all() {
-        Map<IOFSwitch,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
-        for (IOFSwitch sw : msg_buffer_map.keySet()) {
-            sw.flush();
-        }
+        CoalescingWriter.flushPending();
+    }
+
+    @Override
+    public Log2Histogram getWriteBatchSizes() {
+        return coalescingWriter.getBatchSizes();
     }
 
 
@@ -1221,7 +1611,7 @@ public abstract class OFSwitchBase implements IOFSwitch {
     }
 
     @Override
-    public Future<OFFeaturesReply> querySwitchFeaturesReply()
+    public ListenableFuture<OFFeaturesReply> querySwitchFeaturesReply()
             throws IOException {
         OFMessage request =
                 floodlightProvider.getOFMessageFactory().
@@ -1317,20 +1707,23 @@ public abstract class OFSwitchBase implements IOFSwitch {
     /**
      * Determine if this message should be dropped.
      *
-     * We compute the current rate by taking a timestamp every 100 messages.
-     * Could change to a more complex scheme if more accuracy is needed.
+     * The packet in rate is an exponentially weighted moving average,
+     * updated every 100ms.
      *
      * Enable throttling if the rate goes above packetInRateThresholdHigh
      * Disable throttling when the rate drops below packetInRateThresholdLow
      *
      * While throttling is enabled, we do the following:
-     *  - Remove duplicate packetIn's mapped to the same OFMatch
-     *  - After filtering, if packetIn rate per host (mac) is above
+     *  - Remove duplicate packetIn's with the same OFMatch fields
+     *  - After filtering, if the packetIn rate of a host (mac) reaches
      *    packetInRatePerMacThreshold, push a flow mod to block mac on port
-     *  - After filtering, if packetIn rate per port is above
+     *  - After filtering, if the packetIn rate of a port reaches
      *    packetInRatePerPortThreshold, push a flow mod to block port
      *  - Allow blocking flow mods have a hard timeout and expires automatically
      *
+     * Per host and per port rates are counted per second in fixed size
+     * sketches, see {@link HeavyHitterSketch}.
+     *
      * TODO: keep a history of all events related in input throttling
      *
      * @param ofm
@@ -1343,75 +1736,122 @@ public abstract class OFSwitchBase implements IOFSwitch {
         }
         ctrSwitchPktin.updateCounterNoFlush();
         // Compute current packet in rate
-        messageCount++;
-        if (messageCount % 1000 == 0) {
-            long now = System.currentTimeMillis();
-            if (now != lastMessageTime) {
-                currentRate = (int) (1000000 / (now - lastMessageTime));
-                lastMessageTime = now;
-            } else {
-                currentRate = Integer.MAX_VALUE;
+        if (packetInRate.add(System.nanoTime())) {
+            double rate = packetInRate.getRate();
+            currentRate = (int) Math.min(rate, Integer.MAX_VALUE);
+            if (!packetInThrottleEnabled) {
+                if (rate > packetInRateThresholdHigh) {
+                    enablePacketInThrottle();
+                }
+            } else if (rate < packetInRateThresholdLow) {
+                disablePacketInThrottle();
+                return false;
             }
         }
         if (!packetInThrottleEnabled) {
-            if (currentRate <= packetInRateThresholdHigh) {
-                return false; // most common case
-            }
-            enablePacketInThrottle();
-        } else if (currentRate < packetInRateThresholdLow) {
-            disablePacketInThrottle();
-            return false;
+            return false; // most common case
         }
 
         // Now we are in the slow path where we need to do filtering
-        // First filter based on OFMatch
+        // First filter based on the OFMatch fields
         OFPacketIn pin = (OFPacketIn)ofm;
-        OFMatch match = new OFMatch();
-        match.loadFromPacket(pin.getPacketData(), pin.getInPort());
-        if (ofMatchCache.update(match)) {
-           ctrSwitchPktinDrops.updateCounterNoFlush();
+        PacketHeaderView view = PacketHeaderView.getThreadView();
+        boolean valid = view.reset(pin.getPacketData());
+        long now = System.currentTimeMillis();
+        if (flowCache.update(flowFingerprint(view, valid, pin.getInPort()),
+                             now)) {
+            ctrSwitchPktinDrops.updateCounterNoFlush();
             return true;
         }
 
         // We have packet in with a distinct flow, check per mac rate
-        messageCountUniqueOFMatch++;
-        if ((messageCountUniqueOFMatch % packetInRatePerMacThreshold) == 1) {
-            checkPerSourceMacRate(pin);
+        if (valid) {
+            checkPerSourceMacRate(pin, view, now);
         }
 
         // Check per port rate
-        if ((messageCountUniqueOFMatch % packetInRatePerPortThreshold) == 1) {
-            checkPerPortRate(pin);
-        }
+        checkPerPortRate(pin, now);
         return false;
     }
 
+    /**
+     * Hash the fields OFMatch.loadFromPacket() would extract
+     */
+    private static long flowFingerprint(PacketHeaderView view, boolean valid,
+                                        int inPort) {
+        long h = mixFingerprint(0, inPort);
+        if (!valid)
+            return h;
+        h = mixFingerprint(h, view.getSourceMAC());
+        h = mixFingerprint(h, view.getDestinationMAC());
+        h = mixFingerprint(h, ((long)view.getVlanID() << 24) |
+                              ((view.getPriorityCode() & 0xffL) << 16) |
+                              (view.getEtherType() & 0xffffL));
+        if (view.isIPv4()) {
+            h = mixFingerprint(h, ((view.getIPv4Source() & 0xffffffffL) << 32) |
+                                  (view.getIPv4Destination() & 0xffffffffL));
+            long l4 = ((view.getIPProtocol() & 0xffL) << 8) |
+                      (view.getIPv4DiffServ() & 0xffL);
+            if (view.hasTransportPorts()) {
+                l4 |= ((view.getTransportSource() & 0xffffL) << 32) |
+                      ((view.getTransportDestination() & 0xffffL) << 16);
+            }
+            h = mixFingerprint(h, l4);
+        } else if (view.isARP()) {
+            h = mixFingerprint(h,
+                    ((view.getARPSenderProtocolAddress() & 0xffffffffL) << 32) |
+                    (view.getARPTargetProtocolAddress() & 0xffffffffL));
+            h = mixFingerprint(h, view.getARPOpCode());
+        }
+        return h;
+    }
+
+    private static long mixFingerprint(long h, long v) {
+        h = (h ^ v) * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+
     /**
      * We rely on the fact that packet in processing is single threaded
      * per packet-in, so no locking is necessary.
      */
     private void disablePacketInThrottle() {
-        ofMatchCache = null;
-        macCache = null;
-        macBlockedCache = null;
-        portCache = null;
-        portBlockedCache = null;
         packetInThrottleEnabled = false;
         floodlightProvider.addSwitchEvent(this.datapathId,
                 "SWITCH_OVERLOAD_THROTTLE_DISABLED ==>" +
                 "Pktin rate " + currentRate + "/s", false);
         log.info("Packet in rate is {}, disable throttling on {}",
                 currentRate, this);
+        if (log.isDebugEnabled()) {
+            log.debug("Top packet in sources on {} before throttling was " +
+                      "disabled: macs {}, ports {}",
+                      new Object[] { this, topKeys(macSketch, true),
+                                     topKeys(portSketch, false) });
+        }
+    }
+
+    private static String topKeys(HeavyHitterSketch sketch, boolean mac) {
+        long[] keys = new long[8];
+        int[] counts = new int[8];
+        int n = sketch.getTopKeys(keys, counts);
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(mac ? MACAddress.valueOf(keys[i]).toString()
+                          : String.valueOf(keys[i]));
+            sb.append('=').append(counts[i]);
+        }
+        return sb.append(']').toString();
     }
 
     private void enablePacketInThrottle() {
-        ofMatchCache = new TimedCache<OFMatch>(2048, 5000); // 5 second interval
-        macCache = new TimedCache<Long>(64, 1000 );  // remember last second
-        macBlockedCache = new TimedCache<Long>(256, 5000 );  // 5 second interval
-        portCache = new TimedCache<Integer>(16, 1000 );  // rememeber last second
-        portBlockedCache = new TimedCache<Integer>(64, 5000 );  // 5 second interval
+        flowCache.clear();
+        macSketch.clear();
+        portSketch.clear();
+        macBlockedCache.clear();
+        portBlockedCache.clear();
         packetInThrottleEnabled = true;
-        messageCountUniqueOFMatch = 0;
         floodlightProvider.addSwitchEvent(this.datapathId,
                 "SWITCH_OVERLOAD_THROTTLE_ENABLED ==>" +
                 "Pktin rate " + currentRate + "/s", false);
@@ -1452,44 +1892,100 @@ public abstract class OFSwitchBase implements IOFSwitch {
                                    "Switch write throttle drop count",
                                    CounterType.ALWAYS_COUNT,
                                    IDebugCounterService.CTR_MDATA_WARN);
+        ctrFlowModQueued = debugCounters.registerCounter(
+                                   PACKAGE, stringId + "/write/flowmod-queued",
+                                   "Flow-mods queued by the rate limiter. " +
+                                   "The queue depth is queued - released",
+                                   CounterType.ALWAYS_COUNT);
+        ctrFlowModReleased = debugCounters.registerCounter(
+                                   PACKAGE, stringId + "/write/flowmod-released",
+                                   "Queued flow-mods sent by the rate limiter",
+                                   CounterType.ALWAYS_COUNT);
+        ctrFlowModCoalesced = debugCounters.registerCounter(
+                                   PACKAGE, stringId + "/write/flowmod-coalesced",
+                                   "Queued flow-mods replaced by a later one " +
+                                   "for the same flow",
+                                   CounterType.ALWAYS_COUNT);
+        ctrFlowModDrops = debugCounters.registerCounter(
+                                   PACKAGE, stringId + "/write/flowmod-drops",
+                                   "Flow-mods dropped because the rate " +
+                                   "limiter queue was full",
+                                   CounterType.ALWAYS_COUNT,
+                                   IDebugCounterService.CTR_MDATA_WARN);
+        flowModLimiter.setCounters(ctrFlowModQueued, ctrFlowModReleased,
+                                   ctrFlowModCoalesced, ctrFlowModDrops);
+        ctrWriteCongested = debugCounters.registerCounter(
+                                   PACKAGE, stringId + "/write/congested",
+                                   "Times the bytes buffered for this switch " +
+                                   "exceeded the high water mark",
+                                   CounterType.ALWAYS_COUNT);
+        ctrWriteCoalesced = debugCounters.registerCounter(
+                                   PACKAGE, stringId + "/write/queue-coalesced",
+                                   "Flow-mods replaced in the outbound queue " +
+                                   "by a later one for the same flow",
+                                   CounterType.ALWAYS_COUNT);
+        ctrWriteOverflowDrops = debugCounters.registerCounter(
+                                   PACKAGE, stringId + "/write/queue-drops",
+                                   "Messages dropped because the outbound " +
+                                   "queue was full",
+                                   CounterType.ALWAYS_COUNT,
+                                   IDebugCounterService.CTR_MDATA_WARN);
+        outboundQueue.setCounters(ctrWriteCongested, ctrWriteCoalesced,
+                                  ctrWriteOverflowDrops);
+        for (CoalescingWriter.FlushReason r :
+                CoalescingWriter.FlushReason.values()) {
+            ctrWriteFlushReasons[r.ordinal()] = debugCounters.registerCounter(
+                                   PACKAGE, stringId + "/write/flush-" +
+                                   r.name().toLowerCase(),
+                                   "Batches written to this switch because " +
+                                   "of " + r.name(),
+                                   CounterType.ALWAYS_COUNT);
+        }
+        coalescingWriter.setCounters(ctrWriteFlushReasons);
     }
 
     /**
-     * Check if we have sampled this mac in the last second.
-     * Since we check every packetInRatePerMacThreshold packets,
-     * the presence of the mac in the macCache means the rate is
-     * above the threshold in a statistical sense.
+     * Block a host whose distinct packet ins in the last second reached
+     * packetInRatePerMacThreshold. The sketch estimate is only a
+     * pre-filter: under a flood of spoofed source MACs every MAC's
+     * estimate crosses the threshold, so a host is blocked only when its
+     * exact count in the sketch's top table reaches it too.
      *
      * Take care not to block topology probing packets. Also don't
      * push blocking flow mod if we have already done so within the
      * last 5 seconds.
      *
      * @param pin
-     * @return
+     * @param view the headers of pin
+     * @param now
      */
-    private void checkPerSourceMacRate(OFPacketIn pin) {
-        byte[] data = pin.getPacketData();
-        byte[] mac = Arrays.copyOfRange(data, 6, 12);
-        MACAddress srcMac = MACAddress.valueOf(mac);
-        short ethType = (short) (((data[12] & 0xff) << 8) + (data[13] & 0xff));
-        if (ethType != Ethernet.TYPE_LLDP && ethType != Ethernet.TYPE_BSN &&
-                macCache.update(srcMac.toLong())) {
-            // Check if we already pushed a flow in the last 5 seconds
-            if (macBlockedCache.update(srcMac.toLong())) {
-                return;
-            }
-            // write out drop flow per srcMac
-            int port = pin.getInPort();
-            SwitchPort swPort = new SwitchPort(getId(), port);
-            ForwardingBase.blockHost(floodlightProvider,
-                    swPort, srcMac.toLong(), (short) 5,
-                    AppCookie.makeCookie(OFSWITCH_APP_ID, 0));
-            floodlightProvider.addSwitchEvent(this.datapathId,
-                    "SWITCH_PORT_BLOCKED_TEMPORARILY " +
-                    "OFPort " + port + " mac " + srcMac, false);
-            log.info("Excessive packet in from {} on {}, block host for 5 sec",
-                    srcMac.toString(), swPort);
+    private void checkPerSourceMacRate(OFPacketIn pin, PacketHeaderView view,
+                                       long now) {
+        short ethType = view.getEtherType();
+        if (ethType == Ethernet.TYPE_LLDP || ethType == Ethernet.TYPE_BSN) {
+            return;
+        }
+        long srcMac = view.getSourceMAC();
+        if (macSketch.add(srcMac, now) < packetInRatePerMacThreshold ||
+                macSketch.getExactCount(srcMac) < packetInRatePerMacThreshold) {
+            return;
         }
+        // Check if we already pushed a flow in the last 5 seconds
+        if (macBlockedCache.update(srcMac, now)) {
+            return;
+        }
+        // write out drop flow per srcMac
+        int port = pin.getInPort();
+        SwitchPort swPort = new SwitchPort(getId(), port);
+        ForwardingBase.blockHost(floodlightProvider,
+                swPort, srcMac, (short) 5,
+                AppCookie.makeCookie(OFSWITCH_APP_ID, 0));
+        String mac = MACAddress.valueOf(srcMac).toString();
+        floodlightProvider.addSwitchEvent(this.datapathId,
+                "SWITCH_PORT_BLOCKED_TEMPORARILY " +
+                "OFPort " + port + " mac " + mac, false);
+        log.info("Excessive packet in from {} on {}, block host for 5 sec",
+                mac, swPort);
     }
 
     /**
@@ -1498,26 +1994,28 @@ public abstract class OFSwitchBase implements IOFSwitch {
      * TODO Don't block ports with links?
      *
      * @param pin
-     * @return
+     * @param now
      */
-    private void checkPerPortRate(OFPacketIn pin) {
-        Integer port = pin.getInPort();
-        if (portCache.update(port)) {
-            // Check if we already pushed a flow in the last 5 seconds
-            if (portBlockedCache.update(port)) {
-                return;
-            }
-            // write out drop flow per port
-            SwitchPort swPort = new SwitchPort(getId(), port);
-            ForwardingBase.blockHost(floodlightProvider,
-                    swPort, -1L, (short) 5,
-                    AppCookie.makeCookie(OFSWITCH_APP_ID, 1));
-            floodlightProvider.addSwitchEvent(this.datapathId,
-                    "SWITCH_PORT_BLOCKED_TEMPORARILY " +
-                    "OFPort " + port, false);
-            log.info("Excessive packet in from {}, block port for 5 sec",
-                    swPort);
+    private void checkPerPortRate(OFPacketIn pin, long now) {
+        int port = pin.getInPort();
+        if (portSketch.add(port, now) < packetInRatePerPortThreshold ||
+                portSketch.getExactCount(port) < packetInRatePerPortThreshold) {
+            return;
+        }
+        // Check if we already pushed a flow in the last 5 seconds
+        if (portBlockedCache.update(port, now)) {
+            return;
         }
+        // write out drop flow per port
+        SwitchPort swPort = new SwitchPort(getId(), port);
+        ForwardingBase.blockHost(floodlightProvider,
+                swPort, -1L, (short) 5,
+                AppCookie.makeCookie(OFSWITCH_APP_ID, 1));
+        floodlightProvider.addSwitchEvent(this.datapathId,
+                "SWITCH_PORT_BLOCKED_TEMPORARILY " +
+                "OFPort " + port, false);
+        log.info("Excessive packet in from {}, block port for 5 sec",
+                swPort);
     }
 
     @Override
@@ -1529,11 +2027,16 @@ public abstract class OFSwitchBase implements IOFSwitch {
                 "traffic pattern",
                 recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     public void setTableFull(boolean isFull) {
-        if (isFull && !flowTableFull) {
-            floodlightProvider.addSwitchEvent(this.datapathId,
-                    "SWITCH_FLOW_TABLE_FULL " +
-                    "Table full error from switch", false);
-            log.warn("Switch {} flow table is full", stringId);
+        if (isFull) {
+            // until the next TABLE statistics reply
+            flowTableOccupancy.tablesFull();
+            scheduleTableFullRecheck();
+            if (!flowTableFull) {
+                floodlightProvider.addSwitchEvent(this.datapathId,
+                        "SWITCH_FLOW_TABLE_FULL " +
+                        "Table full error from switch", false);
+                log.warn("Switch {} flow table is full", stringId);
+            }
         }
         flowTableFull = isFull;
     }
@@ -0,0 +1,134 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.core.IOFSwitch.PortChangeType;
+
+import org.openflow.util.HexString;
+
+/**
+ * The net effect of a batch of switch lifecycle notifications for a
+ * single switch, as handed to {@link IOFSwitchBatchListener}.
+ *
+ * A listener that wants to replay the batch in the order of the
+ * individual notifications applies, in this order: the removal, the add,
+ * the activation, the port changes and finally the other change.
+ * A removal that happened after an add or activation in the same batch
+ * cancels them, so if both isRemoved() and isAdded() are true the switch
+ * was removed and then added again.
+ */
+public class SwitchChange {
+    /**
+     * A change of a single port
+     */
+    public static class PortChange {
+        private final ImmutablePort port;
+        private final PortChangeType type;
+
+        public PortChange(ImmutablePort port, PortChangeType type) {
+            this.port = port;
+            this.type = type;
+        }
+
+        public ImmutablePort getPort() {
+            return port;
+        }
+
+        public PortChangeType getType() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            return port.getPortNumber() + ":" + type;
+        }
+    }
+
+    private final long switchId;
+    private final boolean removed;
+    private final boolean added;
+    private final boolean activated;
+    private final boolean changed;
+    private final List<PortChange> portChanges;
+
+    /**
+     * @param portChanges the latest change of every port that changed,
+     * ordered by the first change of each port. A port that went down or
+     * was deleted and then changed again has its latest down or delete
+     * followed by its latest change.
+     */
+    public SwitchChange(long switchId, boolean removed, boolean added,
+                        boolean activated, boolean changed,
+                        List<PortChange> portChanges) {
+        this.switchId = switchId;
+        this.removed = removed;
+        this.added = added;
+        this.activated = activated;
+        this.changed = changed;
+        this.portChanges = (portChanges == null)
+                ? Collections.<PortChange>emptyList()
+                : Collections.unmodifiableList(portChanges);
+    }
+
+    public long getSwitchId() {
+        return switchId;
+    }
+
+    /**
+     * @return true if the switch was removed
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if the switch was added (after the removal, if any)
+     */
+    public boolean isAdded() {
+        return added;
+    }
+
+    /**
+     * @return true if the switch was activated (after the removal, if any)
+     */
+    public boolean isActivated() {
+        return activated;
+    }
+
+    /**
+     * @return true if non-port related information of the switch changed
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * @return the port changes since the removal, if any. Never null.
+     */
+    public List<PortChange> getPortChanges() {
+        return portChanges;
+    }
+
+    @Override
+    public String toString() {
+        return "SwitchChange [switchId=" + HexString.toHexString(switchId)
+                + ", removed=" + removed + ", added=" + added
+                + ", activated=" + activated + ", changed=" + changed
+                + ", portChanges=" + portChanges + "]";
+    }
+}
@@ -0,0 +1,256 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.util.Log2Histogram;
+
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+/**
+ * Batches the messages written to a switch by any thread so a burst of
+ * them becomes a single write to the channel.
+ *
+ * The first message after the writer was idle for a deadline is written
+ * right away. Later messages are buffered until one of them is neither a
+ * FLOW_MOD nor a PACKET_OUT, the batch reaches maxBatch messages or
+ * maxBatchBytes, flush() is called, or the deadline since the first
+ * buffered message expires. The deadline is short (microseconds), so
+ * messages written outside of a message train are never stranded.
+ *
+ * Messages are sent while holding the lock, so they leave in the order
+ * they were written.
+ */
+public class CoalescingWriter {
+    /**
+     * Where batches go
+     */
+    public interface Sink {
+        void send(List<OFMessage> msglist);
+    }
+
+    /**
+     * Why a batch was written
+     */
+    public enum FlushReason {
+        /** the writer was idle, the message was written right away */
+        IDLE,
+        /** the batch reached the maximum size */
+        SIZE,
+        /** the deadline of the first buffered message expired */
+        DEADLINE,
+        /** a message that shouldn't wait was written */
+        URGENT,
+        /** flush() was called or a list of messages was written */
+        EXPLICIT
+    }
+
+    // writers with buffered messages, for flushPending()
+    private static final ConcurrentLinkedQueue<CoalescingWriter> pending =
+            new ConcurrentLinkedQueue<CoalescingWriter>();
+
+    private final Sink sink;
+    private final int maxBatch;
+    private final int maxBatchBytes;
+    private final long deadlineNanos;
+    private ScheduledExecutorService executor;
+
+    private List<OFMessage> buffer = new ArrayList<OFMessage>();
+    private int bufferBytes;
+    private long lastFlush;
+    private boolean listed;
+    private ScheduledFuture<?> deadlineFuture;
+
+    private final Log2Histogram batchSizes = new Log2Histogram();
+    private final IDebugCounter[] ctrReasons =
+            new IDebugCounter[FlushReason.values().length];
+
+    private final Runnable deadlineTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (CoalescingWriter.this) {
+                deadlineFuture = null;
+                flush(FlushReason.DEADLINE, System.nanoTime());
+            }
+        }
+    };
+
+    /**
+     * @param sink where batches go
+     * @param maxBatch the maximum number of messages in a batch
+     * @param maxBatchBytes the maximum size of a batch
+     * @param deadlineUs how long a message can be buffered in microseconds
+     */
+    public CoalescingWriter(Sink sink, int maxBatch, int maxBatchBytes,
+                            long deadlineUs) {
+        this.sink = sink;
+        this.maxBatch = maxBatch;
+        this.maxBatchBytes = maxBatchBytes;
+        this.deadlineNanos = TimeUnit.MICROSECONDS.toNanos(deadlineUs);
+        this.lastFlush = System.nanoTime() - deadlineNanos;
+    }
+
+    /**
+     * Set the executor for the deadlines. Without one nothing is
+     * buffered.
+     */
+    public synchronized void setExecutor(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Set the counters for the flush reasons
+     * @param counters indexed by FlushReason.ordinal()
+     */
+    public synchronized void setCounters(IDebugCounter[] counters) {
+        System.arraycopy(counters, 0, ctrReasons, 0, ctrReasons.length);
+    }
+
+    /**
+     * @return the number of messages in the batches written
+     */
+    public Log2Histogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    private static boolean canWait(OFMessage m) {
+        return m.getType() == OFType.FLOW_MOD ||
+               m.getType() == OFType.PACKET_OUT;
+    }
+
+    private static int length(OFMessage m) {
+        m.computeLength();
+        return m.getLengthU();
+    }
+
+    /**
+     * Write a message, possibly batched with later ones
+     * @param m the message
+     * @param now System.nanoTime()
+     */
+    public synchronized void write(OFMessage m, long now) {
+        if (buffer.isEmpty()) {
+            if (executor == null || !canWait(m) ||
+                    now - lastFlush >= deadlineNanos) {
+                List<OFMessage> single = new ArrayList<OFMessage>(1);
+                single.add(m);
+                send(single, canWait(m) ? FlushReason.IDLE :
+                                          FlushReason.URGENT, now);
+                return;
+            }
+        }
+        buffer.add(m);
+        bufferBytes += length(m);
+        if (!canWait(m)) {
+            flush(FlushReason.URGENT, now);
+        } else if (buffer.size() >= maxBatch || bufferBytes >= maxBatchBytes) {
+            flush(FlushReason.SIZE, now);
+        } else if (deadlineFuture == null) {
+            scheduleDeadline();
+        }
+    }
+
+    /**
+     * Write a list of messages together with the buffered ones
+     * @param msglist the messages
+     * @param now System.nanoTime()
+     */
+    public synchronized void write(List<OFMessage> msglist, long now) {
+        if (buffer.isEmpty()) {
+            send(msglist, FlushReason.EXPLICIT, now);
+            return;
+        }
+        buffer.addAll(msglist);
+        flush(FlushReason.EXPLICIT, now);
+    }
+
+    /**
+     * Write the buffered messages
+     */
+    public synchronized void flush() {
+        flush(FlushReason.EXPLICIT, System.nanoTime());
+    }
+
+    private void flush(FlushReason reason, long now) {
+        if (deadlineFuture != null) {
+            deadlineFuture.cancel(false);
+            deadlineFuture = null;
+        }
+        if (buffer.isEmpty())
+            return;
+        List<OFMessage> batch = buffer;
+        buffer = new ArrayList<OFMessage>();
+        bufferBytes = 0;
+        send(batch, reason, now);
+    }
+
+    private void send(List<OFMessage> batch, FlushReason reason, long now) {
+        lastFlush = now;
+        batchSizes.record(batch.size());
+        IDebugCounter c = ctrReasons[reason.ordinal()];
+        if (c != null)
+            c.updateCounterNoFlush();
+        sink.send(batch);
+    }
+
+    private void scheduleDeadline() {
+        if (!listed) {
+            listed = true;
+            pending.add(this);
+        }
+        try {
+            deadlineFuture = executor.schedule(deadlineTask, deadlineNanos,
+                                               TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            flush(FlushReason.URGENT, System.nanoTime());
+        }
+    }
+
+    /**
+     * Drop the buffered messages, e.g., when the switch disconnects
+     */
+    public synchronized void clear() {
+        if (deadlineFuture != null) {
+            deadlineFuture.cancel(false);
+            deadlineFuture = null;
+        }
+        buffer.clear();
+        bufferBytes = 0;
+    }
+
+    /**
+     * Flush all writers with buffered messages, e.g., at the end of a
+     * train of messages from a switch
+     */
+    public static void flushPending() {
+        CoalescingWriter w;
+        while ((w = pending.poll()) != null) {
+            synchronized (w) {
+                w.listed = false;
+                w.flush();
+            }
+        }
+    }
+}
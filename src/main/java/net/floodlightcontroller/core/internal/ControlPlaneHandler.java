@@ -0,0 +1,164 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.core.internal.Controller.Counters;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.openflow.protocol.OFEchoReply;
+import org.openflow.protocol.OFEchoRequest;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.FloodlightFactory;
+
+/**
+ * Sits between the OpenFlow decoder and the (optional) pipeline executor
+ * and keeps control-plane traffic from queueing behind packet-ins.
+ *
+ * Echo requests are answered right here on the I/O thread, since a late
+ * echo reply is what gets a busy switch disconnected. Every state of
+ * OFChannelHandler answers them the same way, so nothing is lost by not
+ * passing them on. The remaining messages are forwarded as a
+ * {@link ReceivedBatch} that carries the time the batch was received.
+ * OFChannelHandler handles the control-plane messages of a batch before
+ * its packet-ins and counts per {@link MessageClass} how long messages
+ * waited between being received and being handled.
+ */
+public class ControlPlaneHandler extends SimpleChannelUpstreamHandler {
+
+    /**
+     * The classes of messages we keep latency counters for
+     */
+    public enum MessageClass {
+        ECHO("echo"),
+        BARRIER("barrier"),
+        PORT_STATUS("port-status"),
+        PACKET_IN("packet-in"),
+        OTHER("other");
+
+        private final String name;
+
+        private MessageClass(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static MessageClass of(OFType type) {
+            switch (type) {
+                case ECHO_REQUEST:
+                case ECHO_REPLY:
+                    return ECHO;
+                case BARRIER_REPLY:
+                    return BARRIER;
+                case PORT_STATUS:
+                    return PORT_STATUS;
+                case PACKET_IN:
+                    return PACKET_IN;
+                default:
+                    return OTHER;
+            }
+        }
+    }
+
+    /**
+     * A list of decoded messages and the time it was received
+     */
+    public static class ReceivedBatch {
+        private final List<OFMessage> messages;
+        private final long receivedNanos;
+
+        public ReceivedBatch(List<OFMessage> messages, long receivedNanos) {
+            this.messages = messages;
+            this.receivedNanos = receivedNanos;
+        }
+
+        public List<OFMessage> getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return the System.nanoTime() the batch was received at
+         */
+        public long getReceivedNanos() {
+            return receivedNanos;
+        }
+    }
+
+    private final Controller controller;
+
+    public ControlPlaneHandler(Controller controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+            throws Exception {
+        if (!(e.getMessage() instanceof List)) {
+            ctx.sendUpstream(e);
+            return;
+        }
+        long now = System.nanoTime();
+        @SuppressWarnings("unchecked")
+        List<OFMessage> msglist = (List<OFMessage>)e.getMessage();
+
+        // Echo requests are rare, so only copy the list if there is one.
+        // The decoder may hand out the same list for every batch.
+        List<OFMessage> forward = msglist;
+        for (int i = 0; i < msglist.size(); i++) {
+            OFMessage m = msglist.get(i);
+            if (m.getType() == OFType.ECHO_REQUEST) {
+                if (forward == msglist)
+                    forward = new ArrayList<OFMessage>(msglist.subList(0, i));
+                replyToEcho(ctx.getChannel(), (OFEchoRequest)m, now);
+            } else if (forward != msglist) {
+                forward.add(m);
+            }
+        }
+        if (forward.isEmpty())
+            return;
+        ctx.sendUpstream(new UpstreamMessageEvent(e.getChannel(),
+                new ReceivedBatch(forward, now), e.getRemoteAddress()));
+    }
+
+    private void replyToEcho(Channel channel, OFEchoRequest m,
+                             long receivedNanos) {
+        OFEchoReply reply = (OFEchoReply)
+                FloodlightFactory.getInstance().getMessage(OFType.ECHO_REPLY);
+        reply.setXid(m.getXid());
+        reply.setPayload(m.getPayload());
+        reply.setLengthU(m.getLengthU());
+        channel.write(Collections.singletonList(reply));
+
+        // Nothing else flushes the debug counters of the I/O thread when
+        // the handlers run on the pipeline executor
+        Counters counters = controller.getCounters();
+        counters.messageReceived.updateCounterWithFlush();
+        int c = MessageClass.ECHO.ordinal();
+        counters.messageClassHandled[c].updateCounterWithFlush();
+        counters.messageClassLatencyUs[c].updateCounterWithFlush(
+                (int)((System.nanoTime() - receivedNanos) / 1000));
+    }
+}
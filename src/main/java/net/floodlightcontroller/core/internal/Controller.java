@@ -45,6 +45,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.HAListenerTypeMarker;
@@ -56,15 +58,19 @@ import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitch.PortChangeEvent;
 import net.floodlightcontroller.core.IOFSwitch.PortChangeType;
+import net.floodlightcontroller.core.IOFSwitchBackpressureListener;
+import net.floodlightcontroller.core.IOFSwitchBatchListener;
 import net.floodlightcontroller.core.IOFSwitchDriver;
 import net.floodlightcontroller.core.IOFSwitchListener;
 import net.floodlightcontroller.core.IReadyForReconcileListener;
 import net.floodlightcontroller.core.ImmutablePort;
 import net.floodlightcontroller.core.OFSwitchBase;
 import net.floodlightcontroller.core.RoleInfo;
+import net.floodlightcontroller.core.SwitchChange;
 import net.floodlightcontroller.core.SwitchSyncRepresentation;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
+import net.floodlightcontroller.core.internal.ControlPlaneHandler.MessageClass;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.util.ListenerDispatcher;
 import net.floodlightcontroller.core.web.CoreWebRoutable;
@@ -83,6 +89,7 @@ import net.floodlightcontroller.debugevent.IDebugEventService.MaxEventsRegistere
 import net.floodlightcontroller.notification.INotificationManager;
 import net.floodlightcontroller.notification.NotificationManagerFactory;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.LazyEthernet;
 import net.floodlightcontroller.perfmon.IPktInProcessingTimeService;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.storage.IResultSet;
@@ -148,10 +155,18 @@ public class Controller implements IFloodlightProviderService,
     protected HashMap<String, String> controllerNodeIPsCache;
 
     protected Set<IOFSwitchListener> switchListeners;
+    protected Set<IOFSwitchBackpressureListener> backpressureListeners;
     protected ListenerDispatcher<HAListenerTypeMarker,IHAListener> haListeners;
     protected Set<IReadyForReconcileListener> readyForReconcileListeners;
     protected Map<String, List<IInfoProvider>> providerMap;
     protected BlockingQueue<IUpdate> updates;
+    // at most this many updates are taken off the queue at once
+    static final int MAX_UPDATE_BATCH = 1024;
+    private final SwitchUpdateBatch switchUpdateBatch =
+            new SwitchUpdateBatch();
+    // written by the update thread only
+    private volatile long lastUpdateLagNanos;
+    private volatile long maxUpdateLagNanos;
 
     // Module dependencies
     private IRestApiService restApi;
@@ -169,6 +184,29 @@ public class Controller implements IFloodlightProviderService,
     protected String openFlowHost = null;
     protected int openFlowPort = 6633;
     protected int workerThreads = 0;
+    // Parse OpenFlow frames in place from the netty buffers
+    protected boolean zeroCopyDecode = false;
+    // Encode writes into pooled per-channel direct buffers
+    protected boolean pooledEncodeBuffers = true;
+    protected final EncodeBufferPool.Stats encodeBufferStats =
+            new EncodeBufferPool.Stats();
+    // Threads that run the channel handlers; 0 runs them on the I/O threads
+    protected int pipelineThreads = 0;
+    protected long pipelineChannelMemory =
+            PipelineExecutor.DEFAULT_MAX_CHANNEL_MEMORY;
+    protected long pipelineTotalMemory =
+            PipelineExecutor.DEFAULT_MAX_TOTAL_MEMORY;
+    protected volatile PipelineExecutor pipelineExecutor = null;
+    // Fair per-switch packet-in admission based on queue delay. Needs
+    // pipeline threads: on the I/O threads packet-ins never queue.
+    protected boolean packetInScheduling = true;
+    protected long packetInTargetDelayMs =
+            PacketInScheduler.DEFAULT_TARGET_DELAY_MS;
+    protected PacketInScheduler packetInScheduler = null;
+    // Limit on concurrent switch handshakes during reconnect storms
+    protected int maxConcurrentHandshakes =
+            HandshakeAdmission.DEFAULT_MAX_IN_FLIGHT;
+    protected HandshakeAdmission handshakeAdmission = null;
 
 
     // This controller's current role that modules can use/query to decide
@@ -227,6 +265,8 @@ public class Controller implements IFloodlightProviderService,
     // Perf. related configuration
     protected static final int SEND_BUFFER_SIZE = 128 * 1024;
     public static final int BATCH_MAX_SIZE = 100;
+    // Switch events of different switches are handled concurrently
+    private static final int SWITCH_LOCK_STRIPES = 64;
     protected static final boolean ALWAYS_DECODE_ETH = true;
 
     // Set of port name prefixes that will be classified as uplink ports,
@@ -307,11 +347,19 @@ public class Controller implements IFloodlightProviderService,
         public IDebugCounter switchesNotReconnectingToNewMaster;
         public IDebugCounter switchPortChanged;
         public IDebugCounter switchOtherChange;
+        public IDebugCounter updateDispatched;
+        public IDebugCounter updateDispatchLagUs;
+        public IDebugCounter updateCoalesced;
         public IDebugCounter dispatchMessageWhileSlave;
         public IDebugCounter dispatchMessage;  // does this cnt make sense? more specific?? per type? count stops?
         public IDebugCounter controllerNodeIpsChanged;
         public IDebugCounter messageReceived;
         public IDebugCounter messageInputThrottled;
+        public IDebugCounter pipelineEventRun;
+        public IDebugCounter pipelineQueueDelayUs;
+        // indexed by ControlPlaneHandler.MessageClass ordinal
+        public IDebugCounter[] messageClassHandled;
+        public IDebugCounter[] messageClassLatencyUs;
         public IDebugCounter switchDisconnectReadTimeout;
         public IDebugCounter switchDisconnectHandshakeTimeout;
         public IDebugCounter switchDisconnectIOError;
@@ -544,6 +592,27 @@ public class Controller implements IFloodlightProviderService,
                             "Number of times other information of a switch " +
                             "has changed.",
                             CounterType.ALWAYS_COUNT);
+            updateDispatched =
+                debugCounters.registerCounter(
+                            prefix, "update-dispatched",
+                            "Number of internal updates (switch, role and " +
+                            "reconcile notifications) taken off the update " +
+                            "queue",
+                            CounterType.ALWAYS_COUNT);
+            updateDispatchLagUs =
+                debugCounters.registerCounter(
+                            prefix, "update-dispatch-lag-us",
+                            "Total time in microseconds updates waited in " +
+                            "the update queue before they were dispatched. " +
+                            "Divide by update-dispatched for the mean lag",
+                            CounterType.ALWAYS_COUNT);
+            updateCoalesced =
+                debugCounters.registerCounter(
+                            prefix, "update-coalesced",
+                            "Number of switch updates not dispatched " +
+                            "because they repeated the previous update of " +
+                            "the same switch",
+                            CounterType.ALWAYS_COUNT);
 
             dispatchMessageWhileSlave =
                 debugCounters.registerCounter(
@@ -582,6 +651,39 @@ public class Controller implements IFloodlightProviderService,
                             "throttled due to high load from the sender",
                             CounterType.ALWAYS_COUNT,
                             IDebugCounterService.CTR_MDATA_WARN);
+            pipelineEventRun =
+                debugCounters.registerCounter(
+                            prefix, "pipeline-event-run",
+                            "Number of channel events handed from the I/O " +
+                            "threads to the pipeline worker pool",
+                            CounterType.ALWAYS_COUNT);
+            pipelineQueueDelayUs =
+                debugCounters.registerCounter(
+                            prefix, "pipeline-queue-delay-us",
+                            "Total time in microseconds events waited in " +
+                            "the pipeline worker pool before they were " +
+                            "handled. Divide by pipeline-event-run for the " +
+                            "mean delay",
+                            CounterType.ALWAYS_COUNT);
+            MessageClass[] classes = MessageClass.values();
+            messageClassHandled = new IDebugCounter[classes.length];
+            messageClassLatencyUs = new IDebugCounter[classes.length];
+            for (MessageClass c: classes) {
+                messageClassHandled[c.ordinal()] =
+                    debugCounters.registerCounter(
+                            prefix, "handled-" + c.getName(),
+                            "Number of " + c.getName() + " messages " +
+                            "handled by the switch channel handlers",
+                            CounterType.ALWAYS_COUNT);
+                messageClassLatencyUs[c.ordinal()] =
+                    debugCounters.registerCounter(
+                            prefix, "latency-" + c.getName() + "-us",
+                            "Total time in microseconds " + c.getName() +
+                            " messages waited between being received and " +
+                            "being handled. Divide by handled-" +
+                            c.getName() + " for the mean latency",
+                            CounterType.ALWAYS_COUNT);
+            }
         // TODO: more counters in messageReceived ??
 
             switchDisconnectReadTimeout =
@@ -904,16 +1006,39 @@ public class Controller implements IFloodlightProviderService,
      *
      */
     private class SwitchManager implements IStoreListener<Long> {
-        private Role role;
+        private volatile Role role;
         private final ConcurrentHashMap<Long,IOFSwitch> activeSwitches;
         private final ConcurrentHashMap<Long,IOFSwitch> syncedSwitches;
+        // Events of different switches are handled in parallel: they hold
+        // the read lock and the lock of the switch's stripe. Role changes
+        // and store consolidation hold the write lock.
+        private final ReentrantReadWriteLock roleLock;
+        private final ReentrantLock[] switchLocks;
 
         public SwitchManager(Role role) {
             this.role = role;
             this.activeSwitches = new ConcurrentHashMap<Long, IOFSwitch>();
             this.syncedSwitches = new ConcurrentHashMap<Long, IOFSwitch>();
+            this.roleLock = new ReentrantReadWriteLock();
+            this.switchLocks = new ReentrantLock[SWITCH_LOCK_STRIPES];
+            for (int i = 0; i < switchLocks.length; i++)
+                switchLocks[i] = new ReentrantLock();
        }
 
+        private ReentrantLock lockSwitch(long dpid) {
+            roleLock.readLock().lock();
+            int h = (int)(dpid ^ (dpid >>> 32));
+            h ^= h >>> 16;
+            ReentrantLock l = switchLocks[h & (switchLocks.length - 1)];
+            l.lock();
+            return l;
+        }
+
+        private void unlockSwitch(ReentrantLock l) {
+            l.unlock();
+            roleLock.readLock().unlock();
+        }
+
         @Override
         public void keysModified(Iterator<Long> keys, UpdateType type) {
             if (type == UpdateType.LOCAL) {
@@ -959,7 +1084,16 @@ public class Controller implements IFloodlightProviderService,
         }
 
 
-        public synchronized void setRole(Role role) {
+        public void setRole(Role role) {
+            roleLock.writeLock().lock();
+            try {
+                setRoleLocked(role);
+            } finally {
+                roleLock.writeLock().unlock();
+            }
+        }
+
+        private void setRoleLocked(Role role) {
             this.role = role;
             Runnable consolidateStoreTask = new Runnable() {
                 @Override
@@ -1002,99 +1136,112 @@ public class Controller implements IFloodlightProviderService,
          * role relative to this controller.
          * @param sw
          */
-        public synchronized void switchActivated(IOFSwitch sw) {
-            if (role != Role.MASTER) {
-                counters.invalidSwitchActivatedWhileSlave.updateCounterWithFlush();
-                return; // only react to switch connections when master
-                // FIXME: should we disconnect the switch? When can this happen?
-            }
-            Long dpid = sw.getId();
-            counters.switchActivated.updateCounterWithFlush();
-            IOFSwitch oldSw = this.activeSwitches.put(dpid, sw);
-            // Update event history
-            evSwitch.updateEventWithFlush(new SwitchEvent(dpid, "connected"));
-
-            if (oldSw == sw)  {
-                // Note == for object equality, not .equals for value
-                // TODO: should we wipe the flow table if
-                // alwaysClearFlowsOnSwAdd is set? OTOH this case should
-                // really never happen.
-                counters.errorSameSwitchReactivated.updateCounterWithFlush();
-                log.error("Switch {} activated but was already active", sw);
-                addSwitchToStore(sw);
-                return;
-            }
-
-            if (oldSw != null) {
-                // This happens either when we have switches with duplicate
-                // DPIDs or when a switch reconnects before we saw the
-                // disconnect
-                counters.switchWithSameDpidActivated.updateCounterWithFlush();
-                log.warn("New switch added {} for already-added switch {}",
-                          sw, oldSw);
-                // We need to disconnect and remove the old switch
-                // TODO: we notify switch listeners that the switch has been
-                // removed and then we notify them that the new one has been
-                // added. One could argue that a switchChanged notification
-                // might be more appropriate in this case....
-                oldSw.cancelAllStatisticsReplies();
-                addUpdateToQueue(new SwitchUpdate(dpid,
-                                                  SwitchUpdateType.REMOVED));
-                oldSw.disconnectOutputStream();
-                // Add the new switch and clear FlowMods
-                // TODO: if this is the same switch re-connecting rather than
-                // a DPID collision it would make sense to not wipe the flow
-                // table.
-                sw.clearAllFlowMods();
-                addUpdateToQueue(new SwitchUpdate(dpid,
-                                                  SwitchUpdateType.ADDED));
-                addUpdateToQueue(new SwitchUpdate(dpid,
-                                                  SwitchUpdateType.ACTIVATED));
-                addSwitchToStore(sw);
-                return;
-            }
+        public void switchActivated(IOFSwitch sw) {
+            ReentrantLock l = lockSwitch(sw.getId());
+            try {
+                if (role != Role.MASTER) {
+                    counters.invalidSwitchActivatedWhileSlave.updateCounterWithFlush();
+                    return; // only react to switch connections when master
+                    // FIXME: should we disconnect the switch? When can this happen?
+                }
+                Long dpid = sw.getId();
+                counters.switchActivated.updateCounterWithFlush();
+                IOFSwitch oldSw = this.activeSwitches.put(dpid, sw);
+                // Update event history
+                evSwitch.updateEventWithFlush(new SwitchEvent(dpid, "connected"));
+
+                if (oldSw == sw)  {
+                    // Note == for object equality, not .equals for value
+                    // TODO: should we wipe the flow table if
+                    // alwaysClearFlowsOnSwAdd is set? OTOH this case should
+                    // really never happen.
+                    counters.errorSameSwitchReactivated.updateCounterWithFlush();
+                    log.error("Switch {} activated but was already active", sw);
+                    addSwitchToStore(sw);
+                    return;
+                }
 
-            IOFSwitch storedSwitch = this.syncedSwitches.remove(sw.getId());
-            if (storedSwitch == null) {
-                // The switch isn't known to the controller cluster. We
-                // need to send a switchAdded notification and clear all
-                // flows.
-                if (!swConnectCache.update(sw.getId()))
-                    sw.clearAllFlowMods();
-                addUpdateToQueue(new SwitchUpdate(dpid,
-                                                  SwitchUpdateType.ADDED));
-                addUpdateToQueue(new SwitchUpdate(dpid,
-                                                  SwitchUpdateType.ACTIVATED));
-                counters.newSwitchActivated.updateCounterWithFlush();
-            } else {
-                // FIXME: switch was in store. check if ports or anything else
-                // has changed and send update.
-                if (alwaysClearFlowsOnSwActivate) {
+                if (oldSw != null) {
+                    // This happens either when we have switches with duplicate
+                    // DPIDs or when a switch reconnects before we saw the
+                    // disconnect
+                    counters.switchWithSameDpidActivated.updateCounterWithFlush();
+                    log.warn("New switch added {} for already-added switch {}",
+                              sw, oldSw);
+                    // We need to disconnect and remove the old switch
+                    // TODO: we notify switch listeners that the switch has been
+                    // removed and then we notify them that the new one has been
+                    // added. One could argue that a switchChanged notification
+                    // might be more appropriate in this case....
+                    oldSw.cancelAllStatisticsReplies();
+                    oldSw.cancelAllTransactions();
+                    addUpdateToQueue(new SwitchUpdate(dpid,
+                                                      SwitchUpdateType.REMOVED));
+                    oldSw.disconnectOutputStream();
+                    // Add the new switch and clear FlowMods
+                    // TODO: if this is the same switch re-connecting rather than
+                    // a DPID collision it would make sense to not wipe the flow
+                    // table.
                     sw.clearAllFlowMods();
+                    addUpdateToQueue(new SwitchUpdate(dpid,
+                                                      SwitchUpdateType.ADDED));
+                    addUpdateToQueue(new SwitchUpdate(dpid,
+                                                      SwitchUpdateType.ACTIVATED));
+                    addSwitchToStore(sw);
+                    return;
                 }
-                if (sw.attributeEquals(IOFSwitch.SWITCH_SUPPORTS_NX_ROLE, true)) {
-                    // We have a stored switch and the newly activated switch
-                    // supports roles. This indicates that the switch was
-                    // previously connected as slave. Since we don't update
-                    // ports while slave, we need to set the ports on the
-                    // new switch from the ports on the stored switch
-                    // No need to send notifications, since we've dispatched
-                    // them as we receive them from the store
-                    sw.setPorts(storedSwitch.getPorts());
+
+                IOFSwitch storedSwitch;
+                boolean lastSyncedSwitch;
+                synchronized (syncedSwitches) {
+                    // other switches are activated in parallel
+                    storedSwitch = this.syncedSwitches.remove(sw.getId());
+                    lastSyncedSwitch = storedSwitch != null &&
+                            this.syncedSwitches.isEmpty();
                 }
-                addUpdateToQueue(new SwitchUpdate(dpid,
-                                                  SwitchUpdateType.ACTIVATED));
-                sendNotificationsIfSwitchDiffers(storedSwitch, sw);
-                counters.syncedSwitchActivated.updateCounterWithFlush();
-                if (this.syncedSwitches.isEmpty()) {
-                    // we have just activated the last synced switch. I.e.,
-                    // all previously known switch are now active. Send
-                    // notification
-                    // update dispatcher will increment counter
-                    addUpdateToQueue(new ReadyForReconcileUpdate());
+                if (storedSwitch == null) {
+                    // The switch isn't known to the controller cluster. We
+                    // need to send a switchAdded notification and clear all
+                    // flows.
+                    if (!swConnectCache.update(sw.getId()))
+                        sw.clearAllFlowMods();
+                    addUpdateToQueue(new SwitchUpdate(dpid,
+                                                      SwitchUpdateType.ADDED));
+                    addUpdateToQueue(new SwitchUpdate(dpid,
+                                                      SwitchUpdateType.ACTIVATED));
+                    counters.newSwitchActivated.updateCounterWithFlush();
+                } else {
+                    // FIXME: switch was in store. check if ports or anything else
+                    // has changed and send update.
+                    if (alwaysClearFlowsOnSwActivate) {
+                        sw.clearAllFlowMods();
+                    }
+                    if (sw.attributeEquals(IOFSwitch.SWITCH_SUPPORTS_NX_ROLE, true)) {
+                        // We have a stored switch and the newly activated switch
+                        // supports roles. This indicates that the switch was
+                        // previously connected as slave. Since we don't update
+                        // ports while slave, we need to set the ports on the
+                        // new switch from the ports on the stored switch
+                        // No need to send notifications, since we've dispatched
+                        // them as we receive them from the store
+                        sw.setPorts(storedSwitch.getPorts());
+                    }
+                    addUpdateToQueue(new SwitchUpdate(dpid,
+                                                      SwitchUpdateType.ACTIVATED));
+                    sendNotificationsIfSwitchDiffers(storedSwitch, sw);
+                    counters.syncedSwitchActivated.updateCounterWithFlush();
+                    if (lastSyncedSwitch) {
+                        // we have just activated the last synced switch. I.e.,
+                        // all previously known switch are now active. Send
+                        // notification
+                        // update dispatcher will increment counter
+                        addUpdateToQueue(new ReadyForReconcileUpdate());
+                    }
                 }
+                addSwitchToStore(sw);
+            } finally {
+                unlockSwitch(l);
             }
-            addSwitchToStore(sw);
         }
 
         /**
@@ -1103,25 +1250,30 @@ public class Controller implements IFloodlightProviderService,
          * to listeners
          * @param sw
          */
-        public synchronized void switchPortsChanged(IOFSwitch sw,
-                                                    ImmutablePort port,
-                                                    PortChangeType type) {
-            if (role != Role.MASTER) {
-                counters.invalidPortsChanged.updateCounterWithFlush();
-                return;
-            }
-            if (!this.activeSwitches.containsKey(sw.getId())) {
-                counters.invalidPortsChanged.updateCounterWithFlush();
-                return;
+        public void switchPortsChanged(IOFSwitch sw,
+                                       ImmutablePort port,
+                                       PortChangeType type) {
+            ReentrantLock l = lockSwitch(sw.getId());
+            try {
+                if (role != Role.MASTER) {
+                    counters.invalidPortsChanged.updateCounterWithFlush();
+                    return;
+                }
+                if (!this.activeSwitches.containsKey(sw.getId())) {
+                    counters.invalidPortsChanged.updateCounterWithFlush();
+                    return;
+                }
+                // update switch in store
+                addSwitchToStore(sw);
+                // no need to count here. SwitchUpdate.dispatch will count
+                // the portchanged
+                SwitchUpdate update = new SwitchUpdate(sw.getId(),
+                                                       SwitchUpdateType.PORTCHANGED,
+                                                       port, type);
+                addUpdateToQueue(update);
+            } finally {
+                unlockSwitch(l);
             }
-            // update switch in store
-            addSwitchToStore(sw);
-            // no need to count here. SwitchUpdate.dispatch will count
-            // the portchanged
-            SwitchUpdate update = new SwitchUpdate(sw.getId(),
-                                                   SwitchUpdateType.PORTCHANGED,
-                                                   port, type);
-            addUpdateToQueue(update);
         }
 
         /**
@@ -1129,22 +1281,27 @@ public class Controller implements IFloodlightProviderService,
          * switch.
          * @param sw
          */
-        private synchronized void switchAddedToStore(IOFSwitch sw) {
-            if (role != Role.SLAVE) {
-                counters.invalidStoreEventWhileMaster.updateCounterWithFlush();
-                return; // only read from store if slave
-            }
-            Long dpid = sw.getId();
+        private void switchAddedToStore(IOFSwitch sw) {
+            ReentrantLock l = lockSwitch(sw.getId());
+            try {
+                if (role != Role.SLAVE) {
+                    counters.invalidStoreEventWhileMaster.updateCounterWithFlush();
+                    return; // only read from store if slave
+                }
+                Long dpid = sw.getId();
 
-            IOFSwitch oldSw = syncedSwitches.put(dpid, sw);
-            if (oldSw == null)  {
-                counters.newSwitchFromStore.updateCounterWithFlush();
-                addUpdateToQueue(new SwitchUpdate(dpid, SwitchUpdateType.ADDED));
-            } else {
-                // The switch already exists in storage, see if anything
-                // has changed
-                sendNotificationsIfSwitchDiffers(oldSw, sw);
-                counters.updatedSwitchFromStore.updateCounterWithFlush();
+                IOFSwitch oldSw = syncedSwitches.put(dpid, sw);
+                if (oldSw == null)  {
+                    counters.newSwitchFromStore.updateCounterWithFlush();
+                    addUpdateToQueue(new SwitchUpdate(dpid, SwitchUpdateType.ADDED));
+                } else {
+                    // The switch already exists in storage, see if anything
+                    // has changed
+                    sendNotificationsIfSwitchDiffers(oldSw, sw);
+                    counters.updatedSwitchFromStore.updateCounterWithFlush();
+                }
+            } finally {
+                unlockSwitch(l);
             }
         }
 
@@ -1153,25 +1310,30 @@ public class Controller implements IFloodlightProviderService,
          * has been removed from the sync store
          * @param dpid
          */
-        private synchronized void switchRemovedFromStore(long dpid) {
-            if (role != Role.SLAVE) {
-                counters.invalidStoreEventWhileMaster.updateCounterWithFlush();
-                return; // only read from store if slave
-            }
-            IOFSwitch oldSw = syncedSwitches.remove(dpid);
-            if (oldSw != null) {
-                counters.syncedSwitchRemoved.updateCounterWithFlush();
-                addUpdateToQueue(new SwitchUpdate(dpid,
-                                                  SwitchUpdateType.REMOVED));
-            } else {
-                // TODO: the switch was deleted (tombstone) before we ever
-                // knew about it (or was deleted repeatedly). Can this
-                // happen? When/how?
-                counters.unknownSwitchRemovedFromStore.updateCounterWithFlush();
+        private void switchRemovedFromStore(long dpid) {
+            ReentrantLock l = lockSwitch(dpid);
+            try {
+                if (role != Role.SLAVE) {
+                    counters.invalidStoreEventWhileMaster.updateCounterWithFlush();
+                    return; // only read from store if slave
+                }
+                IOFSwitch oldSw = syncedSwitches.remove(dpid);
+                if (oldSw != null) {
+                    counters.syncedSwitchRemoved.updateCounterWithFlush();
+                    addUpdateToQueue(new SwitchUpdate(dpid,
+                                                      SwitchUpdateType.REMOVED));
+                } else {
+                    // TODO: the switch was deleted (tombstone) before we ever
+                    // knew about it (or was deleted repeatedly). Can this
+                    // happen? When/how?
+                    counters.unknownSwitchRemovedFromStore.updateCounterWithFlush();
+                }
+            } finally {
+                unlockSwitch(l);
             }
         }
 
-        public synchronized void switchDeactivated(IOFSwitch sw) {
+        public void switchDeactivated(IOFSwitch sw) {
             // ignore. we don't handle MASTER -> SLAVE transitions. We
             // expect a restart
         }
@@ -1180,46 +1342,52 @@ public class Controller implements IFloodlightProviderService,
          * Called when a switch disconnects
          * @param sw
          */
-        public synchronized void switchDisconnected(IOFSwitch sw) {
-            if (role == Role.SLAVE) {
-                counters.switchDisconnectedWhileSlave.updateCounterWithFlush();
-                return; // only react to switch connections when master
-            }
-            long dpid = sw.getId();
-            // Update event history
-            // TODO: this is asymmetric with respect to connect event
-            //       in switchActivated(). Should we have events on the
-            //       slave as well?
-            evSwitch.updateEventWithFlush(new SwitchEvent(dpid, "disconnected"));
-            counters.switchDisconnected.updateCounterWithFlush();
-            IOFSwitch oldSw = this.activeSwitches.get(dpid);
-            if (oldSw != sw) {
-                // This can happen if the disconnected switch was inactive
-                // (SLAVE) then oldSw==null. Or if we previously had the
-                // "added switch for already added switch case".
-                // Either way we shouldn't notify or do anything else
-                log.debug("removeSwitch called for switch {} but have {} in"
-                          + " activeSwitches map. Ignoring", sw, oldSw);
-                return;
+        public void switchDisconnected(IOFSwitch sw) {
+            ReentrantLock l = lockSwitch(sw.getId());
+            try {
+                if (role == Role.SLAVE) {
+                    counters.switchDisconnectedWhileSlave.updateCounterWithFlush();
+                    return; // only react to switch connections when master
+                }
+                long dpid = sw.getId();
+                // Update event history
+                // TODO: this is asymmetric with respect to connect event
+                //       in switchActivated(). Should we have events on the
+                //       slave as well?
+                evSwitch.updateEventWithFlush(new SwitchEvent(dpid, "disconnected"));
+                counters.switchDisconnected.updateCounterWithFlush();
+                IOFSwitch oldSw = this.activeSwitches.get(dpid);
+                if (oldSw != sw) {
+                    // This can happen if the disconnected switch was inactive
+                    // (SLAVE) then oldSw==null. Or if we previously had the
+                    // "added switch for already added switch case".
+                    // Either way we shouldn't notify or do anything else
+                    log.debug("removeSwitch called for switch {} but have {} in"
+                              + " activeSwitches map. Ignoring", sw, oldSw);
+                    return;
+                }
+                log.debug("removeSwitch {}", sw);
+                swConnectCache.update(sw.getId());
+                this.activeSwitches.remove(sw.getId());
+                removeSwitchFromStore(sw.getId());
+                // We cancel all outstanding statistics replies if the switch transition
+                // from active. In the future we might allow statistics requests
+                // from slave controllers. Then we need to move this cancelation
+                // to switch disconnect
+                sw.cancelAllStatisticsReplies();
+                sw.cancelAllTransactions();
+                addUpdateToQueue(new SwitchUpdate(sw.getId(),
+                                                  SwitchUpdateType.REMOVED));
+            } finally {
+                unlockSwitch(l);
             }
-            log.debug("removeSwitch {}", sw);
-            swConnectCache.update(sw.getId());
-            this.activeSwitches.remove(sw.getId());
-            removeSwitchFromStore(sw.getId());
-            // We cancel all outstanding statistics replies if the switch transition
-            // from active. In the future we might allow statistics requests
-            // from slave controllers. Then we need to move this cancelation
-            // to switch disconnect
-            sw.cancelAllStatisticsReplies();
-            addUpdateToQueue(new SwitchUpdate(sw.getId(),
-                                              SwitchUpdateType.REMOVED));
         }
 
         /**
          * Write the given switch to the sync store.
          * @param sw
          */
-        private synchronized void addSwitchToStore(IOFSwitch sw) {
+        private void addSwitchToStore(IOFSwitch sw) {
             // Add to store
             // FIXME: do we need to use a put that takes a versioned here?
             // need to verify
@@ -1243,7 +1411,7 @@ public class Controller implements IFloodlightProviderService,
          * @param sw
          * @return true if the switch was absent, false otherwise
          */
-        private synchronized boolean addSwitchToStoreIfAbsent(IOFSwitch sw) {
+        private boolean addSwitchToStoreIfAbsent(IOFSwitch sw) {
             try {
                 Versioned<SwitchSyncRepresentation> versionedSSr =
                         storeClient.get(sw.getId());
@@ -1271,7 +1439,7 @@ public class Controller implements IFloodlightProviderService,
          * Remove the given switch from the sync store.
          * @param dpid
          */
-        private synchronized void removeSwitchFromStore(long dpid) {
+        private void removeSwitchFromStore(long dpid) {
             try {
                 storeClient.delete(dpid);
             } catch (SyncException e) {
@@ -1290,7 +1458,7 @@ public class Controller implements IFloodlightProviderService,
          * @param oldSw
          * @param newSw
          */
-        private synchronized void
+        private void
                 sendNotificationsIfSwitchDiffers(IOFSwitch oldSw,
                                                  IOFSwitch newSw) {
             Collection<PortChangeEvent> portDiffs =
@@ -1306,9 +1474,18 @@ public class Controller implements IFloodlightProviderService,
         /**
          * Remove all entries from the store that don't correspond to an
          * active switch.
-         * TODO: is it a problem that this is fully synchronized
+         * Holds the write lock, so no switch events are handled meanwhile.
          */
-        private synchronized void consolidateStore() {
+        private void consolidateStore() {
+            roleLock.writeLock().lock();
+            try {
+                consolidateStoreLocked();
+            } finally {
+                roleLock.writeLock().unlock();
+            }
+        }
+
+        private void consolidateStoreLocked() {
             if (role == Role.SLAVE)
                 return;
             boolean shouldNotifyReadyForReconcile = false;
@@ -1436,11 +1613,18 @@ public class Controller implements IFloodlightProviderService,
         public void dispatch();
     }
 
+    /**
+     * An update that remembers when it was queued
+     */
+    private abstract static class QueuedUpdate implements IUpdate {
+        final long queuedNanos = System.nanoTime();
+    }
+
     /**
      * Update message that indicates that the controller can now start
      * flow reconciliation after a SLAVE->MASTER transition
      */
-    private class ReadyForReconcileUpdate implements IUpdate {
+    private class ReadyForReconcileUpdate extends QueuedUpdate {
         @Override
         public void dispatch() {
             counters.readyForReconcile.updateCounterWithFlush();
@@ -1464,7 +1648,7 @@ public class Controller implements IFloodlightProviderService,
     /**
      * Update message indicating a switch was added or removed
      */
-    private class SwitchUpdate implements IUpdate {
+    private class SwitchUpdate extends QueuedUpdate {
         private final long swId;
         private final SwitchUpdateType switchUpdateType;
         private final ImmutablePort port;
@@ -1507,36 +1691,150 @@ public class Controller implements IFloodlightProviderService,
             }
             if (switchListeners != null) {
                 for (IOFSwitchListener listener : switchListeners) {
-                    switch(switchUpdateType) {
-                        case ADDED:
-                            // don't count here. We have more specific
-                            // counters before the update is created
-                            listener.switchAdded(swId);
-                            break;
-                        case REMOVED:
-                            // don't count here. We have more specific
-                            // counters before the update is created
-                            listener.switchRemoved(swId);
-                            break;
-                        case PORTCHANGED:
-                            counters.switchPortChanged.updateCounterWithFlush();
-                            listener.switchPortChanged(swId, port, changeType);
-                            break;
-                        case ACTIVATED:
-                            // don't count here. We have more specific
-                            // counters before the update is created
-                            listener.switchActivated(swId);
-                            break;
-                        case DEACTIVATED:
-                            // ignore
-                            break;
-                        case OTHERCHANGE:
-                            counters.switchOtherChange.updateCounterWithFlush();
-                            listener.switchChanged(swId);
-                            break;
+                    dispatchTo(listener);
+                }
+            }
+        }
+
+        private void dispatchTo(IOFSwitchListener listener) {
+            switch(switchUpdateType) {
+                case ADDED:
+                    // don't count here. We have more specific
+                    // counters before the update is created
+                    listener.switchAdded(swId);
+                    break;
+                case REMOVED:
+                    // don't count here. We have more specific
+                    // counters before the update is created
+                    listener.switchRemoved(swId);
+                    break;
+                case PORTCHANGED:
+                    counters.switchPortChanged.updateCounterWithFlush();
+                    listener.switchPortChanged(swId, port, changeType);
+                    break;
+                case ACTIVATED:
+                    // don't count here. We have more specific
+                    // counters before the update is created
+                    listener.switchActivated(swId);
+                    break;
+                case DEACTIVATED:
+                    // ignore
+                    break;
+                case OTHERCHANGE:
+                    counters.switchOtherChange.updateCounterWithFlush();
+                    listener.switchChanged(swId);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Dispatch a batch of updates taken off the update queue.
+     *
+     * Updates are dispatched in queue order. Runs of consecutive switch
+     * updates are dispatched together: updates that repeat the previous
+     * update of the same switch are dropped, listeners implementing
+     * IOFSwitchBatchListener get the net change of every switch in the run
+     * in a single call after the run and the other switch listeners get
+     * the remaining updates one by one, each update to all of them in
+     * turn as before. Any other update ends a run.
+     * @param batch
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Exception in controller updates loop",
+            explanation="An unknown error occured while dispatching " +
+                        "internal updates to listeners",
+            recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    void dispatchUpdates(List<IUpdate> batch) {
+        int i = 0;
+        while (i < batch.size()) {
+            int end = i;
+            while (end < batch.size() &&
+                    batch.get(end) instanceof SwitchUpdate)
+                end++;
+            int next = (end > i) ? end : i + 1;
+            try {
+                recordDispatchLag(batch.subList(i, next));
+                if (end > i)
+                    dispatchSwitchUpdates(batch.subList(i, end));
+                else
+                    batch.get(i).dispatch();
+            } catch (StorageException e) {
+                throw e;
+            } catch (Exception e) {
+                // as before, a failing update doesn't take others with it
+                log.error("Exception in controller updates loop", e);
+            }
+            i = next;
+        }
+    }
+
+    private void recordDispatchLag(List<IUpdate> dispatched) {
+        long now = System.nanoTime();
+        for (IUpdate update: dispatched) {
+            counters.updateDispatched.updateCounterWithFlush();
+            if (!(update instanceof QueuedUpdate))
+                continue;
+            long lag = now - ((QueuedUpdate)update).queuedNanos;
+            counters.updateDispatchLagUs.updateCounterWithFlush(
+                    (int)TimeUnit.NANOSECONDS.toMicros(lag));
+            lastUpdateLagNanos = lag;
+            if (lag > maxUpdateLagNanos)
+                maxUpdateLagNanos = lag;
+        }
+    }
+
+    private void dispatchSwitchUpdates(List<IUpdate> run) {
+        List<SwitchUpdate> dispatch = new ArrayList<SwitchUpdate>(run.size());
+        try {
+            for (IUpdate u: run) {
+                SwitchUpdate update = (SwitchUpdate)u;
+                if (log.isTraceEnabled()) {
+                    log.trace("Dispatching switch update {} {}",
+                              HexString.toHexString(update.swId),
+                              update.switchUpdateType);
+                }
+                if (switchUpdateBatch.add(update.swId, update.switchUpdateType,
+                                          update.port, update.changeType))
+                    dispatch.add(update);
+                else
+                    counters.updateCoalesced.updateCounterWithFlush();
+            }
+            if (switchListeners == null)
+                return;
+            // as for other updates, a failing update or batch listener
+            // doesn't take the others with it
+            for (SwitchUpdate update: dispatch) {
+                try {
+                    for (IOFSwitchListener listener : switchListeners) {
+                        if (!(listener instanceof IOFSwitchBatchListener))
+                            update.dispatchTo(listener);
+                    }
+                } catch (StorageException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.error("Exception in controller updates loop", e);
+                }
+            }
+            List<SwitchChange> changes = null;
+            for (IOFSwitchListener listener : switchListeners) {
+                if (listener instanceof IOFSwitchBatchListener) {
+                    if (changes == null)
+                        changes = switchUpdateBatch.getChanges();
+                    if (changes.isEmpty())
+                        break;
+                    try {
+                        ((IOFSwitchBatchListener)listener)
+                                .switchesChanged(changes);
+                    } catch (StorageException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        log.error("Exception in controller updates loop", e);
                     }
                 }
             }
+        } finally {
+            switchUpdateBatch.clear();
         }
     }
 
@@ -1545,7 +1843,7 @@ public class Controller implements IFloodlightProviderService,
      * RoleManager, which enqueues these updates gurantees that we will
      * only have a single transition from SLAVE to MASTER.
      */
-    private class HARoleUpdate implements IUpdate {
+    private class HARoleUpdate extends QueuedUpdate {
         private final Role newRole;
         public HARoleUpdate(Role newRole) {
             if (newRole != Role.MASTER)
@@ -1577,7 +1875,7 @@ public class Controller implements IFloodlightProviderService,
      * Update message indicating
      * IPs of controllers in controller cluster have changed.
      */
-    private class HAControllerNodeIPUpdate implements IUpdate {
+    private class HAControllerNodeIPUpdate extends QueuedUpdate {
         public final Map<String,String> curControllerNodeIPs;
         public final Map<String,String> addedControllerNodeIPs;
         public final Map<String,String> removedControllerNodeIPs;
@@ -1733,7 +2031,7 @@ public class Controller implements IFloodlightProviderService,
      * @param flcontext
      */
     protected void flcontext_free(FloodlightContext flcontext) {
-        flcontext.getStorage().clear();
+        flcontext.reset();
         flcontext_cache.get().push(flcontext);
     }
 
@@ -1788,7 +2086,10 @@ public class Controller implements IFloodlightProviderService,
                 }
 
                 if (Controller.ALWAYS_DECODE_ETH) {
-                    eth = new Ethernet();
+                    // Only the Ethernet header is decoded here. The upper
+                    // layers are decoded when a listener first asks for
+                    // the payload.
+                    eth = new LazyEthernet();
                     eth.deserialize(pi.getPacketData(), 0,
                             pi.getPacketData().length);
                     counterStore.updatePacketInCountersLocal(sw, m, eth);
@@ -1815,7 +2116,7 @@ public class Controller implements IFloodlightProviderService,
                     }
                     if (eth != null) {
                         IFloodlightProviderService.bcStore.put(bc,
-                                IFloodlightProviderService.CONTEXT_PI_PAYLOAD,
+                                IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT,
                                 eth);
                     }
 
@@ -1912,6 +2213,26 @@ public class Controller implements IFloodlightProviderService,
         this.switchListeners.remove(listener);
     }
 
+    @Override
+    public void addSwitchBackpressureListener(
+            IOFSwitchBackpressureListener listener) {
+        this.backpressureListeners.add(listener);
+    }
+
+    @Override
+    public void removeSwitchBackpressureListener(
+            IOFSwitchBackpressureListener listener) {
+        this.backpressureListeners.remove(listener);
+    }
+
+    @Override
+    public void handleSwitchBackpressure(IOFSwitch sw, boolean congested) {
+        // not queued as an update: listeners should back off right away
+        for (IOFSwitchBackpressureListener listener : backpressureListeners) {
+            listener.switchBackpressureChanged(sw, congested);
+        }
+    }
+
     @Override
     public synchronized void addOFMessageListener(OFType type,
                                                   IOFMessageListener listener) {
@@ -2162,8 +2483,9 @@ public class Controller implements IFloodlightProviderService,
             bootstrap.setOption("child.tcpNoDelay", true);
             bootstrap.setOption("child.sendBufferSize", Controller.SEND_BUFFER_SIZE);
 
+            pipelineExecutor = createPipelineExecutor();
             ChannelPipelineFactory pfact =
-                    new OpenflowPipelineFactory(this, null);
+                    new OpenflowPipelineFactory(this, pipelineExecutor);
             bootstrap.setPipelineFactory(pfact);
             InetSocketAddress sa =
             		(openFlowHost == null)
@@ -2178,10 +2500,13 @@ public class Controller implements IFloodlightProviderService,
         }
 
         // main loop
+        List<IUpdate> batch = new ArrayList<IUpdate>();
         while (true) {
             try {
-                IUpdate update = updates.take();
-                update.dispatch();
+                batch.clear();
+                batch.add(updates.take());
+                updates.drainTo(batch, MAX_UPDATE_BATCH - 1);
+                dispatchUpdates(batch);
             } catch (InterruptedException e) {
                 log.error("Received interrupted exception in updates loop;" +
                           "terminating process");
@@ -2196,6 +2521,20 @@ public class Controller implements IFloodlightProviderService,
         }
     }
 
+    /**
+     * @return the executor that runs the channel handlers of all switches
+     * or null if they run on the I/O threads
+     */
+    PipelineExecutor createPipelineExecutor() {
+        if (pipelineThreads <= 0)
+            return null;
+        log.info("Handling switch messages in {} pipeline threads",
+                 pipelineThreads);
+        return new PipelineExecutor(this, pipelineThreads,
+                                    pipelineChannelMemory,
+                                    pipelineTotalMemory);
+    }
+
     private ServerBootstrap createServerBootStrap() {
         if (workerThreads == 0) {
             return new ServerBootstrap(
@@ -2221,6 +2560,49 @@ public class Controller implements IFloodlightProviderService,
             this.workerThreads = Integer.parseInt(threads);
         }
         log.debug("Number of worker threads set to {}", this.workerThreads);
+        String zeroCopy = configParams.get("zerocopydecode");
+        if (zeroCopy != null) {
+            this.zeroCopyDecode = Boolean.parseBoolean(zeroCopy);
+        }
+        log.debug("Zero-copy OpenFlow decoding set to {}", this.zeroCopyDecode);
+        String pooledEncode = configParams.get("pooledencodebuffers");
+        if (pooledEncode != null) {
+            this.pooledEncodeBuffers = Boolean.parseBoolean(pooledEncode);
+        }
+        log.debug("Pooled OpenFlow encode buffers set to {}",
+                  this.pooledEncodeBuffers);
+        String pipeThreads = configParams.get("pipelinethreads");
+        if (pipeThreads != null) {
+            this.pipelineThreads = Integer.parseInt(pipeThreads);
+        }
+        String pipeChannelMem = configParams.get("pipelinechannelmemory");
+        if (pipeChannelMem != null) {
+            this.pipelineChannelMemory = Long.parseLong(pipeChannelMem);
+        }
+        String pipeTotalMem = configParams.get("pipelinetotalmemory");
+        if (pipeTotalMem != null) {
+            this.pipelineTotalMemory = Long.parseLong(pipeTotalMem);
+        }
+        log.debug("Pipeline threads set to {}, memory limits {}/{} bytes",
+                  new Object[] { this.pipelineThreads,
+                                 this.pipelineChannelMemory,
+                                 this.pipelineTotalMemory });
+        String pktinScheduling = configParams.get("packetinscheduling");
+        if (pktinScheduling != null) {
+            this.packetInScheduling = Boolean.parseBoolean(pktinScheduling);
+        }
+        String pktinDelay = configParams.get("packetintargetdelayms");
+        if (pktinDelay != null) {
+            this.packetInTargetDelayMs = Long.parseLong(pktinDelay);
+        }
+        log.debug("Packet-in scheduling set to {}, target delay {} ms",
+                  this.packetInScheduling, this.packetInTargetDelayMs);
+        String maxHandshakes = configParams.get("maxconcurrenthandshakes");
+        if (maxHandshakes != null) {
+            this.maxConcurrentHandshakes = Integer.parseInt(maxHandshakes);
+        }
+        log.debug("Concurrent handshakes limited to {}",
+                  this.maxConcurrentHandshakes);
 
     }
 
@@ -2248,6 +2630,8 @@ public class Controller implements IFloodlightProviderService,
         this.addOFSwitchListener(new NotificationSwitchListener());
         this.readyForReconcileListeners =
                 new CopyOnWriteArraySet<IReadyForReconcileListener>();
+        this.backpressureListeners =
+                new CopyOnWriteArraySet<IOFSwitchBackpressureListener>();
         this.haListeners =
                 new ListenerDispatcher<HAListenerTypeMarker, IHAListener>();
         this.driverRegistry = new NaiiveSwitchDriverRegistry();
@@ -2343,6 +2727,17 @@ public class Controller implements IFloodlightProviderService,
         } catch (CounterException e) {
             throw new FloodlightModuleException(e.getMessage());
         }
+        if (packetInScheduling && pipelineThreads <= 0) {
+            log.info("Packet-in scheduling needs pipeline threads; " +
+                     "admitting all packet-ins");
+        } else if (packetInScheduling) {
+            this.packetInScheduler =
+                    new PacketInScheduler(debugCounters,
+                                          packetInTargetDelayMs,
+                                          PacketInScheduler.DEFAULT_ROUND_MS);
+        }
+        this.handshakeAdmission =
+                new HandshakeAdmission(maxConcurrentHandshakes);
 
         addInfoProvider("summary", this);
 
@@ -2640,6 +3035,40 @@ public class Controller implements IFloodlightProviderService,
         debugEvents.flushEvents();
     }
 
+    boolean isZeroCopyDecode() {
+        return zeroCopyDecode;
+    }
+
+    /**
+     * @return a new encode buffer pool for a channel or null if pooling
+     * is disabled
+     */
+    EncodeBufferPool createEncodeBufferPool() {
+        if (!pooledEncodeBuffers)
+            return null;
+        return new EncodeBufferPool(encodeBufferStats);
+    }
+
+    EncodeBufferPool.Stats getEncodeBufferStats() {
+        return encodeBufferStats;
+    }
+
+    /**
+     * @return the packet-in scheduler or null if packet-ins are admitted
+     * without scheduling
+     */
+    PacketInScheduler getPacketInScheduler() {
+        return packetInScheduler;
+    }
+
+    /**
+     * @return the handshake admission or null if handshakes start right
+     * away
+     */
+    HandshakeAdmission getHandshakeAdmission() {
+        return handshakeAdmission;
+    }
+
     short getAccessFlowPriority() {
         return accessPriority;
     }
@@ -2653,10 +3082,11 @@ public class Controller implements IFloodlightProviderService,
      * Dispatch all updates in the update queue until queue is empty
      */
     void processUpdateQueueForTesting() {
+        List<IUpdate> batch = new ArrayList<IUpdate>();
         while(!updates.isEmpty()) {
-            IUpdate update = updates.poll();
-            if (update != null)
-                update.dispatch();
+            batch.clear();
+            updates.drainTo(batch, MAX_UPDATE_BATCH);
+            dispatchUpdates(batch);
         }
     }
 
@@ -2691,6 +3121,39 @@ public class Controller implements IFloodlightProviderService,
         Map<String, Object> info = new HashMap<String, Object>();
 
         info.put("# Switches", this.getAllSwitchDpids().size());
+        info.put("Update queue depth", updates.size());
+        info.put("Update dispatch lag (us)",
+                 TimeUnit.NANOSECONDS.toMicros(lastUpdateLagNanos));
+        info.put("Update max dispatch lag (us)",
+                 TimeUnit.NANOSECONDS.toMicros(maxUpdateLagNanos));
+        if (pooledEncodeBuffers) {
+            info.put("Encode buffer pool hit rate",
+                     encodeBufferStats.getHitRate());
+            info.put("Encode buffer pool bytes held",
+                     encodeBufferStats.getBytesHeld());
+        }
+        if (packetInScheduler != null) {
+            info.put("Packet-ins limited", packetInScheduler.isLimited());
+            info.put("Packet-in queue delay (us)",
+                     packetInScheduler.getLastMinDelayUs());
+        }
+        HandshakeAdmission ha = handshakeAdmission;
+        if (ha != null) {
+            info.put("Handshakes in flight", ha.getInFlight());
+            info.put("Handshakes waiting", ha.getWaiting());
+            info.put("Last reconnect burst (ms)", ha.getLastBurstMs());
+            info.put("Last reconnect burst switches",
+                     ha.getLastBurstCompleted());
+        }
+        PipelineExecutor pe = pipelineExecutor;
+        if (pe != null) {
+            info.put("Pipeline queue depth", pe.getQueueDepth());
+            info.put("Pipeline max queue depth", pe.getMaxQueueDepth());
+            info.put("Pipeline mean queue delay (us)",
+                     pe.getMeanQueueDelayUs());
+            info.put("Pipeline max queue delay (us)",
+                     pe.getMaxQueueDelayUs());
+        }
         return info;
     }
 }
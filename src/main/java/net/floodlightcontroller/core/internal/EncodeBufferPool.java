@@ -0,0 +1,207 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+
+/**
+ * A per-channel pool of direct buffers used by {@link OFMessageEncoder}.
+ * Buffers come in power of two size classes from {@link #MIN_BUFFER_SIZE}
+ * to {@link #MAX_BUFFER_SIZE}; larger writes get an unpooled buffer.
+ * A buffer goes back to the pool once the write that used it completes.
+ *
+ * Writes to a channel can come from any thread while buffers are released
+ * on the I/O thread, so the free lists are synchronized.
+ */
+public class EncodeBufferPool implements ChannelFutureListener {
+    public static final int MIN_BUFFER_SIZE = 512;
+    public static final int MAX_BUFFER_SIZE = 64 * 1024;
+    // idle buffers kept per size class
+    public static final int MAX_FREE_BUFFERS = 4;
+
+    private static final int MIN_SHIFT =
+            Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final int NUM_SIZE_CLASSES =
+            Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SHIFT + 1;
+
+    /**
+     * Hit/miss and memory statistics, shared by the pools of all channels
+     */
+    public static class Stats {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong bytesHeld = new AtomicLong();
+
+        /**
+         * @return number of buffers served from a pool
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /**
+         * @return number of buffers that had to be allocated
+         */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * @return fraction of buffers served from a pool, 0 if there
+         * weren't any requests yet
+         */
+        public double getHitRate() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return (total == 0) ? 0 : (double) h / total;
+        }
+
+        /**
+         * @return capacity of the pooled buffers that are currently either
+         * idle in a pool or in use by a pending write
+         */
+        public long getBytesHeld() {
+            return bytesHeld.get();
+        }
+    }
+
+    /**
+     * A buffer handed out by the pool. Returns itself to the pool when
+     * the write it was used for completes.
+     */
+    public class PooledBuffer implements ChannelFutureListener {
+        private final ChannelBuffer buffer;
+        private final int sizeClass;
+
+        private PooledBuffer(ChannelBuffer buffer, int sizeClass) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+        }
+
+        public ChannelBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * @return true if the buffer goes back to a pool when released
+         */
+        public boolean isPooled() {
+            return sizeClass >= 0;
+        }
+
+        public void release() {
+            EncodeBufferPool.this.release(this);
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            release();
+        }
+    }
+
+    private final Stats stats;
+    private final PooledBuffer[][] free;
+    private final int[] freeCount;
+    private boolean closed;
+
+    public EncodeBufferPool(Stats stats) {
+        this.stats = stats;
+        this.free = new PooledBuffer[NUM_SIZE_CLASSES][MAX_FREE_BUFFERS];
+        this.freeCount = new int[NUM_SIZE_CLASSES];
+    }
+
+    /**
+     * @return the size class for a buffer of the given size or -1 if
+     * buffers of this size are not pooled
+     */
+    static int sizeClass(int size) {
+        if (size > MAX_BUFFER_SIZE)
+            return -1;
+        if (size <= MIN_BUFFER_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Get an empty buffer with room for at least size bytes
+     * @param size
+     * @return the buffer; must be released once it's not used any more
+     */
+    public PooledBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            stats.misses.incrementAndGet();
+            return new PooledBuffer(ChannelBuffers.directBuffer(size), -1);
+        }
+        synchronized (this) {
+            if (freeCount[sizeClass] > 0) {
+                int i = --freeCount[sizeClass];
+                PooledBuffer b = free[sizeClass][i];
+                free[sizeClass][i] = null;
+                stats.hits.incrementAndGet();
+                return b;
+            }
+        }
+        int capacity = MIN_BUFFER_SIZE << sizeClass;
+        stats.misses.incrementAndGet();
+        stats.bytesHeld.addAndGet(capacity);
+        return new PooledBuffer(ChannelBuffers.directBuffer(capacity),
+                                sizeClass);
+    }
+
+    private void release(PooledBuffer b) {
+        if (!b.isPooled())
+            return;
+        b.buffer.clear();
+        synchronized (this) {
+            if (!closed && freeCount[b.sizeClass] < MAX_FREE_BUFFERS) {
+                free[b.sizeClass][freeCount[b.sizeClass]++] = b;
+                return;
+            }
+        }
+        stats.bytesHeld.addAndGet(-b.buffer.capacity());
+    }
+
+    /**
+     * Drop all idle buffers. Buffers released later are dropped as well.
+     */
+    public void close() {
+        long dropped = 0;
+        synchronized (this) {
+            closed = true;
+            for (int c = 0; c < NUM_SIZE_CLASSES; c++) {
+                for (int i = 0; i < freeCount[c]; i++) {
+                    dropped += free[c][i].buffer.capacity();
+                    free[c][i] = null;
+                }
+                freeCount[c] = 0;
+            }
+        }
+        stats.bytesHeld.addAndGet(-dropped);
+    }
+
+    /**
+     * Close the pool when the channel it belongs to is closed
+     */
+    @Override
+    public void operationComplete(ChannelFuture future) {
+        close();
+    }
+}
@@ -0,0 +1,523 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFGroup;
+import org.openflow.protocol.OFGroupMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFTable;
+import org.openflow.protocol.OFType;
+
+/**
+ * Paces the FLOW_MOD and GROUP_MOD messages written to a switch with a
+ * token bucket.
+ *
+ * A flow-mod is sent right away if a token is available and no earlier
+ * flow-mod of the same or higher priority is waiting. Otherwise it is
+ * queued and released by a timer as tokens become available. There are
+ * two queues:
+ * <ul>
+ * <li>high priority: deletes, modifies (e.g., from flow reconciliation),
+ * drop rules and group deletes. Drained first and never dropped.
+ * <li>bulk: everything else, typically reactive installs. A bulk install
+ * for the same match, priority and table as one that is still queued
+ * replaces it in place. If the bulk queue is full further bulk messages
+ * are dropped and reported to the sink; reactive installs are retried on
+ * the next packet-in.
+ * </ul>
+ * A high priority flow-mod only goes ahead of earlier queued installs it
+ * can't affect, i.e., in another table or with a disjoint match. Otherwise
+ * it waits for them, so a wildcard delete still removes them and a modify
+ * still finds them. Group-mods never go ahead. A delete or drop rule with
+ * exactly the same match, priority and table removes the queued install
+ * instead, as does a delete of all flows for every queued install in its
+ * table. Installs queued later are not coalesced with the ones before it.
+ * Other messages are never limited, but they are held back to keep them
+ * ordered with the flow-mods before them. A barrier request waits until
+ * every flow-mod queued before it has been sent, so its reply still means
+ * that they were processed. Any other message (e.g., a packet-out after
+ * the flow-mods of its route) waits for the queued flow-mods of the same
+ * write. Held messages are sent in the order they were written.
+ *
+ * All methods are synchronized and messages are sent while holding the
+ * lock, so messages leave in the order they are released.
+ */
+public class FlowModRateLimiter {
+    /**
+     * Where released messages go
+     */
+    public interface Sink {
+        void send(List<OFMessage> msglist);
+
+        /**
+         * A flow-mod was dropped because the bulk queue was full
+         */
+        void dropped(OFMessage msg);
+    }
+
+    protected static class Entry {
+        OFMessage msg;
+        final FlowKey key;
+        // in the order flow-mods were queued
+        final long seq;
+
+        Entry(OFMessage msg, FlowKey key, long seq) {
+            this.msg = msg;
+            this.key = key;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * A message that isn't limited, waiting for queued flow-mods
+     */
+    protected static class Held {
+        final OFMessage msg;
+        // sent once every flow-mod queued up to this one has been sent
+        final long after;
+
+        Held(OFMessage msg, long after) {
+            this.msg = msg;
+            this.after = after;
+        }
+    }
+
+    /**
+     * Identifies the flow entry a flow-mod installs
+     */
+    protected static class FlowKey {
+        final OFMatch match;
+        final short priority;
+        final byte tableId;
+
+        FlowKey(OFFlowMod fm) {
+            this.match = fm.getMatch();
+            this.priority = fm.getPriority();
+            this.tableId = fm.getTableId();
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((match == null) ? 0 : match.hashCode());
+            result = prime * result + priority;
+            result = prime * result + tableId;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof FlowKey)) return false;
+            FlowKey other = (FlowKey) obj;
+            if (priority != other.priority) return false;
+            if (tableId != other.tableId) return false;
+            if (match == null) return other.match == null;
+            return match.equals(other.match);
+        }
+    }
+
+    private final Sink sink;
+    private Timer timer;
+
+    // token bucket, disabled if rate is 0
+    private int rate;
+    private int burst;
+    private int maxBulkQueue;
+    private double tokens;
+    private long lastRefill;
+
+    private final ArrayDeque<Entry> highQueue = new ArrayDeque<Entry>();
+    private final ArrayDeque<Entry> bulkQueue = new ArrayDeque<Entry>();
+    // queued bulk installs
+    private final Map<FlowKey, Entry> bulkIndex = new HashMap<FlowKey, Entry>();
+    private final ArrayDeque<Held> held = new ArrayDeque<Held>();
+    // the sequence number of the next queued flow-mod
+    private long nextSeq;
+    private Timeout drainTimeout;
+
+    private IDebugCounter ctrQueued;
+    private IDebugCounter ctrReleased;
+    private IDebugCounter ctrCoalesced;
+    private IDebugCounter ctrDrops;
+
+    private final TimerTask drainTask = new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+            synchronized (FlowModRateLimiter.this) {
+                if (drainTimeout != timeout)
+                    return;
+                drainTimeout = null;
+                drain(System.nanoTime());
+            }
+        }
+    };
+
+    public FlowModRateLimiter(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Set the limits. A rate of 0 disables the limiter and sends all
+     * queued messages.
+     * @param rate flow-mods per second
+     * @param burst flow-mods that can be sent at once after being idle
+     * @param maxBulkQueue bulk flow-mods that can be queued
+     * @param now System.nanoTime()
+     */
+    public synchronized void setLimits(int rate, int burst, int maxBulkQueue,
+                                       long now) {
+        if (rate < 0 || (rate > 0 && burst < 1) || maxBulkQueue < 0)
+            throw new IllegalArgumentException("Invalid flow-mod limits");
+        this.rate = rate;
+        this.burst = burst;
+        this.maxBulkQueue = maxBulkQueue;
+        this.tokens = burst;
+        this.lastRefill = now;
+        if (rate == 0) {
+            List<OFMessage> out = new ArrayList<OFMessage>();
+            while (releaseOne(out));
+            releaseHeld(out);
+            if (!out.isEmpty())
+                sink.send(out);
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return rate > 0;
+    }
+
+    /**
+     * Set the timer used to release queued messages. Without a timer they
+     * are only released by later writes and calls to drain().
+     */
+    public synchronized void setTimer(Timer timer) {
+        this.timer = timer;
+    }
+
+    public synchronized void setCounters(IDebugCounter queued,
+                                         IDebugCounter released,
+                                         IDebugCounter coalesced,
+                                         IDebugCounter drops) {
+        this.ctrQueued = queued;
+        this.ctrReleased = released;
+        this.ctrCoalesced = coalesced;
+        this.ctrDrops = drops;
+    }
+
+    /**
+     * @return the number of queued flow-mods
+     */
+    public synchronized int getQueueDepth() {
+        return highQueue.size() + bulkQueue.size();
+    }
+
+    private static void count(IDebugCounter c) {
+        if (c != null)
+            c.updateCounterNoFlush();
+    }
+
+    private static boolean isLimited(OFMessage m) {
+        return m.getType() == OFType.FLOW_MOD ||
+               m.getType() == OFType.GROUP_MOD;
+    }
+
+    /**
+     * @return true for the flow-mods and group-mods that are never dropped
+     */
+    static boolean isHighPriority(OFMessage m) {
+        if (m.getType() == OFType.GROUP_MOD)
+            return ((OFGroupMod)m).getCommand() == OFGroupMod.OFPGC_DELETE;
+        OFFlowMod fm = (OFFlowMod)m;
+        if (fm.getCommand() != OFFlowMod.OFPFC_ADD)
+            return true;
+        // a drop rule, e.g., to block an attacker
+        return fm.getInstructions() == null ||
+               fm.getInstructions().isEmpty();
+    }
+
+    /**
+     * @return false if the flow-mods can't affect each other's flows, so
+     * they can be sent in any order
+     */
+    static boolean overlaps(OFMessage a, OFMessage b) {
+        if (a.getType() != OFType.FLOW_MOD || b.getType() != OFType.FLOW_MOD)
+            return true;
+        OFFlowMod fa = (OFFlowMod)a;
+        OFFlowMod fb = (OFFlowMod)b;
+        if (fa.getTableId() != fb.getTableId() &&
+                fa.getTableId() != OFTable.OFPTT_ALL &&
+                fb.getTableId() != OFTable.OFPTT_ALL)
+            return false;
+        if (fa.getMatch() == null || fb.getMatch() == null)
+            return true;
+        return !fa.getMatch().isDisjoint(fb.getMatch());
+    }
+
+    /**
+     * @return true if a high priority message can be sent before the bulk
+     * messages queued before it
+     * @param seq the sequence number of the message
+     */
+    private boolean canOvertake(OFMessage m, long seq) {
+        for (Entry e : bulkQueue) {
+            // the bulk queue is in sequence order
+            if (e.seq > seq)
+                break;
+            if (e.msg != null && overlaps(m, e.msg))
+                return false;
+        }
+        return true;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0)
+            return;
+        tokens = Math.min(burst, tokens + (double)elapsed * rate / 1.0e9);
+        lastRefill = now;
+    }
+
+    /**
+     * Send a list of messages, queueing the flow-mods that exceed the rate
+     * @param msglist the messages
+     * @param now System.nanoTime()
+     */
+    public synchronized void write(List<OFMessage> msglist, long now) {
+        if (rate == 0) {
+            sink.send(msglist);
+            return;
+        }
+        refill(now);
+        List<OFMessage> out = new ArrayList<OFMessage>(msglist.size());
+        while (tokens >= 1 && releaseOne(out))
+            tokens -= 1;
+        releaseHeld(out);
+
+        // the last flow-mod of this write that was queued, if any
+        long writeLast = -1;
+        for (OFMessage m : msglist) {
+            if (!isLimited(m)) {
+                long after = (m.getType() == OFType.BARRIER_REQUEST)
+                        ? nextSeq - 1 : writeLast;
+                // behind earlier held messages to keep the order
+                if (!held.isEmpty() || after >= firstQueuedSeq())
+                    held.add(new Held(m, after));
+                else
+                    out.add(m);
+                continue;
+            }
+            boolean high = isHighPriority(m);
+            if (high)
+                cancelInstalls(m);
+            if (tokens >= 1 && highQueue.isEmpty() &&
+                    (bulkQueue.isEmpty() ||
+                     (high && canOvertake(m, nextSeq)))) {
+                tokens -= 1;
+                out.add(m);
+            } else if (high) {
+                writeLast = nextSeq++;
+                highQueue.add(new Entry(m, null, writeLast));
+                count(ctrQueued);
+            } else {
+                Entry e = enqueueBulk(m);
+                if (e != null)
+                    writeLast = Math.max(writeLast, e.seq);
+            }
+        }
+        if (!out.isEmpty())
+            sink.send(out);
+        scheduleDrain();
+    }
+
+    private Entry enqueueBulk(OFMessage m) {
+        FlowKey key = null;
+        if (m.getType() == OFType.FLOW_MOD) {
+            key = new FlowKey((OFFlowMod)m);
+            Entry e = bulkIndex.get(key);
+            if (e != null) {
+                // replace the earlier install of the same flow
+                e.msg = m;
+                count(ctrCoalesced);
+                return e;
+            }
+        }
+        if (bulkQueue.size() >= maxBulkQueue) {
+            count(ctrDrops);
+            sink.dropped(m);
+            return null;
+        }
+        Entry e = new Entry(m, key, nextSeq++);
+        bulkQueue.add(e);
+        if (key != null)
+            bulkIndex.put(key, e);
+        count(ctrQueued);
+        return e;
+    }
+
+    /**
+     * Remove the queued install of the flow a delete removes or a drop
+     * rule replaces, and stop coalescing with the installs it overlaps
+     */
+    private void cancelInstalls(OFMessage m) {
+        if (bulkQueue.isEmpty() || m.getType() != OFType.FLOW_MOD)
+            return;
+        OFFlowMod fm = (OFFlowMod)m;
+        if (fm.getCommand() == OFFlowMod.OFPFC_ADD ||
+                fm.getCommand() == OFFlowMod.OFPFC_DELETE ||
+                fm.getCommand() == OFFlowMod.OFPFC_DELETE_STRICT) {
+            Entry e = bulkIndex.remove(new FlowKey(fm));
+            if (e != null) {
+                // drop the install
+                e.msg = null;
+                count(ctrCoalesced);
+            }
+        }
+        if (isDeleteAll(fm)) {
+            for (Entry e : bulkQueue) {
+                if (e.msg != null && e.msg.getType() == OFType.FLOW_MOD &&
+                        overlaps(fm, e.msg)) {
+                    e.msg = null;
+                    count(ctrCoalesced);
+                }
+            }
+            bulkIndex.clear();
+            return;
+        }
+        // later installs of these flows go after this flow-mod
+        Iterator<Entry> iter = bulkIndex.values().iterator();
+        while (iter.hasNext()) {
+            if (overlaps(m, iter.next().msg))
+                iter.remove();
+        }
+    }
+
+    /**
+     * @return true for a delete of all flows of its table(s)
+     */
+    private static boolean isDeleteAll(OFFlowMod fm) {
+        return fm.getCommand() == OFFlowMod.OFPFC_DELETE &&
+               fm.getOutPort() == OFPort.OFPP_ANY.getValue() &&
+               fm.getOutGroup() == OFGroup.OFPG_ANY.getValue() &&
+               fm.getCookieMask() == 0 &&
+               (fm.getMatch() == null ||
+                fm.getMatch().getMatchFields().isEmpty());
+    }
+
+    private boolean releaseOne(List<OFMessage> out) {
+        Entry e;
+        do {
+            e = highQueue.peek();
+            if (e != null && canOvertake(e.msg, e.seq))
+                highQueue.poll();
+            else if ((e = bulkQueue.poll()) == null)
+                e = highQueue.poll();
+            if (e == null)
+                return false;
+            if (e.key != null && bulkIndex.get(e.key) == e)
+                bulkIndex.remove(e.key);
+            count(ctrReleased);
+            // an install removed by a delete doesn't need a token
+        } while (e.msg == null);
+        out.add(e.msg);
+        releaseHeld(out);
+        return true;
+    }
+
+    /**
+     * @return the sequence number of the earliest queued flow-mod or
+     * Long.MAX_VALUE if none is queued
+     */
+    private long firstQueuedSeq() {
+        // installs removed by a delete are gone already
+        while (!bulkQueue.isEmpty() && bulkQueue.peek().msg == null)
+            bulkQueue.poll();
+        long seq = Long.MAX_VALUE;
+        Entry e = highQueue.peek();
+        if (e != null)
+            seq = e.seq;
+        e = bulkQueue.peek();
+        if (e != null && e.seq < seq)
+            seq = e.seq;
+        return seq;
+    }
+
+    /**
+     * Send the held messages whose flow-mods have all been sent
+     */
+    private void releaseHeld(List<OFMessage> out) {
+        if (held.isEmpty())
+            return;
+        long first = firstQueuedSeq();
+        while (!held.isEmpty() && held.peek().after < first)
+            out.add(held.poll().msg);
+    }
+
+    /**
+     * Release the queued messages the available tokens allow
+     * @param now System.nanoTime()
+     */
+    public synchronized void drain(long now) {
+        refill(now);
+        List<OFMessage> out = new ArrayList<OFMessage>();
+        while (tokens >= 1 && releaseOne(out))
+            tokens -= 1;
+        if (!out.isEmpty())
+            sink.send(out);
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (timer == null || drainTimeout != null || rate == 0 ||
+                (highQueue.isEmpty() && bulkQueue.isEmpty()))
+            return;
+        // when the next token is available
+        long delayNanos = (long)(Math.max(0, 1 - tokens) * 1.0e9 / rate);
+        drainTimeout = timer.newTimeout(drainTask,
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drop all queued messages, e.g., when the switch disconnects
+     */
+    public synchronized void clear() {
+        highQueue.clear();
+        bulkQueue.clear();
+        bulkIndex.clear();
+        held.clear();
+        if (drainTimeout != null) {
+            drainTimeout.cancel();
+            drainTimeout = null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of switch handshakes in flight.
+ *
+ * When many switches connect at once, e.g., after a controller restart,
+ * running all handshakes at the same time makes each of them slow enough
+ * to hit the handshake timeout, and the switches keep reconnecting. Only
+ * maxInFlight handshakes run at a time. Further channels wait in FIFO
+ * order and their handshake starts when an earlier one completes or its
+ * channel closes.
+ *
+ * A burst starts when a channel connects while no handshake is in flight
+ * or waiting, and ends when the last one is done. The duration of the
+ * last burst is the time it took until all switches of a reconnect storm
+ * were active.
+ */
+public class HandshakeAdmission {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    /**
+     * A handshake waiting for admission
+     */
+    public interface Handshake {
+        /**
+         * The handshake may start. Called without holding any lock, on
+         * the thread that completed an earlier handshake.
+         */
+        void admitted();
+    }
+
+    private final int maxInFlight;
+    private final Set<Handshake> inFlight = new HashSet<Handshake>();
+    private final ArrayDeque<Handshake> waiting = new ArrayDeque<Handshake>();
+
+    private long burstStart;
+    private int burstCompleted;
+    private int burstFailed;
+    private long lastBurstNanos;
+    private int lastBurstCompleted;
+    private int lastBurstFailed;
+    private int maxWaiting;
+
+    /**
+     * @param maxInFlight the maximum number of handshakes in flight, 0 for
+     * no limit
+     */
+    public HandshakeAdmission(int maxInFlight) {
+        if (maxInFlight < 0)
+            throw new IllegalArgumentException("Invalid handshake limit");
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Admit a handshake or queue it
+     * @param h the handshake
+     * @param now System.nanoTime()
+     * @return true if the handshake can start right away. Otherwise
+     * h.admitted() is called later.
+     */
+    public synchronized boolean admit(Handshake h, long now) {
+        if (inFlight.isEmpty() && waiting.isEmpty()) {
+            burstStart = now;
+            burstCompleted = 0;
+            burstFailed = 0;
+        }
+        if (maxInFlight == 0 || inFlight.size() < maxInFlight) {
+            inFlight.add(h);
+            return true;
+        }
+        waiting.add(h);
+        maxWaiting = Math.max(maxWaiting, waiting.size());
+        return false;
+    }
+
+    /**
+     * A handshake completed or its channel closed. Does nothing if h is
+     * neither in flight nor waiting, so it can be called repeatedly.
+     * @param h the handshake
+     * @param completed true if the switch became active
+     * @param now System.nanoTime()
+     */
+    public void release(Handshake h, boolean completed, long now) {
+        Handshake next = null;
+        synchronized (this) {
+            if (!inFlight.remove(h)) {
+                if (waiting.remove(h))
+                    endBurstIfIdle(now);
+                return;
+            }
+            if (completed)
+                burstCompleted++;
+            else
+                burstFailed++;
+            next = waiting.poll();
+            if (next != null)
+                inFlight.add(next);
+            else
+                endBurstIfIdle(now);
+        }
+        if (next != null)
+            next.admitted();
+    }
+
+    private void endBurstIfIdle(long now) {
+        if (!inFlight.isEmpty() || !waiting.isEmpty())
+            return;
+        lastBurstNanos = now - burstStart;
+        lastBurstCompleted = burstCompleted;
+        lastBurstFailed = burstFailed;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * @return the most handshakes that were waiting at once
+     */
+    public synchronized int getMaxWaiting() {
+        return maxWaiting;
+    }
+
+    /**
+     * @return how long the last burst took until all its switches were
+     * active, in milliseconds
+     */
+    public synchronized long getLastBurstMs() {
+        return TimeUnit.NANOSECONDS.toMillis(lastBurstNanos);
+    }
+
+    /**
+     * @return the switches that became active in the last burst
+     */
+    public synchronized int getLastBurstCompleted() {
+        return lastBurstCompleted;
+    }
+
+    /**
+     * @return the handshakes of the last burst that failed
+     */
+    public synchronized int getLastBurstFailed() {
+        return lastBurstFailed;
+    }
+}
@@ -39,6 +39,7 @@ public class HandshakeTimeoutHandler
     final Timer timer;
     final long timeoutNanos;
     volatile Timeout timeout;
+    volatile ChannelHandlerContext ctx;
     
     public HandshakeTimeoutHandler(OFChannelHandler channelHandler,
                                    Timer timer,
@@ -53,12 +54,28 @@ public class HandshakeTimeoutHandler
     @Override
     public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e)
             throws Exception {
+        this.ctx = ctx;
         if (timeoutNanos > 0) {
             timeout = timer.newTimeout(new HandshakeTimeoutTask(ctx), 
                                        timeoutNanos, TimeUnit.NANOSECONDS);
         }
         ctx.sendUpstream(e);
     }
+
+    /**
+     * Start the timeout again, e.g., when the handshake starts after
+     * waiting for admission
+     */
+    public void restart() {
+        Timeout t = timeout;
+        if (t == null || ctx == null)
+            return;
+        t.cancel();
+        if (ctx.getChannel().isOpen()) {
+            timeout = timer.newTimeout(new HandshakeTimeoutTask(ctx),
+                                       timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
     
     @Override
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
@@ -86,6 +103,13 @@ public class HandshakeTimeoutHandler
             if (!ctx.getChannel().isOpen()) {
                 return;
             }
+            if (channelHandler.isWaitingForAdmission()) {
+                // the handshake hasn't started yet
+                HandshakeTimeoutHandler.this.timeout =
+                        timer.newTimeout(this, timeoutNanos,
+                                         TimeUnit.NANOSECONDS);
+                return;
+            }
             if (!channelHandler.isHandshakeComplete())
                 Channels.fireExceptionCaught(ctx, EXCEPTION);
         }
@@ -15,6 +15,8 @@ import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 import net.floodlightcontroller.core.IOFSwitch.PortChangeEvent;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
+import net.floodlightcontroller.core.internal.ControlPlaneHandler.MessageClass;
+import net.floodlightcontroller.core.internal.ControlPlaneHandler.ReceivedBatch;
 import net.floodlightcontroller.core.internal.Controller.Counters;
 import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterException;
 import net.floodlightcontroller.storage.IResultSet;
@@ -76,7 +78,8 @@ import com.bigswitch.floodlight.vendor.OFBsnL2TableSetVendorData;
  * @author readams
  */
 class OFChannelHandler
-    extends IdleStateAwareChannelHandler {
+    extends IdleStateAwareChannelHandler
+    implements HandshakeAdmission.Handshake {
 
     private static final Logger log = LoggerFactory.getLogger(OFChannelHandler.class);
 
@@ -94,6 +97,12 @@ class OFChannelHandler
     private List<OFPortDescription> portDescriptions;
 
     private final ArrayList<OFPortStatus> pendingPortStatusMsg;
+    // Admission state for our packet-ins, null if not scheduled
+    private PacketInScheduler.Flow packetInFlow;
+    // Limits the concurrent handshakes, null if not limited
+    private HandshakeAdmission handshakeAdmission;
+    // The switch sent its HELLO while we waited for admission
+    private boolean helloQueued;
 
     /** transaction Ids to use during handshake. Since only one thread
      * calls into the OFChannelHandler we don't need atomic.
@@ -380,6 +389,7 @@ class OFChannelHandler
                               getSwitchInfoString());
                 }
                 controller.switchActivated(OFChannelHandler.this.sw);
+                releaseHandshake(true);
             } else {
                 OFChannelHandler.this.setState(ChannelState.SLAVE);
                 if (status != RoleRecvStatus.RECEIVED_REPLY) {
@@ -397,6 +407,7 @@ class OFChannelHandler
                                   getSwitchInfoString());
                     }
                     controller.switchDeactivated(OFChannelHandler.this.sw);
+                    releaseHandshake(true);
                 }
             }
         }
@@ -433,6 +444,42 @@ class OFChannelHandler
             }
         },
 
+        /**
+         * Too many handshakes are in flight. We sent our HELLO, so echo
+         * requests keep the connection alive, but wait for admission before
+         * we send the FEATURES_REQUEST. A HELLO from the switch is kept
+         * until then.
+         * Next state is WAIT_HELLO or WAIT_FEATURES_REPLY
+         */
+        WAIT_ADMISSION(false) {
+            @Override
+            void processOFHello(OFChannelHandler h, OFHello m)
+                    throws IOException {
+                h.queueHello(m);
+            }
+            @Override
+            void processOFFeaturesReply(OFChannelHandler h, OFFeaturesReply  m)
+                    throws IOException {
+                illegalMessageReceived(h, m);
+            }
+            @Override
+            void processOFStatisticsReply(OFChannelHandler h,
+                                          OFStatisticsReply  m)
+                    throws IOException {
+                illegalMessageReceived(h, m);
+            }
+            @Override
+            void processOFError(OFChannelHandler h, OFError m) {
+                logErrorDisconnect(h, m);
+            }
+
+            @Override
+            void processOFPortStatus(OFChannelHandler h, OFPortStatus m)
+                    throws IOException {
+                unhandledMessageReceived(h, m);
+            }
+        },
+
         /**
          * We send a HELLO to the switch and wait for a reply.
          * Once we receive the reply we send an OFFeaturesRequest and
@@ -720,6 +767,10 @@ class OFChannelHandler
                 h.sw.setThreadPoolService(h.controller.getThreadPoolService());
                 try {
                     h.sw.setDebugCounterService(h.controller.getDebugCounter());
+                    PacketInScheduler scheduler =
+                            h.controller.getPacketInScheduler();
+                    if (scheduler != null)
+                        h.packetInFlow = scheduler.newFlow(h.sw.getStringId());
                 } catch (CounterException e) {
                     h.counters.switchCounterRegistrationFailed
                             .updateCounterNoFlush();
@@ -864,6 +915,9 @@ class OFChannelHandler
                 boolean didHandle = h.roleChanger.deliverError(m);
                 if (didHandle)
                     return;
+                // fail the transaction of the message, if any. The error is
+                // still handled and dispatched as usual.
+                boolean inTransaction = h.sw.deliverTransactionError(m);
                 if (m.getErrorType() ==
                         OFErrorType.OFPET_BAD_REQUEST.ordinal() &&
                    m.getErrorCode() ==
@@ -883,12 +937,12 @@ class OFChannelHandler
                     h.controller.reassertRole(h, Role.MASTER);
                 }
                 else if (m.getErrorType() ==
-                        OFErrorType.OFPET_PORT_MOD_FAILED.ordinal() &&
+                        OFErrorType.OFPET_FLOW_MOD_FAILED.ordinal() &&
                     m.getErrorCode() ==
                         OFFlowModFailedCode.OFPFMFC_TABLES_FULL.ordinal()) {
                     h.sw.setTableFull(true);
                 }
-                else {
+                else if (!inTransaction) {
                     logError(h, m);
                 }
                 h.dispatchMessage(m);
@@ -938,6 +992,7 @@ class OFChannelHandler
             }
             @Override
             void processOFBarrierReply(OFChannelHandler h, OFBarrierReply m) throws IOException{
+                h.sw.deliverBarrierReply(m);
                 h.dispatchMessage(m);
             }
         },
@@ -956,11 +1011,17 @@ class OFChannelHandler
                     throws IOException {
                 // role changer will ignore the error if it isn't for it
                 boolean didHandle = h.roleChanger.deliverError(m);
-                if (!didHandle) {
+                if (!didHandle && !h.sw.deliverTransactionError(m)) {
                     logError(h, m);
                 }
             }
 
+            @Override
+            void processOFBarrierReply(OFChannelHandler h, OFBarrierReply m)
+                    throws IOException {
+                h.sw.deliverBarrierReply(m);
+            }
+
 
 
             @Override
@@ -1372,6 +1433,70 @@ class OFChannelHandler
         return this.state.isHandshakeComplete();
     }
 
+    /**
+     * @return true if the handshake hasn't started because too many are in
+     * flight
+     */
+    boolean isWaitingForAdmission() {
+        return this.state == ChannelState.WAIT_ADMISSION;
+    }
+
+    /**
+     * Our handshake may start. Called by the thread that released an
+     * earlier handshake.
+     */
+    @Override
+    public void admitted() {
+        synchronized (this) {
+            if (state != ChannelState.WAIT_ADMISSION)
+                return;
+            try {
+                // The switch's HELLO is handled under the lock until the
+                // state changed, so it is neither lost nor answered twice
+                if (helloQueued) {
+                    setState(ChannelState.WAIT_FEATURES_REPLY);
+                    sendHandShakeMessage(OFType.FEATURES_REQUEST);
+                } else {
+                    setState(ChannelState.WAIT_HELLO);
+                }
+            } catch (IOException e) {
+                log.error("Disconnecting switch {} due to IO Error: {}",
+                          getSwitchInfoString(), e.getMessage());
+                channel.close();
+                return;
+            }
+        }
+        // The wait doesn't count against the handshake timeout
+        HandshakeTimeoutHandler timeoutHandler =
+                channel.getPipeline().get(HandshakeTimeoutHandler.class);
+        if (timeoutHandler != null)
+            timeoutHandler.restart();
+    }
+
+    /**
+     * The switch sent its HELLO while we wait for admission
+     */
+    private void queueHello(OFHello m) throws IOException {
+        synchronized (this) {
+            if (state == ChannelState.WAIT_ADMISSION) {
+                helloQueued = true;
+                return;
+            }
+        }
+        // admitted meanwhile
+        state.processOFHello(this, m);
+    }
+
+    /**
+     * Let the next handshake start. Does nothing if it was already
+     * released.
+     * @param completed true if the switch became active
+     */
+    private void releaseHandshake(boolean completed) {
+        if (handshakeAdmission != null)
+            handshakeAdmission.release(this, completed, System.nanoTime());
+    }
+
     /**
      * Forwards to RoleChanger. See there.
      * @param role
@@ -1411,7 +1536,22 @@ class OFChannelHandler
         channel = e.getChannel();
         log.info("New switch connection from {}",
                  channel.getRemoteAddress());
+        // Right away even if we wait for admission: the idle handler's
+        // echo requests must not come before it
         sendHandShakeHello();
+        handshakeAdmission = controller.getHandshakeAdmission();
+        if (handshakeAdmission != null) {
+            // set first: we can be admitted as soon as we are queued
+            setState(ChannelState.WAIT_ADMISSION);
+            if (handshakeAdmission.admit(this, System.nanoTime())) {
+                // the switch's HELLO may already be queued
+                admitted();
+            } else {
+                log.debug("Handshake with {} waits for admission",
+                          channel.getRemoteAddress());
+            }
+            return;
+        }
         setState(ChannelState.WAIT_HELLO);
     }
 
@@ -1421,6 +1561,7 @@ class OFChannelHandler
     public void channelDisconnected(ChannelHandlerContext ctx,
                                     ChannelStateEvent e) throws Exception {
         controller.removeSwitchChannel(this);
+        releaseHandshake(false);
         if (this.sw != null) {
             // TODO: switchDisconnected() will check if we've previously
             // activated the switch. Nevertheless, we might want to check
@@ -1540,9 +1681,17 @@ class OFChannelHandler
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
             throws Exception {
-        if (e.getMessage() instanceof List) {
+        Object message = e.getMessage();
+        long receivedNanos;
+        if (message instanceof ReceivedBatch) {
+            receivedNanos = ((ReceivedBatch)message).getReceivedNanos();
+            message = ((ReceivedBatch)message).getMessages();
+        } else {
+            receivedNanos = System.nanoTime();
+        }
+        if (message instanceof List) {
             @SuppressWarnings("unchecked")
-            List<OFMessage> msglist = (List<OFMessage>)e.getMessage();
+            List<OFMessage> msglist = (List<OFMessage>)message;
 
             LoadMonitor.LoadLevel loadlevel;
             int packets_dropped = 0;
@@ -1556,7 +1705,17 @@ class OFChannelHandler
                 loadlevel = LoadMonitor.LoadLevel.OK;
             }
 
-            for (OFMessage ofm : msglist) {
+            // Once the switch is up, handle the control-plane lane (echo,
+            // barrier, port status, ... i.e. everything but packet-ins)
+            // of the batch first and the packet-ins in a second pass.
+            // Each lane keeps arrival order.
+            int size = msglist.size();
+            int passes = state.isHandshakeComplete() ? 2 : 1;
+            for (int n = 0; n < passes * size; n++) {
+                OFMessage ofm = msglist.get(n % size);
+                if (passes == 2 &&
+                        (ofm.getType() == OFType.PACKET_IN) != (n >= size))
+                    continue;
                 counters.messageReceived.updateCounterNoFlush();
                 // Per-switch input throttling
                 if (sw != null && sw.inputThrottled(ofm)) {
@@ -1601,6 +1760,18 @@ class OFChannelHandler
                         }
                     }
 
+                    long delay = System.nanoTime() - receivedNanos;
+                    if (packetInFlow != null &&
+                            ofm.getType() == OFType.PACKET_IN &&
+                            !packetInFlow.admit((OFPacketIn)ofm, delay)) {
+                        // over this switch's share while congested
+                        continue;
+                    }
+                    int c = MessageClass.of(ofm.getType()).ordinal();
+                    counters.messageClassHandled[c].updateCounterNoFlush();
+                    counters.messageClassLatencyUs[c].updateCounterNoFlush(
+                            (int)(delay / 1000));
+
                     // Do the actual packet processing
                     state.processOFMessage(this, ofm);
 
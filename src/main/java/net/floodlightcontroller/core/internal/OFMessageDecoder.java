@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.core.internal;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.nio.ByteBuffer;
 
@@ -25,18 +27,60 @@ import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
 import org.openflow.protocol.factory.FloodlightFactory;
 import org.openflow.protocol.factory.OFMessageFactory;
 
 /**
  * Decode an openflow message from a Channel, for use in a netty
- * pipeline
+ * pipeline.
+ *
+ * By default the whole readable region of the ChannelBuffer is converted
+ * to a ByteBuffer and handed to {@link OFMessageFactory#parseMessages}.
+ * In the in-place mode the OpenFlow header of every frame is read directly
+ * from the ChannelBuffer and each message is parsed from a view of just its
+ * own frame, so no demux message is allocated and composite buffers are
+ * never merged into a new buffer. The
+ * decoder can optionally hand out the same output list for every batch;
+ * this is only safe if the list is fully consumed before the next call to
+ * decode, i.e. if there is no execution handler behind the decoder.
  * @author readams
  */
 public class OFMessageDecoder extends FrameDecoder {
 
     OFMessageFactory factory = FloodlightFactory.getInstance();
-    
+
+    private final boolean parseInPlace;
+    private final boolean reuseMessageList;
+    private final List<OFMessage> messageList;
+
+    // Cached view over the backing array of the last heap buffer we decoded
+    // from. A single read usually carries many frames in the same array.
+    private ByteBuffer frameView;
+    private byte[] frameViewArray;
+    // Frames from buffers without an accessible array are copied here
+    private static final int DEFAULT_SCRATCH_SIZE = 2048;
+    private byte[] scratch;
+
+    public OFMessageDecoder() {
+        this(false, false);
+    }
+
+    /**
+     * @param parseInPlace read headers from the ChannelBuffer and parse each
+     * message from a view of its frame instead of converting the whole
+     * buffer
+     * @param reuseMessageList return the same list instance for every
+     * batch. Only valid together with parseInPlace and only if the
+     * downstream handler is done with the list when it returns.
+     */
+    public OFMessageDecoder(boolean parseInPlace, boolean reuseMessageList) {
+        this.parseInPlace = parseInPlace;
+        this.reuseMessageList = parseInPlace && reuseMessageList;
+        this.messageList = this.reuseMessageList ?
+                new ArrayList<OFMessage>() : null;
+    }
+
     @Override
     protected Object decode(ChannelHandlerContext ctx, Channel channel,
                             ChannelBuffer buffer) throws Exception {
@@ -46,6 +90,9 @@ public class OFMessageDecoder extends FrameDecoder {
             return null;
         }
 
+        if (parseInPlace)
+            return decodeInPlace(buffer);
+
         ByteBuffer data = buffer.toByteBuffer();
         List<OFMessage> message = factory.parseMessages(data);
         if (message.size() == 0)
@@ -58,11 +105,89 @@ public class OFMessageDecoder extends FrameDecoder {
         }
     }
 
+    /**
+     * Parse all complete frames in the buffer without converting the
+     * buffer as a whole.
+     * @param buffer
+     * @return the list of parsed messages or null if no complete frame is
+     * available yet
+     * @throws IOException if a frame header carries an invalid length
+     */
+    private List<OFMessage> decodeInPlace(ChannelBuffer buffer)
+            throws IOException {
+        List<OFMessage> results = null;
+        while (buffer.readableBytes() >= OFMessage.MINIMUM_LENGTH) {
+            int start = buffer.readerIndex();
+            int length = buffer.getUnsignedShort(start + 2);
+            if (length < OFMessage.MINIMUM_LENGTH) {
+                throw new IOException("Invalid OpenFlow message length " +
+                                      length);
+            }
+            if (length > buffer.readableBytes())
+                break;
+
+            OFType type = OFType.valueOf(buffer.getByte(start + 1));
+            if (type != null) {
+                OFMessage ofm = factory.getMessage(type);
+                ofm.readFrom(getFrameView(buffer, start, length));
+                if (results == null) {
+                    if (reuseMessageList) {
+                        results = messageList;
+                        results.clear();
+                    } else {
+                        results = new ArrayList<OFMessage>();
+                    }
+                }
+                results.add(ofm);
+            }
+            // Always advance by the header length, which also skips the
+            // body of un-implemented message types
+            buffer.readerIndex(start + length);
+        }
+        return results;
+    }
+
+    /**
+     * Return a ByteBuffer whose position and limit delimit exactly the
+     * given frame. For heap buffers this is a view over the backing array
+     * that is reused as long as the array doesn't change. Other buffers
+     * (composite or direct) are copied frame by frame into a scratch array
+     * owned by this decoder, so we never merge the whole buffer and never
+     * allocate per frame.
+     */
+    private ByteBuffer getFrameView(ChannelBuffer buffer, int index,
+                                    int length) {
+        byte[] array;
+        int offset;
+        if (buffer.hasArray()) {
+            array = buffer.array();
+            offset = buffer.arrayOffset() + index;
+        } else {
+            if (scratch == null || scratch.length < length) {
+                scratch = new byte[Math.max(length, DEFAULT_SCRATCH_SIZE)];
+            }
+            buffer.getBytes(index, scratch, 0, length);
+            array = scratch;
+            offset = 0;
+        }
+        if (frameViewArray != array) {
+            frameView = ByteBuffer.wrap(array);
+            frameViewArray = array;
+        }
+        frameView.clear();
+        frameView.limit(offset + length);
+        frameView.position(offset);
+        return frameView;
+    }
+
     @Override
     protected Object decodeLast(ChannelHandlerContext ctx, Channel channel,
                             ChannelBuffer buffer) throws Exception {
         // This is not strictly needed atthis time. It is used to detect
         // connection reset detection from netty (for debug)
+        frameView = null;
+        frameViewArray = null;
+        scratch = null;
         return null;
     }
 
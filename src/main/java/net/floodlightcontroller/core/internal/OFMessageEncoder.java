@@ -23,16 +23,66 @@ import java.nio.ByteBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import org.openflow.protocol.OFMessage;
 
 /**
  * Encode an openflow message for output into a ChannelBuffer, for use in a
  * netty pipeline
+ *
+ * If the encoder has an {@link EncodeBufferPool} each list of messages is
+ * encoded into a direct buffer from the pool, which gets released when the
+ * write completes. Otherwise a new direct buffer is allocated per list.
  * @author readams
  */
 public class OFMessageEncoder extends OneToOneEncoder {
+    protected final EncodeBufferPool pool;
+    private volatile boolean poolCloseRegistered = false;
+
+    public OFMessageEncoder() {
+        this(null);
+    }
+
+    /**
+     * @param pool the pool for the buffers of this channel or null to
+     * allocate a new buffer for every write
+     */
+    public OFMessageEncoder(EncodeBufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt)
+            throws Exception {
+        if (pool == null || !(evt instanceof MessageEvent) ||
+                !(((MessageEvent) evt).getMessage() instanceof List)) {
+            super.handleDownstream(ctx, evt);
+            return;
+        }
+        if (!poolCloseRegistered) {
+            poolCloseRegistered = true;
+            ctx.getChannel().getCloseFuture().addListener(pool);
+        }
+
+        MessageEvent e = (MessageEvent) evt;
+        @SuppressWarnings("unchecked")
+        List<OFMessage> msglist = (List<OFMessage>) e.getMessage();
+        int size = computeLength(msglist);
+        EncodeBufferPool.PooledBuffer pooled = pool.acquire(size);
+        ChannelBuffer buf = pooled.getBuffer();
+        try {
+            writeTo(msglist, buf, size);
+        } catch (RuntimeException ex) {
+            pooled.release();
+            throw ex;
+        }
+        e.getFuture().addListener(pooled);
+        Channels.write(ctx, e.getFuture(), buf, e.getRemoteAddress());
+    }
 
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel,
@@ -42,6 +92,13 @@ public class OFMessageEncoder extends OneToOneEncoder {
 
         @SuppressWarnings("unchecked")
         List<OFMessage> msglist = (List<OFMessage>)msg;
+        int size = computeLength(msglist);
+        ChannelBuffer buf = ChannelBuffers.directBuffer(size);
+        writeTo(msglist, buf, size);
+        return buf;
+    }
+
+    private static int computeLength(List<OFMessage> msglist) {
         int size = 0;
         for (OFMessage ofm :  msglist) {
         	/* Many OF1.3+ messages are variable in length. So, call 
@@ -50,8 +107,11 @@ public class OFMessageEncoder extends OneToOneEncoder {
             ofm.computeLength(); 
             size += ofm.getLengthU();
         }
+        return size;
+    }
 
-        ChannelBuffer buf = ChannelBuffers.directBuffer(size);
+    private static void writeTo(List<OFMessage> msglist, ChannelBuffer buf,
+                                int size) {
         ByteBuffer data = buf.toByteBuffer(0, size);
         for (OFMessage ofm :  msglist) {
             ofm.writeTo(data);
@@ -59,7 +119,6 @@ public class OFMessageEncoder extends OneToOneEncoder {
         //Following call to writerIndex is necessary in case of 
         // channelBuffer to byteBuffer conversion above
         buf.writerIndex(data.position());
-        return buf;
     }
 
 }
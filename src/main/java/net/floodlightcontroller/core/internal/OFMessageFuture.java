@@ -17,15 +17,21 @@
 
 package net.floodlightcontroller.core.internal;
 
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFType;
 
+import com.google.common.util.concurrent.ExecutionList;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 
@@ -35,18 +41,33 @@ import net.floodlightcontroller.threadpool.IThreadPoolService;
  * sub-classed and proper behavior added to the handleReply method, and
  * termination of the Future to be handled in the isFinished method.
  *
+ * The timeout is kept on the thread pool's hashed wheel timer and is
+ * cancelled as soon as the future completes. Listeners added with
+ * addListener run once the future completes, is cancelled or times out,
+ * so callers can use the Futures utilities instead of blocking in get().
+ * Listeners run on the thread completing the future, usually a switch I/O
+ * thread, unless they are given another executor. A timeout cancels the
+ * future from the thread pool's scheduled executor, so listeners never
+ * run on the timer thread.
+ *
+ * As the Future contract requires, get() throws a CancellationException
+ * once the future was cancelled or timed out, even if part of the reply
+ * had arrived.
+ *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
-public abstract class OFMessageFuture<V> implements Future<V> {
+public abstract class OFMessageFuture<V> implements ListenableFuture<V> {
 
     protected IThreadPoolService threadPool;
     protected volatile boolean canceled;
     protected CountDownLatch latch;
     protected OFType responseType;
     protected volatile V result;
+    protected volatile Throwable failure;
     protected IOFSwitch sw;
-    protected Runnable timeoutTimer;
+    protected volatile Timeout timeoutTimer;
     protected int transactionId;
+    protected final ExecutionList listeners = new ExecutionList();
     protected static final long DEFAULT_TIMEOUT = 60;
     protected static final TimeUnit DEFAULT_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
@@ -65,21 +86,49 @@ public abstract class OFMessageFuture<V> implements Future<V> {
         this.sw = sw;
         this.transactionId = transactionId;
 
-        final OFMessageFuture<V> future = this;
-        timeoutTimer = new Runnable() {
+        timeoutTimer = threadPool.getTimer().newTimeout(new TimerTask() {
             @Override
-            public void run() {
-                if (timeoutTimer == this)
-                    future.cancel(true);
+            public void run(Timeout timeout) {
+                if (timeoutTimer != timeout)
+                    return;
+                // keep the timer thread free of listeners
+                threadPool.getScheduledExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        cancel(true);
+                    }
+                });
             }
-        };
-        threadPool.getScheduledExecutor().schedule(timeoutTimer, timeout, unit);
+        }, timeout, unit);
     }
 
     protected void unRegister() {
+        Timeout t = this.timeoutTimer;
         this.timeoutTimer = null;
+        if (t != null)
+            t.cancel();
     }
 
+    /**
+     * Complete the future with a failure: get() throws an
+     * ExecutionException with the given cause
+     * @param cause
+     */
+    protected void fail(Throwable cause) {
+        if (isDone())
+            return;
+        this.failure = cause;
+        unRegister();
+        complete();
+    }
+
+    /**
+     * Release waiting threads and run the listeners
+     */
+    private void complete() {
+        this.latch.countDown();
+        listeners.execute();
+    }
 
     // TODO: msg should be generic!
     public void deliverFuture(IOFSwitch sw, OFMessage msg) {
@@ -87,7 +136,7 @@ public abstract class OFMessageFuture<V> implements Future<V> {
             handleReply(sw, msg);
             if (isFinished()) {
                 unRegister();
-                this.latch.countDown();
+                complete();
             }
         }
     }
@@ -121,8 +170,8 @@ public abstract class OFMessageFuture<V> implements Future<V> {
         } else {
             unRegister();
             canceled = true;
-            this.latch.countDown();
-            return !isDone();
+            complete();
+            return true;
         }
     }
 
@@ -148,7 +197,7 @@ public abstract class OFMessageFuture<V> implements Future<V> {
     @Override
     public V get() throws InterruptedException, ExecutionException {
         this.latch.await();
-        return result;
+        return getResult();
     }
 
     /* (non-Javadoc)
@@ -157,10 +206,27 @@ public abstract class OFMessageFuture<V> implements Future<V> {
     @Override
     public V get(long timeout, TimeUnit unit) throws InterruptedException,
             ExecutionException, TimeoutException {
-        this.latch.await(timeout, unit);
+        if (!this.latch.await(timeout, unit))
+            throw new TimeoutException();
+        return getResult();
+    }
+
+    private V getResult() throws ExecutionException {
+        if (canceled)
+            throw new CancellationException();
+        if (failure != null)
+            throw new ExecutionException(failure);
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see com.google.common.util.concurrent.ListenableFuture#addListener(java.lang.Runnable, java.util.concurrent.Executor)
+     */
+    @Override
+    public void addListener(Runnable listener, Executor executor) {
+        listeners.add(listener, executor);
+    }
+
     public int getTransactionId() {
         return transactionId;
     }
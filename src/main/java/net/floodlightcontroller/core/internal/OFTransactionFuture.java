@@ -0,0 +1,120 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.OFErrorException;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFError;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+/**
+ * A future for a batch of messages written to a switch followed by a
+ * barrier request. The messages of a batch have consecutive transaction
+ * ids and the barrier request has the last one, so the transaction id of
+ * the future is the one of the barrier.
+ *
+ * The future completes with the barrier reply, i.e., once the switch has
+ * processed all messages of the batch. It fails with an
+ * {@link OFErrorException} as soon as the switch sends an error for any
+ * message of the batch, and with an IOException if a message of the batch
+ * is dropped before it is sent, e.g., because a queue is full.
+ */
+public class OFTransactionFuture extends OFMessageFuture<OFBarrierReply> {
+
+    protected final int firstXid;
+    protected volatile long sentNanos;
+    protected volatile boolean finished;
+
+    /**
+     * @param firstXid transaction id of the first message of the batch
+     * @param barrierXid transaction id of the barrier request
+     */
+    public OFTransactionFuture(IThreadPoolService tp, IOFSwitch sw,
+                               int firstXid, int barrierXid) {
+        super(tp, sw, OFType.BARRIER_REPLY, barrierXid);
+        this.firstXid = firstXid;
+    }
+
+    public OFTransactionFuture(IThreadPoolService tp, IOFSwitch sw,
+                               int firstXid, int barrierXid,
+                               long timeout, TimeUnit unit) {
+        super(tp, sw, OFType.BARRIER_REPLY, barrierXid, timeout, unit);
+        this.firstXid = firstXid;
+    }
+
+    /**
+     * @return true if the message with the given transaction id belongs to
+     * this transaction
+     */
+    public boolean contains(int xid) {
+        // subtract so that the check holds when transaction ids wrap
+        return xid - firstXid >= 0 && transactionId - xid >= 0;
+    }
+
+    /**
+     * Fail the transaction because of an error for one of its messages
+     * @param error
+     */
+    public void deliverError(OFError error) {
+        if (contains(error.getXid()))
+            fail(new OFErrorException(error));
+    }
+
+    /**
+     * Fail the transaction because one of its messages was dropped before
+     * it was sent to the switch
+     * @param xid transaction id of the dropped message
+     */
+    public void deliverDrop(int xid) {
+        if (contains(xid))
+            fail(new IOException("Message " + xid + " of the transaction " +
+                                 "was dropped before it was sent"));
+    }
+
+    /**
+     * @return System.nanoTime() when the batch was written
+     */
+    public long getSentNanos() {
+        return sentNanos;
+    }
+
+    public void setSentNanos(long sentNanos) {
+        this.sentNanos = sentNanos;
+    }
+
+    @Override
+    protected void handleReply(IOFSwitch sw, OFMessage msg) {
+        this.result = (OFBarrierReply) msg;
+        this.finished = true;
+    }
+
+    @Override
+    protected boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    protected void unRegister() {
+        super.unRegister();
+        sw.cancelTransaction(transactionId);
+    }
+}
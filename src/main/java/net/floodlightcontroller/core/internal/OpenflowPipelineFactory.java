@@ -57,12 +57,21 @@ public class OpenflowPipelineFactory
         OFChannelHandler handler = new OFChannelHandler(controller);
         
         ChannelPipeline pipeline = Channels.pipeline();
-        pipeline.addLast("ofmessagedecoder", new OFMessageDecoder());
-        pipeline.addLast("ofmessageencoder", new OFMessageEncoder());
+        // The decoded message list can only be recycled if it is consumed
+        // on the I/O thread before the next frame is decoded
+        boolean zeroCopy = controller.isZeroCopyDecode();
+        pipeline.addLast("ofmessagedecoder",
+                         new OFMessageDecoder(zeroCopy,
+                                              pipelineExecutor == null));
+        pipeline.addLast("ofmessageencoder",
+                         new OFMessageEncoder(
+                                 controller.createEncodeBufferPool()));
         pipeline.addLast("idle", idleHandler);
         pipeline.addLast("timeout", readTimeoutHandler);
         pipeline.addLast("handshaketimeout",
                          new HandshakeTimeoutHandler(handler, timer, 15));
+        // Answers echo requests on the I/O thread and timestamps batches
+        pipeline.addLast("controlplane", new ControlPlaneHandler(controller));
         if (pipelineExecutor != null)
             pipeline.addLast("pipelineExecutor",
                              new ExecutionHandler(pipelineExecutor));
@@ -0,0 +1,435 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+/**
+ * Bounds the memory used by the messages written to a switch.
+ *
+ * Netty queues every write in memory until the socket takes it, so a
+ * switch that reads slowly can make the controller run out of memory.
+ * This queue counts the bytes Netty holds for the channel. Above the high
+ * water mark further messages are kept here instead, and they are handed
+ * to Netty again once it is below the low water mark. While messages are
+ * held back the switch is congested and the listener is told so
+ * producers can back off.
+ *
+ * The queue is capped at maxQueueBytes. What happens when it is full
+ * depends on the {@link OverflowPolicy}. Only packet-outs and flow-mods
+ * adding a flow with actions are ever dropped; control messages such as
+ * barriers, deletes and drop rules make room by evicting those, and are
+ * queued beyond the cap if there is nothing left to evict.
+ */
+public class OutboundQueue {
+    /**
+     * What to do with a message that doesn't fit into the queue
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest queued packet-outs to make room. If there are
+         * none the new message is dropped, unless it is a control
+         * message, which evicts the oldest queued flow-mod adds too.
+         */
+        DROP_OLDEST_PACKET_OUT,
+        /**
+         * Like DROP_OLDEST_PACKET_OUT, and a queued flow-mod adding the
+         * same flow as a new one is replaced by it instead of queueing
+         * both
+         */
+        COALESCE_FLOW_MODS,
+        /**
+         * Disconnect the switch
+         */
+        DISCONNECT
+    }
+
+    public interface Listener {
+        /**
+         * The switch became congested or is no longer congested. Called
+         * on the thread that caused the change, so it must not block.
+         */
+        void backpressureChanged(boolean congested);
+
+        /**
+         * The queue is full and the policy is DISCONNECT
+         */
+        void overflowed();
+
+        /**
+         * A message was dropped because the queue was full
+         */
+        void dropped(OFMessage msg);
+
+        /**
+         * Messages are written to the channel. Called with the queue
+         * locked, so it must not block or write to the queue.
+         */
+        void sent(List<OFMessage> msglist);
+    }
+
+    protected static class Entry {
+        OFMessage msg;
+        int length;
+        final boolean packetOut;
+        final boolean bulkAdd;
+        final FlowModRateLimiter.FlowKey key;
+
+        Entry(OFMessage msg, int length, FlowModRateLimiter.FlowKey key) {
+            this.msg = msg;
+            this.length = length;
+            this.packetOut = msg.getType() == OFType.PACKET_OUT;
+            this.bulkAdd = isBulkAdd(msg);
+            this.key = key;
+        }
+    }
+
+    private final Listener listener;
+    private Channel channel;
+
+    private int highWaterMark;
+    private int lowWaterMark;
+    private int maxQueueBytes;
+    private OverflowPolicy policy;
+
+    // bytes written to the channel whose writes didn't complete yet
+    private long pendingBytes;
+    // bytes of the messages in the queue
+    private long queuedBytes;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+    // the queued packet-outs, oldest first
+    private final ArrayDeque<Entry> packetOuts = new ArrayDeque<Entry>();
+    private long packetOutBytes;
+    // the queued flow-mod adds, oldest first
+    private final ArrayDeque<Entry> bulkAdds = new ArrayDeque<Entry>();
+    // queued flow-mods that can be replaced by a later one
+    private final Map<FlowModRateLimiter.FlowKey, Entry> flowModIndex =
+            new HashMap<FlowModRateLimiter.FlowKey, Entry>();
+    private boolean congested;
+    private boolean draining;
+
+    private IDebugCounter ctrCongested;
+    private IDebugCounter ctrCoalesced;
+    private IDebugCounter ctrDrops;
+
+    public OutboundQueue(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set the limits
+     * @param highWaterMark bytes buffered by the channel above which
+     * messages are queued
+     * @param lowWaterMark bytes buffered by the channel below which
+     * queued messages are written again
+     * @param maxQueueBytes the maximum size of the queue
+     * @param policy what to do when the queue is full
+     */
+    public synchronized void setLimits(int highWaterMark, int lowWaterMark,
+                                       int maxQueueBytes,
+                                       OverflowPolicy policy) {
+        if (lowWaterMark < 0 || highWaterMark <= lowWaterMark ||
+                maxQueueBytes < 0 || policy == null)
+            throw new IllegalArgumentException("Invalid outbound queue limits");
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+        this.maxQueueBytes = maxQueueBytes;
+        this.policy = policy;
+        if (policy != OverflowPolicy.COALESCE_FLOW_MODS)
+            flowModIndex.clear();
+    }
+
+    public synchronized void setChannel(Channel channel) {
+        this.channel = channel;
+    }
+
+    public synchronized void setCounters(IDebugCounter congested,
+                                         IDebugCounter coalesced,
+                                         IDebugCounter drops) {
+        this.ctrCongested = congested;
+        this.ctrCoalesced = coalesced;
+        this.ctrDrops = drops;
+    }
+
+    public synchronized boolean isCongested() {
+        return congested;
+    }
+
+    /**
+     * @return the bytes held by the channel and the queue
+     */
+    public synchronized long getBufferedBytes() {
+        return pendingBytes + queuedBytes;
+    }
+
+    /**
+     * @return the number of queued messages, including dropped ones that
+     * were not removed yet
+     */
+    public synchronized int getQueueLength() {
+        return queue.size();
+    }
+
+    private static void count(IDebugCounter c) {
+        if (c != null)
+            c.updateCounterNoFlush();
+    }
+
+    /**
+     * @return true for flow-mods adding a flow with actions, which the
+     * next packet-in of the flow installs again if they are dropped
+     */
+    private static boolean isBulkAdd(OFMessage m) {
+        return m.getType() == OFType.FLOW_MOD &&
+               !FlowModRateLimiter.isHighPriority(m);
+    }
+
+    private static int length(OFMessage m) {
+        m.computeLength();
+        return m.getLengthU();
+    }
+
+    /**
+     * Write messages to the channel or queue them if the switch is
+     * congested
+     */
+    public void write(List<OFMessage> msglist) {
+        boolean overflowed = false;
+        Boolean changed;
+        List<OFMessage> dropped = null;
+        synchronized (this) {
+            if (channel == null)
+                return;
+            if (queue.isEmpty() && pendingBytes < highWaterMark) {
+                int size = 0;
+                for (OFMessage m : msglist)
+                    size += length(m);
+                send(msglist, size);
+            } else {
+                dropped = new ArrayList<OFMessage>(0);
+                for (OFMessage m : msglist) {
+                    if (!enqueue(m, dropped)) {
+                        overflowed = true;
+                        break;
+                    }
+                }
+            }
+            changed = updateCongested();
+        }
+        if (dropped != null) {
+            for (OFMessage m : dropped)
+                listener.dropped(m);
+        }
+        if (overflowed)
+            listener.overflowed();
+        else if (changed != null)
+            listener.backpressureChanged(changed);
+    }
+
+    private void send(List<OFMessage> msglist, final int size) {
+        pendingBytes += size;
+        listener.sent(msglist);
+        channel.write(msglist).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                writeComplete(size);
+            }
+        });
+    }
+
+    /**
+     * @param dropped receives the messages dropped to make room
+     * @return false if the message didn't fit and the policy is DISCONNECT
+     */
+    private boolean enqueue(OFMessage m, List<OFMessage> dropped) {
+        int len = length(m);
+        FlowModRateLimiter.FlowKey key = null;
+        if (policy == OverflowPolicy.COALESCE_FLOW_MODS) {
+            if (m.getType() == OFType.FLOW_MOD &&
+                    ((OFFlowMod)m).getCommand() == OFFlowMod.OFPFC_ADD) {
+                key = new FlowModRateLimiter.FlowKey((OFFlowMod)m);
+                Entry e = flowModIndex.get(key);
+                if (e != null && e.bulkAdd == isBulkAdd(m)) {
+                    queuedBytes += len - e.length;
+                    e.msg = m;
+                    e.length = len;
+                    count(ctrCoalesced);
+                    return true;
+                }
+            } else if (m.getType() != OFType.PACKET_OUT) {
+                // don't move flow-mods across deletes or barriers
+                flowModIndex.clear();
+            }
+        }
+        if (queuedBytes + len > maxQueueBytes) {
+            if (policy == OverflowPolicy.DISCONNECT) {
+                clearQueue();
+                return false;
+            }
+            boolean control = m.getType() != OFType.PACKET_OUT &&
+                    !isBulkAdd(m);
+            if (!control && queuedBytes - packetOutBytes + len > maxQueueBytes) {
+                // dropping packet-outs wouldn't make enough room
+                count(ctrDrops);
+                dropped.add(m);
+                return true;
+            }
+            // a control message is queued even if this isn't enough
+            while (queuedBytes + len > maxQueueBytes &&
+                    evictOldest(control, dropped));
+        }
+        Entry e = new Entry(m, len, key);
+        queue.add(e);
+        queuedBytes += len;
+        if (e.packetOut) {
+            packetOuts.add(e);
+            packetOutBytes += len;
+        } else if (e.bulkAdd) {
+            bulkAdds.add(e);
+        }
+        if (key != null)
+            flowModIndex.put(key, e);
+        return true;
+    }
+
+    /**
+     * Drop the oldest queued packet-out or, if there is none and
+     * evictAdds is set, the oldest flow-mod add
+     * @return false if there was nothing to drop
+     */
+    private boolean evictOldest(boolean evictAdds, List<OFMessage> dropped) {
+        Entry oldest = packetOuts.poll();
+        if (oldest != null) {
+            packetOutBytes -= oldest.length;
+        } else if (evictAdds && (oldest = bulkAdds.poll()) != null) {
+            if (oldest.key != null && flowModIndex.get(oldest.key) == oldest)
+                flowModIndex.remove(oldest.key);
+        } else {
+            return false;
+        }
+        queuedBytes -= oldest.length;
+        dropped.add(oldest.msg);
+        oldest.msg = null;
+        count(ctrDrops);
+        return true;
+    }
+
+    private void writeComplete(int size) {
+        Boolean changed;
+        synchronized (this) {
+            pendingBytes -= size;
+            if (!draining && pendingBytes <= lowWaterMark)
+                drain();
+            changed = updateCongested();
+        }
+        if (changed != null)
+            listener.backpressureChanged(changed);
+    }
+
+    /**
+     * Write queued messages until the high water mark is reached again
+     */
+    private void drain() {
+        if (channel == null)
+            return;
+        // writes can complete right away and call back into this
+        draining = true;
+        try {
+            while (!queue.isEmpty() && pendingBytes < highWaterMark) {
+                List<OFMessage> batch = new ArrayList<OFMessage>();
+                int size = 0;
+                while (pendingBytes + size < highWaterMark &&
+                        batch.size() < Controller.BATCH_MAX_SIZE) {
+                    Entry e = queue.poll();
+                    if (e == null)
+                        break;
+                    if (e.msg == null)
+                        continue;
+                    if (e.packetOut) {
+                        packetOuts.poll();
+                        packetOutBytes -= e.length;
+                    } else if (e.bulkAdd) {
+                        bulkAdds.poll();
+                    }
+                    if (e.key != null && flowModIndex.get(e.key) == e)
+                        flowModIndex.remove(e.key);
+                    queuedBytes -= e.length;
+                    size += e.length;
+                    batch.add(e.msg);
+                }
+                if (!batch.isEmpty())
+                    send(batch, size);
+            }
+        } finally {
+            draining = false;
+        }
+    }
+
+    /**
+     * @return the new state if it changed, null otherwise
+     */
+    private Boolean updateCongested() {
+        if (!congested && channel != null &&
+                (pendingBytes >= highWaterMark || !queue.isEmpty())) {
+            congested = true;
+            count(ctrCongested);
+            return Boolean.TRUE;
+        }
+        if (congested && pendingBytes <= lowWaterMark && queue.isEmpty()) {
+            congested = false;
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Drop all queued messages and stop writing when the switch
+     * disconnects. A congested switch is no longer congested, so
+     * producers don't keep backing off.
+     */
+    public void clear() {
+        boolean changed;
+        synchronized (this) {
+            clearQueue();
+            channel = null;
+            changed = congested;
+            congested = false;
+        }
+        if (changed)
+            listener.backpressureChanged(false);
+    }
+
+    private void clearQueue() {
+        queue.clear();
+        packetOuts.clear();
+        bulkAdds.clear();
+        flowModIndex.clear();
+        queuedBytes = 0;
+        packetOutBytes = 0;
+    }
+}
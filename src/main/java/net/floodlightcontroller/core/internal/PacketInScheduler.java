@@ -0,0 +1,241 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.core.OFSwitchBase;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterException;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterType;
+
+import org.openflow.protocol.OFPacketIn;
+
+/**
+ * Fair admission of packet-ins across switches.
+ *
+ * Congestion is detected from queue delay, the time between a packet-in
+ * being received and a channel handler getting to it. Time is divided in
+ * rounds. If even the least delayed packet-in of a round waited longer
+ * than the target delay there is a standing queue and the controller is
+ * congested. While congested, the number of packet-ins admitted per
+ * round (the capacity) is cut multiplicatively and then grown back
+ * additively as long as the delay stays below the target.
+ *
+ * The capacity is shared deficit round robin style: every switch that
+ * sent packet-ins in the previous round gets an equal quantum of credit
+ * per round and each admitted packet-in uses one credit. A switch that
+ * runs out of credit has its packet-ins dropped for the rest of the
+ * round, while switches staying within their share are not affected.
+ * Topology probes (LLDP and BDDP) are always admitted.
+ *
+ * Without congestion every packet-in is admitted.
+ *
+ * Queue delay only builds up while packet-ins wait for a pipeline thread.
+ * When the channel handlers run on the I/O threads a packet-in is handled
+ * as soon as it is read and the backlog stays in the socket, where it
+ * can't be seen, so the controller only schedules packet-ins when
+ * pipeline threads are configured.
+ */
+public class PacketInScheduler {
+    public static final long DEFAULT_TARGET_DELAY_MS = 5;
+    public static final long DEFAULT_ROUND_MS = 100;
+    // never go below this many packet-ins per round
+    static final long MIN_CAPACITY = 100;
+    // a switch keeps at most this many rounds of unused credit
+    static final int MAX_BURST_ROUNDS = 2;
+
+    // next to the per-switch counters of OFSwitchBase
+    private static final String PACKAGE =
+            OFSwitchBase.class.getPackage().getName();
+
+    /**
+     * Admission state of a single switch. Only used by the thread that
+     * currently handles the switch's messages.
+     */
+    public class Flow {
+        private final IDebugCounter ctrAdmitted;
+        private final IDebugCounter ctrDropped;
+        private long round = -1;
+        private long deficit;
+
+        private Flow(IDebugCounter ctrAdmitted, IDebugCounter ctrDropped) {
+            this.ctrAdmitted = ctrAdmitted;
+            this.ctrDropped = ctrDropped;
+        }
+
+        /**
+         * Decide whether to handle a packet-in
+         * @param pi the packet-in
+         * @param delayNanos how long the packet-in waited to be handled
+         * @return true if the packet-in should be handled, false if it
+         * should be dropped
+         */
+        public boolean admit(OFPacketIn pi, long delayNanos) {
+            return admit(pi, delayNanos, System.nanoTime());
+        }
+
+        boolean admit(OFPacketIn pi, long delayNanos, long now) {
+            long r = advance(now, delayNanos);
+            if (round != r) {
+                // first packet-in of this switch in the round
+                round = r;
+                activeFlows.incrementAndGet();
+                long q = quantum;
+                deficit = Math.min(deficit + q, MAX_BURST_ROUNDS * q);
+            }
+            if (limited && !isTopologyProbe(pi)) {
+                if (deficit <= 0) {
+                    ctrDropped.updateCounterNoFlush();
+                    return false;
+                }
+                deficit--;
+            }
+            roundAdmitted.incrementAndGet();
+            ctrAdmitted.updateCounterNoFlush();
+            return true;
+        }
+    }
+
+    private final IDebugCounterService debugCounters;
+    private final long targetDelayNanos;
+    private final long roundNanos;
+
+    // per round accumulators
+    private final AtomicLong roundStart;
+    private final AtomicLong roundMinDelay = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong roundAdmitted = new AtomicLong();
+    private final AtomicLong activeFlows = new AtomicLong();
+
+    // state for the current round, written by the thread ending a round
+    private volatile long round;
+    private volatile boolean limited;
+    private volatile long capacity;
+    private volatile long quantum;
+    private volatile long lastMinDelay;
+
+    /**
+     * @param debugCounters where to register the per-switch counters
+     * @param targetDelayMs the queue delay above which the controller is
+     * considered congested
+     * @param roundMs the length of a round
+     */
+    public PacketInScheduler(IDebugCounterService debugCounters,
+                             long targetDelayMs, long roundMs) {
+        this(debugCounters, targetDelayMs, roundMs, System.nanoTime());
+    }
+
+    PacketInScheduler(IDebugCounterService debugCounters,
+                      long targetDelayMs, long roundMs, long now) {
+        this.debugCounters = debugCounters;
+        this.targetDelayNanos = TimeUnit.MILLISECONDS.toNanos(targetDelayMs);
+        this.roundNanos = TimeUnit.MILLISECONDS.toNanos(roundMs);
+        this.roundStart = new AtomicLong(now);
+    }
+
+    /**
+     * Create the admission state for a newly connected switch. The switch's
+     * own counters (OFSwitchBase) must have been registered already.
+     * @param switchId the string id of the switch
+     * @throws CounterException
+     */
+    public Flow newFlow(String switchId) throws CounterException {
+        IDebugCounter admitted = debugCounters.registerCounter(
+                PACKAGE, switchId + "/pktin/admitted",
+                "Packet-ins admitted by the fair packet-in scheduler",
+                CounterType.ALWAYS_COUNT);
+        IDebugCounter dropped = debugCounters.registerCounter(
+                PACKAGE, switchId + "/pktin/fair-drops",
+                "Packet-ins dropped because the switch used up its share " +
+                "while the controller was congested",
+                CounterType.ALWAYS_COUNT,
+                IDebugCounterService.CTR_MDATA_WARN);
+        return new Flow(admitted, dropped);
+    }
+
+    /**
+     * Record the delay of a packet-in and end the round if it's over
+     * @return the current round
+     */
+    private long advance(long now, long delayNanos) {
+        long start = roundStart.get();
+        if (now - start >= roundNanos && roundStart.compareAndSet(start, now))
+            endRound();
+        long min;
+        while (delayNanos < (min = roundMinDelay.get()) &&
+                !roundMinDelay.compareAndSet(min, delayNanos));
+        return round;
+    }
+
+    private void endRound() {
+        long admitted = roundAdmitted.getAndSet(0);
+        long minDelay = roundMinDelay.getAndSet(Long.MAX_VALUE);
+        long flows = activeFlows.getAndSet(0);
+        lastMinDelay = (minDelay == Long.MAX_VALUE) ? 0 : minDelay;
+
+        long c = capacity;
+        if (minDelay != Long.MAX_VALUE && minDelay > targetDelayNanos) {
+            // standing queue: cut what we actually got through
+            long base = limited ? Math.min(c, admitted) : admitted;
+            c = Math.max(MIN_CAPACITY, base - base / 4);
+            limited = true;
+        } else if (limited) {
+            if (admitted < c / 2) {
+                // demand dropped well below the allowance
+                limited = false;
+            } else {
+                c += Math.max(MIN_CAPACITY / 10, c / 16);
+            }
+        }
+        capacity = c;
+        quantum = Math.max(1, c / Math.max(1, flows));
+        round++;
+    }
+
+    /**
+     * @return true for LLDP and BDDP frames, which must get through for
+     * topology to keep converging
+     */
+    static boolean isTopologyProbe(OFPacketIn pi) {
+        byte[] data = pi.getPacketData();
+        if (data == null || data.length <= 14)
+            return false;
+        return ((data[12] == (byte)0x88) && (data[13] == (byte)0xcc)) ||
+               ((data[12] == (byte)0x89) && (data[13] == (byte)0x42));
+    }
+
+    /**
+     * @return true if packet-ins are currently being limited
+     */
+    public boolean isLimited() {
+        return limited;
+    }
+
+    /**
+     * @return the number of packet-ins admitted per round while limited
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the smallest queue delay of the last round in microseconds
+     */
+    public long getLastMinDelayUs() {
+        return TimeUnit.NANOSECONDS.toMicros(lastMinDelay);
+    }
+}
@@ -0,0 +1,212 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.DefaultObjectSizeEstimator;
+import org.jboss.netty.util.EstimatableObjectWrapper;
+import org.jboss.netty.util.ObjectSizeEstimator;
+import org.openflow.protocol.OFMessage;
+
+/**
+ * The executor behind the ExecutionHandler of the OpenFlow pipeline.
+ * Events of a channel, i.e. of a switch, are run one at a time in the
+ * order they were received, while different switches are handled in
+ * parallel. Memory is bounded: when too many bytes are queued for a
+ * switch, reading from that switch is suspended until its backlog drains,
+ * and when too many bytes are queued for all switches together the I/O
+ * thread that queues the event blocks.
+ *
+ * The executor keeps track of the number of queued events and of the time
+ * events spend in the queue. Because listeners may buffer writes and
+ * count in thread local state, the worker flushes the controller after
+ * every event that OFChannelHandler doesn't flush itself.
+ */
+public class PipelineExecutor extends OrderedMemoryAwareThreadPoolExecutor {
+    public static final long DEFAULT_MAX_CHANNEL_MEMORY = 1024 * 1024;
+    public static final long DEFAULT_MAX_TOTAL_MEMORY = 64 * 1024 * 1024;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Estimates the memory held by a queued event from the OpenFlow length
+     * of the messages it carries
+     */
+    static class OFMessageSizeEstimator implements ObjectSizeEstimator {
+        // rough per-object overhead of a decoded message
+        static final int MESSAGE_OVERHEAD = 64;
+        private final ObjectSizeEstimator fallback =
+                new DefaultObjectSizeEstimator();
+
+        @Override
+        public int estimateSize(Object o) {
+            if (o instanceof EstimatableObjectWrapper)
+                o = ((EstimatableObjectWrapper) o).unwrap();
+            if (o instanceof MessageEvent)
+                o = ((MessageEvent) o).getMessage();
+            if (o instanceof ControlPlaneHandler.ReceivedBatch)
+                o = ((ControlPlaneHandler.ReceivedBatch) o).getMessages();
+            if (o instanceof OFMessage)
+                return MESSAGE_OVERHEAD + ((OFMessage) o).getLengthU();
+            if (o instanceof List) {
+                int size = MESSAGE_OVERHEAD;
+                for (Object m: (List<?>) o) {
+                    size += (m instanceof OFMessage)
+                            ? MESSAGE_OVERHEAD + ((OFMessage) m).getLengthU()
+                            : fallback.estimateSize(m);
+                }
+                return size;
+            }
+            return fallback.estimateSize(o);
+        }
+    }
+
+    /**
+     * A channel event that remembers when it was queued
+     */
+    static class TimedEvent extends ChannelEventRunnable {
+        final long queuedNanos;
+
+        TimedEvent(ChannelHandlerContext ctx, ChannelEvent e) {
+            super(ctx, e);
+            this.queuedNanos = System.nanoTime();
+        }
+    }
+
+    private final Controller controller;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong eventsRun = new AtomicLong();
+    private final AtomicLong totalDelayNanos = new AtomicLong();
+    private final AtomicLong maxDelayNanos = new AtomicLong();
+
+    /**
+     * @param controller the controller to flush and count in
+     * @param threads number of worker threads
+     * @param maxChannelMemorySize maximum bytes queued per switch, 0 for
+     * no limit
+     * @param maxTotalMemorySize maximum bytes queued in total, 0 for no
+     * limit
+     */
+    public PipelineExecutor(Controller controller, int threads,
+                            long maxChannelMemorySize,
+                            long maxTotalMemorySize) {
+        super(threads, maxChannelMemorySize, maxTotalMemorySize,
+              KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+              new OFMessageSizeEstimator(), new ThreadFactory() {
+                  AtomicInteger id = new AtomicInteger();
+
+                  @Override
+                  public Thread newThread(Runnable runnable) {
+                      return new Thread(runnable,
+                                        "OFPipeline-" + id.getAndIncrement());
+                  }
+              });
+        this.controller = controller;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command instanceof ChannelEventRunnable &&
+                !(command instanceof TimedEvent)) {
+            ChannelEventRunnable r = (ChannelEventRunnable) command;
+            command = new TimedEvent(r.getContext(), r.getEvent());
+        }
+        if (command instanceof TimedEvent) {
+            int depth = queueDepth.incrementAndGet();
+            int max;
+            while (depth > (max = maxQueueDepth.get()) &&
+                    !maxQueueDepth.compareAndSet(max, depth));
+        }
+        super.execute(command);
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (!(r instanceof TimedEvent))
+            return;
+        queueDepth.decrementAndGet();
+        long delay = System.nanoTime() - ((TimedEvent) r).queuedNanos;
+        eventsRun.incrementAndGet();
+        totalDelayNanos.addAndGet(delay);
+        long max;
+        while (delay > (max = maxDelayNanos.get()) &&
+                !maxDelayNanos.compareAndSet(max, delay));
+
+        Controller.Counters counters = controller.getCounters();
+        counters.pipelineEventRun.updateCounterNoFlush();
+        counters.pipelineQueueDelayUs.updateCounterNoFlush(
+                (int) Math.min(Integer.MAX_VALUE,
+                               TimeUnit.NANOSECONDS.toMicros(delay)));
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        // OFChannelHandler.messageReceived flushes at the end of every
+        // batch; everything else (connect, idle, exceptions, ...) may
+        // have left writes and counters in this worker's thread locals.
+        if (r instanceof TimedEvent &&
+                !(((TimedEvent) r).getEvent() instanceof MessageEvent))
+            controller.flushAll();
+    }
+
+    /**
+     * @return number of events queued and not yet started
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the largest queue depth seen so far
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return number of events that have been started
+     */
+    public long getEventsRun() {
+        return eventsRun.get();
+    }
+
+    /**
+     * @return mean time between queueing an event and starting it in
+     * microseconds, 0 if no event has run yet
+     */
+    public double getMeanQueueDelayUs() {
+        long n = eventsRun.get();
+        return (n == 0) ? 0 : totalDelayNanos.get() / 1000.0 / n;
+    }
+
+    /**
+     * @return longest time an event spent in the queue in microseconds
+     */
+    public long getMaxQueueDelayUs() {
+        return TimeUnit.NANOSECONDS.toMicros(maxDelayNanos.get());
+    }
+}
@@ -0,0 +1,171 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import net.floodlightcontroller.core.ImmutablePort;
+import net.floodlightcontroller.core.IOFSwitch.PortChangeType;
+import net.floodlightcontroller.core.SwitchChange;
+import net.floodlightcontroller.core.SwitchChange.PortChange;
+import net.floodlightcontroller.core.internal.Controller.SwitchUpdateType;
+
+/**
+ * Folds a run of switch updates into one {@link SwitchChange} per switch
+ * and spots updates that merely repeat the previous update of the same
+ * switch. Only used by the controller's update thread.
+ */
+class SwitchUpdateBatch {
+    private static class Pending {
+        final long switchId;
+        boolean removed;
+        boolean added;
+        boolean activated;
+        boolean changed;
+        final LinkedHashMap<Integer, PortChanges> ports =
+                new LinkedHashMap<Integer, PortChanges>();
+
+        // the previous update, to spot repeats
+        SwitchUpdateType lastType;
+        ImmutablePort lastPort;
+        PortChangeType lastChangeType;
+
+        Pending(long switchId) {
+            this.switchId = switchId;
+        }
+
+        boolean isNoop() {
+            return !removed && !added && !activated && !changed &&
+                   ports.isEmpty();
+        }
+
+        SwitchChange toSwitchChange() {
+            List<PortChange> changes =
+                    new ArrayList<PortChange>(ports.size());
+            for (PortChanges pc : ports.values()) {
+                if (pc.down != null)
+                    changes.add(pc.down);
+                if (pc.later != null)
+                    changes.add(pc.later);
+            }
+            return new SwitchChange(switchId, removed, added, activated,
+                                    changed, changes);
+        }
+    }
+
+    /**
+     * The changes of a single port. Folding a port that went down and
+     * came back into its latest change would hide that its links are
+     * gone, so the latest removal or down is kept apart from the changes
+     * that came after it.
+     */
+    private static class PortChanges {
+        PortChange down;
+        PortChange later;
+
+        void add(PortChange change) {
+            if (isDown(change.getType())) {
+                // undoes whatever came before
+                down = change;
+                later = null;
+            } else {
+                later = change;
+            }
+        }
+
+        private static boolean isDown(PortChangeType type) {
+            return type == PortChangeType.DOWN ||
+                   type == PortChangeType.DELETE;
+        }
+    }
+
+    private final LinkedHashMap<Long, Pending> switches =
+            new LinkedHashMap<Long, Pending>();
+
+    /**
+     * Add an update to the batch
+     * @return false if the update is the same as the previous update of
+     * the switch, i.e., dispatching it again wouldn't tell listeners
+     * anything new
+     */
+    boolean add(long switchId, SwitchUpdateType type,
+                ImmutablePort port, PortChangeType changeType) {
+        Pending p = switches.get(switchId);
+        if (p == null) {
+            p = new Pending(switchId);
+            switches.put(switchId, p);
+        } else if (p.lastType == type && p.lastChangeType == changeType &&
+                (p.lastPort == null ? port == null : p.lastPort.equals(port))) {
+            return false;
+        }
+        p.lastType = type;
+        p.lastPort = port;
+        p.lastChangeType = changeType;
+
+        switch (type) {
+            case ADDED:
+                p.added = true;
+                break;
+            case REMOVED:
+                // whatever happened before the removal is moot
+                p.removed = true;
+                p.added = false;
+                p.activated = false;
+                p.changed = false;
+                p.ports.clear();
+                break;
+            case ACTIVATED:
+                p.activated = true;
+                break;
+            case DEACTIVATED:
+                // not dispatched to listeners
+                break;
+            case PORTCHANGED:
+                // keeps the position of the port's first change
+                PortChanges pc = p.ports.get(port.getPortNumber());
+                if (pc == null) {
+                    pc = new PortChanges();
+                    p.ports.put(port.getPortNumber(), pc);
+                }
+                pc.add(new PortChange(port, changeType));
+                break;
+            case OTHERCHANGE:
+                p.changed = true;
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * @return the net change of every switch in the batch, ordered by the
+     * first update of each switch. Switches that were only deactivated are
+     * left out.
+     */
+    List<SwitchChange> getChanges() {
+        List<SwitchChange> changes =
+                new ArrayList<SwitchChange>(switches.size());
+        for (Pending p : switches.values()) {
+            if (!p.isNoop())
+                changes.add(p.toSwitchChange());
+        }
+        return changes;
+    }
+
+    void clear() {
+        switches.clear();
+    }
+}
@@ -17,36 +17,58 @@
 
 package net.floodlightcontroller.core.web;
 
-import java.lang.Thread.State;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import net.floodlightcontroller.core.IFloodlightProviderService;
-import org.openflow.protocol.OFFeaturesReply;
-import org.openflow.protocol.statistics.OFStatistics;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.statistics.IStatisticsCollectorService;
+import net.floodlightcontroller.statistics.StatisticsCollector;
+import net.floodlightcontroller.statistics.StatisticsSnapshot;
+
 import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.util.HexString;
 import org.restlet.resource.Get;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Return switch statistics information for all switches
+ *
+ * Types collected by the statistics collector are served from its cache.
+ * Other types are queried from all switches at once and the replies that
+ * arrive within the timeout are returned.
  * @author readams
  */
 public class AllSwitchStatisticsResource extends SwitchResourceBase {
     protected static Logger log =
         LoggerFactory.getLogger(AllSwitchStatisticsResource.class);
 
+    // how long to wait for the switches to reply, in seconds
+    protected static final int REPLY_TIMEOUT = 12;
+
     @Get("json")
     public Map<String, Object> retrieve() {
         String statType = (String) getRequestAttributes().get("statType");
         return retrieveInternal(statType);
     }
 
+    @LogMessageDoc(level="ERROR",
+                   message="Failure retrieving statistics from switch {switch}",
+                   explanation="An error occurred while retrieving statistics" +
+                           "from the switch",
+                   recommendation=LogMessageDoc.CHECK_SWITCH + " " +
+                           LogMessageDoc.GENERIC_ACTION)
     public Map<String, Object> retrieveInternal(String statType) {
         HashMap<String, Object> model = new HashMap<String, Object>();
 
@@ -77,92 +99,72 @@ public class AllSwitchStatisticsResource extends SwitchResourceBase {
             return model;
         }
 
+        // Serve what the statistics collector has cached, if it collects
+        // this type
+        IStatisticsCollectorService statisticsCollector =
+                (IStatisticsCollectorService)getContext().getAttributes().
+                    get(IStatisticsCollectorService.class.getCanonicalName());
+        if (statisticsCollector != null && type != null &&
+                statisticsCollector.getCollectedTypes().contains(type)) {
+            for (StatisticsSnapshot snapshot :
+                    statisticsCollector.getAllStatistics(type).values()) {
+                model.put(HexString.toHexString(snapshot.getSwitchId()),
+                          snapshot.getValues());
+            }
+            return model;
+        }
+
         IFloodlightProviderService floodlightProvider =
                 (IFloodlightProviderService)getContext().getAttributes().
                     get(IFloodlightProviderService.class.getCanonicalName());
-        Set<Long> switchDpids = floodlightProvider.getAllSwitchDpids();
-        List<GetConcurrentStatsThread> activeThreads = new ArrayList<GetConcurrentStatsThread>(switchDpids.size());
-        List<GetConcurrentStatsThread> pendingRemovalThreads = new ArrayList<GetConcurrentStatsThread>();
-        GetConcurrentStatsThread t;
-        for (Long l : switchDpids) {
-            t = new GetConcurrentStatsThread(l, rType, type);
-            activeThreads.add(t);
-            t.start();
-        }
-
-        // Join all the threads after the timeout. Set a hard timeout
-        // of 12 seconds for the threads to finish. If the thread has not
-        // finished the switch has not replied yet and therefore we won't
-        // add the switch's stats to the reply.
-        for (int iSleepCycles = 0; iSleepCycles < 12; iSleepCycles++) {
-            for (GetConcurrentStatsThread curThread : activeThreads) {
-                if (curThread.getState() == State.TERMINATED) {
-                    if (rType == REQUESTTYPE.OFSTATS) {
-                        model.put(HexString.toHexString(curThread.getSwitchId()), curThread.getStatisticsReply());
-                    } else if (rType == REQUESTTYPE.OFFEATURES) {
-                        model.put(HexString.toHexString(curThread.getSwitchId()), curThread.getFeaturesReply());
-                    }
-                    pendingRemovalThreads.add(curThread);
-                }
-            }
-
-            // remove the threads that have completed the queries to the switches
-            for (GetConcurrentStatsThread curThread : pendingRemovalThreads) {
-                activeThreads.remove(curThread);
-            }
-            // clear the list so we don't try to double remove them
-            pendingRemovalThreads.clear();
-
-            // if we are done finish early so we don't always get the worst case
-            if (activeThreads.isEmpty()) {
-                break;
-            }
-
-            // sleep for 1 s here
+        final Map<String, Object> replies =
+                new ConcurrentHashMap<String, Object>();
+        List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>();
+        for (IOFSwitch sw : floodlightProvider.getAllSwitchMap().values()) {
+            final String dpid = HexString.toHexString(sw.getId());
+            ListenableFuture<?> future;
             try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                log.error("Interrupted while waiting for statistics", e);
+                if (rType == REQUESTTYPE.OFSTATS) {
+                    future = sw.queryStatistics(
+                            StatisticsCollector.createRequest(type));
+                } else {
+                    future = sw.querySwitchFeaturesReply();
+                }
+            } catch (Exception e) {
+                log.error("Failure retrieving statistics from switch " + sw, e);
+                continue;
             }
-        }
-
-        return model;
-    }
-
-    protected class GetConcurrentStatsThread extends Thread {
-        private List<OFStatistics> switchReply;
-        private long switchId;
-        private OFStatisticsType statType;
-        private REQUESTTYPE requestType;
-        private OFFeaturesReply featuresReply;
-
-        public GetConcurrentStatsThread(long switchId, REQUESTTYPE requestType, OFStatisticsType statType) {
-            this.switchId = switchId;
-            this.requestType = requestType;
-            this.statType = statType;
-            this.switchReply = null;
-            this.featuresReply = null;
-        }
-
-        public List<OFStatistics> getStatisticsReply() {
-            return switchReply;
-        }
-
-        public OFFeaturesReply getFeaturesReply() {
-            return featuresReply;
-        }
+            Futures.addCallback(future, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    if (result != null)
+                        replies.put(dpid, result);
+                }
 
-        public long getSwitchId() {
-            return switchId;
+                @Override
+                public void onFailure(Throwable t) {
+                    log.error("Failure retrieving statistics from switch " +
+                              dpid, t);
+                }
+            });
+            futures.add(future);
         }
 
-        @Override
-        public void run() {
-            if ((requestType == REQUESTTYPE.OFSTATS) && (statType != null)) {
-                switchReply = getSwitchStatistics(switchId, statType);
-            } else if (requestType == REQUESTTYPE.OFFEATURES) {
-                featuresReply = getSwitchFeaturesReply(switchId);
-            }
+        // Wait for all replies at once. Switches that have not replied
+        // by the timeout are left out of the reply.
+        try {
+            Futures.successfulAsList(futures).get(REPLY_TIMEOUT,
+                                                  TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.debug("{} of {} switches did not reply in time",
+                      futures.size() - replies.size(), futures.size());
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for statistics", e);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // successfulAsList doesn't fail
         }
+        model.putAll(replies);
+        return model;
     }
 }
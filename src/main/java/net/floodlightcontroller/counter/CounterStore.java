@@ -32,6 +32,7 @@ import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.counter.CounterValue.CounterType;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.LazyEthernet;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
@@ -297,7 +298,10 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
 
         if (eth != null) {
             l3type = eth.getEtherType();
-            if (eth.getPayload() instanceof IPv4) {
+            if (eth instanceof LazyEthernet) {
+                // don't force decoding of the payload just for counting
+                l4type = ((LazyEthernet)eth).peekIPv4Protocol();
+            } else if (eth.getPayload() instanceof IPv4) {
                 IPv4 ipV4 = (IPv4)eth.getPayload();
                 l4type = ipV4.getProtocol();
             }
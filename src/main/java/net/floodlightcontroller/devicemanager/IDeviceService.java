@@ -22,6 +22,7 @@ import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.Set;
 
+import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.FloodlightContextStore;
 import net.floodlightcontroller.core.module.IFloodlightService;
 
@@ -45,18 +46,24 @@ public interface IDeviceService extends IFloodlightService {
      */
     public static final String CONTEXT_SRC_DEVICE = 
             "net.floodlightcontroller.devicemanager.srcDevice"; 
+    public static final int CONTEXT_SRC_DEVICE_SLOT =
+            FloodlightContext.getSlot(CONTEXT_SRC_DEVICE);
 
     /**
      * The destination device for the current packet-in, if applicable.
      */
     public static final String CONTEXT_DST_DEVICE = 
             "net.floodlightcontroller.devicemanager.dstDevice"; 
+    public static final int CONTEXT_DST_DEVICE_SLOT =
+            FloodlightContext.getSlot(CONTEXT_DST_DEVICE);
 
     /**
      * The original destination device for the current packet-in
      */
     public static final String CONTEXT_ORIG_DST_DEVICE =
             "net.floodlightcontroller.devicemanager.origDstDevice";
+    public static final int CONTEXT_ORIG_DST_DEVICE_SLOT =
+            FloodlightContext.getSlot(CONTEXT_ORIG_DST_DEVICE);
 
     /**
      * A FloodlightContextStore object that can be used to interact with the 
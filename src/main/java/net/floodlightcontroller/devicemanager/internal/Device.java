@@ -108,8 +108,7 @@ public class Device implements IDevice {
 
             if (deviceManager.isValidAttachmentPoint(sw, port)) {
                 AttachmentPoint ap;
-                ap = new AttachmentPoint(sw, port,
-                                         entity.getLastSeenTimestamp().getTime());
+                ap = new AttachmentPoint(sw, port, entity.getLastSeen());
 
                 this.attachmentPoints = new ArrayList<AttachmentPoint>();
                 this.attachmentPoints.add(ap);
@@ -375,6 +374,43 @@ public class Device implements IDevice {
         return moved;
     }
 
+    /**
+     * Fast path of {@link #updateAttachmentPoint(long, int, long)} for a
+     * packet-in on the current attachment point: refresh its last seen
+     * time in place without copying the lists. Only taken if the full
+     * update would keep the attachment points as they are, i.e., (sw, port)
+     * isn't an old attachment point, it is the only attachment point in
+     * its L2 domain and all attachment points are valid.
+     * @return true if the attachment point was refreshed
+     */
+    private boolean refreshAttachmentPoint(long sw, int port, long lastSeen) {
+        List<AttachmentPoint> apList = attachmentPoints;
+        if (apList == null) return false;
+        List<AttachmentPoint> oldAPList = oldAPs;
+        if (oldAPList != null) {
+            for (int i = 0; i < oldAPList.size(); i++) {
+                AttachmentPoint ap = oldAPList.get(i);
+                if (ap.getSw() == sw && ap.getPort() == port) return false;
+            }
+        }
+        ITopologyService topology = deviceManager.topology;
+        long id = topology.getL2DomainId(sw);
+        AttachmentPoint current = null;
+        for (int i = 0; i < apList.size(); i++) {
+            AttachmentPoint ap = apList.get(i);
+            if (ap.getSw() == sw && ap.getPort() == port) {
+                current = ap;
+            } else if (!deviceManager.isValidAttachmentPoint(ap.getSw(),
+                                                             ap.getPort()) ||
+                       topology.getL2DomainId(ap.getSw()) == id) {
+                return false;
+            }
+        }
+        if (current == null) return false;
+        current.setLastSeen(lastSeen);
+        return true;
+    }
+
     /**
      * Update the list of attachment points given that a new packet-in
      * was seen from (sw, port) at time (lastSeen).  The return value is true
@@ -392,6 +428,7 @@ public class Device implements IDevice {
         boolean oldAPFlag = false;
 
         if (!deviceManager.isValidAttachmentPoint(sw, port)) return false;
+        if (refreshAttachmentPoint(sw, port, lastSeen)) return false;
         AttachmentPoint newAP = new AttachmentPoint(sw, port, lastSeen);
         //Copy the oldAP and ap list.
         apList = new ArrayList<AttachmentPoint>();
@@ -674,9 +711,8 @@ public class Device implements IDevice {
                 for (Entity se : d.entities) {
                     if (se.getIpv4Address() != null &&
                             se.getIpv4Address().equals(e.getIpv4Address()) &&
-                            se.getLastSeenTimestamp() != null &&
-                            0 < se.getLastSeenTimestamp().
-                            compareTo(e.getLastSeenTimestamp())) {
+                            se.getLastSeen() != Entity.NEVER &&
+                            se.getLastSeen() > e.getLastSeen()) {
                         validIP = false;
                         break;
                     }
@@ -709,13 +745,12 @@ public class Device implements IDevice {
 
     @Override
     public Date getLastSeen() {
-        Date d = null;
+        long t = Entity.NEVER;
         for (int i = 0; i < entities.length; i++) {
-            if (d == null ||
-                    entities[i].getLastSeenTimestamp().compareTo(d) > 0)
-                d = entities[i].getLastSeenTimestamp();
+            if (entities[i].getLastSeen() > t)
+                t = entities[i].getLastSeen();
         }
-        return d;
+        return t == Entity.NEVER ? null : new Date(t);
     }
 
     // ***************
@@ -0,0 +1,149 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A timing wheel of device keys by the time their oldest entity expires.
+ *
+ * Each slot of the wheel holds the devices due in one tick. Expiry polls
+ * the slots whose tick has started, so the work is proportional to the
+ * devices that are due, not to all devices. A device is in at most one
+ * slot: scheduling it later than it already is does nothing, and
+ * scheduling it earlier leaves a stale entry that is skipped when its
+ * slot is polled.
+ *
+ * A device is due from the start of the tick of its deadline, i.e., up
+ * to a tick early, and entities are refreshed in place without
+ * rescheduling, so a due device may have no expired entities. The caller
+ * checks it and schedules it again for its new oldest entity.
+ */
+public class DeviceExpiryWheel {
+    /**
+     * The device keys due in a tick, in FIFO order
+     */
+    private static class Slot {
+        long[] keys = new long[8];
+        int head;
+        int tail;
+
+        boolean isEmpty() {
+            return head == tail;
+        }
+
+        void add(long key) {
+            if (tail == keys.length) {
+                int n = tail - head;
+                long[] k = (n * 2 > keys.length) ?
+                        new long[keys.length * 2] : keys;
+                System.arraycopy(keys, head, k, 0, n);
+                keys = k;
+                head = 0;
+                tail = n;
+            }
+            keys[tail++] = key;
+        }
+
+        long poll() {
+            long key = keys[head++];
+            if (head == tail) {
+                head = 0;
+                tail = 0;
+            }
+            return key;
+        }
+    }
+
+    private final long tickMs;
+    private final int ticks;
+    private final Slot[] slots;
+    private final int mask;
+    // the next tick to poll
+    private long cursor;
+    // the tick each scheduled device is due in
+    private final Map<Long, Long> dueTicks = new HashMap<Long, Long>();
+
+    /**
+     * @param tickMs the granularity of the wheel in milliseconds
+     * @param horizonMs the latest time from now a device can be due
+     * @param now the current time in milliseconds
+     */
+    public DeviceExpiryWheel(long tickMs, long horizonMs, long now) {
+        this.tickMs = tickMs;
+        this.ticks = (int)(horizonMs / tickMs) + 1;
+        int size = Integer.highestOneBit(ticks - 1) << 1;
+        this.slots = new Slot[Math.max(2, size)];
+        this.mask = slots.length - 1;
+        this.cursor = now / tickMs;
+    }
+
+    /**
+     * Schedule a device unless it is already due earlier
+     * @param deviceKey the device key
+     * @param deadline when the oldest entity of the device expires in
+     * milliseconds. Deadlines that have passed are due in the next poll;
+     * deadlines beyond the horizon are checked at the horizon.
+     */
+    public synchronized void schedule(long deviceKey, long deadline) {
+        long tick = deadline / tickMs;
+        if (tick < cursor)
+            tick = cursor;
+        else if (tick > cursor + ticks - 1)
+            tick = cursor + ticks - 1;
+        Long due = dueTicks.get(deviceKey);
+        if (due != null && due <= tick)
+            return;
+        dueTicks.put(deviceKey, tick);
+        int idx = (int)(tick & mask);
+        if (slots[idx] == null)
+            slots[idx] = new Slot();
+        slots[idx].add(deviceKey);
+    }
+
+    /**
+     * Take the devices whose tick has started, up to the size
+     * of the array. The rest stays for the next poll.
+     * @param now the current time in milliseconds
+     * @param out where the device keys go
+     * @return the number of device keys in out
+     */
+    public synchronized int poll(long now, long[] out) {
+        int n = 0;
+        long nowTick = now / tickMs;
+        while (n < out.length && cursor <= nowTick) {
+            Slot s = slots[(int)(cursor & mask)];
+            while (n < out.length && s != null && !s.isEmpty()) {
+                long key = s.poll();
+                Long due = dueTicks.get(key);
+                if (due == null || due != cursor)
+                    continue; // rescheduled earlier
+                dueTicks.remove(key);
+                out[n++] = key;
+            }
+            if (s == null || s.isEmpty())
+                cursor++;
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of scheduled devices
+     */
+    public synchronized int size() {
+        return dueTicks.size();
+    }
+}
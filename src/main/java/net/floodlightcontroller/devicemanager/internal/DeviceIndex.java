@@ -49,6 +49,17 @@ public abstract class DeviceIndex {
      */
     public abstract Iterator<Long> queryByEntity(Entity entity);
     
+    /**
+     * Look up the device key for the given entity in an index that maps
+     * key fields uniquely to a device key
+     * @param entity the entity to search for
+     * @return the device key or null if not found
+     */
+    public Long findByEntity(Entity entity) {
+        Iterator<Long> it = queryByEntity(entity);
+        return it.hasNext() ? it.next() : null;
+    }
+
     /**
      * Get all device keys in the index.  If certain devices exist
      * multiple times, then these devices may be returned multiple times
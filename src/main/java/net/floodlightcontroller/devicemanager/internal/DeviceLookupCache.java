@@ -0,0 +1,180 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.devicemanager.IEntityClass;
+
+/**
+ * A small cache of the devices the packet-ins of a thread were resolved
+ * to, so a host that sends a burst of packets is only looked up in the
+ * indices and classified once.
+ *
+ * The source entries map an entity (MAC, VLAN, IP, switch and port) to
+ * the device and the entity of the device it matched. The destination
+ * entries map an entity and the entity class of the source to the
+ * destination device or to no device.
+ *
+ * Every entry records the device generation it was resolved in. The
+ * device manager calls {@link #invalidate()} after any change that could
+ * resolve an entity differently, which moves to a new generation and
+ * invalidates the entries of all threads at once. The cache is direct
+ * mapped and never grows.
+ */
+public class DeviceLookupCache {
+    private static final ThreadLocal<DeviceLookupCache> threadCache =
+            new ThreadLocal<DeviceLookupCache>() {
+                @Override
+                protected DeviceLookupCache initialValue() {
+                    return new DeviceLookupCache(DEFAULT_SIZE);
+                }
+            };
+
+    private static final AtomicLong currentGeneration = new AtomicLong();
+
+    /**
+     * The number of source and destination entries of a thread
+     */
+    public static final int DEFAULT_SIZE = 256;
+
+    /**
+     * A resolved lookup
+     */
+    static final class Entry {
+        final long generation;
+        /**
+         * The entity looked up; for the source the entity of the device
+         * that equals it
+         */
+        final Entity entity;
+        /**
+         * The entity class of the source for destination entries
+         */
+        final IEntityClass reference;
+        /**
+         * The device or null if none was found
+         */
+        final Device device;
+
+        Entry(long generation, Entity entity, IEntityClass reference,
+              Device device) {
+            this.generation = generation;
+            this.entity = entity;
+            this.reference = reference;
+            this.device = device;
+        }
+    }
+
+    private final Entry[] sources;
+    private final Entry[] destinations;
+    private final int mask;
+
+    /**
+     * @param size the number of entries per direction, a power of two
+     */
+    public DeviceLookupCache(int size) {
+        if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("size must be a power of two");
+        sources = new Entry[size];
+        destinations = new Entry[size];
+        mask = size - 1;
+    }
+
+    /**
+     * @return the cache of the calling thread
+     */
+    public static DeviceLookupCache getThreadCache() {
+        return threadCache.get();
+    }
+
+    /**
+     * @return the current device generation. Read it before a lookup and
+     * put the result with it, so a change during the lookup invalidates
+     * the result.
+     */
+    public static long getGeneration() {
+        return currentGeneration.get();
+    }
+
+    /**
+     * Invalidate the entries of all threads. Call it after the change is
+     * visible to lookups.
+     */
+    public static void invalidate() {
+        currentGeneration.incrementAndGet();
+    }
+
+    private int slot(Entity entity) {
+        int h = entity.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Look up the source device of an entity
+     * @param entity the entity from the packet
+     * @param generation the current device generation
+     * @return the entry or null if the entity was not resolved in this
+     * generation
+     */
+    Entry getSource(Entity entity, long generation) {
+        Entry e = sources[slot(entity)];
+        if (e == null || e.generation != generation ||
+                !e.entity.equals(entity))
+            return null;
+        return e;
+    }
+
+    /**
+     * Remember the source device of an entity
+     * @param known the entity of the device that equals the entity from
+     * the packet
+     * @param generation the device generation before the lookup
+     * @param device the device
+     */
+    void putSource(Entity known, long generation, Device device) {
+        sources[slot(known)] = new Entry(generation, known, null, device);
+    }
+
+    /**
+     * Look up the destination device of an entity
+     * @param entity the destination entity from the packet
+     * @param reference the entity class of the source device
+     * @param generation the current device generation
+     * @return the entry, whose device may be null, or null if the entity
+     * was not resolved in this generation
+     */
+    Entry getDestination(Entity entity, IEntityClass reference,
+                         long generation) {
+        Entry e = destinations[slot(entity)];
+        if (e == null || e.generation != generation ||
+                e.reference != reference || !e.entity.equals(entity))
+            return null;
+        return e;
+    }
+
+    /**
+     * Remember the destination device of an entity
+     * @param entity the destination entity
+     * @param reference the entity class of the source device
+     * @param generation the device generation before the lookup
+     * @param device the device or null if none was found
+     */
+    void putDestination(Entity entity, IEntityClass reference,
+                        long generation, Device device) {
+        destinations[slot(entity)] =
+                new Entry(generation, entity, reference, device);
+    }
+}
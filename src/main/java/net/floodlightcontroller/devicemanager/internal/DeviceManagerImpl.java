@@ -19,11 +19,9 @@ package net.floodlightcontroller.devicemanager.internal;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -85,6 +83,7 @@ import net.floodlightcontroller.packet.DHCP;
 import net.floodlightcontroller.packet.DHCPOption;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.PacketHeaderView;
 import net.floodlightcontroller.packet.UDP;
 import net.floodlightcontroller.packet.DHCP.DHCPOptionCode;
 import net.floodlightcontroller.restserver.IRestApiService;
@@ -150,6 +149,8 @@ IFlowReconcileListener, IInfoProvider {
     public IDebugCounter cntInvalidDest;
     public IDebugCounter cntNoSource;
     public IDebugCounter cntNoDest;
+    public IDebugCounter cntDeviceCacheHit;
+    public IDebugCounter cntDeviceCacheMiss;
     public IDebugCounter cntDhcpClientNameSnooped;
     public IDebugCounter cntDeviceOnInternalPortNotLearned;
     public IDebugCounter cntPacketNotAllowed;
@@ -164,6 +165,8 @@ IFlowReconcileListener, IInfoProvider {
     public IDebugCounter cntDeviceReclassifyDelete;
     public IDebugCounter cntDeviceStrored;
     public IDebugCounter cntDeviceStoreThrottled;
+    public IDebugCounter cntDeviceStoreCoalesced;
+    public IDebugCounter cntDeviceStoreQueueFull;
     public IDebugCounter cntDeviceRemovedFromStore;
     public IDebugCounter cntSyncException;
     public IDebugCounter cntDevicesFromStore;
@@ -190,6 +193,21 @@ IFlowReconcileListener, IInfoProvider {
             5*60*1000; // 5 min
     private int syncStoreWriteIntervalMs = DEFAULT_SYNC_STORE_WRITE_INTERVAL_MS;
 
+    /**
+     * Time interval between writes of the pending device changes to the
+     * sync store. Changes of a device within it are coalesced into one
+     * write.
+     */
+    static final int DEFAULT_SYNC_STORE_FLUSH_INTERVAL_MS = 250;
+    private final int syncStoreFlushIntervalMs =
+            DEFAULT_SYNC_STORE_FLUSH_INTERVAL_MS;
+
+    /**
+     * Maximum number of devices with changes pending for the sync store.
+     * Beyond it changes are written to the store right away.
+     */
+    static final int MAX_PENDING_SYNC_STORE_WRITES = 100000;
+
     /**
      * Time after SLAVE->MASTER until we run the consolidate store
      * code.
@@ -213,9 +231,15 @@ IFlowReconcileListener, IInfoProvider {
     protected static final int ENTITY_TIMEOUT = 60*60*1000;
 
     /**
-     * Time in seconds between cleaning up old entities/devices
+     * Time in milliseconds between runs of the entity expiry
      */
-    protected static final int ENTITY_CLEANUP_INTERVAL = 60*60;
+    protected static final int ENTITY_EXPIRY_INTERVAL = 1000;
+
+    /**
+     * Maximum number of devices checked for expired entities per run of
+     * the entity expiry. Bounds the device updates sent per run.
+     */
+    protected static final int MAX_DEVICES_EXPIRED_PER_RUN = 1000;
 
     /**
      * This is the master device map that maps device IDs to {@link Device}
@@ -223,6 +247,14 @@ IFlowReconcileListener, IInfoProvider {
      */
     protected ConcurrentHashMap<Long, Device> deviceMap;
 
+    /**
+     * The devices by the time their oldest entity expires, in ticks of
+     * ENTITY_EXPIRY_INTERVAL
+     */
+    protected DeviceExpiryWheel expiryWheel =
+            new DeviceExpiryWheel(ENTITY_EXPIRY_INTERVAL, ENTITY_TIMEOUT,
+                                  System.currentTimeMillis());
+
     /**
      * Counter used to generate device keys
      */
@@ -231,7 +263,7 @@ IFlowReconcileListener, IInfoProvider {
     /**
      * This is the primary entity index that contains all entities
      */
-    protected DeviceUniqueIndex primaryIndex;
+    protected DeviceIndex primaryIndex;
 
     /**
      * This stores secondary indices over the fields in the devices
@@ -262,7 +294,7 @@ IFlowReconcileListener, IInfoProvider {
         /**
          * The class index
          */
-        protected DeviceUniqueIndex classIndex;
+        protected DeviceIndex classIndex;
 
         /**
          * This stores secondary indices over the fields in the device for the
@@ -282,7 +314,7 @@ IFlowReconcileListener, IInfoProvider {
                     primaryKeyFields.equals(keyFields);
 
             if (!keyFieldsMatchPrimary)
-                classIndex = new DeviceUniqueIndex(keyFields);
+                classIndex = createUniqueIndex(keyFields);
 
             secondaryIndexMap =
                     new HashMap<EnumSet<DeviceField>, DeviceIndex>();
@@ -437,6 +469,11 @@ IFlowReconcileListener, IInfoProvider {
      */
     private SingletonTask storeConsolidateTask;
 
+    /**
+     * Periodic task to write the pending device changes to the store
+     */
+    private SingletonTask storeWriterTask;
+
     /**
      * Listens for HA notifications
      */
@@ -743,6 +780,15 @@ IFlowReconcileListener, IInfoProvider {
 
         Map<String, Object> info = new HashMap<String, Object>();
         info.put("# hosts", deviceMap.size());
+        if (primaryIndex instanceof MacVlanDeviceIndex) {
+            info.put("Primary index bytes per host",
+                     ((MacVlanDeviceIndex)primaryIndex).getMemoryPerEntry());
+        }
+        if (isMaster) {
+            info.put("Device sync writes pending",
+                     deviceSyncManager.getPendingWrites());
+            info.put("Device sync lag (ms)", deviceSyncManager.getLagMs());
+        }
         return info;
     }
 
@@ -819,7 +865,7 @@ IFlowReconcileListener, IInfoProvider {
             return Command.STOP;
         }
         // Store the source device in the context
-        fcStore.put(ofm.cntx, CONTEXT_SRC_DEVICE, srcDevice);
+        fcStore.put(ofm.cntx, CONTEXT_SRC_DEVICE_SLOT, srcDevice);
 
         // Find the device matching the destination from the entity
         // classes of the source.
@@ -828,7 +874,7 @@ IFlowReconcileListener, IInfoProvider {
         if (dstEntity != null) {
             dstDevice = findDestByEntity(srcDevice.getEntityClass(), dstEntity);
             if (dstDevice != null)
-                fcStore.put(ofm.cntx, CONTEXT_DST_DEVICE, dstDevice);
+                fcStore.put(ofm.cntx, CONTEXT_DST_DEVICE_SLOT, dstDevice);
             else
                 cntReconcileNoDest.updateCounterNoFlush();
         } else {
@@ -932,13 +978,15 @@ IFlowReconcileListener, IInfoProvider {
     public void startUp(FloodlightModuleContext fmc)
             throws FloodlightModuleException {
         isMaster = (floodlightProvider.getRole() == Role.MASTER);
-        primaryIndex = new DeviceUniqueIndex(entityClassifier.getKeyFields());
+        primaryIndex = createUniqueIndex(entityClassifier.getKeyFields());
         secondaryIndexMap = new HashMap<EnumSet<DeviceField>, DeviceIndex>();
 
         deviceMap = new ConcurrentHashMap<Long, Device>();
         classStateMap =
                 new ConcurrentHashMap<String, ClassState>();
         apComparator = new AttachmentPointComparator();
+        // drop what the lookup caches resolved against the old maps
+        invalidateDeviceCache();
 
         floodlightProvider.addOFMessageListener(OFType.PACKET_IN, this);
         floodlightProvider.addHAListener(this.haListenerDelegate);
@@ -951,14 +999,14 @@ IFlowReconcileListener, IInfoProvider {
         Runnable ecr = new Runnable() {
             @Override
             public void run() {
-                cleanupEntities();
-                entityCleanupTask.reschedule(ENTITY_CLEANUP_INTERVAL,
-                                             TimeUnit.SECONDS);
+                expireEntities();
+                entityCleanupTask.reschedule(ENTITY_EXPIRY_INTERVAL,
+                                             TimeUnit.MILLISECONDS);
             }
         };
         entityCleanupTask = new SingletonTask(ses, ecr);
-        entityCleanupTask.reschedule(ENTITY_CLEANUP_INTERVAL,
-                                     TimeUnit.SECONDS);
+        entityCleanupTask.reschedule(ENTITY_EXPIRY_INTERVAL,
+                                     TimeUnit.MILLISECONDS);
 
         Runnable consolidateStoreRunner = new Runnable() {
             @Override
@@ -973,6 +1021,18 @@ IFlowReconcileListener, IInfoProvider {
             storeConsolidateTask.reschedule(syncStoreConsolidateIntervalMs,
                                             TimeUnit.MILLISECONDS);
 
+        Runnable storeWriterRunner = new Runnable() {
+            @Override
+            public void run() {
+                deviceSyncManager.writePendingDevices();
+                storeWriterTask.reschedule(syncStoreFlushIntervalMs,
+                                           TimeUnit.MILLISECONDS);
+            }
+        };
+        storeWriterTask = new SingletonTask(ses, storeWriterRunner);
+        storeWriterTask.reschedule(syncStoreFlushIntervalMs,
+                                   TimeUnit.MILLISECONDS);
+
 
         if (restApi != null) {
             restApi.addRestletRoutable(new DeviceRoutable());
@@ -1036,6 +1096,18 @@ IFlowReconcileListener, IInfoProvider {
                  "destination device. E.g., because the destination MAC is " +
                  "broadcast/multicast or is not yet known to the controller.",
                  CounterType.ALWAYS_COUNT);
+            cntDeviceCacheHit = debugCounters.registerCounter(PACKAGE,
+                 "device-lookup-cache-hit",
+                 "Number of source and destination device lookups of " +
+                 "packetIns that were answered from the lookup cache of the " +
+                 "thread.",
+                 CounterType.ALWAYS_COUNT);
+            cntDeviceCacheMiss = debugCounters.registerCounter(PACKAGE,
+                 "device-lookup-cache-miss",
+                 "Number of source and destination device lookups of " +
+                 "packetIns that were not in the lookup cache of the thread " +
+                 "or were resolved before a device change.",
+                 CounterType.ALWAYS_COUNT);
             cntDhcpClientNameSnooped = debugCounters.registerCounter(PACKAGE,
                  "dhcp-client-name-snooped",
                  "Number of times a DHCP client name was snooped from a " +
@@ -1097,6 +1169,18 @@ IFlowReconcileListener, IInfoProvider {
                  "requested but not performed because the same device entities " +
                  "have recently been updated already",
                  CounterType.ALWAYS_COUNT);
+            cntDeviceStoreCoalesced = debugCounters.registerCounter(PACKAGE,
+                 "device-store-coalesced",
+                 "Number of device changes for the sync store that were " +
+                 "merged into a change of the same device that was not " +
+                 "written yet",
+                 CounterType.ALWAYS_COUNT);
+            cntDeviceStoreQueueFull = debugCounters.registerCounter(PACKAGE,
+                 "device-store-queue-full",
+                 "Number of device changes that were written to the sync " +
+                 "store right away because too many devices had changes " +
+                 "pending",
+                 CounterType.ALWAYS_COUNT, IDebugCounterService.CTR_MDATA_WARN);
             cntDeviceRemovedFromStore = debugCounters.registerCounter(PACKAGE,
                  "device-removed-from-store",
                  "Number of devices that were removed from the sync store " +
@@ -1181,13 +1265,15 @@ IFlowReconcileListener, IInfoProvider {
 
     protected Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
                                              FloodlightContext cntx) {
-        Ethernet eth =
-                IFloodlightProviderService.bcStore.
-                get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        // Read the headers we need straight from the packet data rather
+        // than from the decoded Ethernet, so known hosts can be processed
+        // without decoding the payload.
+        PacketHeaderView pkt = PacketHeaderView.getThreadView();
+        pkt.reset(pi.getPacketData());
 
         // Extract source entity information
         Entity srcEntity =
-                getSourceEntityFromPacket(eth, sw.getId(), pi.getInPort());
+                getSourceEntityFromPacket(pkt, sw.getId(), pi.getInPort());
         if (srcEntity == null) {
             cntInvalidSource.updateCounterNoFlush();
             return Command.STOP;
@@ -1199,31 +1285,35 @@ IFlowReconcileListener, IInfoProvider {
         // the IP to MAC mapping of the VRRP IP address.  The source
         // entity will not have that information.  Hence, a separate call
         // to learn devices in such cases.
-        learnDeviceFromArpResponseData(eth, sw.getId(), pi.getInPort());
+        learnDeviceFromArpResponseData(pkt, sw.getId(), pi.getInPort());
 
         // Learn/lookup device information
-        Device srcDevice = learnDeviceByEntity(srcEntity);
+        Device srcDevice = learnSourceDevice(srcEntity);
         if (srcDevice == null) {
             cntNoSource.updateCounterNoFlush();
             return Command.STOP;
         }
 
         // Store the source device in the context
-        fcStore.put(cntx, CONTEXT_SRC_DEVICE, srcDevice);
+        fcStore.put(cntx, CONTEXT_SRC_DEVICE_SLOT, srcDevice);
+
+        // learnDeviceByEntity() may have dispatched updates on this thread,
+        // so reset the view before using it again.
+        pkt = PacketHeaderView.getThreadView();
+        pkt.reset(pi.getPacketData());
 
         // Find the device matching the destination from the entity
         // classes of the source.
-        if (eth.getDestinationMAC().toLong() == 0) {
+        if (pkt.getDestinationMAC() == 0) {
             cntInvalidDest.updateCounterNoFlush();
             return Command.STOP;
         }
-        Entity dstEntity = getDestEntityFromPacket(eth);
+        Entity dstEntity = getDestEntityFromPacket(pkt);
         Device dstDevice = null;
         if (dstEntity != null) {
-            dstDevice =
-                    findDestByEntity(srcDevice.getEntityClass(), dstEntity);
+            dstDevice = findDestDevice(srcDevice.getEntityClass(), dstEntity);
             if (dstDevice != null)
-                fcStore.put(cntx, CONTEXT_DST_DEVICE, dstDevice);
+                fcStore.put(cntx, CONTEXT_DST_DEVICE_SLOT, dstDevice);
             else
                 cntNoDest.updateCounterNoFlush();
         } else {
@@ -1231,24 +1321,44 @@ IFlowReconcileListener, IInfoProvider {
         }
 
        if (logger.isTraceEnabled()) {
+           Ethernet eth =
+                   IFloodlightProviderService.bcStore.
+                   get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
            logger.trace("Received PI: {} on switch {}, port {} *** eth={}" +
                         " *** srcDev={} *** dstDev={} *** ",
                         new Object[] { pi, sw.getStringId(), pi.getInPort(), eth,
                         srcDevice, dstDevice });
        }
 
-        snoopDHCPClientName(eth, srcDevice);
+        // Only decode the payload if this could be a DHCP request
+        if (pkt.hasTransportPorts() &&
+                pkt.getIPProtocol() == IPv4.PROTOCOL_UDP &&
+                isDHCPPort(pkt.getTransportSource(),
+                           pkt.getTransportDestination())) {
+            Ethernet eth =
+                    IFloodlightProviderService.bcStore.
+                    get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
+            snoopDHCPClientName(eth, srcDevice);
+        }
 
         return Command.CONTINUE;
     }
 
+    /**
+     * Check whether the given UDP ports are the ones UDP decodes as DHCP
+     */
+    private static boolean isDHCPPort(short sourcePort, short destinationPort) {
+        return sourcePort == 67 || sourcePort == 68 ||
+               destinationPort == 67 || destinationPort == 68;
+    }
+
     /**
      * Snoop and record client-provided host name from DHCP requests
      * @param eth
      * @param srcDevice
      */
     private void snoopDHCPClientName(Ethernet eth, Device srcDevice) {
-        if (! (eth.getPayload() instanceof IPv4) )
+        if (eth == null || ! (eth.getPayload() instanceof IPv4) )
             return;
         IPv4 ipv4 = (IPv4) eth.getPayload();
         if (! (ipv4.getPayload() instanceof UDP) )
@@ -1281,7 +1391,8 @@ IFlowReconcileListener, IInfoProvider {
                                            (short)switchPort) == false)
             return false;
 
-        if (suppressAPs.contains(new SwitchPort(switchDPID, switchPort)))
+        if (!suppressAPs.isEmpty() &&
+                suppressAPs.contains(new SwitchPort(switchDPID, switchPort)))
             return false;
 
         return true;
@@ -1291,49 +1402,47 @@ IFlowReconcileListener, IInfoProvider {
      * Get sender IP address from packet if the packet is an ARP
      * packet and if the source MAC address matches the ARP packets
      * sender MAC address.
-     * @param eth
+     * @param pkt
      * @param dlAddr
      * @return
      */
-    private int getSrcNwAddr(Ethernet eth, long dlAddr) {
-        if (eth.getPayload() instanceof ARP) {
-            ARP arp = (ARP) eth.getPayload();
-            if ((arp.getProtocolType() == ARP.PROTO_TYPE_IP) &&
-                    (Ethernet.toLong(arp.getSenderHardwareAddress()) == dlAddr)) {
-                return IPv4.toIPv4Address(arp.getSenderProtocolAddress());
-            }
+    private int getSrcNwAddr(PacketHeaderView pkt, long dlAddr) {
+        if (pkt.isARP() &&
+                pkt.getARPProtocolType() == ARP.PROTO_TYPE_IP &&
+                pkt.getARPSenderHardwareAddress() == dlAddr) {
+            return pkt.getARPSenderProtocolAddress();
         }
         return 0;
     }
 
     /**
-     * Parse an entity from an {@link Ethernet} packet.
-     * @param eth the packet to parse
-     * @param sw the switch on which the packet arrived
-     * @param pi the original packetin
+     * Parse an entity from the headers of a packet.
+     * @param pkt the packet to parse
+     * @param swdpid the switch on which the packet arrived
+     * @param port the port on which the packet arrived
      * @return the entity from the packet
      */
-    protected Entity getSourceEntityFromPacket(Ethernet eth,
+    protected Entity getSourceEntityFromPacket(PacketHeaderView pkt,
                                              long swdpid,
                                              int port) {
-        byte[] dlAddrArr = eth.getSourceMACAddress();
-        long dlAddr = Ethernet.toLong(dlAddrArr);
-
+        if (!pkt.isValid())
+            return null;
         // Ignore broadcast/multicast source
-        if ((dlAddrArr[0] & 0x1) != 0)
+        if (pkt.isSourceMulticast())
             return null;
+        long dlAddr = pkt.getSourceMAC();
         // Ignore 0 source mac
         if (dlAddr == 0)
             return null;
 
-        short vlan = eth.getVlanID();
-        int nwSrc = getSrcNwAddr(eth, dlAddr);
+        short vlan = pkt.getVlanID();
+        int nwSrc = getSrcNwAddr(pkt, dlAddr);
         return new Entity(dlAddr,
                           ((vlan >= 0) ? vlan : null),
                           ((nwSrc != 0) ? nwSrc : null),
                           swdpid,
                           port,
-                          new Date());
+                          System.currentTimeMillis());
     }
 
     /**
@@ -1341,62 +1450,55 @@ IFlowReconcileListener, IInfoProvider {
      * Ethernet source MAC is different from the sender hardware
      * address in ARP data.
      */
-    protected void learnDeviceFromArpResponseData(Ethernet eth,
+    protected void learnDeviceFromArpResponseData(PacketHeaderView pkt,
                                             long swdpid,
                                             int port) {
 
-        if (!(eth.getPayload() instanceof ARP)) return;
-        ARP arp = (ARP) eth.getPayload();
-
-        byte[] dlAddrArr = eth.getSourceMACAddress();
-        long dlAddr = Ethernet.toLong(dlAddrArr);
+        if (!pkt.isARP()) return;
 
-        byte[] senderHardwareAddr = arp.getSenderHardwareAddress();
-        long senderAddr = Ethernet.toLong(senderHardwareAddr);
+        long senderAddr = pkt.getARPSenderHardwareAddress();
 
         //if (dlAddr == senderAddr) return;
 
         // Ignore broadcast/multicast source
-        if ((senderHardwareAddr[0] & 0x1) != 0)
+        if ((senderAddr & 0x010000000000L) != 0)
             return;
         // Ignore zero sender mac
         if (senderAddr == 0)
             return;
 
-        short vlan = eth.getVlanID();
-        int nwSrc = IPv4.toIPv4Address(arp.getSenderProtocolAddress());
+        short vlan = pkt.getVlanID();
+        int nwSrc = pkt.getARPSenderProtocolAddress();
 
         Entity e =  new Entity(senderAddr,
                 ((vlan >= 0) ? vlan : null),
                 ((nwSrc != 0) ? nwSrc : null),
                 swdpid,
                 port,
-                new Date());
+                System.currentTimeMillis());
 
         learnDeviceByEntity(e);
     }
 
     /**
      * Get a (partial) entity for the destination from the packet.
-     * @param eth
+     * @param pkt
      * @return
      */
-    protected Entity getDestEntityFromPacket(Ethernet eth) {
-        byte[] dlAddrArr = eth.getDestinationMACAddress();
-        long dlAddr = Ethernet.toLong(dlAddrArr);
-        short vlan = eth.getVlanID();
+    protected Entity getDestEntityFromPacket(PacketHeaderView pkt) {
+        long dlAddr = pkt.getDestinationMAC();
+        short vlan = pkt.getVlanID();
         int nwDst = 0;
 
         // Ignore broadcast/multicast destination
-        if ((dlAddrArr[0] & 0x1) != 0)
+        if (pkt.isBroadcast() || pkt.isMulticast())
             return null;
         // Ignore zero dest mac
         if (dlAddr == 0)
             return null;
 
-        if (eth.getPayload() instanceof IPv4) {
-            IPv4 ipv4 = (IPv4) eth.getPayload();
-            nwDst = ipv4.getDestinationAddress();
+        if (pkt.isIPv4()) {
+            nwDst = pkt.getIPv4Destination();
         }
 
         return new Entity(dlAddr,
@@ -1458,7 +1560,81 @@ IFlowReconcileListener, IInfoProvider {
                           ((nwSrc != 0) ? nwSrc : null),
                           (learnap ? swDpid : null),
                           (learnap ? (int)inPort : null),
-                          new Date());
+                          System.currentTimeMillis());
+    }
+
+    /**
+     * Learn from the source entity of a packet-in like
+     * {@link #learnDeviceByEntity(Entity)}. If the thread resolved the same
+     * entity in the current device generation, only the timestamps and the
+     * attachment point of the device are updated.
+     * @param entity the source entity of the packet-in
+     * @return The {@link Device} object if found
+     */
+    protected Device learnSourceDevice(Entity entity) {
+        DeviceLookupCache cache = DeviceLookupCache.getThreadCache();
+        long generation = DeviceLookupCache.getGeneration();
+        DeviceLookupCache.Entry cached = cache.getSource(entity, generation);
+        if (cached == null) {
+            cntDeviceCacheMiss.updateCounterNoFlush();
+            Device device = learnDeviceByEntity(entity);
+            // Only cache the known entities on attachment point ports,
+            // the ones learnDeviceByEntity() refreshes in place
+            if (device != null && entity.hasSwitchPort() &&
+                    topology.isAttachmentPointPort(entity.getSwitchDPID(),
+                            entity.getSwitchPort().shortValue())) {
+                int entityindex = device.entityIndex(entity);
+                if (entityindex >= 0)
+                    cache.putSource(device.entities[entityindex],
+                                    generation, device);
+            }
+            return device;
+        }
+        cntDeviceCacheHit.updateCounterNoFlush();
+        Device device = cached.device;
+        cached.entity.updateLastSeen(entity.getLastSeen());
+        if (device.updateAttachmentPoint(entity.getSwitchDPID(),
+                                         entity.getSwitchPort().shortValue(),
+                                         entity.getLastSeen())) {
+            sendDeviceMovedNotification(device);
+        }
+        deviceSyncManager.storeDeviceThrottled(device);
+        return device;
+    }
+
+    /**
+     * Get a destination device like
+     * {@link #findDestByEntity(IEntityClass, Entity)}, from the lookup cache
+     * of the thread if it resolved the same entity in the current device
+     * generation.
+     * @param reference  the source device's entity class.
+     * @param dstEntity  the entity to look up
+     * @return an {@link Device} or null if no device is found.
+     */
+    protected Device findDestDevice(IEntityClass reference,
+                                    Entity dstEntity) {
+        DeviceLookupCache cache = DeviceLookupCache.getThreadCache();
+        long generation = DeviceLookupCache.getGeneration();
+        DeviceLookupCache.Entry cached =
+                cache.getDestination(dstEntity, reference, generation);
+        if (cached != null) {
+            cntDeviceCacheHit.updateCounterNoFlush();
+            return cached.device;
+        }
+        cntDeviceCacheMiss.updateCounterNoFlush();
+        Device device = findDestByEntity(reference, dstEntity);
+        cache.putDestination(dstEntity, reference, generation, device);
+        return device;
+    }
+
+    /**
+     * Invalidate the device lookup caches of all threads. Called after
+     * any change to the devices, the indices, the entity classes or the
+     * topology that could resolve a packet-in to another device. Subclasses
+     * that change the outcome of {@link #isEntityAllowed} call it too.
+     */
+    protected void invalidateDeviceCache() {
+        DeviceLookupCache.invalidate();
     }
 
     /**
@@ -1638,6 +1814,7 @@ IFlowReconcileListener, IInfoProvider {
 
                 // Add the new device to the primary map with a simple put
                 deviceMap.put(deviceKey, device);
+                scheduleExpiry(device);
 
                 // update indices
                 if (!updateIndices(device, deviceKey)) {
@@ -1648,6 +1825,7 @@ IFlowReconcileListener, IInfoProvider {
                 }
 
                 updateSecondaryIndices(entity, entityClass, deviceKey);
+                invalidateDeviceCache();
 
                 // We need to count and log here. If we log earlier we could
                 // hit a concurrent modification and restart the dev creation
@@ -1685,13 +1863,14 @@ IFlowReconcileListener, IInfoProvider {
             int entityindex = -1;
             if ((entityindex = device.entityIndex(entity)) >= 0) {
                 // Entity already exists
-                // update timestamp on the found entity
-                Date lastSeen = entity.getLastSeenTimestamp();
-                if (lastSeen == null) {
-                    lastSeen = new Date();
-                    entity.setLastSeenTimestamp(lastSeen);
+                // refresh the timestamp on the found entity in place. The
+                // device isn't copied and listeners aren't notified.
+                long lastSeen = entity.getLastSeen();
+                if (lastSeen == Entity.NEVER) {
+                    lastSeen = System.currentTimeMillis();
+                    entity.setLastSeen(lastSeen);
                 }
-                device.entities[entityindex].setLastSeenTimestamp(lastSeen);
+                device.entities[entityindex].updateLastSeen(lastSeen);
                 // we break the loop after checking for changes to the AP
             } else {
                 // New entity for this device
@@ -1711,6 +1890,10 @@ IFlowReconcileListener, IInfoProvider {
                 // modified this Device).
                 if (!res)
                     continue;
+                // the new entity may be older than the others, e.g., when
+                // it is restored from the sync store
+                scheduleExpiry(newDevice);
+                invalidateDeviceCache();
 
                 device = newDevice;
                 // update indices
@@ -1720,6 +1903,7 @@ IFlowReconcileListener, IInfoProvider {
                 updateSecondaryIndices(entity,
                                        device.getEntityClass(),
                                        deviceKey);
+                invalidateDeviceCache();
 
                 // We need to count here after all the possible "continue"
                 // statements in this branch
@@ -1739,7 +1923,7 @@ IFlowReconcileListener, IInfoProvider {
                 boolean moved =
                         device.updateAttachmentPoint(entity.getSwitchDPID(),
                                 entity.getSwitchPort().shortValue(),
-                                entity.getLastSeenTimestamp().getTime());
+                                entity.getLastSeen());
                 // TODO: use update mechanism instead of sending the
                 // notification directly
                 if (moved) {
@@ -1922,6 +2106,18 @@ IFlowReconcileListener, IInfoProvider {
         return list;
     }
 
+    /**
+     * Create an index that maps the key fields uniquely to a device key.
+     * MAC and VLAN keys are packed into a primitive index.
+     * @param keyFields the key fields
+     * @return the index
+     */
+    private static DeviceIndex createUniqueIndex(EnumSet<DeviceField> keyFields) {
+        if (MacVlanDeviceIndex.supports(keyFields))
+            return new MacVlanDeviceIndex(keyFields);
+        return new DeviceUniqueIndex(keyFields);
+    }
+
     /**
      * Get the secondary index for a class.  Will return null if the
      * secondary index was created concurrently in another thread.
@@ -1983,101 +2179,132 @@ IFlowReconcileListener, IInfoProvider {
     }
 
     /**
-     * Clean up expired entities/devices
+     * Clean up the expired entities/devices of the devices that are due in
+     * the expiry wheel, at most MAX_DEVICES_EXPIRED_PER_RUN of them. The
+     * devices that are left are scheduled for their new oldest entity.
      */
-    protected void cleanupEntities () {
+    protected void expireEntities() {
         cntCleanupEntitiesRuns.updateCounterWithFlush();
 
-        Calendar c = Calendar.getInstance();
-        c.add(Calendar.MILLISECOND, -ENTITY_TIMEOUT);
-        Date cutoff = c.getTime();
+        long now = System.currentTimeMillis();
+        long[] due = new long[MAX_DEVICES_EXPIRED_PER_RUN];
+        int n = expiryWheel.poll(now, due);
+        if (n == 0)
+            return;
+        long cutoff = now - ENTITY_TIMEOUT;
+        for (int i = 0; i < n; i++) {
+            Device d = deviceMap.get(due[i]);
+            if (d == null)
+                continue;
+            d = cleanupDevice(d, cutoff);
+            if (d != null)
+                scheduleExpiry(d);
+        }
+        debugEvents.flushEvents();
+    }
+
+    /**
+     * Schedule a device in the expiry wheel for its oldest entity. Called
+     * whenever a device is put into the device map, so every device in it
+     * is in the wheel.
+     */
+    protected void scheduleExpiry(Device d) {
+        long oldest = Long.MAX_VALUE;
+        for (Entity e : d.getEntities()) {
+            if (e.getLastSeen() != Entity.NEVER && e.getLastSeen() < oldest)
+                oldest = e.getLastSeen();
+        }
+        if (oldest != Long.MAX_VALUE)
+            expiryWheel.schedule(d.getDeviceKey(), oldest + ENTITY_TIMEOUT);
+    }
 
+    /**
+     * Remove the entities of a device that were last seen before the
+     * cutoff and the device if none are left
+     * @param d the device
+     * @param cutoff the time in milliseconds
+     * @return the device in the device map afterwards or null if it was
+     * removed
+     */
+    protected Device cleanupDevice(Device d, long cutoff) {
         ArrayList<Entity> toRemove = new ArrayList<Entity>();
         ArrayList<Entity> toKeep = new ArrayList<Entity>();
-
-        Iterator<Device> diter = deviceMap.values().iterator();
         LinkedList<DeviceUpdate> deviceUpdates =
                 new LinkedList<DeviceUpdate>();
 
-        while (diter.hasNext()) {
-            Device d = diter.next();
-
-            while (true) {
-                deviceUpdates.clear();
-                toRemove.clear();
-                toKeep.clear();
-                for (Entity e : d.getEntities()) {
-                    if (e.getLastSeenTimestamp() != null &&
-                         0 > e.getLastSeenTimestamp().compareTo(cutoff)) {
-                        // individual entity needs to be removed
-                        toRemove.add(e);
-                    } else {
-                        toKeep.add(e);
-                    }
-                }
-                if (toRemove.size() == 0) {
-                    break;
+        while (true) {
+            deviceUpdates.clear();
+            toRemove.clear();
+            toKeep.clear();
+            for (Entity e : d.getEntities()) {
+                if (e.getLastSeen() != Entity.NEVER &&
+                     e.getLastSeen() < cutoff) {
+                    // individual entity needs to be removed
+                    toRemove.add(e);
+                } else {
+                    toKeep.add(e);
                 }
+            }
+            if (toRemove.size() == 0) {
+                return d;
+            }
 
-                cntEntityRemovedTimeout.updateCounterWithFlush();
+            cntEntityRemovedTimeout.updateCounterWithFlush();
+            for (Entity e : toRemove) {
+                removeEntity(e, d.getEntityClass(), d.getDeviceKey(), toKeep);
+            }
+
+            if (toKeep.size() > 0) {
+                Device newDevice = allocateDevice(d.getDeviceKey(),
+                                                  d.getDHCPClientName(),
+                                                  d.oldAPs,
+                                                  d.attachmentPoints,
+                                                  toKeep,
+                                                  d.getEntityClass());
+
+                EnumSet<DeviceField> changedFields =
+                        EnumSet.noneOf(DeviceField.class);
                 for (Entity e : toRemove) {
-                    removeEntity(e, d.getEntityClass(), d.getDeviceKey(), toKeep);
+                    changedFields.addAll(findChangedFields(newDevice, e));
+                }
+                DeviceUpdate update = null;
+                if (changedFields.size() > 0) {
+                    update = new DeviceUpdate(d, CHANGE, changedFields);
                 }
 
-                if (toKeep.size() > 0) {
-                    Device newDevice = allocateDevice(d.getDeviceKey(),
-                                                      d.getDHCPClientName(),
-                                                      d.oldAPs,
-                                                      d.attachmentPoints,
-                                                      toKeep,
-                                                      d.getEntityClass());
-
-                    EnumSet<DeviceField> changedFields =
-                            EnumSet.noneOf(DeviceField.class);
-                    for (Entity e : toRemove) {
-                        changedFields.addAll(findChangedFields(newDevice, e));
-                    }
-                    DeviceUpdate update = null;
-                    if (changedFields.size() > 0) {
-                        update = new DeviceUpdate(d, CHANGE, changedFields);
-                    }
-
-                    if (!deviceMap.replace(newDevice.getDeviceKey(),
-                                           d,
-                                           newDevice)) {
-                        // concurrent modification; try again
-                        // need to use device that is the map now for the next
-                        // iteration
-                        d = deviceMap.get(d.getDeviceKey());
-                        if (null != d)
-                            continue;
-                    }
-                    if (update != null) {
-                        // need to count after all possibly continue stmts in
-                        // this branch
-                        cntDeviceChanged.updateCounterWithFlush();
-                        deviceUpdates.add(update);
-                    }
-                } else {
-                    DeviceUpdate update = new DeviceUpdate(d, DELETE, null);
-                    if (!deviceMap.remove(d.getDeviceKey(), d)) {
-                        // concurrent modification; try again
-                        // need to use device that is the map now for the next
-                        // iteration
-                        d = deviceMap.get(d.getDeviceKey());
-                        if (null != d)
-                            continue;
-                        cntDeviceDeleted.updateCounterWithFlush();
-                    }
+                if (!deviceMap.replace(newDevice.getDeviceKey(),
+                                       d,
+                                       newDevice)) {
+                    // concurrent modification; try again
+                    // need to use device that is the map now for the next
+                    // iteration
+                    d = deviceMap.get(d.getDeviceKey());
+                    if (null != d)
+                        continue;
+                }
+                if (update != null) {
+                    // need to count after all possibly continue stmts in
+                    // this branch
+                    cntDeviceChanged.updateCounterWithFlush();
                     deviceUpdates.add(update);
                 }
-                processUpdates(deviceUpdates);
-                break;
+            } else {
+                DeviceUpdate update = new DeviceUpdate(d, DELETE, null);
+                if (!deviceMap.remove(d.getDeviceKey(), d)) {
+                    // concurrent modification; try again
+                    // need to use device that is the map now for the next
+                    // iteration
+                    d = deviceMap.get(d.getDeviceKey());
+                    if (null != d)
+                        continue;
+                    cntDeviceDeleted.updateCounterWithFlush();
+                }
+                deviceUpdates.add(update);
             }
+            invalidateDeviceCache();
+            processUpdates(deviceUpdates);
+            return (d == null) ? null : deviceMap.get(d.getDeviceKey());
         }
-        // Since cleanupEntities() is not called in the packet-in pipeline,
-        // debugEvents need to be flushed explicitly
-        debugEvents.flushEvents();
     }
 
     protected void removeEntity(Entity removed,
@@ -2123,6 +2350,7 @@ IFlowReconcileListener, IInfoProvider {
                 logger.debug("device map does not have this device -" +
                     device.toString());
         }
+        invalidateDeviceCache();
     }
 
     private EnumSet<DeviceField> getEntityKeys(Long macAddress,
@@ -2213,6 +2441,8 @@ IFlowReconcileListener, IInfoProvider {
      */
     @Override
     public void topologyChanged(List<LDUpdate> updateList) {
+        // attachment point ports may have changed
+        invalidateDeviceCache();
         Iterator<Device> diter = deviceMap.values().iterator();
         if (updateList != null) {
             if (logger.isTraceEnabled()) {
@@ -2257,6 +2487,7 @@ IFlowReconcileListener, IInfoProvider {
 
     @Override
     public void entityClassChanged (Set<String> entityClassNames) {
+        invalidateDeviceCache();
         /* iterate through the devices, reclassify the devices that belong
          * to these entity class names
          */
@@ -2327,6 +2558,13 @@ IFlowReconcileListener, IInfoProvider {
         this.syncStoreWriteIntervalMs = intervalMs;
     }
 
+    /**
+     * For testing: write the pending device changes to the store NOW
+     */
+    void flushSyncStoreWrites() {
+        deviceSyncManager.writePendingDevices();
+    }
+
     /**
      * For testing: sets the time between transition to MASTER and
      * consolidate store
@@ -2344,13 +2582,38 @@ IFlowReconcileListener, IInfoProvider {
     }
 
     private class DeviceSyncManager  {
-        // maps (opaque) deviceKey to the time in System.nanoTime() when we
-        // last wrote the device to the sync store
-        private final ConcurrentMap<Long, Long> lastWriteTimes =
+        /**
+         * The latest change of a device that is not written to the store
+         * yet
+         */
+        private class PendingWrite {
+            final Device device;
+            final boolean remove;
+            // System.nanoTime() of the first change since the last write
+            final long queuedNs;
+
+            PendingWrite(Device device, boolean remove, long queuedNs) {
+                this.device = device;
+                this.remove = remove;
+                this.queuedNs = queuedNs;
+            }
+        }
+
+        // maps (opaque) deviceKey to the System.nanoTime() we last queued
+        // a write of the device, which throttles timestamp updates
+        private final ConcurrentMap<Long, Long> lastQueued =
                 new ConcurrentHashMap<Long, Long>();
+        // maps the store key to the change to write. A device learned
+        // again gets a new deviceKey but has the same store key, so its
+        // removal and its write can't be written out of order.
+        private final ConcurrentMap<String, PendingWrite> pendingWrites =
+                new ConcurrentHashMap<String, PendingWrite>();
+        // the longest a change waited for its write in the last run of
+        // writePendingDevices()
+        private volatile long lagMs;
 
         /**
-         * Write the given device to storage if we are MASTER.
+         * Queue a write of the given device to storage if we are MASTER.
          * Use this method if the device has significantly changed (e.g.,
          * new AP, new IP, entities removed).
          * @param d the device to store
@@ -2360,15 +2623,13 @@ IFlowReconcileListener, IInfoProvider {
                 return;
             if (d == null)
                 return;
-            long now = System.nanoTime();
-            writeUpdatedDeviceToStorage(d);
-            lastWriteTimes.put(d.getDeviceKey(), now);
+            queueWrite(d, false);
         }
 
         /**
-         * Write the given device to storage if we are MASTER and if the
-         * last write for the device was more than this.syncStoreIntervalNs
-         * time ago.
+         * Queue a write of the given device to storage if we are MASTER and
+         * if the last write for the device was more than
+         * this.syncStoreIntervalNs time ago.
          * Use this method to updated last active times in the store.
          * @param d the device to store
          */
@@ -2379,43 +2640,134 @@ IFlowReconcileListener, IInfoProvider {
             if (d == null)
                 return;
             long now = System.nanoTime();
-            Long last = lastWriteTimes.get(d.getDeviceKey());
+            Long last = lastQueued.get(d.getDeviceKey());
             if (last == null ||
                     now - last > intervalNs) {
-                writeUpdatedDeviceToStorage(d);
-                lastWriteTimes.put(d.getDeviceKey(), now);
+                queueWrite(d, false);
             } else {
                 cntDeviceStoreThrottled.updateCounterWithFlush();
             }
         }
 
         /**
-         * Remove the given device from the store. If only some entities have
-         * been removed the updated device should be written using
-         * {@link #storeDevice(Device)}
+         * Queue the removal of the given device from the store. If only
+         * some entities have been removed the updated device should be
+         * written using {@link #storeDevice(Device)}
          * @param d
          */
         public void removeDevice(Device d) {
             if (!isMaster)
                 return;
+            queueWrite(d, true);
+        }
+
+        /**
+         * Replace the pending change for the store key of the device,
+         * keeping the time of the first one. The removal of a device
+         * doesn't replace the write of another device with the same store
+         * key, which was learned after it. If too many devices have
+         * changes pending, write the change right away instead.
+         */
+        private void queueWrite(Device d, boolean remove) {
+            Long deviceKey = d.getDeviceKey();
+            String storeKey = DeviceSyncRepresentation.computeKey(d);
+            long now = System.nanoTime();
             // FIXME: could we have a problem with concurrent put to the
             // hashMap? I.e., we write a stale entry to the map after the
             // delete and now are left with an entry we'll never clean up
-            lastWriteTimes.remove(d.getDeviceKey());
-            try {
-                // TODO: should probably do versioned delete. OTOH, even
-                // if we accidentally delete, we'll write it again after
-                // the next entity ....
-                cntDeviceRemovedFromStore.updateCounterWithFlush();
-                storeClient.delete(DeviceSyncRepresentation.computeKey(d));
-            } catch(ObsoleteVersionException e) {
-                // FIXME
-            } catch (SyncException e) {
-                cntSyncException.updateCounterWithFlush();
-                logger.error("Could not remove device " + d + " from store", e);
+            if (remove)
+                lastQueued.remove(deviceKey);
+            else
+                lastQueued.put(deviceKey, now);
+            while (true) {
+                PendingWrite prev = pendingWrites.get(storeKey);
+                if (prev == null) {
+                    if (pendingWrites.size() >= MAX_PENDING_SYNC_STORE_WRITES) {
+                        cntDeviceStoreQueueFull.updateCounterWithFlush();
+                        write(new PendingWrite(d, remove, now));
+                        return;
+                    }
+                    if (pendingWrites.putIfAbsent(storeKey,
+                            new PendingWrite(d, remove, now)) == null)
+                        return;
+                } else if (remove && !prev.remove &&
+                        !prev.device.getDeviceKey().equals(deviceKey)) {
+                    cntDeviceStoreCoalesced.updateCounterNoFlush();
+                    return;
+                } else if (pendingWrites.replace(storeKey, prev,
+                        new PendingWrite(d, remove, prev.queuedNs))) {
+                    cntDeviceStoreCoalesced.updateCounterNoFlush();
+                    return;
+                }
             }
         }
 
+        /**
+         * Write the pending device changes to the store if we are MASTER,
+         * one after the other so the sync service can batch them into few
+         * messages. Drop them otherwise.
+         */
+        private void writePendingDevices() {
+            if (!isMaster) {
+                pendingWrites.clear();
+                return;
+            }
+            long now = System.nanoTime();
+            long maxLagNs = 0;
+            Iterator<Map.Entry<String, PendingWrite>> iter =
+                    pendingWrites.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, PendingWrite> entry = iter.next();
+                PendingWrite pw = entry.getValue();
+                // a newer change stays for the next run
+                if (!pendingWrites.remove(entry.getKey(), pw))
+                    continue;
+                write(pw);
+                maxLagNs = Math.max(maxLagNs, now - pw.queuedNs);
+            }
+            lagMs = TimeUnit.NANOSECONDS.toMillis(maxLagNs);
+        }
+
+        /**
+         * @return the number of store keys with changes pending
+         */
+        public int getPendingWrites() {
+            return pendingWrites.size();
+        }
+
+        /**
+         * @return the longest time in milliseconds a device change waited
+         * before it was written to the store in the last write run, i.e.,
+         * how far the store replicated to the standby controllers lags
+         * behind the devices
+         */
+        public long getLagMs() {
+            return lagMs;
+        }
+
+        /**
+         * Write a pending change to the store
+         */
+        private void write(PendingWrite pw) {
+            Device d = pw.device;
+            if (pw.remove) {
+                try {
+                    // TODO: should probably do versioned delete. OTOH, even
+                    // if we accidentally delete, we'll write it again after
+                    // the next entity ....
+                    cntDeviceRemovedFromStore.updateCounterWithFlush();
+                    storeClient.delete(DeviceSyncRepresentation.computeKey(d));
+                } catch(ObsoleteVersionException e) {
+                    // FIXME
+                } catch (SyncException e) {
+                    cntSyncException.updateCounterWithFlush();
+                    logger.error("Could not remove device " + d + " from store", e);
+                }
+                return;
+            }
+            writeUpdatedDeviceToStorage(d);
+        }
+
         /**
          * Remove the given Versioned device from the store. If the device
          * was locally modified ignore the delete request.
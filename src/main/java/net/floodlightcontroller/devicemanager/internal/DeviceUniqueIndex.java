@@ -105,6 +105,7 @@ public class DeviceUniqueIndex extends DeviceIndex {
      * @param entity the entity to search for
      * @return The key for the {@link Device} object if found
      */
+    @Override
     public Long findByEntity(Entity entity) {
         IndexedEntity ie = new IndexedEntity(keyFields, entity);
         Long deviceKey = index.get(ie);
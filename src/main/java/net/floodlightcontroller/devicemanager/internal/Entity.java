@@ -18,6 +18,7 @@
 package net.floodlightcontroller.devicemanager.internal;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import net.floodlightcontroller.core.web.serializers.IPv4Serializer;
 import net.floodlightcontroller.core.web.serializers.MACSerializer;
@@ -37,7 +38,8 @@ import org.openflow.util.HexString;
  * 
  * Entities are the most basic element of devices; devices consist of one or
  * more entities.  Entities are immutable once created, except for the last
- * seen timestamp.
+ * seen timestamp. The timestamps are kept as primitive longs, so a packet
+ * from a known entity refreshes it in place without allocating.
  *  
  * @author readams
  *
@@ -48,6 +50,14 @@ public class Entity implements Comparable<Entity> {
      * @see {@link Entity#activeSince}
      */
     protected static int ACTIVITY_TIMEOUT = 30000;
+
+    /**
+     * Timestamp value of an entity that was never seen
+     */
+    protected static final long NEVER = Long.MIN_VALUE;
+
+    private static final AtomicLongFieldUpdater<Entity> lastSeenUpdater =
+            AtomicLongFieldUpdater.newUpdater(Entity.class, "lastSeen");
     
     /**
      * The MAC address associated with this entity
@@ -78,19 +88,20 @@ public class Entity implements Comparable<Entity> {
     protected Integer switchPort;
     
     /**
-     * The last time we observed this entity on the network
+     * The last time we observed this entity on the network in
+     * milliseconds, or NEVER
      */
-    protected Date lastSeenTimestamp;
+    protected volatile long lastSeen;
 
     /**
      * The time between {@link Entity#activeSince} and 
-     * {@link Entity#lastSeenTimestamp} is a period of activity for this
+     * {@link Entity#lastSeen} is a period of activity for this
      * entity where it was observed repeatedly.  If, when the entity is
      * observed, the  is longer ago than the activity timeout, 
-     * {@link Entity#lastSeenTimestamp} and {@link Entity#activeSince} will 
-     * be set to the current time.
+     * {@link Entity#lastSeen} and {@link Entity#activeSince} will 
+     * be set to the current time. In milliseconds, or NEVER.
      */
-    protected Date activeSince;
+    protected volatile long activeSince;
     
     private int hashCode = 0;
 
@@ -111,13 +122,30 @@ public class Entity implements Comparable<Entity> {
     public Entity(long macAddress, Short vlan, 
                   Integer ipv4Address, Long switchDPID, Integer switchPort, 
                   Date lastSeenTimestamp) {
+        this(macAddress, vlan, ipv4Address, switchDPID, switchPort,
+             lastSeenTimestamp == null ? NEVER : lastSeenTimestamp.getTime());
+    }
+
+    /**
+     * Create a new entity
+     *
+     * @param macAddress
+     * @param vlan
+     * @param ipv4Address
+     * @param switchDPID
+     * @param switchPort
+     * @param lastSeen the last seen time in milliseconds
+     */
+    public Entity(long macAddress, Short vlan,
+                  Integer ipv4Address, Long switchDPID, Integer switchPort,
+                  long lastSeen) {
         this.macAddress = macAddress;
         this.ipv4Address = ipv4Address;
         this.vlan = vlan;
         this.switchDPID = switchDPID;
         this.switchPort = switchPort;
-        this.lastSeenTimestamp = lastSeenTimestamp;
-        this.activeSince = lastSeenTimestamp;
+        this.lastSeen = lastSeen;
+        this.activeSince = lastSeen;
     }
 
     // ***************
@@ -153,7 +181,16 @@ public class Entity implements Comparable<Entity> {
     }
 
     public Date getLastSeenTimestamp() {
-        return lastSeenTimestamp;
+        long t = lastSeen;
+        return t == NEVER ? null : new Date(t);
+    }
+
+    /**
+     * @return the last seen time in milliseconds, or NEVER
+     */
+    @JsonIgnore
+    public long getLastSeen() {
+        return lastSeen;
     }
 
     /**
@@ -163,19 +200,51 @@ public class Entity implements Comparable<Entity> {
      * @see {@link Entity#activeSince}
      */
     public void setLastSeenTimestamp(Date lastSeenTimestamp) {
-        if (activeSince == null ||
-            (activeSince.getTime() +  ACTIVITY_TIMEOUT) <
-                lastSeenTimestamp.getTime())
-            this.activeSince = lastSeenTimestamp;
-        this.lastSeenTimestamp = lastSeenTimestamp;
+        setLastSeen(lastSeenTimestamp == null ? NEVER :
+                                                lastSeenTimestamp.getTime());
+    }
+
+    /**
+     * Set the last seen time and also update {@link Entity#activeSince}
+     * if appropriate
+     * @param lastSeen the last seen time in milliseconds
+     */
+    public void setLastSeen(long lastSeen) {
+        updateActiveSince(lastSeen);
+        this.lastSeen = lastSeen;
+    }
+
+    /**
+     * Refresh the last seen time in place for another observation of the
+     * entity. It only moves forward, so concurrent packet-ins don't need
+     * a lock.
+     * @param now the time of the observation in milliseconds
+     */
+    public void updateLastSeen(long now) {
+        while (true) {
+            long prev = lastSeen;
+            if (prev != NEVER && prev >= now)
+                return;
+            if (lastSeenUpdater.compareAndSet(this, prev, now)) {
+                updateActiveSince(now);
+                return;
+            }
+        }
+    }
+
+    private void updateActiveSince(long lastSeen) {
+        long a = activeSince;
+        if (a == NEVER || a + ACTIVITY_TIMEOUT < lastSeen)
+            this.activeSince = lastSeen;
     }
 
     public Date getActiveSince() {
-        return activeSince;
+        long t = activeSince;
+        return t == NEVER ? null : new Date(t);
     }
 
     public void setActiveSince(Date activeSince) {
-        this.activeSince = activeSince;
+        this.activeSince = activeSince == null ? NEVER : activeSince.getTime();
     }
     
     @Override
@@ -234,9 +303,9 @@ public class Entity implements Comparable<Entity> {
         builder.append(", switchPort=");
         builder.append(switchPort);
         builder.append(", lastSeenTimestamp=");
-        builder.append(lastSeenTimestamp == null? "null" : lastSeenTimestamp.getTime());
+        builder.append(lastSeen == NEVER ? "null" : String.valueOf(lastSeen));
         builder.append(", activeSince=");
-        builder.append(activeSince == null? "null" : activeSince.getTime());
+        builder.append(activeSince == NEVER ? "null" : String.valueOf(activeSince));
         builder.append("]");
         return builder.toString();
     }
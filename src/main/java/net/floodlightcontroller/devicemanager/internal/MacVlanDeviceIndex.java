@@ -0,0 +1,316 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
+
+/**
+ * A unique index for the MAC and VLAN key fields that doesn't allocate
+ * per entry.
+ *
+ * The MAC address and VLAN of an entity are packed into a long and mapped
+ * to the device key in an open addressing table of primitive longs, i.e.,
+ * 16 bytes per slot instead of a map entry, an {@link IndexedEntity} and
+ * a boxed key. Untagged entities (null VLAN) share the key of
+ * VLAN_UNTAGGED (0xffff).
+ *
+ * Lookups don't lock. Updates are serialized. A slot's key is written
+ * once, before its device key is published, and removal only marks the
+ * slot deleted, so a reader never sees the device key of another entity.
+ * Deleted slots are reclaimed when the table is rebuilt.
+ */
+public class MacVlanDeviceIndex extends DeviceIndex {
+    // device keys are never negative
+    private static final long FREE = -1;
+    private static final long DELETED = -2;
+    private static final int MIN_CAPACITY = 1024;
+    // approximate size of the table objects
+    private static final int TABLE_OVERHEAD = 64;
+
+    private static final class Table {
+        final long[] keys;
+        final AtomicLongArray values;
+        final int mask;
+        // slots in use, including deleted ones
+        int used;
+        int size;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++)
+                values.lazySet(i, FREE);
+            mask = capacity - 1;
+        }
+    }
+
+    private final boolean withVlan;
+    private volatile Table table;
+
+    /**
+     * @param keyFields the key fields, MAC and optionally VLAN
+     */
+    public MacVlanDeviceIndex(EnumSet<DeviceField> keyFields) {
+        super(keyFields);
+        if (!supports(keyFields))
+            throw new IllegalArgumentException("Unsupported key fields " +
+                                               keyFields);
+        withVlan = keyFields.contains(DeviceField.VLAN);
+        table = new Table(MIN_CAPACITY);
+    }
+
+    /**
+     * @return true if the key fields can be packed into a long
+     */
+    public static boolean supports(EnumSet<DeviceField> keyFields) {
+        return keyFields.contains(DeviceField.MAC) &&
+               EnumSet.of(DeviceField.MAC, DeviceField.VLAN)
+                      .containsAll(keyFields);
+    }
+
+    /**
+     * Pack the key fields of an entity, an untagged VLAN as VLAN_UNTAGGED
+     */
+    private long pack(Entity entity) {
+        Short vlan = entity.vlan;
+        long v = (withVlan && vlan != null) ? (vlan & 0xffff) : 0xffff;
+        return (entity.macAddress << 16) | v;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return the device key or -1 if not found
+     */
+    private static long get(Table t, long key) {
+        int i = slot(key, t.mask);
+        while (true) {
+            // the key is written before the value is published
+            long v = t.values.get(i);
+            if (v == FREE)
+                return -1;
+            if (t.keys[i] == key)
+                return v == DELETED ? -1 : v;
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Put a mapping. Called with the lock held.
+     * @param onlyIfAbsent don't replace an existing device key
+     * @return the previous device key or -1
+     */
+    private long put(long key, long deviceKey, boolean onlyIfAbsent) {
+        Table t = table;
+        int i = slot(key, t.mask);
+        while (true) {
+            long v = t.values.get(i);
+            if (v == FREE)
+                break;
+            if (t.keys[i] == key) {
+                if (v == DELETED) {
+                    t.size++;
+                    v = -1;
+                }
+                if (v < 0 || !onlyIfAbsent)
+                    t.values.set(i, deviceKey);
+                return v;
+            }
+            i = (i + 1) & t.mask;
+        }
+        t.keys[i] = key;
+        t.values.set(i, deviceKey);
+        t.used++;
+        t.size++;
+        // at most two thirds of the slots are used
+        if (t.used * 3 > t.keys.length * 2)
+            rebuild();
+        return -1;
+    }
+
+    /**
+     * Remove a mapping. Called with the lock held.
+     * @param deviceKey only remove it if it maps to this key, -1 for any
+     */
+    private void remove(long key, long deviceKey) {
+        Table t = table;
+        int i = slot(key, t.mask);
+        while (true) {
+            long v = t.values.get(i);
+            if (v == FREE)
+                return;
+            if (t.keys[i] == key) {
+                if (v >= 0 && (deviceKey < 0 || v == deviceKey)) {
+                    t.values.set(i, DELETED);
+                    t.size--;
+                }
+                return;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Copy the live entries into a new table sized for them and publish
+     * it. Drops the deleted slots.
+     */
+    private void rebuild() {
+        Table old = table;
+        int capacity = MIN_CAPACITY;
+        while (capacity < old.size * 2)
+            capacity <<= 1;
+        Table t = new Table(capacity);
+        for (int i = 0; i < old.keys.length; i++) {
+            long v = old.values.get(i);
+            if (v < 0)
+                continue;
+            int j = slot(old.keys[i], t.mask);
+            while (t.values.get(j) != FREE)
+                j = (j + 1) & t.mask;
+            t.keys[j] = old.keys[i];
+            t.values.lazySet(j, v);
+            t.used++;
+            t.size++;
+        }
+        // the volatile write publishes the table
+        table = t;
+    }
+
+    // ***********
+    // DeviceIndex
+    // ***********
+
+    @Override
+    public Long findByEntity(Entity entity) {
+        long deviceKey = get(table, pack(entity));
+        return deviceKey < 0 ? null : Long.valueOf(deviceKey);
+    }
+
+    @Override
+    public Iterator<Long> queryByEntity(Entity entity) {
+        Long deviceKey = findByEntity(entity);
+        if (deviceKey == null)
+            return Collections.<Long>emptySet().iterator();
+        return Collections.<Long>singleton(deviceKey).iterator();
+    }
+
+    @Override
+    public Iterator<Long> getAll() {
+        final Table t = table;
+        return new Iterator<Long>() {
+            int next = advance(0);
+
+            private int advance(int i) {
+                while (i < t.keys.length && t.values.get(i) < 0)
+                    i++;
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < t.keys.length;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                long v = t.values.get(next);
+                next = advance(next + 1);
+                return v;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public synchronized boolean updateIndex(Device device, Long deviceKey) {
+        for (Entity e : device.entities) {
+            long ret = put(pack(e), deviceKey, true);
+            if (ret >= 0 && ret != deviceKey) {
+                // a device using this entity has already been created
+                // in another thread
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void updateIndex(Entity entity, Long deviceKey) {
+        put(pack(entity), deviceKey, false);
+    }
+
+    @Override
+    public synchronized void removeEntity(Entity entity) {
+        remove(pack(entity), -1);
+    }
+
+    @Override
+    public synchronized void removeEntity(Entity entity, Long deviceKey) {
+        remove(pack(entity), deviceKey);
+    }
+
+    @Override
+    public void removeEntityIfNeeded(Entity entity, Long deviceKey,
+                                     Collection<Entity> others) {
+        long key = pack(entity);
+        for (Entity o : others) {
+            if (pack(o) == key) return;
+        }
+        removeEntity(entity, deviceKey);
+    }
+
+    // **************
+    // Public Methods
+    // **************
+
+    /**
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return table.size;
+    }
+
+    /**
+     * @return the approximate memory used by the index in bytes
+     */
+    public long getMemoryUsage() {
+        // the key and the value of each slot
+        return TABLE_OVERHEAD + (long)table.keys.length * 16;
+    }
+
+    /**
+     * @return the approximate memory used per entry in bytes, 0 if empty
+     */
+    public synchronized long getMemoryPerEntry() {
+        int n = table.size;
+        return n == 0 ? 0 : getMemoryUsage() / n;
+    }
+}
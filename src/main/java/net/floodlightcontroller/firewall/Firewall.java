@@ -40,8 +40,8 @@ import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.devicemanager.IDeviceService;
 
 import java.util.ArrayList;
-import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.PacketHeaderView;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.routing.IRoutingDecision;
 import net.floodlightcontroller.routing.RoutingDecision;
@@ -372,7 +372,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
             IRoutingDecision decision = null;
             if (cntx != null) {
                 decision = IRoutingDecision.rtStore.get(cntx,
-                        IRoutingDecision.CONTEXT_DECISION);
+                        IRoutingDecision.CONTEXT_DECISION_SLOT);
 
                 return this.processPacketInMessage(sw, (OFPacketIn) msg,
                         decision, cntx);
@@ -538,8 +538,8 @@ public class Firewall implements IFirewallService, IOFMessageListener,
     protected RuleWildcardsPair matchWithRule(IOFSwitch sw, OFPacketIn pi,
             FloodlightContext cntx) {
         FirewallRule matched_rule = null;
-        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        PacketHeaderView pkt = PacketHeaderView.getThreadView();
+        pkt.reset(pi.getPacketData());
         NonWildcardsPair nonWildcards = new NonWildcardsPair();
 
         synchronized (rules) {
@@ -551,7 +551,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
                 rule = iter.next();
 
                 // check if rule matches
-                if (rule.matchesFlow(sw.getId(), pi.getInPort(), eth, nonWildcards) == true) {
+                if (rule.matchesFlow(sw.getId(), pi.getInPort(), pkt, nonWildcards) == true) {
                     matched_rule = rule;
                     break;
                 }
@@ -587,19 +587,18 @@ public class Firewall implements IFirewallService, IOFMessageListener,
 
     public Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
             IRoutingDecision decision, FloodlightContext cntx) {
-        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        PacketHeaderView pkt = PacketHeaderView.getThreadView();
+        pkt.reset(pi.getPacketData());
 
         // Allowing L2 broadcast + ARP broadcast request (also deny malformed
         // broadcasts -> L2 broadcast + L3 unicast)
-        if (eth.isBroadcast() == true) {
+        if (pkt.isBroadcast() == true) {
             boolean allowBroadcast = true;
             // the case to determine if we have L2 broadcast + L3 unicast
             // don't allow this broadcast packet if such is the case (malformed
             // packet)
-            if ((eth.getPayload() instanceof IPv4)
-                    && this.IPIsBroadcast(((IPv4) eth.getPayload())
-                            .getDestinationAddress()) == false) {
+            if (pkt.isIPv4()
+                    && this.IPIsBroadcast(pkt.getIPv4Destination()) == false) {
                 allowBroadcast = false;
             }
             if (allowBroadcast == true) {
@@ -609,7 +608,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
                                         
                 decision = new RoutingDecision(sw.getId(), pi.getInPort()
                 		, IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE),
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT),
                         IRoutingDecision.RoutingAction.MULTICAST);
                 decision.addToContext(cntx);
             } else {
@@ -620,7 +619,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
 
                 decision = new RoutingDecision(sw.getId(), pi.getInPort()
                 		, IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE),
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT),
                         IRoutingDecision.RoutingAction.DROP);
                 decision.addToContext(cntx);
             }
@@ -646,7 +645,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
             if (rule == null || rule.action == FirewallRule.FirewallAction.DENY) {
                 decision = new RoutingDecision(sw.getId(), pi.getInPort()
                 		, IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE),
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT),
                         IRoutingDecision.RoutingAction.DROP);
                 decision.setNonWildcards(match_ret.nonWildcards);
                 decision.addToContext(cntx);
@@ -663,7 +662,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
             } else {
                 decision = new RoutingDecision(sw.getId(), pi.getInPort()
                 		, IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE),
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT),
                         IRoutingDecision.RoutingAction.FORWARD_OR_FLOOD);
                 decision.setNonWildcards(match_ret.nonWildcards);
                 decision.addToContext(cntx);
@@ -18,18 +18,14 @@
 package net.floodlightcontroller.firewall;
 
 import java.util.Arrays;
-import java.nio.ByteBuffer;
 
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import org.openflow.protocol.OFOXMFieldType;
 
 import net.floodlightcontroller.packet.Ethernet;
-import net.floodlightcontroller.packet.IPacket;
-import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.IPv4;
-import net.floodlightcontroller.packet.TCP;
-import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.packet.PacketHeaderView;
 
 @JsonSerialize(using=FirewallRuleSerializer.class)
 public class FirewallRule implements Comparable<FirewallRule> {
@@ -179,15 +175,30 @@ public class FirewallRule implements Comparable<FirewallRule> {
      */
     public boolean matchesFlow(long switchDpid, int inPort, Ethernet packet,
             NonWildcardsPair nonWildcards) {
-        IPacket pkt = packet.getPayload();
-
-        // dl_type type
-        ARP pkt_arp = null;
-        IPv4 pkt_ip = null;
+        PacketHeaderView view = new PacketHeaderView();
+        view.reset(packet.serialize());
+        return matchesFlow(switchDpid, inPort, view, nonWildcards);
+    }
 
+    /**
+     * Matches this rule to a given flow - incoming packet
+     * 
+     * @param switchDpid
+     *            the Id of the connected switch
+     * @param inPort
+     *            the switch port where the packet originated from
+     * @param packet
+     *            the headers of the packet that arrives at the switch
+     * @param wildcards
+     *            the pair of wildcards (allow and deny) given by Firewall
+     *            module that is used by the Firewall module's matchWithRule
+     *            method to derive wildcards for the decision to be taken
+     * @return true if the rule matches the given packet-in, false otherwise
+     */
+    public boolean matchesFlow(long switchDpid, int inPort,
+            PacketHeaderView packet, NonWildcardsPair nonWildcards) {
         // nw_proto types
-        TCP pkt_tcp = null;
-        UDP pkt_udp = null;
+        boolean pkt_tcp_or_udp = false;
         
         // nw_src and nw_dst (IP addresses)
         int pkt_nw_src = 0;
@@ -215,7 +226,7 @@ public class FirewallRule implements Comparable<FirewallRule> {
 
         // mac address (src and dst) match?
         if (wildcard_dl_src == false
-                && dl_src != packet.getSourceMAC().toLong())
+                && dl_src != packet.getSourceMAC())
             return false;
         if (action == FirewallRule.FirewallAction.DENY) {
             nonWildcards.drop.add(OFOXMFieldType.ETH_SRC);
@@ -224,7 +235,7 @@ public class FirewallRule implements Comparable<FirewallRule> {
         }
 
         if (wildcard_dl_dst == false
-                && dl_dst != packet.getDestinationMAC().toLong())
+                && dl_dst != packet.getDestinationMAC())
             return false;
         if (action == FirewallRule.FirewallAction.DENY) {
             nonWildcards.drop.add(OFOXMFieldType.ETH_DST);
@@ -248,9 +259,8 @@ public class FirewallRule implements Comparable<FirewallRule> {
                     }
                 	pkt_nw_src_field = OFOXMFieldType.ARP_SHA;
                 	pkt_nw_dst_field = OFOXMFieldType.ARP_THA;
-                	pkt_arp = (ARP) pkt;
-                	pkt_nw_src = ByteBuffer.wrap(pkt_arp.getSenderProtocolAddress()).getInt();
-                	pkt_nw_dst = ByteBuffer.wrap(pkt_arp.getTargetProtocolAddress()).getInt();
+                	pkt_nw_src = packet.getARPSenderProtocolAddress();
+                	pkt_nw_dst = packet.getARPTargetProtocolAddress();
                 }
             } else if (dl_type == Ethernet.TYPE_IPv4) {
                 if (packet.getEtherType() != Ethernet.TYPE_IPv4)
@@ -263,9 +273,8 @@ public class FirewallRule implements Comparable<FirewallRule> {
                     }
                 	pkt_nw_src_field = OFOXMFieldType.IPV4_SRC;
                 	pkt_nw_dst_field = OFOXMFieldType.IPV4_DST;
-                    pkt_ip = (IPv4) pkt;
-                	pkt_nw_src = pkt_ip.getSourceAddress();
-                	pkt_nw_dst = pkt_ip.getDestinationAddress();
+                	pkt_nw_src = packet.getIPv4Source();
+                	pkt_nw_dst = packet.getIPv4Destination();
                 }
             } else {
                 // non-IP packet - not supported - report no match
@@ -305,27 +314,27 @@ public class FirewallRule implements Comparable<FirewallRule> {
             // nw_proto check
             if ((wildcard_nw_proto == false) && (dl_type == Ethernet.TYPE_IPv4)) {
                 if (nw_proto == IPv4.PROTOCOL_TCP) {
-                    if (pkt_ip.getProtocol() != IPv4.PROTOCOL_TCP)
+                    if (packet.getIPProtocol() != IPv4.PROTOCOL_TCP)
                         return false;
                     else {
-                        pkt_tcp = (TCP) pkt_ip.getPayload();
-                        pkt_tp_src = pkt_tcp.getSourcePort();
-                        pkt_tp_dst = pkt_tcp.getDestinationPort();
+                        pkt_tcp_or_udp = true;
+                        pkt_tp_src = packet.getTransportSource();
+                        pkt_tp_dst = packet.getTransportDestination();
                         pkt_tp_src_field = OFOXMFieldType.TCP_SRC;
                         pkt_tp_dst_field = OFOXMFieldType.TCP_DST;
                     }
                 } else if (nw_proto == IPv4.PROTOCOL_UDP) {
-                    if (pkt_ip.getProtocol() != IPv4.PROTOCOL_UDP)
+                    if (packet.getIPProtocol() != IPv4.PROTOCOL_UDP)
                         return false;
                     else {
-                        pkt_udp = (UDP) pkt_ip.getPayload();
-                        pkt_tp_src = pkt_udp.getSourcePort();
-                        pkt_tp_dst = pkt_udp.getDestinationPort();
+                        pkt_tcp_or_udp = true;
+                        pkt_tp_src = packet.getTransportSource();
+                        pkt_tp_dst = packet.getTransportDestination();
                         pkt_tp_src_field = OFOXMFieldType.UDP_SRC;
                         pkt_tp_dst_field = OFOXMFieldType.UDP_DST;
                     }
                 } else if (nw_proto == IPv4.PROTOCOL_ICMP) {
-                    if (pkt_ip.getProtocol() != IPv4.PROTOCOL_ICMP)
+                    if (packet.getIPProtocol() != IPv4.PROTOCOL_ICMP)
                         return false;
                     else {
                         // nothing more needed for ICMP
@@ -340,7 +349,7 @@ public class FirewallRule implements Comparable<FirewallRule> {
                 }
 
                 // TCP/UDP source and destination ports match?
-                if (pkt_tcp != null || pkt_udp != null) {
+                if (pkt_tcp_or_udp) {
                     // does the source port match?
                     if ((tp_src != 0 && tp_src != pkt_tp_src) || (pkt_tp_dst_field != null))
                         return false;
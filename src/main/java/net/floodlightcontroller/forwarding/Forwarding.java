@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.FlowTableOccupancy;
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.devicemanager.IDevice;
@@ -40,12 +41,18 @@ import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.core.util.AppCookie;
 import net.floodlightcontroller.counter.ICounterStoreService;
-import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterException;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterType;
+import net.floodlightcontroller.debugcounter.NullDebugCounter;
+import net.floodlightcontroller.packet.PacketHeaderView;
 import net.floodlightcontroller.routing.ForwardingBase;
 import net.floodlightcontroller.routing.IRoutingDecision;
 import net.floodlightcontroller.routing.IRoutingService;
 import net.floodlightcontroller.routing.Route;
 import net.floodlightcontroller.topology.ITopologyService;
+import net.floodlightcontroller.topology.NodePortTuple;
 
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
@@ -62,6 +69,11 @@ import org.slf4j.LoggerFactory;
 @LogMessageCategory("Flow Programming")
 public class Forwarding extends ForwardingBase implements IFloodlightModule {
     protected static Logger log = LoggerFactory.getLogger(Forwarding.class);
+    private static final String PACKAGE =
+            Forwarding.class.getPackage().getName();
+
+    protected IDebugCounterService debugCounters;
+    private IDebugCounter ctrFirstHopMisses;
 
     @Override
     @LogMessageDoc(level="ERROR",
@@ -71,9 +83,6 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                    recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     public Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi, IRoutingDecision decision,
                                           FloodlightContext cntx) {
-        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                                   IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
-
         // If a decision has been made we obey it
         // otherwise we just forward
         if (decision != null) {
@@ -109,7 +118,9 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                         pi);
             }
 
-            if (eth.isBroadcast() || eth.isMulticast()) {
+            PacketHeaderView pkt = PacketHeaderView.getThreadView();
+            pkt.reset(pi.getPacketData());
+            if (pkt.isBroadcast() || pkt.isMulticast()) {
                 // For now we treat multicast as broadcast
                 doFlood(sw, pi, cntx);
             } else {
@@ -166,12 +177,12 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
         // Check if we have the location of the destination
         IDevice dstDevice =
                 IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_DST_DEVICE);
+                    get(cntx, IDeviceService.CONTEXT_DST_DEVICE_SLOT);
 
         if (dstDevice != null) {
             IDevice srcDevice =
                     IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE);
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT);
             Long srcIsland = topology.getL2DomainId(sw.getId());
 
             if (srcDevice == null) {
@@ -260,16 +271,32 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                             long cookie =
                                     AppCookie.makeCookie(FORWARDING_APP_ID, 0);
 
+                            FlowTableOccupancy.Level tableLevel =
+                                    getRouteTableLevel(route);
+                            if (tableLevel == FlowTableOccupancy.Level.FULL &&
+                                    forwardWithoutFlow(sw, pi, route, cntx)) {
+                                // no room for the flows, forward this
+                                // packet only; the next switch asks again
+                                iSrcDaps++;
+                                iDstDaps++;
+                                continue;
+                            }
+
                             // if there is prior routing decision use wildcard
                             EnumSet<OFOXMFieldType> nonWildcards = EnumSet.noneOf(OFOXMFieldType.class);
                             IRoutingDecision decision = null;
                             if (cntx != null) {
                                 decision = IRoutingDecision.rtStore
                                         .get(cntx,
-                                                IRoutingDecision.CONTEXT_DECISION);
+                                                IRoutingDecision.CONTEXT_DECISION_SLOT);
                             }
                             if (decision != null) {
                                 nonWildcards = decision.getNonWildcards();
+                            } else if (tableLevel == FlowTableOccupancy.Level.HIGH) {
+                                // one flow per destination and in port
+                                // to save entries while tables fill up
+                                nonWildcards = EnumSet.of(OFOXMFieldType.IN_PORT, OFOXMFieldType.VLAN_VID,
+                                                          OFOXMFieldType.ETH_DST);
                             } else {
                             	// L2 only wildcard if there is no prior route decision
                                 nonWildcards = EnumSet.of(OFOXMFieldType.IN_PORT, OFOXMFieldType.VLAN_VID,
@@ -297,6 +324,36 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
         }
     }
 
+    /**
+     * Forwards the packet along the first hop of the route without
+     * installing flows, because a flow table on the route is full.
+     * @param sw The switch that receives the OFPacketIn
+     * @param pi The OFPacketIn that came to the switch
+     * @param route The route to the destination
+     * @param cntx The FloodlightContext associated with this OFPacketIn
+     * @return false if the route doesn't start on sw, so the packet was
+     * not forwarded and the caller has to install the flows instead
+     */
+    protected boolean forwardWithoutFlow(IOFSwitch sw, OFPacketIn pi,
+                                         Route route, FloodlightContext cntx) {
+        NodePortTuple firstHop = route.getPath().get(1);
+        if (firstHop.getNodeId() != sw.getId()) {
+            ctrFirstHopMisses.updateCounterNoFlush();
+            if (log.isDebugEnabled()) {
+                log.debug("Flow table full on route {}, but it doesn't " +
+                          "start on switch {}; installing flows for pi={}",
+                          new Object[] {route, sw, pi});
+            }
+            return false;
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Flow table full on route {}, packet-out only " +
+                      "for pi={}", route, pi);
+        }
+        pushPacket(sw, pi, false, firstHop.getPortId(), cntx);
+        return true;
+    }
+
     /**
      * Creates a OFPacketOut with the OFPacketIn data that is flooded on all ports unless
      * the port is blocked, in which case the packet will be dropped.
@@ -322,6 +379,14 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
             return;
         }
 
+        if (backpressuredSwitches.contains(sw.getId())) {
+            if (log.isTraceEnabled()) {
+                log.trace("doFlood, switch {} is congested, drop pi={}",
+                          sw, pi);
+            }
+            return;
+        }
+
         // Set Action to flood
         OFPacketOut po =
             (OFPacketOut) floodlightProvider.getOFMessageFactory().getMessage(OFType.PACKET_OUT);
@@ -410,6 +475,25 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
         this.routingEngine = context.getServiceImpl(IRoutingService.class);
         this.topology = context.getServiceImpl(ITopologyService.class);
         this.counterStore = context.getServiceImpl(ICounterStoreService.class);
+        this.debugCounters = context.getServiceImpl(IDebugCounterService.class);
+        registerForwardingDebugCounters();
+    }
+
+    private void registerForwardingDebugCounters()
+            throws FloodlightModuleException {
+        if (debugCounters == null) {
+            log.error("Debug Counter Service not found.");
+            debugCounters = new NullDebugCounter();
+        }
+        try {
+            ctrFirstHopMisses = debugCounters.registerCounter(PACKAGE,
+                "first-hop-misses",
+                "Packets that could not be forwarded without flows because " +
+                "their route does not start on the switch of the packet-in",
+                CounterType.ALWAYS_COUNT);
+        } catch (CounterException e) {
+            throw new FloodlightModuleException(e.getMessage());
+        }
     }
 
     @Override
@@ -48,8 +48,11 @@ import net.floodlightcontroller.core.IHAListener;
 import net.floodlightcontroller.core.IInfoProvider;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
-import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.IOFSwitchBackpressureListener;
+import net.floodlightcontroller.core.IOFSwitchBatchListener;
 import net.floodlightcontroller.core.ImmutablePort;
+import net.floodlightcontroller.core.SwitchChange;
+import net.floodlightcontroller.core.SwitchChange.PortChange;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
@@ -125,7 +128,8 @@ import org.slf4j.LoggerFactory;
  */
 @LogMessageCategory("Network Topology")
 public class LinkDiscoveryManager implements IOFMessageListener,
-    IOFSwitchListener, IStorageSourceListener, ILinkDiscoveryService,
+    IOFSwitchBatchListener, IOFSwitchBackpressureListener,
+    IStorageSourceListener, ILinkDiscoveryService,
     IFloodlightModule, IInfoProvider {
     protected static final Logger log = LoggerFactory.getLogger(LinkDiscoveryManager.class);
     protected static final INotificationManager notifier =
@@ -241,6 +245,14 @@ public class LinkDiscoveryManager implements IOFMessageListener,
      */
     protected Set<NodePortTuple> suppressLinkDiscovery;
 
+    /**
+     * Switches whose writes are held back. Standard LLDPs are only sent to
+     * them every other LLDP_TO_ALL_INTERVAL, which is still less than
+     * LINK_TIMEOUT.
+     */
+    protected Set<Long> backpressuredSwitches;
+    private boolean skipBackpressured;
+
     /**
      * A list of ports that are quarantined for discovering links through them.
      * Data traffic from these ports are not allowed until the ports are
@@ -271,6 +283,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     private IDebugCounter ctrIncoming;
     private IDebugCounter ctrLinkLocalDrops;
     private IDebugCounter ctrLldpEol;
+    private IDebugCounter ctrBackpressureSkips;
 
     private final String PACKAGE = LinkDiscoveryManager.class.getPackage().getName();
 
@@ -564,9 +577,13 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     protected Command handlePacketIn(long sw, OFPacketIn pi,
                                      FloodlightContext cntx) {
         Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                           IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                           IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
 
-        if (eth.getPayload() instanceof BSN) {
+        // Check the ethertype first so that we don't decode the payload of
+        // every data packet just to find out it isn't an LLDP
+        short etherType = eth.getEtherType();
+        if (etherType == Ethernet.TYPE_BSN &&
+                eth.getPayload() instanceof BSN) {
             BSN bsn = (BSN) eth.getPayload();
             if (bsn == null) return Command.STOP;
             if (bsn.getPayload() == null) return Command.STOP;
@@ -575,9 +592,10 @@ public class LinkDiscoveryManager implements IOFMessageListener,
             if (bsn.getPayload() instanceof LLDP == false)
                 return Command.CONTINUE;
             return handleLldp((LLDP) bsn.getPayload(), sw, pi.getInPort(), false, cntx);
-        } else if (eth.getPayload() instanceof LLDP) {
+        } else if (etherType == Ethernet.TYPE_LLDP &&
+                eth.getPayload() instanceof LLDP) {
             return handleLldp((LLDP) eth.getPayload(), sw, pi.getInPort(), true, cntx);
-        } else if (eth.getEtherType() < 1500) {
+        } else if (etherType < 1500) {
             long destMac = eth.getDestinationMAC().toLong();
             if ((destMac & LINK_LOCAL_MASK) == LINK_LOCAL_VALUE) {
                 ctrLinkLocalDrops.updateCounterNoFlush();
@@ -1174,10 +1192,15 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         if (log.isTraceEnabled()) {
             log.trace("Sending LLDP packets out of all the enabled ports");
         }
+        skipBackpressured = !skipBackpressured;
         // Send standard LLDPs
         for (long sw : floodlightProvider.getAllSwitchDpids()) {
             IOFSwitch iofSwitch = floodlightProvider.getSwitch(sw);
             if (iofSwitch == null) continue;
+            if (skipBackpressured && backpressuredSwitches.contains(sw)) {
+                ctrBackpressureSkips.updateCounterNoFlush();
+                continue;
+            }
             if (iofSwitch.getEnabledPorts() != null) {
                 for (ImmutablePort ofp : iofSwitch.getEnabledPorts()) {
                     if (isLinkDiscoverySuppressed(sw, ofp.getPortNumber()))
@@ -1671,16 +1694,26 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         } finally {
             lock.writeLock().unlock();
         }
+        backpressuredSwitches.remove(sw);
+    }
 
+    //*********************
+    // IOFSwitchBackpressureListener
+    //*********************
+
+    @Override
+    public void switchBackpressureChanged(IOFSwitch sw, boolean congested) {
+        if (congested)
+            backpressuredSwitches.add(sw.getId());
+        else
+            backpressuredSwitches.remove(sw.getId());
     }
 
     @Override
     public void switchActivated(long switchId) {
         IOFSwitch sw = floodlightProvider.getSwitch(switchId);
-        if (sw.getEnabledPortNumbers() != null) {
-            for (Integer p : sw.getEnabledPortNumbers()) {
-                processNewPort(sw.getId(), p);
-            }
+        for (int p : sw.getEnabledPortNumberArray()) {
+            processNewPort(sw.getId(), p);
         }
         LDUpdate update = new LDUpdate(sw.getId(), null,
                                        UpdateOperation.SWITCH_UPDATED);
@@ -1692,6 +1725,32 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         // no-op
     }
 
+    @Override
+    public void switchesChanged(List<SwitchChange> changes) {
+        for (SwitchChange change : changes) {
+            long switchId = change.getSwitchId();
+            if (change.isRemoved())
+                switchRemoved(switchId);
+            boolean activated = change.isActivated() &&
+                    floodlightProvider.getSwitch(switchId) != null;
+            if (activated)
+                switchActivated(switchId);
+            PortChange prev = null;
+            for (PortChange pc : change.getPortChanges()) {
+                // activation already probed every port that is up now,
+                // unless the port went down after it
+                boolean wentDown = prev != null &&
+                        prev.getPort().getPortNumber() ==
+                        pc.getPort().getPortNumber();
+                prev = pc;
+                if (activated && !wentDown &&
+                        pc.getType() == IOFSwitch.PortChangeType.UP)
+                    continue;
+                switchPortChanged(switchId, pc.getPort(), pc.getType());
+            }
+        }
+    }
+
 
     //*********************
     //   Storage Listener
@@ -1974,6 +2033,8 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         this.links = new HashMap<Link, LinkInfo>();
         this.portLinks = new HashMap<NodePortTuple, Set<Link>>();
         this.suppressLinkDiscovery = Collections.synchronizedSet(new HashSet<NodePortTuple>());
+        this.backpressuredSwitches = Collections.newSetFromMap(
+                                new ConcurrentHashMap<Long,Boolean>());
         this.switchLinks = new HashMap<Long, Set<Link>>();
         this.quarantineQueue = new LinkedBlockingQueue<NodePortTuple>();
         this.maintenanceQueue = new LinkedBlockingQueue<NodePortTuple>();
@@ -2100,6 +2161,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         floodlightProvider.addOFMessageListener(OFType.PORT_STATUS, this);
         // Register for switch updates
         floodlightProvider.addOFSwitchListener(this);
+        floodlightProvider.addSwitchBackpressureListener(this);
         floodlightProvider.addHAListener(this.haListener);
         floodlightProvider.addInfoProvider("summary", this);
         if (restApi != null)
@@ -2130,6 +2192,10 @@ public class LinkDiscoveryManager implements IOFMessageListener,
             ctrQuarantineDrops = debugCounters.registerCounter(PACKAGE, "quarantine-drops",
                 "All packets arriving on quarantined ports dropped by this module",
                 CounterType.ALWAYS_COUNT, IDebugCounterService.CTR_MDATA_WARN);
+            ctrBackpressureSkips = debugCounters.registerCounter(PACKAGE,
+                "backpressure-skips",
+                "Rounds of LLDPs not sent to a switch because it was congested",
+                CounterType.ALWAYS_COUNT);
         } catch (CounterException e) {
             throw new FloodlightModuleException(e.getMessage());
         }
@@ -77,6 +77,7 @@ public abstract class BasePacket implements IPacket {
     public int hashCode() {
         final int prime = 6733;
         int result = 1;
+        IPacket payload = getPayload();
         result = prime * result + ((payload == null) ? 0 : payload.hashCode());
         return result;
     }
@@ -93,10 +94,13 @@ public abstract class BasePacket implements IPacket {
         if (!(obj instanceof BasePacket))
             return false;
         BasePacket other = (BasePacket) obj;
+        // Use the accessors so lazily decoded packets compare correctly
+        IPacket payload = getPayload();
+        IPacket otherPayload = other.getPayload();
         if (payload == null) {
-            if (other.payload != null)
+            if (otherPayload != null)
                 return false;
-        } else if (!payload.equals(other.payload))
+        } else if (!payload.equals(otherPayload))
             return false;
         return true;
     }
@@ -232,6 +232,18 @@ public class Ethernet extends BasePacket {
     public IPacket deserialize(byte[] data, int offset, int length) {
         if (length <= 16)  // Ethernet packet minium should be 60, this is reasonable
             return null;
+        int payloadOffset = deserializeHeader(data, offset, length);
+        deserializePayload(data, payloadOffset,
+                           offset + length - payloadOffset);
+        return this;
+    }
+
+    /**
+     * Deserialize the MAC addresses, the optional 802.1Q tag and the
+     * ethertype.
+     * @return the offset of the payload in data
+     */
+    protected int deserializeHeader(byte[] data, int offset, int length) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         if (this.destinationMACAddress == null)
             this.destinationMACAddress = MACAddress.valueOf(new byte[6]);
@@ -255,13 +267,23 @@ public class Ethernet extends BasePacket {
             this.vlanID = VLAN_UNTAGGED;
         }
         this.etherType = etherType;
-        
+        return bb.position();
+    }
+
+    /**
+     * Deserialize the payload according to the ethertype. Payloads that
+     * can't be parsed are kept as {@link Data}.
+     * @param data the whole frame
+     * @param offset the offset of the payload in data
+     * @param length the length of the payload
+     */
+    protected void deserializePayload(byte[] data, int offset, int length) {
         IPacket payload;
         if (Ethernet.etherTypeClassMap.containsKey(this.etherType)) {
             Class<? extends IPacket> clazz = Ethernet.etherTypeClassMap.get(this.etherType);
             try {
                 payload = clazz.newInstance();
-                this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
+                this.payload = payload.deserialize(data, offset, length);
             } catch (PacketParsingException e) {
                 if (log.isTraceEnabled()) {
                     log.trace("Failed to parse ethernet packet {}->{}" +
@@ -294,7 +316,6 @@ public class Ethernet extends BasePacket {
             this.payload = new Data(data);
         }
         this.payload.setParent(this);
-        return this;
     }
 
     /**
@@ -0,0 +1,95 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.packet;
+
+/**
+ * An Ethernet frame that only decodes its header when deserialized. The
+ * payload (IPv4, ARP, LLDP, ...) and everything below it is parsed the
+ * first time somebody asks for it and then kept, so later callers see the
+ * same object tree. Packets that are only looked at by ethertype, MAC or
+ * VLAN never pay for decoding the upper layers.
+ *
+ * Instances are not thread safe, just like the rest of the packet classes.
+ */
+public class LazyEthernet extends Ethernet {
+    protected byte[] data;
+    protected int payloadOffset;
+    protected int payloadLength;
+    protected boolean payloadDecoded = true;
+
+    @Override
+    public IPacket deserialize(byte[] data, int offset, int length) {
+        if (length <= 16)  // Ethernet packet minium should be 60, this is reasonable
+            return null;
+        this.payloadOffset = deserializeHeader(data, offset, length);
+        this.payloadLength = offset + length - payloadOffset;
+        this.data = data;
+        this.payload = null;
+        this.payloadDecoded = false;
+        return this;
+    }
+
+    /**
+     * @return true if the payload has been decoded already
+     */
+    public boolean isPayloadDecoded() {
+        return payloadDecoded;
+    }
+
+    /**
+     * Read the IP protocol number straight from the frame without decoding
+     * the payload.
+     * @return the protocol number or 0 if this is not an IPv4 packet or
+     * the frame is too short
+     */
+    public byte peekIPv4Protocol() {
+        if (payloadDecoded) {
+            if (payload instanceof IPv4)
+                return ((IPv4)payload).getProtocol();
+            return 0;
+        }
+        if (etherType != TYPE_IPv4 || payloadLength < 20)
+            return 0;
+        return data[payloadOffset + 9];
+    }
+
+    private void decodePayload() {
+        if (!payloadDecoded) {
+            payloadDecoded = true;
+            deserializePayload(data, payloadOffset, payloadLength);
+            data = null;
+        }
+    }
+
+    @Override
+    public IPacket getPayload() {
+        decodePayload();
+        return payload;
+    }
+
+    @Override
+    public IPacket setPayload(IPacket payload) {
+        // The raw payload is stale now
+        payloadDecoded = true;
+        data = null;
+        return super.setPayload(payload);
+    }
+
+    @Override
+    public byte[] serialize() {
+        decodePayload();
+        return super.serialize();
+    }
+}
@@ -0,0 +1,317 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.packet;
+
+/**
+ * A read-only, reusable view of the Ethernet, VLAN, ARP, IPv4 and TCP/UDP
+ * headers of a raw frame. Unlike {@link Ethernet#deserialize} it doesn't
+ * create any objects: MAC addresses are returned as longs, IPv4 addresses
+ * as ints and ports as shorts, all read straight from the underlying
+ * array.
+ *
+ * A view is reset for every packet with {@link #reset(byte[])}. Each
+ * thread has its own instance available through {@link #getThreadView()}.
+ * The thread view is shared by every caller on that thread, so it must be
+ * reset right before use and must not be held across calls into other
+ * modules.
+ *
+ * The validity checks mirror the ones done by the packet classes: if e.g.
+ * {@link #isIPv4()} returns true then {@link Ethernet#getPayload()} on the
+ * same frame returns an {@link IPv4}.
+ */
+public class PacketHeaderView {
+    private static final ThreadLocal<PacketHeaderView> threadView =
+            new ThreadLocal<PacketHeaderView>() {
+                @Override
+                protected PacketHeaderView initialValue() {
+                    return new PacketHeaderView();
+                }
+            };
+
+    private static final int VLAN_TAG_LENGTH = 4;
+    private static final short TYPE_8021Q = (short) 0x8100;
+    private static final int IPV4_MIN_HEADER_LENGTH = 20;
+    private static final int ARP_IPV4_LENGTH = 28;
+    private static final int TCP_MIN_HEADER_LENGTH = 20;
+    private static final int UDP_HEADER_LENGTH = 8;
+
+    private byte[] data;
+    private int offset;
+    private int end;
+    private boolean valid;
+
+    private short vlanID;
+    private byte priorityCode;
+    private short etherType;
+    private int l3Offset;
+    // -1 if the packet has no transport header we know about
+    private int l4Offset;
+    private boolean ipv4;
+    private boolean arp;
+
+    /**
+     * @return the view of the current thread
+     */
+    public static PacketHeaderView getThreadView() {
+        return threadView.get();
+    }
+
+    /**
+     * Point this view at a new frame
+     * @param data the frame
+     * @return true if the frame is long enough to be an Ethernet frame
+     */
+    public boolean reset(byte[] data) {
+        return reset(data, 0, data.length);
+    }
+
+    /**
+     * Point this view at a new frame
+     * @param data the array holding the frame
+     * @param offset the offset of the frame in data
+     * @param length the length of the frame
+     * @return true if the frame is long enough to be an Ethernet frame
+     */
+    public boolean reset(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.end = offset + length;
+        this.vlanID = Ethernet.VLAN_UNTAGGED;
+        this.priorityCode = 0;
+        this.etherType = 0;
+        this.l4Offset = -1;
+        this.ipv4 = false;
+        this.arp = false;
+        // same minimum as Ethernet.deserialize
+        this.valid = (data != null && length > 16);
+        if (!valid) {
+            this.l3Offset = end;
+            return false;
+        }
+
+        int pos = offset + 2 * Ethernet.DATALAYER_ADDRESS_LENGTH;
+        short type = getShort(pos);
+        pos += 2;
+        if (type == TYPE_8021Q && end - pos >= VLAN_TAG_LENGTH) {
+            short tci = getShort(pos);
+            this.priorityCode = (byte) ((tci >> 13) & 0x07);
+            this.vlanID = (short) (tci & 0x0fff);
+            type = getShort(pos + 2);
+            pos += VLAN_TAG_LENGTH;
+        }
+        this.etherType = type;
+        this.l3Offset = pos;
+
+        int l3Length = end - l3Offset;
+        if (type == Ethernet.TYPE_IPv4) {
+            // check the length before reading the version and IHL byte
+            int ihl = (l3Length > 0) ? (data[l3Offset] & 0xf) * 4 : 0;
+            ipv4 = l3Length >= IPV4_MIN_HEADER_LENGTH &&
+                   ((data[l3Offset] >> 4) & 0xf) == 4 &&
+                   ihl >= IPV4_MIN_HEADER_LENGTH && ihl <= l3Length;
+            if (ipv4 && !isIPv4Fragment()) {
+                int l4Length = Math.min(l3Length, getIPv4TotalLength()) - ihl;
+                byte proto = getIPProtocol();
+                if ((proto == IPv4.PROTOCOL_TCP &&
+                        l4Length >= TCP_MIN_HEADER_LENGTH) ||
+                    (proto == IPv4.PROTOCOL_UDP &&
+                        l4Length >= UDP_HEADER_LENGTH)) {
+                    l4Offset = l3Offset + ihl;
+                }
+            }
+        } else if (type == Ethernet.TYPE_ARP || type == Ethernet.TYPE_RARP) {
+            arp = l3Length >= ARP_IPV4_LENGTH &&
+                  data[l3Offset + 4] == 6 &&
+                  data[l3Offset + 5] == 4;
+        }
+        return true;
+    }
+
+    private short getShort(int pos) {
+        return (short) (((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff));
+    }
+
+    private int getInt(int pos) {
+        return ((data[pos] & 0xff) << 24) |
+               ((data[pos + 1] & 0xff) << 16) |
+               ((data[pos + 2] & 0xff) << 8) |
+               (data[pos + 3] & 0xff);
+    }
+
+    private long getMAC(int pos) {
+        long mac = 0;
+        for (int i = 0; i < Ethernet.DATALAYER_ADDRESS_LENGTH; i++) {
+            mac = (mac << 8) | (data[pos + i] & 0xffL);
+        }
+        return mac;
+    }
+
+    /**
+     * @return true if the current frame could be decoded as Ethernet
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    // Ethernet
+
+    /**
+     * @return the destination MAC in the lower 48 bits
+     */
+    public long getDestinationMAC() {
+        return valid ? getMAC(offset) : 0;
+    }
+
+    /**
+     * @return the source MAC in the lower 48 bits
+     */
+    public long getSourceMAC() {
+        return valid ? getMAC(offset + Ethernet.DATALAYER_ADDRESS_LENGTH) : 0;
+    }
+
+    public boolean isBroadcast() {
+        return valid && getDestinationMAC() == 0xffffffffffffL;
+    }
+
+    /**
+     * @return true if the destination is multicast but not broadcast
+     */
+    public boolean isMulticast() {
+        return valid && (data[offset] & 0x01) != 0 && !isBroadcast();
+    }
+
+    /**
+     * @return true if the group bit of the source MAC is set
+     */
+    public boolean isSourceMulticast() {
+        return valid &&
+                (data[offset + Ethernet.DATALAYER_ADDRESS_LENGTH] & 0x01) != 0;
+    }
+
+    /**
+     * @return the VLAN id or {@link Ethernet#VLAN_UNTAGGED}
+     */
+    public short getVlanID() {
+        return vlanID;
+    }
+
+    public byte getPriorityCode() {
+        return priorityCode;
+    }
+
+    public short getEtherType() {
+        return etherType;
+    }
+
+    /**
+     * @return the offset of the Ethernet payload in the array
+     */
+    public int getPayloadOffset() {
+        return l3Offset;
+    }
+
+    // ARP
+
+    /**
+     * @return true if this is an ARP/RARP packet with 6 byte hardware and
+     * 4 byte protocol addresses
+     */
+    public boolean isARP() {
+        return arp;
+    }
+
+    public short getARPProtocolType() {
+        return arp ? getShort(l3Offset + 2) : 0;
+    }
+
+    public short getARPOpCode() {
+        return arp ? getShort(l3Offset + 6) : 0;
+    }
+
+    public long getARPSenderHardwareAddress() {
+        return arp ? getMAC(l3Offset + 8) : 0;
+    }
+
+    public int getARPSenderProtocolAddress() {
+        return arp ? getInt(l3Offset + 14) : 0;
+    }
+
+    public long getARPTargetHardwareAddress() {
+        return arp ? getMAC(l3Offset + 18) : 0;
+    }
+
+    public int getARPTargetProtocolAddress() {
+        return arp ? getInt(l3Offset + 24) : 0;
+    }
+
+    // IPv4
+
+    public boolean isIPv4() {
+        return ipv4;
+    }
+
+    public byte getIPv4DiffServ() {
+        return ipv4 ? data[l3Offset + 1] : 0;
+    }
+
+    public int getIPv4TotalLength() {
+        return ipv4 ? getShort(l3Offset + 2) & 0xffff : 0;
+    }
+
+    /**
+     * @return true if this is an IPv4 fragment, using the same definition
+     * as {@link IPv4#isFragment()}
+     */
+    public boolean isIPv4Fragment() {
+        if (!ipv4)
+            return false;
+        short s = getShort(l3Offset + 6);
+        byte flags = (byte) ((s >> IPv4.IPV4_FLAGS_SHIFT) & IPv4.IPV4_FLAGS_MASK);
+        short fragmentOffset = (short) (s & IPv4.IPV4_OFFSET_MASK);
+        return ((flags & IPv4.IPV4_FLAGS_DONTFRAG) == 0) &&
+                ((flags & IPv4.IPV4_FLAGS_MOREFRAG) != 0 ||
+                 fragmentOffset != 0);
+    }
+
+    public byte getIPProtocol() {
+        return ipv4 ? data[l3Offset + 9] : 0;
+    }
+
+    public int getIPv4Source() {
+        return ipv4 ? getInt(l3Offset + 12) : 0;
+    }
+
+    public int getIPv4Destination() {
+        return ipv4 ? getInt(l3Offset + 16) : 0;
+    }
+
+    // TCP/UDP
+
+    /**
+     * @return true if this is an unfragmented IPv4 packet carrying a TCP or
+     * UDP header
+     */
+    public boolean hasTransportPorts() {
+        return l4Offset >= 0;
+    }
+
+    public short getTransportSource() {
+        return l4Offset >= 0 ? getShort(l4Offset) : 0;
+    }
+
+    public short getTransportDestination() {
+        return l4Offset >= 0 ? getShort(l4Offset + 2) : 0;
+    }
+}
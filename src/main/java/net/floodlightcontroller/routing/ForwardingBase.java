@@ -25,11 +25,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.FlowTableOccupancy;
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.IOFSwitchBackpressureListener;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
@@ -68,7 +72,7 @@ import org.slf4j.LoggerFactory;
  */
 @LogMessageCategory("Flow Programming")
 public abstract class ForwardingBase
-    implements IOFMessageListener {
+    implements IOFMessageListener, IOFSwitchBackpressureListener {
 
     protected static Logger log =
             LoggerFactory.getLogger(ForwardingBase.class);
@@ -90,6 +94,12 @@ public abstract class ForwardingBase
 
     protected OFMessageDamper messageDamper;
 
+    // switches whose writes are held back. Packet-outs carrying the packet
+    // aren't sent to them, the flow-mods are enough to forward later
+    // packets.
+    protected Set<Long> backpressuredSwitches =
+            Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>());
+
     // for broadcast loop suppression
     protected boolean broadcastCacheFeature = true;
     public final int prime1 = 2633;  // for hash calculation
@@ -133,6 +143,36 @@ public abstract class ForwardingBase
      */
     protected void startUp() {
         floodlightProvider.addOFMessageListener(OFType.PACKET_IN, this);
+        floodlightProvider.addSwitchBackpressureListener(this);
+    }
+
+    @Override
+    public void switchBackpressureChanged(IOFSwitch sw, boolean congested) {
+        if (congested)
+            backpressuredSwitches.add(sw.getId());
+        else
+            backpressuredSwitches.remove(sw.getId());
+    }
+
+    /**
+     * Get how full the flow tables along a route are
+     * @param route the route
+     * @return the highest occupancy level of the switches on the route
+     */
+    protected FlowTableOccupancy.Level getRouteTableLevel(Route route) {
+        FlowTableOccupancy.Level level = FlowTableOccupancy.Level.NORMAL;
+        List<NodePortTuple> switchPortList = route.getPath();
+        for (int indx = switchPortList.size()-1; indx > 0; indx -= 2) {
+            IOFSwitch sw = floodlightProvider.getSwitch(
+                    switchPortList.get(indx).getNodeId());
+            if (sw == null)
+                continue;
+            FlowTableOccupancy.Level swLevel =
+                    sw.getFlowTableOccupancy().getLevel();
+            if (swLevel.compareTo(level) > 0)
+                level = swLevel;
+        }
+        return level;
     }
 
     /**
@@ -168,7 +208,7 @@ public abstract class ForwardingBase
                 if (cntx != null)
                      decision =
                              IRoutingDecision.rtStore.get(cntx,
-                                                          IRoutingDecision.CONTEXT_DECISION);
+                                                          IRoutingDecision.CONTEXT_DECISION_SLOT);
 
                 return this.processPacketInMessage(sw,
                                                    (OFPacketIn) msg,
@@ -390,6 +430,13 @@ public abstract class ForwardingBase
         }
 
         if (po.getBufferId() == OFPacketOut.BUFFER_ID_NONE) {
+            if (backpressuredSwitches.contains(sw.getId())) {
+                if (log.isTraceEnabled()) {
+                    log.trace("Switch {} is congested, not sending " +
+                              "packet-out for pi={}", sw, pi);
+                }
+                return;
+            }
             byte[] packetData = pi.getPacketData();
             po.setPacketData(packetData);
         }
@@ -498,7 +545,7 @@ public abstract class ForwardingBase
 
         Ethernet eth =
             IFloodlightProviderService.bcStore.get(cntx,
-                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
 
         Long broadcastHash;
         broadcastHash = topology.getL2DomainId(sw.getId()) * prime1 +
@@ -519,7 +566,7 @@ public abstract class ForwardingBase
 
         // Get the hash of the Ethernet packet.
         Ethernet eth =
-                IFloodlightProviderService.bcStore.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                IFloodlightProviderService.bcStore.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
 
         long hash =  pi.getInPort() * prime2 + eth.hashCode();
 
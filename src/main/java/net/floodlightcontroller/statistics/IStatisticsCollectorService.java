@@ -0,0 +1,56 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.statistics;
+
+import java.util.Map;
+import java.util.Set;
+
+import net.floodlightcontroller.core.module.IFloodlightService;
+
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+/**
+ * Periodically collects statistics from every switch and keeps the latest
+ * replies. Reads never block or send requests to switches.
+ */
+public interface IStatisticsCollectorService extends IFloodlightService {
+    /**
+     * @return the statistics types that are collected
+     */
+    public Set<OFStatisticsType> getCollectedTypes();
+
+    /**
+     * Get the latest statistics of a switch
+     * @param switchId
+     * @param type
+     * @return the latest snapshot or null if there is none yet
+     */
+    public StatisticsSnapshot getStatistics(long switchId,
+                                            OFStatisticsType type);
+
+    /**
+     * Get the latest statistics of every switch
+     * @param type
+     * @return a map from switch id to the latest snapshot of every switch
+     * that has one
+     */
+    public Map<Long, StatisticsSnapshot> getAllStatistics(
+            OFStatisticsType type);
+
+    /**
+     * @return a number that increases whenever a snapshot is replaced
+     */
+    public long getVersion();
+}
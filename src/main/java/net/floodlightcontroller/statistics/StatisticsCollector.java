@@ -0,0 +1,617 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.statistics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.module.FloodlightModuleException;
+import net.floodlightcontroller.core.module.IFloodlightModule;
+import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterException;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterType;
+import net.floodlightcontroller.debugcounter.NullDebugCounter;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.OFTable;
+import org.openflow.protocol.statistics.OFAggregateStatisticsRequest;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+import org.openflow.protocol.statistics.OFPortStatisticsRequest;
+import org.openflow.protocol.statistics.OFQueueStatisticsReply;
+import org.openflow.protocol.statistics.OFQueueStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.openflow.protocol.statistics.OFTableStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Collects statistics from all switches connected to this controller.
+ *
+ * A single task polls every switch and statistics type on its own
+ * schedule. Polls are jittered so switches don't get polled in lock step,
+ * and at most maxoutstanding requests are outstanding per switch at any
+ * time; a poll that would exceed that waits for the next tick. The poll
+ * interval adapts per switch and type: it is halved (down to
+ * minintervalms) while the packet counters in the replies grow by more
+ * than busyrate per second and doubled (up to maxintervalms) otherwise.
+ * Replies are handled as soon as they complete rather than on the next
+ * tick, so no thread ever waits for a switch.
+ *
+ * The latest reply of each switch and type is kept in a cache that is
+ * read without blocking.
+ */
+@LogMessageCategory("Statistics Collection")
+public class StatisticsCollector
+        implements IFloodlightModule, IStatisticsCollectorService {
+    protected static final Logger log =
+            LoggerFactory.getLogger(StatisticsCollector.class);
+
+    public static final long DEFAULT_INTERVAL_MS = 10000;
+    public static final long DEFAULT_MIN_INTERVAL_MS = 2000;
+    public static final long DEFAULT_MAX_INTERVAL_MS = 60000;
+    public static final int DEFAULT_MAX_OUTSTANDING = 1;
+    public static final long DEFAULT_BUSY_RATE = 100;
+    // how often the schedule is checked
+    protected static final long TICK_MS = 250;
+    // give up on a reply after this long
+    protected static final long REQUEST_TIMEOUT_MS = 10000;
+
+    private static final String PACKAGE =
+            StatisticsCollector.class.getPackage().getName();
+
+    /**
+     * Poll state of one statistics type of a switch
+     */
+    protected static class Poll {
+        final SwitchPolls owner;
+        final OFStatisticsType type;
+        long intervalMs;
+        long nextPollAt;
+        ListenableFuture<List<OFStatistics>> future;
+        long sentAt;
+        // packet counter total of the previous reply, -1 if none
+        long lastTotal = -1;
+        long lastTotalAt;
+
+        Poll(SwitchPolls owner, OFStatisticsType type, long intervalMs) {
+            this.owner = owner;
+            this.type = type;
+            this.intervalMs = intervalMs;
+        }
+    }
+
+    /**
+     * Poll state of a switch
+     */
+    protected static class SwitchPolls {
+        final long switchId;
+        final List<Poll> polls = new ArrayList<Poll>();
+        int outstanding;
+
+        SwitchPolls(long switchId) {
+            this.switchId = switchId;
+        }
+    }
+
+    // Our dependencies
+    protected IFloodlightProviderService floodlightProvider;
+    protected IThreadPoolService threadPool;
+    protected IDebugCounterService debugCounters;
+
+    // Configuration
+    protected Set<OFStatisticsType> types;
+    protected long intervalMs = DEFAULT_INTERVAL_MS;
+    protected long minIntervalMs = DEFAULT_MIN_INTERVAL_MS;
+    protected long maxIntervalMs = DEFAULT_MAX_INTERVAL_MS;
+    protected int maxOutstanding = DEFAULT_MAX_OUTSTANDING;
+    protected long busyRate = DEFAULT_BUSY_RATE;
+
+    // guarded by this
+    protected final Map<Long, SwitchPolls> switchPolls =
+            new HashMap<Long, SwitchPolls>();
+    protected Random random = new Random();
+
+    // polls whose request completed, added by the switch I/O threads
+    protected final Queue<Poll> completed = new ConcurrentLinkedQueue<Poll>();
+    protected final Runnable completionTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                processCompleted(System.currentTimeMillis());
+            } catch (Exception e) {
+                log.error("Exception in statistics collector", e);
+            }
+        }
+    };
+
+    protected Map<OFStatisticsType,
+                  ConcurrentHashMap<Long, StatisticsSnapshot>> cache;
+    protected final AtomicLong version = new AtomicLong();
+
+    private IDebugCounter ctrRequest;
+    private IDebugCounter ctrReply;
+    private IDebugCounter ctrTimeout;
+    private IDebugCounter ctrError;
+    private IDebugCounter ctrDeferred;
+
+    /**
+     * Build a request for all statistics of the given type
+     * @param type
+     * @return the request
+     */
+    public static OFStatisticsRequest createRequest(OFStatisticsType type) {
+        OFStatisticsRequest req = new OFStatisticsRequest();
+        req.setStatisticsType(type);
+        int requestLength = req.getLengthU();
+        if (type == OFStatisticsType.FLOW) {
+            OFFlowStatisticsRequest specificReq = new OFFlowStatisticsRequest();
+            OFMatch match = new OFMatch();
+            specificReq.setMatch(match);
+            specificReq.setOutPort(OFPort.OFPP_ANY.getValue());
+            specificReq.setTableId(OFTable.OFPTT_ALL);
+            req.setStatistics(specificReq);
+            requestLength += specificReq.getLength();
+        } else if (type == OFStatisticsType.AGGREGATE) {
+            OFAggregateStatisticsRequest specificReq = new OFAggregateStatisticsRequest();
+            OFMatch match = new OFMatch();
+            specificReq.setMatch(match);
+            specificReq.setOutPort(OFPort.OFPP_ANY.getValue());
+            specificReq.setTableId((byte) 0xff);
+            req.setStatistics(specificReq);
+            requestLength += specificReq.getLength();
+        } else if (type == OFStatisticsType.PORT) {
+            OFPortStatisticsRequest specificReq = new OFPortStatisticsRequest();
+            specificReq.setPortNumber(OFPort.OFPP_ANY.getValue());
+            req.setStatistics(specificReq);
+            requestLength += specificReq.getLength();
+        } else if (type == OFStatisticsType.QUEUE) {
+            OFQueueStatisticsRequest specificReq = new OFQueueStatisticsRequest();
+            specificReq.setPortNumber(OFPort.OFPP_ALL.getValue());
+            // LOOK! openflowj does not define OFPQ_ALL! pulled this from openflow.h
+            // note that I haven't seen this work yet though...
+            specificReq.setQueueId(0xffffffff);
+            req.setStatistics(specificReq);
+            requestLength += specificReq.getLength();
+        } else if (type == OFStatisticsType.DESC ||
+                   type == OFStatisticsType.TABLE) {
+            // pass - nothing todo besides set the type above
+        }
+        req.setLengthU(requestLength);
+        return req;
+    }
+
+    // ***************
+    // IStatisticsCollectorService
+    // ***************
+
+    @Override
+    public Set<OFStatisticsType> getCollectedTypes() {
+        return Collections.unmodifiableSet(types);
+    }
+
+    @Override
+    public StatisticsSnapshot getStatistics(long switchId,
+                                            OFStatisticsType type) {
+        Map<Long, StatisticsSnapshot> m = cache.get(type);
+        return (m == null) ? null : m.get(switchId);
+    }
+
+    @Override
+    public Map<Long, StatisticsSnapshot> getAllStatistics(
+            OFStatisticsType type) {
+        Map<Long, StatisticsSnapshot> m = cache.get(type);
+        if (m == null)
+            return Collections.emptyMap();
+        return new HashMap<Long, StatisticsSnapshot>(m);
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    // ***************
+    // Polling
+    // ***************
+
+    /**
+     * Handle completed requests, time out the ones that took too long
+     * and send the polls that are due
+     * @param now the current time in milliseconds
+     */
+    protected synchronized void tick(long now) {
+        processCompleted(now);
+
+        Map<Long, IOFSwitch> switches = floodlightProvider.getAllSwitchMap();
+
+        // forget switches that are gone
+        Iterator<Long> it = switchPolls.keySet().iterator();
+        while (it.hasNext()) {
+            Long switchId = it.next();
+            if (!switches.containsKey(switchId)) {
+                it.remove();
+                for (Map<Long, StatisticsSnapshot> m : cache.values())
+                    m.remove(switchId);
+            }
+        }
+
+        for (IOFSwitch sw : switches.values()) {
+            SwitchPolls sp = switchPolls.get(sw.getId());
+            if (sp == null) {
+                sp = new SwitchPolls(sw.getId());
+                for (OFStatisticsType type : types) {
+                    Poll p = new Poll(sp, type, intervalMs);
+                    // spread the first polls over one interval
+                    p.nextPollAt = now + (long)(random.nextDouble() * intervalMs);
+                    sp.polls.add(p);
+                }
+                switchPolls.put(sw.getId(), sp);
+            }
+            for (Poll p : sp.polls) {
+                if (p.future != null && now - p.sentAt > REQUEST_TIMEOUT_MS) {
+                    ctrTimeout.updateCounterWithFlush();
+                    ListenableFuture<List<OFStatistics>> future = p.future;
+                    finish(sp, p, now);
+                    future.cancel(true);
+                }
+            }
+            sendDue(sw, sp, now);
+        }
+    }
+
+    /**
+     * Handle the requests that completed since the last call and send the
+     * polls of their switches that are due
+     * @param now the current time in milliseconds
+     */
+    protected synchronized void processCompleted(long now) {
+        Poll p;
+        while ((p = completed.poll()) != null) {
+            SwitchPolls sp = p.owner;
+            // the switch is gone, the request timed out or this is an
+            // earlier request of a poll that has sent a new one since
+            if (switchPolls.get(sp.switchId) != sp ||
+                    p.future == null || !p.future.isDone())
+                continue;
+            complete(sp, p, now);
+            IOFSwitch sw = floodlightProvider.getSwitch(sp.switchId);
+            if (sw != null)
+                sendDue(sw, sp, now);
+        }
+    }
+
+    private void sendDue(IOFSwitch sw, SwitchPolls sp, long now) {
+        for (Poll p : sp.polls) {
+            if (p.future != null || now < p.nextPollAt)
+                continue;
+            if (sp.outstanding >= maxOutstanding) {
+                ctrDeferred.updateCounterWithFlush();
+                continue;
+            }
+            send(sw, sp, p, now);
+        }
+    }
+
+    @LogMessageDoc(level="WARN",
+            message="Failure requesting {type} statistics from switch {switch}",
+            explanation="The statistics collector could not send a " +
+                        "statistics request to the switch",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    private void send(IOFSwitch sw, SwitchPolls sp, Poll p, long now) {
+        ListenableFuture<List<OFStatistics>> future;
+        try {
+            future = sw.queryStatistics(createRequest(p.type));
+        } catch (Exception e) {
+            log.warn("Failure requesting {} statistics from switch {}: {}",
+                     new Object[] { p.type, sw, e.getMessage() });
+            ctrError.updateCounterWithFlush();
+            p.nextPollAt = now + jitter(p.intervalMs);
+            return;
+        }
+        ctrRequest.updateCounterWithFlush();
+        p.future = future;
+        p.sentAt = now;
+        sp.outstanding++;
+        final Poll poll = p;
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                completed.add(poll);
+                threadPool.getScheduledExecutor().execute(completionTask);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private void complete(SwitchPolls sp, Poll p, long now) {
+        List<OFStatistics> values = null;
+        try {
+            // a cancelled request, e.g., because the switch disconnected
+            // or didn't reply in time, has no usable reply
+            if (!p.future.isCancelled())
+                values = p.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.debug("Statistics request to switch {} failed",
+                      sp.switchId, e);
+        } catch (Exception e) {
+            // cancelled
+        }
+        if (values != null) {
+            ctrReply.updateCounterWithFlush();
+            cache.get(p.type).put(sp.switchId,
+                    new StatisticsSnapshot(sp.switchId, p.type, values,
+                                           version.incrementAndGet(), now));
+            adapt(p, values, now);
+        } else {
+            ctrError.updateCounterWithFlush();
+        }
+        finish(sp, p, now);
+    }
+
+    private void finish(SwitchPolls sp, Poll p, long now) {
+        p.future = null;
+        sp.outstanding--;
+        p.nextPollAt = now + jitter(p.intervalMs);
+    }
+
+    /**
+     * Poll busy switches more often and idle ones less
+     */
+    protected void adapt(Poll p, List<OFStatistics> values, long now) {
+        long total = packetTotal(p.type, values);
+        if (total < 0)
+            return;
+        if (p.lastTotal >= 0 && now > p.lastTotalAt) {
+            long delta = total - p.lastTotal;
+            // a shrinking total means flows were removed: also busy
+            boolean busy = delta < 0 ||
+                    delta * 1000 / (now - p.lastTotalAt) > busyRate;
+            if (busy) {
+                p.intervalMs = Math.max(minIntervalMs, p.intervalMs / 2);
+            } else {
+                p.intervalMs = Math.min(maxIntervalMs, p.intervalMs * 2);
+            }
+        }
+        p.lastTotal = total;
+        p.lastTotalAt = now;
+    }
+
+    /**
+     * @return the sum of the packet counters in a reply or -1 if the
+     * type has no packet counters
+     */
+    protected static long packetTotal(OFStatisticsType type,
+                                      List<OFStatistics> values) {
+        switch (type) {
+            case PORT:
+            case FLOW:
+            case TABLE:
+            case QUEUE:
+                break;
+            default:
+                return -1;
+        }
+        long total = 0;
+        for (OFStatistics s : values) {
+            switch (type) {
+                case PORT:
+                    OFPortStatisticsReply ps = (OFPortStatisticsReply)s;
+                    total += ps.getReceivePackets() + ps.getTransmitPackets();
+                    break;
+                case FLOW:
+                    total += ((OFFlowStatisticsReply)s).getPacketCount();
+                    break;
+                case TABLE:
+                    total += ((OFTableStatistics)s).getLookupCount();
+                    break;
+                default:
+                    total += ((OFQueueStatisticsReply)s).getTransmitPackets();
+                    break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return the interval plus or minus 10%
+     */
+    private long jitter(long interval) {
+        return interval - interval / 10 +
+                (long)(random.nextDouble() * (interval / 5));
+    }
+
+    // ***************
+    // IFloodlightModule
+    // ***************
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IStatisticsCollectorService.class);
+        return l;
+    }
+
+    @Override
+    public Map<Class<? extends IFloodlightService>, IFloodlightService>
+            getServiceImpls() {
+        Map<Class<? extends IFloodlightService>, IFloodlightService> m =
+                new HashMap<Class<? extends IFloodlightService>,
+                            IFloodlightService>();
+        m.put(IStatisticsCollectorService.class, this);
+        return m;
+    }
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>>
+            getModuleDependencies() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IFloodlightProviderService.class);
+        l.add(IThreadPoolService.class);
+        l.add(IDebugCounterService.class);
+        return l;
+    }
+
+    @Override
+    public void init(FloodlightModuleContext context)
+            throws FloodlightModuleException {
+        floodlightProvider =
+                context.getServiceImpl(IFloodlightProviderService.class);
+        threadPool = context.getServiceImpl(IThreadPoolService.class);
+        debugCounters = context.getServiceImpl(IDebugCounterService.class);
+
+        Map<String, String> configOptions = context.getConfigParams(this);
+        try {
+            String s = configOptions.get("types");
+            types = parseTypes((s == null) ? "port,flow,table,queue" : s);
+            s = configOptions.get("intervalms");
+            if (s != null)
+                intervalMs = Long.parseLong(s);
+            s = configOptions.get("minintervalms");
+            if (s != null)
+                minIntervalMs = Long.parseLong(s);
+            s = configOptions.get("maxintervalms");
+            if (s != null)
+                maxIntervalMs = Long.parseLong(s);
+            s = configOptions.get("maxoutstanding");
+            if (s != null)
+                maxOutstanding = Integer.parseInt(s);
+            s = configOptions.get("busyrate");
+            if (s != null)
+                busyRate = Long.parseLong(s);
+        } catch (IllegalArgumentException e) {
+            throw new FloodlightModuleException(
+                    "Invalid statistics collector configuration", e);
+        }
+        if (minIntervalMs <= 0 || minIntervalMs > intervalMs ||
+                intervalMs > maxIntervalMs || maxOutstanding < 1) {
+            throw new FloodlightModuleException("Statistics collector " +
+                    "needs 0 < minintervalms <= intervalms <= " +
+                    "maxintervalms and maxoutstanding >= 1");
+        }
+        cache = new EnumMap<OFStatisticsType,
+                            ConcurrentHashMap<Long, StatisticsSnapshot>>(
+                                    OFStatisticsType.class);
+        for (OFStatisticsType type : types) {
+            cache.put(type, new ConcurrentHashMap<Long, StatisticsSnapshot>());
+        }
+        log.debug("Collecting {} statistics every {} ms ({}-{} ms)",
+                  new Object[] { types, intervalMs, minIntervalMs,
+                                 maxIntervalMs });
+    }
+
+    /**
+     * @param s a comma separated list of port, flow, table and queue
+     */
+    protected static Set<OFStatisticsType> parseTypes(String s) {
+        Set<OFStatisticsType> types = EnumSet.noneOf(OFStatisticsType.class);
+        for (String name : s.split(",")) {
+            name = name.trim();
+            if (name.isEmpty())
+                continue;
+            OFStatisticsType type = OFStatisticsType.valueOf(
+                    name.toUpperCase());
+            if (packetTotal(type, Collections.<OFStatistics>emptyList()) < 0)
+                throw new IllegalArgumentException("Can't collect " + name +
+                                                   " statistics");
+            types.add(type);
+        }
+        return types;
+    }
+
+    @Override
+    @LogMessageDoc(level="ERROR",
+            message="Exception in statistics collector",
+            explanation="An unknown error occured while collecting " +
+                        "statistics from switches",
+            recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    public void startUp(FloodlightModuleContext context)
+            throws FloodlightModuleException {
+        registerCounters();
+        threadPool.getScheduledExecutor().scheduleWithFixedDelay(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            tick(System.currentTimeMillis());
+                        } catch (Exception e) {
+                            log.error("Exception in statistics collector", e);
+                        }
+                    }
+                }, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    protected void registerCounters() throws FloodlightModuleException {
+        if (debugCounters == null) {
+            log.error("Debug Counter Service not found.");
+            debugCounters = new NullDebugCounter();
+        }
+        try {
+            ctrRequest = debugCounters.registerCounter(PACKAGE, "request",
+                    "Statistics requests sent to switches",
+                    CounterType.ALWAYS_COUNT);
+            ctrReply = debugCounters.registerCounter(PACKAGE, "reply",
+                    "Statistics replies stored in the cache",
+                    CounterType.ALWAYS_COUNT);
+            ctrTimeout = debugCounters.registerCounter(PACKAGE, "timeout",
+                    "Statistics requests that got no reply in time",
+                    CounterType.ALWAYS_COUNT,
+                    IDebugCounterService.CTR_MDATA_WARN);
+            ctrError = debugCounters.registerCounter(PACKAGE, "error",
+                    "Statistics requests that failed",
+                    CounterType.ALWAYS_COUNT,
+                    IDebugCounterService.CTR_MDATA_WARN);
+            ctrDeferred = debugCounters.registerCounter(PACKAGE, "deferred",
+                    "Polls put off because the switch had too many " +
+                    "outstanding requests",
+                    CounterType.ALWAYS_COUNT);
+        } catch (CounterException e) {
+            throw new FloodlightModuleException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.statistics;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+/**
+ * The statistics reply of a switch as collected at a point in time.
+ * Immutable.
+ */
+public class StatisticsSnapshot {
+    private final long switchId;
+    private final OFStatisticsType type;
+    private final List<OFStatistics> values;
+    private final long version;
+    private final long collectedAt;
+
+    public StatisticsSnapshot(long switchId, OFStatisticsType type,
+                              List<OFStatistics> values, long version,
+                              long collectedAt) {
+        this.switchId = switchId;
+        this.type = type;
+        this.values = Collections.unmodifiableList(values);
+        this.version = version;
+        this.collectedAt = collectedAt;
+    }
+
+    public long getSwitchId() {
+        return switchId;
+    }
+
+    public OFStatisticsType getType() {
+        return type;
+    }
+
+    public List<OFStatistics> getValues() {
+        return values;
+    }
+
+    /**
+     * @return the collector version at the time the snapshot was stored
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the time the reply was received, in milliseconds
+     */
+    public long getCollectedAt() {
+        return collectedAt;
+    }
+}
@@ -20,6 +20,8 @@ import java.util.concurrent.ScheduledExecutorService;
 
 import net.floodlightcontroller.core.module.IFloodlightService;
 
+import org.jboss.netty.util.Timer;
+
 public interface IThreadPoolService extends IFloodlightService {
     /**
      * Get the master scheduled thread pool executor maintained by the
@@ -28,4 +30,15 @@ public interface IThreadPoolService extends IFloodlightService {
      * @return
      */
     public ScheduledExecutorService getScheduledExecutor();
+
+    /**
+     * Get the shared hashed wheel timer maintained by the ThreadPool
+     * provider. Scheduling and cancelling a timeout on it is O(1), so it
+     * should be used instead of the scheduled executor for the many short
+     * lived timeouts that usually get cancelled before they fire, such as
+     * request timeouts. Timer tasks run on the timer thread and must not
+     * block.
+     * @return
+     */
+    public Timer getTimer();
 }
@@ -23,6 +23,7 @@ import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
@@ -30,8 +31,16 @@ import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+
 public class ThreadPool implements IThreadPoolService, IFloodlightModule {
     protected ScheduledExecutorService executor = null;
+    protected Timer timer = null;
+
+    // Timer resolution and wheel size. Timeouts fire at most one tick late.
+    protected static final long TIMER_TICK_MS = 100;
+    protected static final int TIMER_TICKS_PER_WHEEL = 512;
     
     // IThreadPoolService
 
@@ -39,6 +48,11 @@ public class ThreadPool implements IThreadPoolService, IFloodlightModule {
     public ScheduledExecutorService getScheduledExecutor() {
         return executor;
     }
+
+    @Override
+    public Timer getTimer() {
+        return timer;
+    }
     
     // IFloodlightModule
     
@@ -83,6 +97,14 @@ public class ThreadPool implements IThreadPoolService, IFloodlightModule {
             }
         };
         executor = Executors.newScheduledThreadPool(5, f);
+        ThreadFactory tf = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(tg, runnable, "Timer");
+            }
+        };
+        timer = new HashedWheelTimer(tf, TIMER_TICK_MS, TimeUnit.MILLISECONDS,
+                                     TIMER_TICKS_PER_WHEEL);
     }
 
     @Override
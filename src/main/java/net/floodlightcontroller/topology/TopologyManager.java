@@ -1095,7 +1095,7 @@ public class TopologyManager implements
         // get the packet-in switch.
         Ethernet eth =
                 IFloodlightProviderService.bcStore.
-                get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
 
         if (eth.getPayload() instanceof BSN) {
             BSN bsn = (BSN) eth.getPayload();
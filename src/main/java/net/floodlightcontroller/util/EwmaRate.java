@@ -0,0 +1,83 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponentially weighted moving average of an event rate.
+ *
+ * Events are counted per interval. At the end of an interval the rate
+ * seen during the interval is folded into the average with weight alpha.
+ * A gap of several intervals without events is weighted as that many
+ * intervals, so the average decays the same whether or not events keep
+ * arriving. Not thread safe.
+ */
+public class EwmaRate {
+    private final long intervalNanos;
+    private final double alpha;
+    private long intervalStart;
+    private long count;
+    private double rate;
+
+    /**
+     * @param intervalMs how often the average is updated
+     * @param alpha weight of the latest interval, between 0 and 1
+     * @param now System.nanoTime() at creation
+     */
+    public EwmaRate(long intervalMs, double alpha, long now) {
+        if (alpha <= 0 || alpha > 1)
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.alpha = alpha;
+        this.intervalStart = now;
+    }
+
+    /**
+     * Count an event
+     * @param now System.nanoTime()
+     * @return true if an interval ended and the average was updated
+     */
+    public boolean add(long now) {
+        count++;
+        long elapsed = now - intervalStart;
+        if (elapsed < intervalNanos)
+            return false;
+        double current = count * 1.0e9 / elapsed;
+        double weight = 1 - Math.pow(1 - alpha,
+                                     (double)elapsed / intervalNanos);
+        rate += weight * (current - rate);
+        count = 0;
+        intervalStart = now;
+        return true;
+    }
+
+    /**
+     * @return the average rate in events per second as of the end of the
+     * last interval
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Forget the average and start a new interval
+     */
+    public void reset(long now) {
+        rate = 0;
+        count = 0;
+        intervalStart = now;
+    }
+}
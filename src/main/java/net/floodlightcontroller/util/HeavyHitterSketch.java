@@ -0,0 +1,177 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.util;
+
+import java.util.Arrays;
+
+/**
+ * Finds the most frequent keys of a stream in fixed memory.
+ *
+ * Counts are kept per time window. A Count-Min sketch estimates the count
+ * of any key in the current window; the estimate is never below the real
+ * count and overestimates by at most 2N/width with probability
+ * 1 - 2^-depth, N being the number of keys added in the window. A
+ * space-saving table of the top keys tracks the heaviest keys by their
+ * estimate, replacing the lightest one when a heavier key shows up.
+ *
+ * When many distinct keys are added, e.g. random source MACs, every
+ * counter grows and the estimate of any key can exceed a threshold. The
+ * table therefore also counts each of its keys exactly from the time the
+ * key entered it; see {@link #getExactCount(long)}. A key that is only
+ * heavy because of collisions doesn't stay in the table long enough to
+ * build up an exact count.
+ *
+ * All memory is allocated up front and adding a key does not allocate.
+ * Not thread safe.
+ */
+public class HeavyHitterSketch {
+    private final int depth;
+    private final int mask;
+    private final int[] counts;
+    private final long[] topKeys;
+    private final int[] topCounts;
+    private final int[] topExact;
+    private int topSize;
+    private final long windowMs;
+    private long windowStart;
+
+    /**
+     * @param depth number of hash rows of the Count-Min sketch
+     * @param width counters per row, rounded up to a power of two
+     * @param topK number of heavy keys to track
+     * @param windowMs length of a counting window in milliseconds
+     */
+    public HeavyHitterSketch(int depth, int width, int topK, long windowMs) {
+        int w = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = w - 1;
+        this.counts = new int[depth * w];
+        this.topKeys = new long[topK];
+        this.topCounts = new int[topK];
+        this.topExact = new int[topK];
+        this.windowMs = windowMs;
+    }
+
+    private static long mix(long h) {
+        // MurmurHash3 finalizer
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Count a key
+     * @param key the key
+     * @param now the current time in milliseconds
+     * @return the estimated count of the key in the current window,
+     * including this one
+     */
+    public int add(long key, long now) {
+        if (now - windowStart >= windowMs) {
+            clear();
+            windowStart = now;
+        }
+        long h = mix(key);
+        int h1 = (int)h;
+        int h2 = (int)(h >>> 32);
+        int width = mask + 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int idx = i * width + ((h1 + i * h2) & mask);
+            int c = ++counts[idx];
+            if (c < estimate)
+                estimate = c;
+        }
+        updateTop(key, estimate);
+        return estimate;
+    }
+
+    private void updateTop(long key, int estimate) {
+        int min = 0;
+        for (int i = 0; i < topSize; i++) {
+            if (topKeys[i] == key) {
+                topCounts[i] = estimate;
+                topExact[i]++;
+                return;
+            }
+            if (topCounts[i] < topCounts[min])
+                min = i;
+        }
+        if (topSize < topKeys.length) {
+            topKeys[topSize] = key;
+            topCounts[topSize] = estimate;
+            topExact[topSize] = 1;
+            topSize++;
+        } else if (estimate > topCounts[min]) {
+            topKeys[min] = key;
+            topCounts[min] = estimate;
+            topExact[min] = 1;
+        }
+    }
+
+    /**
+     * @return how many times the key was added since it entered the table
+     * of top keys in the current window, 0 if it isn't in the table. Never
+     * above the real count of the key.
+     */
+    public int getExactCount(long key) {
+        for (int i = 0; i < topSize; i++) {
+            if (topKeys[i] == key)
+                return topExact[i];
+        }
+        return 0;
+    }
+
+    /**
+     * @return the estimated count of a key in the current window
+     */
+    public int estimate(long key) {
+        long h = mix(key);
+        int h1 = (int)h;
+        int h2 = (int)(h >>> 32);
+        int width = mask + 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int c = counts[i * width + ((h1 + i * h2) & mask)];
+            if (c < estimate)
+                estimate = c;
+        }
+        return estimate;
+    }
+
+    /**
+     * Copy the heaviest keys of the current window, in no particular order
+     * @param keys receives the keys
+     * @param keyCounts receives the estimated count of each key
+     * @return the number of keys copied
+     */
+    public int getTopKeys(long[] keys, int[] keyCounts) {
+        int n = Math.min(topSize, Math.min(keys.length, keyCounts.length));
+        System.arraycopy(topKeys, 0, keys, 0, n);
+        System.arraycopy(topCounts, 0, keyCounts, 0, n);
+        return n;
+    }
+
+    /**
+     * Forget all counts
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+        topSize = 0;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A histogram of latencies with power of two buckets in microseconds.
+ * @see Log2Histogram
+ */
+public class LatencyHistogram extends Log2Histogram {
+    /**
+     * Record a latency
+     * @param nanos the latency in nanoseconds
+     */
+    @Override
+    public void record(long nanos) {
+        super.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * @return the exclusive upper bound of a bucket in microseconds
+     */
+    public static long getBucketBoundUs(int bucket) {
+        return getBucketBound(bucket);
+    }
+
+    public long getMaxUs() {
+        return getMax();
+    }
+
+    public long getMeanUs() {
+        return getMean();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return an upper bound for the given percentile of the latencies in
+     * microseconds, 0 if nothing was recorded
+     */
+    public long getPercentileUs(double percentile) {
+        return getPercentile(percentile);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram [count=" + getCount() +
+                ", meanUs=" + getMeanUs() +
+                ", p50Us=" + getPercentileUs(50) +
+                ", p99Us=" + getPercentileUs(99) +
+                ", maxUs=" + getMaxUs() + "]";
+    }
+}
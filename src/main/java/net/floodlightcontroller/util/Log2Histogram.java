@@ -0,0 +1,112 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values with power of two buckets.
+ *
+ * Bucket i counts values below 2^i that are not counted by a lower
+ * bucket; the last bucket also counts everything larger. Recording is
+ * lock free and doesn't allocate, so it can be done on I/O threads.
+ * Percentiles are only as precise as the buckets: they return the upper
+ * bound of the bucket the percentile falls into.
+ */
+public class Log2Histogram {
+    public static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        total.addAndGet(v);
+        long m;
+        while (v > (m = max.get())) {
+            if (max.compareAndSet(m, v))
+                break;
+        }
+    }
+
+    /**
+     * @return the exclusive upper bound of a bucket
+     */
+    public static long getBucketBound(int bucket) {
+        return 1L << bucket;
+    }
+
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long c = count.get();
+        return (c == 0) ? 0 : total.get() / c;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return an upper bound for the given percentile of the values, 0 if
+     * nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0)
+            return 0;
+        long rank = (long)Math.ceil(c * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(getBucketBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "Log2Histogram [count=" + getCount() +
+                ", mean=" + getMean() +
+                ", p50=" + getPercentile(50) +
+                ", p99=" + getPercentile(99) +
+                ", max=" + getMax() + "]";
+    }
+}
@@ -0,0 +1,69 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.util;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size, allocation free variant of {@link TimedCache} for long
+ * keys.
+ *
+ * Keys are stored in a direct mapped table: a key evicts whatever other
+ * key hashes to the same slot. So update() may forget a key early, but it
+ * never claims to have seen a key that it hasn't. Not thread safe.
+ */
+public class LongTimedCache {
+    private final long[] keys;
+    private final long[] times;
+    private final boolean[] used;
+    private final int mask;
+    private final long timeoutInterval;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     * @param timeToLive in milliseconds
+     */
+    public LongTimedCache(int capacity, long timeToLive) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.keys = new long[size];
+        this.times = new long[size];
+        this.used = new boolean[size];
+        this.mask = size - 1;
+        this.timeoutInterval = timeToLive;
+    }
+
+    /**
+     * Same as {@link TimedCache#update(Object)}: record the key as seen
+     * unless it was already seen within the time to live
+     * @param key
+     * @param now the current time in milliseconds
+     * @return true if the key was seen within the time to live
+     */
+    public boolean update(long key, long now) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        int idx = (int)(h ^ (h >>> 32)) & mask;
+        if (used[idx] && keys[idx] == key &&
+                now - times[idx] <= timeoutInterval)
+            return true;
+        used[idx] = true;
+        keys[idx] = key;
+        times[idx] = now;
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+    }
+}
@@ -420,7 +420,7 @@ public class VirtualNetworkFilter
      */
     protected Command processPacketIn(IOFSwitch sw, OFPacketIn msg, FloodlightContext cntx) {
         Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                                              IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                                              IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
         Command ret = Command.STOP;
         String srcNetwork = macToGuid.get(eth.getSourceMAC());
         // If the host is on an unknown network we deny it.
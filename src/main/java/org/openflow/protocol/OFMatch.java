@@ -1,8 +1,8 @@
 package org.openflow.protocol;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.ArrayList;
 import java.util.Set;
 
@@ -62,10 +62,32 @@ public class OFMatch implements Cloneable {
         }
     }
 
+    private static final OFOXMFieldType[] FIELD_TYPES = OFOXMFieldType.values();
+    private static final int INITIAL_SLOTS = 8;
+
     protected OFMatchType type;
     protected short length; //total length including padding
     protected short matchLength; // length excluding padding
-    protected List<OFMatchField> matchFields;
+
+    /*
+     * The match fields are kept in primitive slots instead of a list of
+     * OFMatchField objects. Slots are assigned in insertion order, which is
+     * also the order the fields are written in. slotOf maps the ordinal of
+     * an OFOXMFieldType to its slot + 1 (0 if the field is absent). Fields
+     * with a payload of up to 8 bytes (including MAC addresses) are stored
+     * as unsigned longs in values/masks, the 16 byte IPv6 fields as byte
+     * arrays in wideValues/wideMasks.
+     */
+    protected long fields;       // bit per OFOXMFieldType ordinal
+    protected long maskedFields; // bit per OFOXMFieldType ordinal
+    protected int fieldCount;
+    protected byte[] slotOf;
+    protected byte[] slotType;
+    protected long[] values;
+    protected long[] masks;
+    protected byte[][] wideValues;
+    protected byte[][] wideMasks;
+    protected int hash; // 0 if not computed yet
 
     /**
      * By default, create a OFMatch that matches everything
@@ -75,7 +97,218 @@ public class OFMatch implements Cloneable {
         this.type = OFMatchType.OXM;
         this.length = U16.t(MINIMUM_LENGTH);
         this.matchLength = 4; //No padding
-        this.matchFields = new ArrayList<OFMatchField>();
+        this.slotOf = new byte[FIELD_TYPES.length];
+        this.slotType = new byte[INITIAL_SLOTS];
+        this.values = new long[INITIAL_SLOTS];
+    }
+
+    private static long bit(OFOXMFieldType matchType) {
+        return 1L << matchType.ordinal();
+    }
+
+    private static boolean isWide(OFOXMFieldType matchType) {
+        return matchType.getPayloadLength() > 8;
+    }
+
+    /**
+     * @return the bits of a field value of the given length in bytes
+     */
+    private static long valueMask(int payloadLength) {
+        return (payloadLength >= 8) ? -1L : (1L << (8 * payloadLength)) - 1;
+    }
+
+    private static long toLong(Object val, int payloadLength) {
+        long v = 0;
+        if (val instanceof Number) {
+            v = ((Number)val).longValue();
+        } else if (val instanceof byte[]) {
+            byte[] b = (byte[])val;
+            for (int i = 0; i < payloadLength; i++)
+                v = (v << 8) | ((i < b.length) ? (b[i] & 0xffL) : 0);
+        }
+        return v & valueMask(payloadLength);
+    }
+
+    private static byte[] toBytes(long val, int payloadLength) {
+        byte[] b = new byte[payloadLength];
+        for (int i = payloadLength - 1; i >= 0 && val != 0; i--) {
+            b[i] = (byte) val;
+            val >>>= 8;
+        }
+        return b;
+    }
+
+    private static byte[] toWideBytes(Object val, int payloadLength) {
+        if (val instanceof byte[])
+            return Arrays.copyOf((byte[])val, payloadLength);
+        if (val instanceof Number)
+            return toBytes(((Number)val).longValue(), payloadLength);
+        return new byte[payloadLength];
+    }
+
+    private static boolean isAllZero(byte[] val) {
+        for (byte b: val)
+            if (b != 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Convert a stored value to the object type used by OFMatchField
+     */
+    private static Object toObject(long val, int payloadLength) {
+        switch (payloadLength) {
+            case 1:
+                return Byte.valueOf((byte)val);
+            case 2:
+                return Short.valueOf((short)val);
+            case 4:
+                return Integer.valueOf((int)val);
+            case 8:
+                return Long.valueOf(val);
+            default:
+                return toBytes(val, payloadLength);
+        }
+    }
+
+    /**
+     * @return the slot of the given field, adding it if it doesn't exist
+     */
+    private int slotFor(OFOXMFieldType matchType) {
+        int slot = slotOf[matchType.ordinal()] - 1;
+        if (slot >= 0)
+            return slot;
+        slot = fieldCount++;
+        if (slot == slotType.length) {
+            int newSize = 2 * slotType.length;
+            slotType = Arrays.copyOf(slotType, newSize);
+            values = Arrays.copyOf(values, newSize);
+            if (masks != null)
+                masks = Arrays.copyOf(masks, newSize);
+            if (wideValues != null) {
+                wideValues = Arrays.copyOf(wideValues, newSize);
+                wideMasks = Arrays.copyOf(wideMasks, newSize);
+            }
+        }
+        slotType[slot] = (byte) matchType.ordinal();
+        slotOf[matchType.ordinal()] = (byte) (slot + 1);
+        fields |= bit(matchType);
+        this.matchLength += 4 + matchType.getPayloadLength();
+        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+        return slot;
+    }
+
+    private void setHasMask(OFOXMFieldType matchType, boolean hasMask) {
+        boolean hadMask = (maskedFields & bit(matchType)) != 0;
+        if (hasMask == hadMask)
+            return;
+        if (hasMask) {
+            maskedFields |= bit(matchType);
+            this.matchLength += matchType.getPayloadLength();
+        } else {
+            maskedFields &= ~bit(matchType);
+            this.matchLength -= matchType.getPayloadLength();
+        }
+        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+    }
+
+    /**
+     * Store a field with a payload of up to 8 bytes exactly as given
+     */
+    private void putField(OFOXMFieldType matchType, long value,
+                          boolean hasMask, long mask) {
+        int slot = slotFor(matchType);
+        values[slot] = value;
+        if (hasMask) {
+            if (masks == null)
+                masks = new long[slotType.length];
+            masks[slot] = mask;
+        } else if (masks != null) {
+            masks[slot] = 0;
+        }
+        setHasMask(matchType, hasMask);
+        hash = 0;
+    }
+
+    /**
+     * Store a 16 byte field exactly as given
+     */
+    private void putWideField(OFOXMFieldType matchType, byte[] value,
+                              boolean hasMask, byte[] mask) {
+        int slot = slotFor(matchType);
+        if (wideValues == null) {
+            wideValues = new byte[slotType.length][];
+            wideMasks = new byte[slotType.length][];
+        }
+        wideValues[slot] = value;
+        wideMasks[slot] = hasMask ? mask : null;
+        setHasMask(matchType, hasMask);
+        hash = 0;
+    }
+
+    /**
+     * Store a field from its OFMatchField representation, keeping the
+     * value and mask exactly as given
+     */
+    private void putField(OFOXMFieldType matchType, Object value,
+                          boolean hasMask, Object mask) {
+        int payloadLength = matchType.getPayloadLength();
+        if (isWide(matchType)) {
+            putWideField(matchType, toWideBytes(value, payloadLength),
+                         hasMask,
+                         hasMask ? toWideBytes(mask, payloadLength) : null);
+        } else {
+            putField(matchType, toLong(value, payloadLength),
+                     hasMask, hasMask ? toLong(mask, payloadLength) : 0);
+        }
+    }
+
+    private void setPrimitive(OFOXMFieldType matchType, long value) {
+        if (isWide(matchType)) {
+            setField(matchType, Long.valueOf(value));
+            return;
+        }
+        putField(matchType, value & valueMask(matchType.getPayloadLength()),
+                 false, 0);
+    }
+
+    private void setPrimitive(OFOXMFieldType matchType, long value, long mask) {
+        if (isWide(matchType)) {
+            setField(matchType, Long.valueOf(value), Long.valueOf(mask));
+            return;
+        }
+        long bits = valueMask(matchType.getPayloadLength());
+        mask &= bits;
+        //Handling case where OXM value bit
+        // should never be 1 when OXM mask bit is 0
+        if (mask != 0)
+            putField(matchType, value & mask, true, mask);
+        else
+            putField(matchType, value & bits, false, 0);
+    }
+
+    /**
+     * Remove all match fields
+     */
+    private void clearFields() {
+        Arrays.fill(slotOf, (byte) 0);
+        fieldCount = 0;
+        fields = 0;
+        maskedFields = 0;
+        masks = null;
+        wideValues = null;
+        wideMasks = null;
+        hash = 0;
+        this.matchLength = 4; //No padding
+        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+    }
+
+    private long getPrimitive(OFOXMFieldType matchType) {
+        return values[slotOf[matchType.ordinal()] - 1];
+    }
+
+    private long getPrimitiveMask(OFOXMFieldType matchType) {
+        return masks[slotOf[matchType.ordinal()] - 1];
     }
 
     /**
@@ -83,11 +316,12 @@ public class OFMatch implements Cloneable {
      * @return
      */
     public Object getMatchFieldValue(OFOXMFieldType matchType) {
-        for (OFMatchField matchField: matchFields) {
-            if (matchField.getType() == matchType)
-                return matchField.getValue();
-        }
-        throw new IllegalArgumentException("No match exists for matchfield " + matchType.getName());
+        if (!fieldExists(matchType))
+            throw new IllegalArgumentException("No match exists for matchfield " + matchType.getName());
+        int slot = slotOf[matchType.ordinal()] - 1;
+        if (isWide(matchType))
+            return wideValues[slot].clone();
+        return toObject(values[slot], matchType.getPayloadLength());
     }
 
     /**
@@ -95,12 +329,13 @@ public class OFMatch implements Cloneable {
      * @return
      */
     public Object getMatchFieldMask(OFOXMFieldType matchType) {
-        for (OFMatchField matchField: matchFields) {
-            if (matchField.getType() == matchType)
-                return matchField.getMask();
-        }
         //No mask exists for matchfield and it is not illegal
-        return null;
+        if ((maskedFields & bit(matchType)) == 0)
+            return null;
+        int slot = slotOf[matchType.ordinal()] - 1;
+        if (isWide(matchType))
+            return wideMasks[slot].clone();
+        return toObject(masks[slot], matchType.getPayloadLength());
     }
 
     /**
@@ -108,11 +343,7 @@ public class OFMatch implements Cloneable {
      * @return boolean indicating if the field value exists
      */
     public boolean fieldExists(OFOXMFieldType matchType) {
-        for (OFMatchField matchField: matchFields) {
-            if (matchField.getType() == matchType)
-                return true;
-        }
-        return false;
+        return (fields & bit(matchType)) != 0;
     }
 
     /**
@@ -120,11 +351,9 @@ public class OFMatch implements Cloneable {
      * @return integer
      */
     public int getInPort() {
-        try {
-            return (Integer)getMatchFieldValue(OFOXMFieldType.IN_PORT);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.IN_PORT))
             return OFPort.OFPP_ANY.getValue();
-        }
+        return (int) getPrimitive(OFOXMFieldType.IN_PORT);
     }
 
     /**
@@ -132,7 +361,7 @@ public class OFMatch implements Cloneable {
      * @param in_port
      */
     public OFMatch setInPort(int inPort) {
-        this.setField(OFOXMFieldType.IN_PORT, inPort);
+        this.setPrimitive(OFOXMFieldType.IN_PORT, inPort);
         return this;
     }
 
@@ -142,11 +371,10 @@ public class OFMatch implements Cloneable {
      * @return an arrays of bytes
      */
     public byte[] getDataLayerDestination() {
-        try {
-            return (byte[])getMatchFieldValue(OFOXMFieldType.ETH_DST);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.ETH_DST))
             return null;
-        }
+        return toBytes(getPrimitive(OFOXMFieldType.ETH_DST),
+                       OFPhysicalPort.OFP_ETH_ALEN);
     }
 
     /**
@@ -180,11 +408,10 @@ public class OFMatch implements Cloneable {
      * @return an array of bytes
      */
     public byte[] getDataLayerSource() {
-        try {
-            return (byte[])getMatchFieldValue(OFOXMFieldType.ETH_SRC);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.ETH_SRC))
             return null;
-        }
+        return toBytes(getPrimitive(OFOXMFieldType.ETH_SRC),
+                       OFPhysicalPort.OFP_ETH_ALEN);
     }
 
     /**
@@ -218,11 +445,9 @@ public class OFMatch implements Cloneable {
      * @return ether_type
      */
     public short getDataLayerType() {
-        try {
-            return (Short)getMatchFieldValue(OFOXMFieldType.ETH_TYPE);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.ETH_TYPE))
             return 0;
-        }
+        return (short) getPrimitive(OFOXMFieldType.ETH_TYPE);
     }
 
     /**
@@ -231,7 +456,7 @@ public class OFMatch implements Cloneable {
      * @param dataLayerType
      */
     public OFMatch setDataLayerType(short dataLayerType) {
-        this.setField(OFOXMFieldType.ETH_TYPE, dataLayerType);
+        this.setPrimitive(OFOXMFieldType.ETH_TYPE, dataLayerType);
         return this;
     }
 
@@ -241,11 +466,9 @@ public class OFMatch implements Cloneable {
      * @return vlan tag without the VLAN present bit set
      */
     public short getDataLayerVirtualLan() {
-        try {
-            return (short)((Short)getMatchFieldValue(OFOXMFieldType.VLAN_VID) & 0xFFF);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.VLAN_VID))
             return OFVlanId.OFPVID_NONE.getValue();
-        }
+        return (short) (getPrimitive(OFOXMFieldType.VLAN_VID) & 0xFFF);
     }
 
     /**
@@ -254,7 +477,7 @@ public class OFMatch implements Cloneable {
      * @param dataLayerVirtualLan VLAN ID without the VLAN present bit set
      */
     public OFMatch setDataLayerVirtualLan(short vlan) {
-        this.setField(OFOXMFieldType.VLAN_VID, (short)(vlan | OFVlanId.OFPVID_PRESENT.getValue()));
+        this.setPrimitive(OFOXMFieldType.VLAN_VID, (short)(vlan | OFVlanId.OFPVID_PRESENT.getValue()));
         return this;
     }
 
@@ -264,11 +487,9 @@ public class OFMatch implements Cloneable {
      * @return VLAN PCP value
      */
     public byte getDataLayerVirtualLanPriorityCodePoint() {
-        try {
-            return (Byte) getMatchFieldValue(OFOXMFieldType.VLAN_PCP);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.VLAN_PCP))
             return 0;
-        }
+        return (byte) getPrimitive(OFOXMFieldType.VLAN_PCP);
     }
 
     /**
@@ -277,7 +498,7 @@ public class OFMatch implements Cloneable {
      * @param pcp
      */
     public OFMatch setDataLayerVirtualLanPriorityCodePoint(byte pcp) {
-        this.setField(OFOXMFieldType.VLAN_VID, pcp);
+        this.setPrimitive(OFOXMFieldType.VLAN_VID, pcp);
         return this;
     }
 
@@ -287,11 +508,9 @@ public class OFMatch implements Cloneable {
      * @return
      */
     public byte getNetworkProtocol() {
-        try {
-            return (Byte)getMatchFieldValue(OFOXMFieldType.IP_PROTO);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.IP_PROTO))
             return 0;
-        }
+        return (byte) getPrimitive(OFOXMFieldType.IP_PROTO);
     }
 
     /**
@@ -300,7 +519,7 @@ public class OFMatch implements Cloneable {
      * @param networkProtocol
      */
     public OFMatch setNetworkProtocol(byte networkProtocol) {
-        this.setField(OFOXMFieldType.IP_PROTO, networkProtocol);
+        this.setPrimitive(OFOXMFieldType.IP_PROTO, networkProtocol);
         return this;
     }
 
@@ -310,13 +529,12 @@ public class OFMatch implements Cloneable {
      * @return : 6-bit DSCP value (0-63) in higher bits and 2-bit ECN in lower bits
      */
     public byte getNetworkTypeOfService() {
-        try {
-            byte dscp = (byte)((((Byte)getMatchFieldValue(OFOXMFieldType.IP_DSCP)) & 0x3f) << 2);
-            byte ecn = (byte)(((Byte)getMatchFieldValue(OFOXMFieldType.IP_ECN)) & 0x3);
-            return (byte)(dscp & ecn);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.IP_DSCP) ||
+                !fieldExists(OFOXMFieldType.IP_ECN))
             return 0;
-        }
+        byte dscp = (byte)((getPrimitive(OFOXMFieldType.IP_DSCP) & 0x3f) << 2);
+        byte ecn = (byte)(getPrimitive(OFOXMFieldType.IP_ECN) & 0x3);
+        return (byte)(dscp & ecn);
     }
 
     /**
@@ -326,8 +544,8 @@ public class OFMatch implements Cloneable {
      * in higher significant bits and ECN in the lower 2 bits
      */
     public OFMatch setNetworkTypeOfService(byte networkTypeOfService) {
-        this.setField(OFOXMFieldType.IP_DSCP, (byte)((networkTypeOfService >> 2) & 0x3f));
-        this.setField(OFOXMFieldType.IP_ECN, (byte)(networkTypeOfService & 0x3));
+        this.setPrimitive(OFOXMFieldType.IP_DSCP, (byte)((networkTypeOfService >> 2) & 0x3f));
+        this.setPrimitive(OFOXMFieldType.IP_ECN, (byte)(networkTypeOfService & 0x3));
         return this;
     }
 
@@ -337,11 +555,9 @@ public class OFMatch implements Cloneable {
      * @return integer destination IP address
      */
     public int getNetworkDestination() {
-        try {
-            return (Integer)getMatchFieldValue(OFOXMFieldType.IPV4_DST);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.IPV4_DST))
             return 0;
-        }
+        return (int) getPrimitive(OFOXMFieldType.IPV4_DST);
     }
 
     /**
@@ -350,11 +566,9 @@ public class OFMatch implements Cloneable {
      * @return integer destination IP address mask
      */
     public int getNetworkDestinationMask() {
-        Object mask = getMatchFieldMask(OFOXMFieldType.IPV4_DST);
-        if (mask == null)
+        if ((maskedFields & bit(OFOXMFieldType.IPV4_DST)) == 0)
             return 0;
-        else
-            return (Integer)mask;
+        return (int) getPrimitiveMask(OFOXMFieldType.IPV4_DST);
     }
 
     /**
@@ -376,13 +590,13 @@ public class OFMatch implements Cloneable {
     public OFMatch setNetworkDestination(short dataLayerType, int networkDestination) {
         switch (dataLayerType) {
             case ETH_TYPE_IPV4:
-                this.setField(OFOXMFieldType.IPV4_DST, networkDestination);
+                this.setPrimitive(OFOXMFieldType.IPV4_DST, networkDestination);
                 break;
             case ETH_TYPE_IPV6:
-                this.setField(OFOXMFieldType.IPV6_DST, networkDestination);
+                this.setPrimitive(OFOXMFieldType.IPV6_DST, networkDestination);
                 break;
             case ETH_TYPE_ARP:
-                this.setField(OFOXMFieldType.ARP_THA, networkDestination);
+                this.setPrimitive(OFOXMFieldType.ARP_THA, networkDestination);
                 break;
         }
         return this;
@@ -395,7 +609,7 @@ public class OFMatch implements Cloneable {
      * @param networkMask network mask
      */
     public OFMatch setNetworkDestinationMask(int networkDestination, int networkMask) {
-        this.setField(OFOXMFieldType.IPV4_DST, networkDestination, networkMask);
+        this.setPrimitive(OFOXMFieldType.IPV4_DST, networkDestination, networkMask);
         return this;
     }
 
@@ -409,13 +623,13 @@ public class OFMatch implements Cloneable {
     public OFMatch setNetworkDestinationMask(short dataLayerType, int networkDestination, int networkMask) {
         switch (dataLayerType) {
             case ETH_TYPE_IPV4:
-                this.setField(OFOXMFieldType.IPV4_DST, networkDestination, networkMask);
+                this.setPrimitive(OFOXMFieldType.IPV4_DST, networkDestination, networkMask);
                 break;
             case ETH_TYPE_IPV6:
-                this.setField(OFOXMFieldType.IPV6_DST, networkDestination, networkMask);
+                this.setPrimitive(OFOXMFieldType.IPV6_DST, networkDestination, networkMask);
                 break;
             case ETH_TYPE_ARP:
-                this.setField(OFOXMFieldType.ARP_THA, networkDestination, networkMask);
+                this.setPrimitive(OFOXMFieldType.ARP_THA, networkDestination, networkMask);
                 break;
         }
         return this;
@@ -428,11 +642,9 @@ public class OFMatch implements Cloneable {
      */
     // TODO: Add support for IPv6
     public int getNetworkSource() {
-        try {
-            return (Integer)getMatchFieldValue(OFOXMFieldType.IPV4_SRC);
-        } catch (IllegalArgumentException e) {
+        if (!fieldExists(OFOXMFieldType.IPV4_SRC))
             return 0;
-        }
+        return (int) getPrimitive(OFOXMFieldType.IPV4_SRC);
     }
 
     /**
@@ -441,11 +653,9 @@ public class OFMatch implements Cloneable {
      * @return integer source IP address mask
      */
     public int getNetworkSourceMask() {
-        Object mask = getMatchFieldMask(OFOXMFieldType.IPV4_SRC);
-        if (mask == null)
+        if ((maskedFields & bit(OFOXMFieldType.IPV4_SRC)) == 0)
             return 0;
-        else
-            return (Integer)mask;
+        return (int) getPrimitiveMask(OFOXMFieldType.IPV4_SRC);
     }
 
     /**
@@ -469,10 +679,10 @@ public class OFMatch implements Cloneable {
     public OFMatch setNetworkSource(short dataLayerType, int networkSource) {
         switch (dataLayerType) {
             case ETH_TYPE_IPV4:
-                this.setField(OFOXMFieldType.IPV4_SRC, networkSource);
+                this.setPrimitive(OFOXMFieldType.IPV4_SRC, networkSource);
                 break;
             case ETH_TYPE_ARP:
-                this.setField(OFOXMFieldType.ARP_SHA, networkSource);
+                this.setPrimitive(OFOXMFieldType.ARP_SHA, networkSource);
                 break;
         }
         return this;
@@ -485,7 +695,7 @@ public class OFMatch implements Cloneable {
      * @param networkMask network mask
      */
     public OFMatch setNetworkSourceMask(int networkSource, int networkMask) {
-        this.setField(OFOXMFieldType.IPV4_SRC, networkSource, networkMask);
+        this.setPrimitive(OFOXMFieldType.IPV4_SRC, networkSource, networkMask);
         return this;
     }
 
@@ -499,18 +709,28 @@ public class OFMatch implements Cloneable {
     public OFMatch setNetworkSourceMask(short dataLayerType, int networkSource, int networkMask) {
         switch (dataLayerType) {
             case ETH_TYPE_IPV4:
-                this.setField(OFOXMFieldType.IPV4_SRC, networkSource, networkMask);
+                this.setPrimitive(OFOXMFieldType.IPV4_SRC, networkSource, networkMask);
                 break;
             case ETH_TYPE_IPV6:
-                this.setField(OFOXMFieldType.IPV6_SRC, networkSource, networkMask);
+                this.setPrimitive(OFOXMFieldType.IPV6_SRC, networkSource, networkMask);
                 break;
             case ETH_TYPE_ARP:
-                this.setField(OFOXMFieldType.ARP_SHA, networkSource, networkMask);
+                this.setPrimitive(OFOXMFieldType.ARP_SHA, networkSource, networkMask);
                 break;
         }
         return this;
     }
 
+    /**
+     * Get the transport port field for the given protocol
+     * @return the port number or 0 if the field is not set
+     */
+    private short getTransportPort(OFOXMFieldType matchType) {
+        if (!fieldExists(matchType))
+            return 0;
+        return (short) getPrimitive(matchType);
+    }
+
     /**
      * Get tp_dst
      *
@@ -520,11 +740,11 @@ public class OFMatch implements Cloneable {
         byte networkProtocol = getNetworkProtocol();
         switch (networkProtocol) {
             case IP_PROTO_TCP:
-                return (Short)getMatchFieldValue(OFOXMFieldType.TCP_DST);
+                return getTransportPort(OFOXMFieldType.TCP_DST);
             case IP_PROTO_UDP:
-                return (Short)getMatchFieldValue(OFOXMFieldType.UDP_DST);
+                return getTransportPort(OFOXMFieldType.UDP_DST);
             case IP_PROTO_SCTP:
-                return (Short)getMatchFieldValue(OFOXMFieldType.SCTP_DST);
+                return getTransportPort(OFOXMFieldType.SCTP_DST);
             default:
                 return 0;
         }
@@ -549,13 +769,13 @@ public class OFMatch implements Cloneable {
     public OFMatch setTransportDestination(byte networkProtocol, short transportDestination) {
         switch (networkProtocol) {
             case IP_PROTO_TCP:
-                this.setField(OFOXMFieldType.TCP_DST, transportDestination);
+                this.setPrimitive(OFOXMFieldType.TCP_DST, transportDestination);
                 break;
             case IP_PROTO_UDP:
-                this.setField(OFOXMFieldType.UDP_DST, transportDestination);
+                this.setPrimitive(OFOXMFieldType.UDP_DST, transportDestination);
                 break;
             case IP_PROTO_SCTP:
-                this.setField(OFOXMFieldType.SCTP_DST, transportDestination);
+                this.setPrimitive(OFOXMFieldType.SCTP_DST, transportDestination);
                 break;
         }
         return this;
@@ -570,11 +790,11 @@ public class OFMatch implements Cloneable {
         byte networkProtocol = getNetworkProtocol();
         switch (networkProtocol) {
             case IP_PROTO_TCP:
-                return (Short)getMatchFieldValue(OFOXMFieldType.TCP_SRC);
+                return getTransportPort(OFOXMFieldType.TCP_SRC);
             case IP_PROTO_UDP:
-                return (Short)getMatchFieldValue(OFOXMFieldType.UDP_SRC);
+                return getTransportPort(OFOXMFieldType.UDP_SRC);
             case IP_PROTO_SCTP:
-                return (Short)getMatchFieldValue(OFOXMFieldType.SCTP_SRC);
+                return getTransportPort(OFOXMFieldType.SCTP_SRC);
             default:
                 return 0;
         }
@@ -599,13 +819,13 @@ public class OFMatch implements Cloneable {
     public OFMatch setTransportSource(byte networkProtocol, short transportSource) {
         switch (networkProtocol) {
             case IP_PROTO_TCP:
-                this.setField(OFOXMFieldType.TCP_SRC, transportSource);
+                this.setPrimitive(OFOXMFieldType.TCP_SRC, transportSource);
                 break;
             case IP_PROTO_UDP:
-                this.setField(OFOXMFieldType.UDP_SRC, transportSource);
+                this.setPrimitive(OFOXMFieldType.UDP_SRC, transportSource);
                 break;
             case IP_PROTO_SCTP:
-                this.setField(OFOXMFieldType.SCTP_SRC, transportSource);
+                this.setPrimitive(OFOXMFieldType.SCTP_SRC, transportSource);
                 break;
         }
         return this;
@@ -640,28 +860,45 @@ public class OFMatch implements Cloneable {
      * @param matchField Check for uniqueness of field and add matchField
      */
     public void setField(OFMatchField newMatchField) {
-        if (this.matchFields == null)
-            this.matchFields = new ArrayList<OFMatchField>();
-        for (OFMatchField matchField: this.matchFields) {
-            if (matchField.getType() == newMatchField.getType()) {
-                matchField.setValue(newMatchField.getValue());
-                matchField.setMask(newMatchField.getMask());
-                return;
-            }
-        }
-        this.matchFields.add(newMatchField);
-        this.matchLength += newMatchField.getLength();
-        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+        putField(newMatchField.getType(), newMatchField.getValue(),
+                 newMatchField.getHasMask() != 0, newMatchField.getMask());
     }
 
     public void setField(OFOXMFieldType matchFieldType, Object matchFieldValue) {
-        OFMatchField matchField = new OFMatchField(matchFieldType, matchFieldValue);
-        setField(matchField);
+        int payloadLength = matchFieldType.getPayloadLength();
+        if (isWide(matchFieldType))
+            putWideField(matchFieldType,
+                         toWideBytes(matchFieldValue, payloadLength),
+                         false, null);
+        else
+            putField(matchFieldType, toLong(matchFieldValue, payloadLength),
+                     false, 0);
     }
 
     public void setField(OFOXMFieldType matchFieldType, Object matchFieldValue, Object matchFieldMask) {
-        OFMatchField matchField = new OFMatchField(matchFieldType, matchFieldValue, matchFieldMask);
-        setField(matchField);
+        int payloadLength = matchFieldType.getPayloadLength();
+        if (!isWide(matchFieldType)) {
+            if (matchFieldMask == null)
+                setField(matchFieldType, matchFieldValue);
+            else
+                setPrimitive(matchFieldType,
+                             toLong(matchFieldValue, payloadLength),
+                             toLong(matchFieldMask, payloadLength));
+            return;
+        }
+        byte[] value = toWideBytes(matchFieldValue, payloadLength);
+        if (matchFieldMask == null) {
+            putWideField(matchFieldType, value, false, null);
+            return;
+        }
+        byte[] mask = toWideBytes(matchFieldMask, payloadLength);
+        if (isAllZero(mask)) {
+            putWideField(matchFieldType, value, false, null);
+        } else {
+            for (int i = 0; i < value.length; i++)
+                value[i] &= mask[i];
+            putWideField(matchFieldType, value, true, mask);
+        }
     }
 
     /**
@@ -669,7 +906,23 @@ public class OFMatch implements Cloneable {
      * @return a list of ordered OFMatchField objects
      */
     public List<OFMatchField> getMatchFields() {
-        return this.matchFields;
+        List<OFMatchField> matchFields =
+                new ArrayList<OFMatchField>(fieldCount);
+        for (int slot = 0; slot < fieldCount; slot++) {
+            OFOXMFieldType matchType = FIELD_TYPES[slotType[slot]];
+            OFMatchField matchField = new OFMatchField();
+            matchField.type = matchType;
+            matchField.value = getMatchFieldValue(matchType);
+            if ((maskedFields & bit(matchType)) != 0) {
+                matchField.hasMask = 1;
+                matchField.mask = getMatchFieldMask(matchType);
+                matchField.length = 4 + 2 * matchType.getPayloadLength();
+            } else {
+                matchField.length = 4 + matchType.getPayloadLength();
+            }
+            matchFields.add(matchField);
+        }
+        return matchFields;
     }
 
     /**
@@ -677,14 +930,10 @@ public class OFMatch implements Cloneable {
      * @param matchFields a list of ordered OFMatchField objects
      */
     public OFMatch setMatchFields(List<OFMatchField> matchFields) {
-        this.matchFields = matchFields;
-
-        //Recalculate lengths
-        this.matchLength = 4; //No padding
+        clearFields();
         if (matchFields != null)
-            for (OFMatchField newMatchField: this.matchFields)
-                this.matchLength += newMatchField.getLength();
-        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+            for (OFMatchField newMatchField: matchFields)
+                setField(newMatchField);
         return this;
     }
 
@@ -699,20 +948,82 @@ public class OFMatch implements Cloneable {
         else if (nonWildcardedFieldTypes.size() == 0)
             setMatchFields(null);
         else {
-            List <OFMatchField> newMatchFields = new ArrayList<OFMatchField>();
-
-            if (nonWildcardedFieldTypes != null) {
-                for (OFMatchField matchField: matchFields) {
-                    OFOXMFieldType type = matchField.getType();
-                    if (nonWildcardedFieldTypes.contains(type))
-                        newMatchFields.add(matchField);
+            // Compact the remaining fields, keeping their order
+            int oldCount = fieldCount;
+            fieldCount = 0;
+            for (int slot = 0; slot < oldCount; slot++) {
+                OFOXMFieldType matchType = FIELD_TYPES[slotType[slot]];
+                if (!nonWildcardedFieldTypes.contains(matchType)) {
+                    slotOf[matchType.ordinal()] = 0;
+                    fields &= ~bit(matchType);
+                    maskedFields &= ~bit(matchType);
+                    continue;
                 }
+                int newSlot = fieldCount++;
+                slotType[newSlot] = slotType[slot];
+                slotOf[matchType.ordinal()] = (byte) (newSlot + 1);
+                values[newSlot] = values[slot];
+                if (masks != null)
+                    masks[newSlot] = masks[slot];
+                if (wideValues != null) {
+                    wideValues[newSlot] = wideValues[slot];
+                    wideMasks[newSlot] = wideMasks[slot];
+                }
+            }
+            //Recalculate lengths
+            this.matchLength = 4; //No padding
+            for (int slot = 0; slot < fieldCount; slot++) {
+                OFOXMFieldType matchType = FIELD_TYPES[slotType[slot]];
+                int payloadLength = matchType.getPayloadLength();
+                this.matchLength += 4 + (((maskedFields & bit(matchType)) != 0)
+                        ? 2 * payloadLength : payloadLength);
             }
-            setMatchFields(newMatchFields);
+            this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+            hash = 0;
         }
         return this;
     }
 
+    private static long readValue(ByteBuffer data, int payloadLength) {
+        switch (payloadLength) {
+            case 1:
+                return data.get() & 0xffL;
+            case 2:
+                return data.getShort() & 0xffffL;
+            case 4:
+                return data.getInt() & 0xffffffffL;
+            case 8:
+                return data.getLong();
+            default:
+                long v = 0;
+                for (int i = 0; i < payloadLength; i++)
+                    v = (v << 8) | (data.get() & 0xffL);
+                return v;
+        }
+    }
+
+    private static void writeValue(ByteBuffer data, long value,
+                                   int payloadLength) {
+        switch (payloadLength) {
+            case 1:
+                data.put((byte) value);
+                break;
+            case 2:
+                data.putShort((short) value);
+                break;
+            case 4:
+                data.putInt((int) value);
+                break;
+            case 8:
+                data.putLong(value);
+                break;
+            default:
+                for (int i = payloadLength - 1; i >= 0; i--)
+                    data.put((byte) (value >>> (8 * i)));
+                break;
+        }
+    }
+
     public void readFrom(ByteBuffer data) {
         byte[] dataLayerAddress = new byte[OFPhysicalPort.OFP_ETH_ALEN];
         byte[] dataLayerAddressMask = new byte[OFPhysicalPort.OFP_ETH_ALEN];
@@ -727,26 +1038,46 @@ public class OFMatch implements Cloneable {
         byte mplsTC;
 
         this.type = OFMatchType.values()[data.getShort()];
-        this.matchLength = data.getShort();
-        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
-        int remaining = matchLength - 4; //length - sizeof(type and length)
+        short wireMatchLength = data.getShort();
+        int remaining = wireMatchLength - 4; //length - sizeof(type and length)
         int end = data.position() + remaining; //includes padding in case of STANDARD match
 
         if (type == OFMatchType.OXM) {
-            int padLength = length - matchLength;
+            int padLength = 8*((wireMatchLength + 7)/8) - wireMatchLength;
             end += padLength; // including pad
 
             if (data.remaining() < remaining)
                 remaining = data.remaining();
-            this.matchFields = new ArrayList<OFMatchField>();
+            clearFields();
             while (remaining >= OFMatchField.MINIMUM_LENGTH) {
-                OFMatchField matchField = new OFMatchField();
-                matchField.readFrom(data);
-                this.matchFields.add(matchField);
-                remaining -= U32.f(matchField.getLength()); //value length + header length
+                int header = data.getInt();
+                int typeValue = (header >> 9) & 0x7f;
+                boolean hasMask = ((header >> 8) & 1) != 0;
+                int fieldLength = 4 + (header & 0xff);
+                OFOXMFieldType matchType = (typeValue < FIELD_TYPES.length) ?
+                        OFOXMFieldType.valueOf((byte) typeValue) : null;
+                if (matchType == null) {
+                    // Unknown field, skip it
+                    data.position(data.position() + (header & 0xff));
+                } else if (isWide(matchType)) {
+                    byte[] value = new byte[matchType.getPayloadLength()];
+                    data.get(value);
+                    byte[] mask = null;
+                    if (hasMask) {
+                        mask = new byte[matchType.getPayloadLength()];
+                        data.get(mask);
+                    }
+                    putWideField(matchType, value, hasMask, mask);
+                } else {
+                    long value = readValue(data, matchType.getPayloadLength());
+                    long mask = hasMask ?
+                            readValue(data, matchType.getPayloadLength()) : 0;
+                    putField(matchType, value, hasMask, mask);
+                }
+                remaining -= fieldLength; //value length + header length
             }
         } else {
-            this.setField(OFOXMFieldType.IN_PORT, data.getInt());
+            this.setPrimitive(OFOXMFieldType.IN_PORT, data.getInt());
             wildcards = data.getInt();
 
             if ((wildcards & OFMatchWildcardMask.ALL.getValue()) == 0) {
@@ -801,12 +1132,12 @@ public class OFMatch implements Cloneable {
             networkAddress = data.getInt();
             networkAddressMask = data.getInt();
             if (networkAddress != 0)
-                this.setField(OFOXMFieldType.IPV4_SRC, networkAddress, networkAddressMask);
+                this.setPrimitive(OFOXMFieldType.IPV4_SRC, networkAddress, networkAddressMask);
 
             networkAddress = data.getInt();
             networkAddressMask = data.getInt();
             if (networkAddress != 0)
-                this.setField(OFOXMFieldType.IPV4_DST, networkAddress, networkAddressMask);
+                this.setPrimitive(OFOXMFieldType.IPV4_DST, networkAddress, networkAddressMask);
 
             transportNumber = data.getShort();
             if ((wildcards & OFMatchWildcardMask.TP_SRC.getValue()) == 0) {
@@ -823,16 +1154,16 @@ public class OFMatch implements Cloneable {
             if ((dataLayerType == ETH_TYPE_MPLS_UNICAST) ||
                     (dataLayerType == ETH_TYPE_MPLS_MULTICAST)) {
                 if ((wildcards & OFMatchWildcardMask.MPLS_LABEL.getValue()) == 0)
-                    this.setField(OFOXMFieldType.MPLS_LABEL, mplsLabel);
+                    this.setPrimitive(OFOXMFieldType.MPLS_LABEL, mplsLabel);
                 if ((wildcards & OFMatchWildcardMask.MPLS_TC.getValue()) == 0)
-                    this.setField(OFOXMFieldType.MPLS_TC, mplsTC);
+                    this.setPrimitive(OFOXMFieldType.MPLS_TC, mplsTC);
             }
 
             data.get(); //pad
             data.get(); //pad
             data.get(); //pad
 
-            this.setField(OFOXMFieldType.METADATA, data.getLong(), data.getLong());
+            this.setPrimitive(OFOXMFieldType.METADATA, data.getLong(), data.getLong());
         }
 
         data.position(end);
@@ -842,9 +1173,24 @@ public class OFMatch implements Cloneable {
         short matchLength = getMatchLength();
         data.putShort((short)this.type.ordinal());
         data.putShort(matchLength); //length does not include padding
-        if (matchFields != null)
-            for (OFMatchField matchField : matchFields)
-                matchField.writeTo(data);
+        for (int slot = 0; slot < fieldCount; slot++) {
+            OFOXMFieldType matchType = FIELD_TYPES[slotType[slot]];
+            int payloadLength = matchType.getPayloadLength();
+            boolean hasMask = (maskedFields & bit(matchType)) != 0;
+            data.putInt((matchType.getMatchClass() << 16)
+                        | (matchType.getValue() << 9)
+                        | ((hasMask ? 1 : 0) << 8)
+                        | ((byte)(hasMask ? 2 * payloadLength : payloadLength)));
+            if (isWide(matchType)) {
+                data.put(wideValues[slot], 0, payloadLength);
+                if (hasMask)
+                    data.put(wideMasks[slot], 0, payloadLength);
+            } else {
+                writeValue(data, values[slot], payloadLength);
+                if (hasMask)
+                    writeValue(data, masks[slot], payloadLength);
+            }
+        }
 
         int padLength = 8*((matchLength + 7)/8) - matchLength;
         for (;padLength>0;padLength--)
@@ -852,30 +1198,97 @@ public class OFMatch implements Cloneable {
     }
 
     public int hashCode() {
+        if (hash != 0)
+            return hash;
         final int prime = 227;
         int result = 1;
-        result = prime * result + ((matchFields == null) ? 0 : matchFields.hashCode());
+        result = prime * result + (int) (fields ^ (fields >>> 32));
+        result = prime * result + (int) (maskedFields ^ (maskedFields >>> 32));
+        // go through the fields in type order so the hash doesn't
+        // depend on the order they were added in
+        for (long bits = fields; bits != 0; bits &= bits - 1) {
+            OFOXMFieldType matchType =
+                    FIELD_TYPES[Long.numberOfTrailingZeros(bits)];
+            int slot = slotOf[matchType.ordinal()] - 1;
+            boolean hasMask = (maskedFields & bit(matchType)) != 0;
+            if (isWide(matchType)) {
+                result = prime * result + Arrays.hashCode(wideValues[slot]);
+                if (hasMask)
+                    result = prime * result + Arrays.hashCode(wideMasks[slot]);
+            } else {
+                long v = values[slot];
+                result = prime * result + (int) (v ^ (v >>> 32));
+                if (hasMask) {
+                    long m = masks[slot];
+                    result = prime * result + (int) (m ^ (m >>> 32));
+                }
+            }
+        }
+        hash = result;
         return result;
     }
 
+    /**
+     * Check if no packet can match both this and another match, i.e., a
+     * field that both match on differs in the bits both masks cover. Only
+     * the fields of up to 8 bytes are compared, so matches that are not
+     * disjoint may still not overlap.
+     * @param other the other match
+     * @return true if the matches are known to be disjoint
+     */
+    public boolean isDisjoint(OFMatch other) {
+        for (long bits = fields & other.fields; bits != 0; bits &= bits - 1) {
+            int ordinal = Long.numberOfTrailingZeros(bits);
+            OFOXMFieldType matchType = FIELD_TYPES[ordinal];
+            if (isWide(matchType))
+                continue;
+            long mask = valueMask(matchType.getPayloadLength());
+            int slot = slotOf[ordinal] - 1;
+            int otherSlot = other.slotOf[ordinal] - 1;
+            if ((maskedFields & bit(matchType)) != 0)
+                mask &= masks[slot];
+            if ((other.maskedFields & bit(matchType)) != 0)
+                mask &= other.masks[otherSlot];
+            if ((values[slot] & mask) != (other.values[otherSlot] & mask))
+                return true;
+        }
+        return false;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
             return true;
         }
-        if (!super.equals(obj)) {
+        if (!(obj instanceof OFMatch)) {
             return false;
         }
-        if (!(obj instanceof OFMatchField)) {
+        OFMatch other = (OFMatch) obj;
+        if (fields != other.fields || maskedFields != other.maskedFields) {
             return false;
         }
-        OFMatch other = (OFMatch) obj;
-        if (matchFields == null) {
-            if (other.matchFields != null)
-                return false;
-        } else if (!matchFields.equals(other.matchFields)) {
+        if (hash != 0 && other.hash != 0 && hash != other.hash) {
             return false;
         }
+        for (long bits = fields; bits != 0; bits &= bits - 1) {
+            int ordinal = Long.numberOfTrailingZeros(bits);
+            OFOXMFieldType matchType = FIELD_TYPES[ordinal];
+            int slot = slotOf[ordinal] - 1;
+            int otherSlot = other.slotOf[ordinal] - 1;
+            boolean hasMask = (maskedFields & bit(matchType)) != 0;
+            if (isWide(matchType)) {
+                if (!Arrays.equals(wideValues[slot], other.wideValues[otherSlot]))
+                    return false;
+                if (hasMask &&
+                        !Arrays.equals(wideMasks[slot], other.wideMasks[otherSlot]))
+                    return false;
+            } else {
+                if (values[slot] != other.values[otherSlot])
+                    return false;
+                if (hasMask && masks[slot] != other.masks[otherSlot])
+                    return false;
+            }
+        }
         return true;
     }
 
@@ -885,16 +1298,23 @@ public class OFMatch implements Cloneable {
     @Override
     public OFMatch clone() {
         OFMatch match = new OFMatch();
-        try {
-            List<OFMatchField> neoMatchFields = new LinkedList<OFMatchField>();
-            for(OFMatchField matchField: this.matchFields)
-                neoMatchFields.add((OFMatchField) matchField.clone());
-            match.setMatchFields(neoMatchFields);
-            return match;
-        } catch (CloneNotSupportedException e) {
-            // Won't happen
-            throw new RuntimeException(e);
+        match.matchLength = matchLength;
+        match.length = length;
+        match.fields = fields;
+        match.maskedFields = maskedFields;
+        match.fieldCount = fieldCount;
+        match.slotOf = slotOf.clone();
+        match.slotType = slotType.clone();
+        match.values = values.clone();
+        if (masks != null)
+            match.masks = masks.clone();
+        if (wideValues != null) {
+            // the arrays are never modified once stored
+            match.wideValues = wideValues.clone();
+            match.wideMasks = wideMasks.clone();
         }
+        match.hash = hash;
+        return match;
     }
 
     /**
@@ -1022,7 +1442,7 @@ public class OFMatch implements Cloneable {
      */
     @Override
     public String toString() {
-        return "OFMatch [type=" + type + ", length=" + length + ", matchFields=" + matchFields + "]";
+        return "OFMatch [type=" + type + ", length=" + length + ", matchFields=" + getMatchFields() + "]";
     }
 
     /**
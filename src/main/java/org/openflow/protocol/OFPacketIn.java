@@ -124,11 +124,9 @@ public class OFPacketIn extends OFMessage {
      * @return
      */
     public int getInPort() {
-        for (OFMatchField matchField: match.matchFields) {
-            if (matchField.getType() == OFOXMFieldType.IN_PORT)
-                return (Integer) matchField.value;
-        }
-        return -1;
+        if (!match.fieldExists(OFOXMFieldType.IN_PORT))
+            return -1;
+        return match.getInPort();
     }
 
     /**
@@ -271,6 +269,7 @@ public class OFPacketIn extends OFMessage {
     public void computeLength() {
         int l = MINIMUM_LENGTH - OFMatch.MINIMUM_LENGTH;
         l += match.getLength();
+        l += 2; // pad after the match
         l += ((packetData != null) ? packetData.length : 0);
         this.length = U16.t(l);
     }
@@ -0,0 +1,61 @@
+package net.floodlightcontroller.core;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class FloodlightContextTest {
+    private static final String KEY_A =
+            "net.floodlightcontroller.core.FloodlightContextTest.a";
+    private static final String KEY_B =
+            "net.floodlightcontroller.core.FloodlightContextTest.b";
+
+    private final FloodlightContextStore<String> store =
+            new FloodlightContextStore<String>();
+
+    @Test
+    public void testSlots() {
+        int a = FloodlightContext.getSlot(KEY_A);
+        assertEquals(a, FloodlightContext.getSlot(KEY_A));
+        assertEquals(a, FloodlightContext.findSlot(KEY_A));
+        assertFalse(a == FloodlightContext.getSlot(KEY_B));
+        assertEquals(-1, FloodlightContext.findSlot(
+                "net.floodlightcontroller.core.FloodlightContextTest.none"));
+    }
+
+    @Test
+    public void testKeyAndSlotAccess() {
+        FloodlightContext cntx = new FloodlightContext();
+        assertNull(store.get(cntx, KEY_A));
+        assertNull(store.get(cntx,
+                "net.floodlightcontroller.core.FloodlightContextTest.unknown"));
+
+        store.put(cntx, KEY_A, "a");
+        assertEquals("a", store.get(cntx, KEY_A));
+        assertEquals("a", store.get(cntx, FloodlightContext.getSlot(KEY_A)));
+        store.put(cntx, FloodlightContext.getSlot(KEY_B), "b");
+        assertEquals("b", store.get(cntx, KEY_B));
+
+        store.remove(cntx, KEY_A);
+        assertNull(store.get(cntx, KEY_A));
+        assertEquals("b", store.get(cntx, KEY_B));
+    }
+
+    @Test
+    public void testReset() {
+        FloodlightContext cntx = new FloodlightContext();
+        store.put(cntx, KEY_A, "a");
+        store.put(cntx, KEY_B, "b");
+        cntx.reset();
+        assertNull(store.get(cntx, KEY_A));
+        assertNull(store.get(cntx, KEY_B));
+        // and the context can be reused
+        store.put(cntx, KEY_B, "c");
+        assertEquals("c", store.get(cntx, KEY_B));
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testNullValue() {
+        store.put(new FloodlightContext(), KEY_A, null);
+    }
+}
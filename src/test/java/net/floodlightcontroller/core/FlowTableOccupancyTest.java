@@ -0,0 +1,82 @@
+package net.floodlightcontroller.core;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import net.floodlightcontroller.core.FlowTableOccupancy.Level;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFTableFeatures;
+import org.openflow.protocol.statistics.OFTableStatistics;
+
+public class FlowTableOccupancyTest {
+    private FlowTableOccupancy occupancy;
+
+    @Before
+    public void setUp() {
+        occupancy = new FlowTableOccupancy(80, 95);
+    }
+
+    private static OFStatistics features(int tableId, int maxEntries) {
+        return new OFTableFeatures().setTableFeaturesId((byte) tableId)
+                                    .setMaxEntries(maxEntries);
+    }
+
+    private static OFStatistics stats(int tableId, int activeCount) {
+        return new OFTableStatistics().setTableId((byte) tableId)
+                                      .setActiveCount(activeCount);
+    }
+
+    @Test
+    public void testLevels() {
+        // nothing is known yet
+        assertEquals(Level.NORMAL, occupancy.getLevel());
+        assertEquals(-1, occupancy.getPercentFull(0));
+        occupancy.updateTableStats(Arrays.asList(stats(0, 70), stats(1, 10)));
+        assertFalse(occupancy.isCapacityKnown());
+        assertEquals(Level.NORMAL, occupancy.getLevel());
+
+        occupancy.updateTableFeatures(Arrays.asList(features(0, 100),
+                                                    features(1, 1000)));
+        assertTrue(occupancy.isCapacityKnown());
+        assertEquals(70, occupancy.getPercentFull(0));
+        assertEquals(1, occupancy.getPercentFull(1));
+
+        // installs count until the next TABLE reply
+        for (int i = 0; i < 10; i++)
+            occupancy.flowAdded(0);
+        assertEquals(80, occupancy.getActiveEntries(0));
+        assertEquals(Level.HIGH, occupancy.getLevel(0));
+        assertEquals(Level.NORMAL, occupancy.getLevel(1));
+        assertEquals(Level.HIGH, occupancy.getLevel());
+        for (int i = 0; i < 15; i++)
+            occupancy.flowAdded(0);
+        assertEquals(Level.FULL, occupancy.getLevel());
+
+        // hysteresis
+        occupancy.updateTableStats(Arrays.asList(stats(0, 91)));
+        assertEquals(Level.FULL, occupancy.getLevel());
+        occupancy.updateTableStats(Arrays.asList(stats(0, 89)));
+        assertEquals(Level.HIGH, occupancy.getLevel());
+        occupancy.updateTableStats(Arrays.asList(stats(0, 76)));
+        assertEquals(Level.HIGH, occupancy.getLevel());
+        occupancy.updateTableStats(Arrays.asList(stats(0, 74)));
+        assertEquals(Level.NORMAL, occupancy.getLevel());
+    }
+
+    @Test
+    public void testTablesFullError() {
+        // without knowing the capacity
+        occupancy.tablesFull();
+        assertEquals(Level.FULL, occupancy.getLevel());
+        assertEquals(Level.FULL, occupancy.getLevel(3));
+        assertEquals(1, occupancy.getFailedFlowMods());
+        occupancy.updateTableStats(Collections.<OFStatistics>emptyList());
+        assertEquals(Level.NORMAL, occupancy.getLevel());
+        assertEquals(1, occupancy.getFailedFlowMods());
+    }
+}
@@ -0,0 +1,132 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.test.MockScheduledExecutor;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.FloodlightFactory;
+
+public class CoalescingWriterTest {
+    // long enough for the test to write its bursts
+    private static final long DEADLINE_US = 1000000;
+
+    private List<List<OFMessage>> batches;
+    private CoalescingWriter writer;
+    private Capture<Runnable> deadlines;
+
+    @Before
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void setUp() {
+        batches = new ArrayList<List<OFMessage>>();
+        writer = new CoalescingWriter(new CoalescingWriter.Sink() {
+            @Override
+            public void send(List<OFMessage> msglist) {
+                batches.add(msglist);
+            }
+        }, 3, 1 << 20, DEADLINE_US);
+        deadlines = new Capture<Runnable>(CaptureType.ALL);
+        ScheduledFuture future = createNiceMock(ScheduledFuture.class);
+        ScheduledExecutorService executor =
+                createMock(ScheduledExecutorService.class);
+        expect((ScheduledFuture)executor.schedule(capture(deadlines),
+                anyLong(), eq(TimeUnit.NANOSECONDS)))
+            .andReturn(future).anyTimes();
+        replay(future, executor);
+        writer.setExecutor(executor);
+    }
+
+    private static OFMessage msg(OFType type) {
+        return FloodlightFactory.getInstance().getMessage(type);
+    }
+
+    @Test
+    public void testBatching() {
+        OFMessage fm1 = msg(OFType.FLOW_MOD);
+        OFMessage fm2 = msg(OFType.FLOW_MOD);
+        OFMessage po = msg(OFType.PACKET_OUT);
+        OFMessage fm3 = msg(OFType.FLOW_MOD);
+        // idle since it was created: written right away
+        writer.write(fm1, System.nanoTime());
+        assertEquals(1, batches.size());
+        // a burst is batched up to the maximum size
+        writer.write(fm2, System.nanoTime());
+        writer.write(po, System.nanoTime());
+        assertEquals(1, batches.size());
+        assertEquals(1, deadlines.getValues().size());
+        writer.write(fm3, System.nanoTime());
+        assertEquals(Arrays.asList(fm2, po, fm3), batches.get(1));
+
+        // messages that can't wait flush the batch
+        OFMessage fm4 = msg(OFType.FLOW_MOD);
+        OFMessage barrier = msg(OFType.BARRIER_REQUEST);
+        writer.write(fm4, System.nanoTime());
+        writer.write(barrier, System.nanoTime());
+        assertEquals(Arrays.asList(fm4, barrier), batches.get(2));
+
+        // the deadline
+        OFMessage fm5 = msg(OFType.FLOW_MOD);
+        writer.write(fm5, System.nanoTime());
+        assertEquals(3, batches.size());
+        assertEquals(3, deadlines.getValues().size());
+        deadlines.getValues().get(2).run();
+        assertEquals(Arrays.asList(fm5), batches.get(3));
+
+        // lists go out with the buffered messages
+        OFMessage fm6 = msg(OFType.FLOW_MOD);
+        OFMessage fm7 = msg(OFType.FLOW_MOD);
+        writer.write(fm6, System.nanoTime());
+        writer.write(Arrays.asList(fm7), System.nanoTime());
+        assertEquals(Arrays.asList(fm6, fm7), batches.get(4));
+
+        // flushPending() writes what is buffered
+        OFMessage fm8 = msg(OFType.FLOW_MOD);
+        writer.write(fm8, System.nanoTime());
+        CoalescingWriter.flushPending();
+        assertEquals(Arrays.asList(fm8), batches.get(5));
+        CoalescingWriter.flushPending();
+        assertEquals(6, batches.size());
+
+        assertEquals(6, writer.getBatchSizes().getCount());
+        assertEquals(3, writer.getBatchSizes().getMax());
+    }
+
+    @Test
+    public void testNotStranded() throws Exception {
+        // a deadline long enough not to pass before the first check
+        writer = new CoalescingWriter(new CoalescingWriter.Sink() {
+            @Override
+            public void send(List<OFMessage> msglist) {
+                batches.add(msglist);
+            }
+        }, 3, 1 << 20, 100 * 1000);
+        writer.setExecutor(new MockScheduledExecutor());
+        long now = System.nanoTime();
+        writer.write(msg(OFType.FLOW_MOD), now);
+        writer.write(msg(OFType.FLOW_MOD), now);
+        assertEquals(1, batches.size());
+        for (int i = 0; i < 100; i++) {
+            synchronized (writer) {
+                if (batches.size() == 2)
+                    break;
+            }
+            Thread.sleep(10);
+        }
+        synchronized (writer) {
+            assertEquals(2, batches.size());
+        }
+    }
+}
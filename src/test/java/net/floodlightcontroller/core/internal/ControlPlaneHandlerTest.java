@@ -0,0 +1,131 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.floodlightcontroller.core.internal.ControlPlaneHandler.MessageClass;
+import net.floodlightcontroller.core.internal.ControlPlaneHandler.ReceivedBatch;
+import net.floodlightcontroller.debugcounter.DebugCounter;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFEchoReply;
+import org.openflow.protocol.OFEchoRequest;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPortStatus;
+import org.openflow.protocol.OFType;
+
+public class ControlPlaneHandlerTest {
+    private Controller controller;
+    private Channel channel;
+    private ChannelHandlerContext ctx;
+    private Capture<List<OFMessage>> writeCapture;
+    private Capture<ChannelEvent> upstreamCapture;
+    private ControlPlaneHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        Controller.Counters counters = new Controller.Counters();
+        counters.createCounters(new DebugCounter());
+        controller = createMock(Controller.class);
+        expect(controller.getCounters()).andReturn(counters).anyTimes();
+        replay(controller);
+
+        writeCapture = new Capture<List<OFMessage>>(CaptureType.ALL);
+        channel = createMock(Channel.class);
+        expect(channel.getRemoteAddress()).andReturn(null).anyTimes();
+        expect(channel.write(capture(writeCapture))).andReturn(null)
+            .anyTimes();
+        replay(channel);
+
+        upstreamCapture = new Capture<ChannelEvent>(CaptureType.ALL);
+        ctx = createMock(ChannelHandlerContext.class);
+        expect(ctx.getChannel()).andReturn(channel).anyTimes();
+        ctx.sendUpstream(capture(upstreamCapture));
+        expectLastCall().anyTimes();
+        replay(ctx);
+
+        handler = new ControlPlaneHandler(controller);
+    }
+
+    private static OFEchoRequest echoRequest(int xid) {
+        OFEchoRequest m = new OFEchoRequest();
+        m.setXid(xid);
+        return m;
+    }
+
+    private ReceivedBatch receive(List<OFMessage> msglist) throws Exception {
+        long before = System.nanoTime();
+        handler.messageReceived(ctx,
+                new UpstreamMessageEvent(channel, msglist, null));
+        if (!upstreamCapture.hasCaptured())
+            return null;
+        ReceivedBatch batch = (ReceivedBatch)
+                ((MessageEvent) upstreamCapture.getValue()).getMessage();
+        assertTrue(batch.getReceivedNanos() >= before);
+        return batch;
+    }
+
+    @Test
+    public void testEchoAnsweredInline() throws Exception {
+        OFPacketIn pi = new OFPacketIn();
+        OFBarrierReply barrier = new OFBarrierReply();
+        List<OFMessage> msglist = new ArrayList<OFMessage>(Arrays.asList(
+                pi, echoRequest(17), barrier, echoRequest(18)));
+        ReceivedBatch batch = receive(msglist);
+
+        assertEquals(Arrays.<OFMessage>asList(pi, barrier),
+                     batch.getMessages());
+        // the decoder's list is left alone
+        assertEquals(4, msglist.size());
+
+        List<List<OFMessage>> writes = writeCapture.getValues();
+        assertEquals(2, writes.size());
+        assertEquals(OFType.ECHO_REPLY, writes.get(0).get(0).getType());
+        assertEquals(17, writes.get(0).get(0).getXid());
+        assertEquals(18, writes.get(1).get(0).getXid());
+        verify(channel);
+    }
+
+    @Test
+    public void testNoEcho() throws Exception {
+        List<OFMessage> msglist = Arrays.<OFMessage>asList(
+                new OFPacketIn(), new OFPortStatus());
+        ReceivedBatch batch = receive(msglist);
+        assertSame(msglist, batch.getMessages());
+        assertFalse(writeCapture.hasCaptured());
+    }
+
+    @Test
+    public void testOnlyEcho() throws Exception {
+        assertNull(receive(Arrays.<OFMessage>asList(echoRequest(1))));
+        assertEquals(1, writeCapture.getValues().size());
+    }
+
+    @Test
+    public void testMessageClass() {
+        assertEquals(MessageClass.ECHO, MessageClass.of(OFType.ECHO_REPLY));
+        assertEquals(MessageClass.BARRIER,
+                     MessageClass.of(OFType.BARRIER_REPLY));
+        assertEquals(MessageClass.PORT_STATUS,
+                     MessageClass.of(OFType.PORT_STATUS));
+        assertEquals(MessageClass.PACKET_IN,
+                     MessageClass.of(OFType.PACKET_IN));
+        assertEquals(MessageClass.OTHER, MessageClass.of(OFType.STATS_REPLY));
+        assertEquals(MessageClass.ECHO,
+                     MessageClass.of(new OFEchoReply().getType()));
+    }
+}
@@ -0,0 +1,278 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.FloodlightFactory;
+import org.openflow.protocol.instruction.OFInstruction;
+import org.openflow.protocol.instruction.OFInstructionApplyActions;
+
+public class FlowModRateLimiterTest {
+    private List<OFMessage> sent;
+    private List<OFMessage> dropped;
+    private FlowModRateLimiter limiter;
+    private long now;
+
+    @Before
+    public void setUp() {
+        sent = new ArrayList<OFMessage>();
+        dropped = new ArrayList<OFMessage>();
+        limiter = new FlowModRateLimiter(new FlowModRateLimiter.Sink() {
+            @Override
+            public void send(List<OFMessage> msglist) {
+                sent.addAll(msglist);
+            }
+
+            @Override
+            public void dropped(OFMessage msg) {
+                dropped.add(msg);
+            }
+        });
+        now = 0;
+        // 10 per second, i.e., one every 100ms, bursts of 2, 3 queued
+        limiter.setLimits(10, 2, 3, now);
+    }
+
+    private OFFlowMod flowMod(byte command, int port) {
+        OFFlowMod fm = (OFFlowMod)FloodlightFactory.getInstance()
+                .getMessage(OFType.FLOW_MOD);
+        fm.setCommand(command);
+        OFMatch match = new OFMatch();
+        match.setInPort(port);
+        fm.setMatch(match);
+        if (command == OFFlowMod.OFPFC_ADD) {
+            fm.setInstructions(Collections.<OFInstruction>singletonList(
+                    new OFInstructionApplyActions()));
+        }
+        return fm;
+    }
+
+    private OFMessage packetOut() {
+        return FloodlightFactory.getInstance().getMessage(OFType.PACKET_OUT);
+    }
+
+    private OFMessage barrier() {
+        return FloodlightFactory.getInstance()
+                .getMessage(OFType.BARRIER_REQUEST);
+    }
+
+    private void advance(long ms) {
+        now += TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    @Test
+    public void testBurstAndPacing() {
+        OFMessage a1 = flowMod(OFFlowMod.OFPFC_ADD, 1);
+        OFMessage a2 = flowMod(OFFlowMod.OFPFC_ADD, 2);
+        OFMessage a3 = flowMod(OFFlowMod.OFPFC_ADD, 3);
+        OFMessage po = packetOut();
+        limiter.write(Arrays.asList(a1, a2, a3, po), now);
+        // the burst goes out, the packet-out waits for its flow-mod
+        assertEquals(Arrays.asList(a1, a2), sent);
+        assertEquals(1, limiter.getQueueDepth());
+
+        advance(50);
+        limiter.drain(now);
+        assertEquals(2, sent.size());
+        advance(50);
+        limiter.drain(now);
+        assertEquals(Arrays.asList(a1, a2, a3, po), sent);
+        assertEquals(0, limiter.getQueueDepth());
+
+        // other messages aren't limited
+        sent.clear();
+        OFMessage po2 = packetOut();
+        limiter.write(Arrays.asList(po2), now);
+        assertEquals(Arrays.asList(po2), sent);
+    }
+
+    @Test
+    public void testPriorityCoalesceAndDrop() {
+        limiter.setLimits(10, 1, 3, now);
+        OFMessage a1 = flowMod(OFFlowMod.OFPFC_ADD, 1);
+        OFMessage a2 = flowMod(OFFlowMod.OFPFC_ADD, 2);
+        OFMessage a3 = flowMod(OFFlowMod.OFPFC_ADD, 3);
+        OFMessage a4 = flowMod(OFFlowMod.OFPFC_ADD, 4);
+        OFMessage a5 = flowMod(OFFlowMod.OFPFC_ADD, 5);
+        limiter.write(Arrays.asList(a1, a2, a3, a4), now);
+        assertEquals(Arrays.asList(a1), sent);
+        assertEquals(3, limiter.getQueueDepth());
+
+        // the bulk queue is full
+        limiter.write(Arrays.asList(a5), now);
+        assertEquals(3, limiter.getQueueDepth());
+        assertEquals(Arrays.asList(a5), dropped);
+
+        // a later install of a queued flow replaces it in place
+        OFMessage a3b = flowMod(OFFlowMod.OFPFC_ADD, 3);
+        limiter.write(Arrays.asList(a3b), now);
+        assertEquals(3, limiter.getQueueDepth());
+
+        // a delete overtakes the installs and removes the one of its flow
+        OFMessage d4 = flowMod(OFFlowMod.OFPFC_DELETE_STRICT, 4);
+        limiter.write(Arrays.asList(d4), now);
+        assertEquals(4, limiter.getQueueDepth());
+
+        for (int i = 0; i < 4; i++) {
+            advance(100);
+            limiter.drain(now);
+        }
+        assertEquals(Arrays.asList(a1, d4, a2, a3b), sent);
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void testHighPriorityOrder() {
+        limiter.setLimits(10, 1, 10, now);
+        OFMessage a1 = flowMod(OFFlowMod.OFPFC_ADD, 1);
+        OFMessage a2 = flowMod(OFFlowMod.OFPFC_ADD, 2);
+        OFMessage a3 = flowMod(OFFlowMod.OFPFC_ADD, 3);
+        limiter.write(Arrays.asList(a1, a2, a3), now);
+        // a wildcard delete waits for the installs it may remove
+        OFFlowMod toPort = (OFFlowMod)FloodlightFactory.getInstance()
+                .getMessage(OFType.FLOW_MOD);
+        toPort.setCommand(OFFlowMod.OFPFC_DELETE);
+        toPort.setMatch(new OFMatch());
+        toPort.setOutPort(5);
+        limiter.write(Arrays.<OFMessage>asList(toPort), now);
+        for (int i = 0; i < 3; i++) {
+            advance(100);
+            limiter.drain(now);
+        }
+        assertEquals(Arrays.asList(a1, a2, a3, toPort), sent);
+
+        sent.clear();
+        advance(100);
+        OFMessage a4 = flowMod(OFFlowMod.OFPFC_ADD, 4);
+        OFMessage a5 = flowMod(OFFlowMod.OFPFC_ADD, 5);
+        OFMessage a6 = flowMod(OFFlowMod.OFPFC_ADD, 6);
+        OFMessage m5 = flowMod(OFFlowMod.OFPFC_MODIFY, 5);
+        OFFlowMod drop6 = flowMod(OFFlowMod.OFPFC_ADD, 6);
+        drop6.setInstructions(Collections.<OFInstruction>emptyList());
+        OFMessage m7 = flowMod(OFFlowMod.OFPFC_MODIFY, 7);
+        limiter.write(Arrays.asList(a4, a5, a6, m5, drop6, m7), now);
+        assertEquals(Arrays.asList(a4), sent);
+        // the modify waits for the install it changes, the drop rule
+        // replaces the queued install of its flow
+        for (int i = 0; i < 5; i++) {
+            advance(100);
+            limiter.drain(now);
+        }
+        assertEquals(Arrays.asList(a4, a5, m5, drop6, m7), sent);
+        assertEquals(0, limiter.getQueueDepth());
+
+        // a modify of a flow nothing queued touches goes first
+        sent.clear();
+        advance(100);
+        OFMessage a8 = flowMod(OFFlowMod.OFPFC_ADD, 8);
+        OFMessage a9 = flowMod(OFFlowMod.OFPFC_ADD, 9);
+        OFMessage m10 = flowMod(OFFlowMod.OFPFC_MODIFY, 10);
+        limiter.write(Arrays.asList(a8, a9, m10), now);
+        advance(100);
+        limiter.drain(now);
+        assertEquals(Arrays.asList(a8, m10), sent);
+    }
+
+    @Test
+    public void testDeleteAll() {
+        limiter.setLimits(10, 1, 10, now);
+        OFMessage a1 = flowMod(OFFlowMod.OFPFC_ADD, 1);
+        OFMessage a2 = flowMod(OFFlowMod.OFPFC_ADD, 2);
+        OFFlowMod a3 = flowMod(OFFlowMod.OFPFC_ADD, 3);
+        a3.setTableId((byte)1);
+        limiter.write(Arrays.<OFMessage>asList(a1, a2, a3), now);
+        // deleting all flows of table 0 removes the queued install there
+        OFFlowMod all = (OFFlowMod)FloodlightFactory.getInstance()
+                .getMessage(OFType.FLOW_MOD);
+        all.setCommand(OFFlowMod.OFPFC_DELETE);
+        all.setMatch(new OFMatch());
+        OFMessage b = barrier();
+        limiter.write(Arrays.asList(all, b), now);
+        advance(100);
+        limiter.drain(now);
+        advance(100);
+        limiter.drain(now);
+        assertEquals(Arrays.asList(a1, all, a3, b), sent);
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void testBarrierWaitsForQueuedFlowMods() {
+        limiter.setLimits(10, 1, 10, now);
+        OFMessage a1 = flowMod(OFFlowMod.OFPFC_ADD, 1);
+        OFMessage a2 = flowMod(OFFlowMod.OFPFC_ADD, 2);
+        OFMessage d3 = flowMod(OFFlowMod.OFPFC_DELETE_STRICT, 3);
+        OFMessage b = barrier();
+        OFMessage po = packetOut();
+        limiter.write(Arrays.asList(a1, a2, d3, b, po), now);
+        assertEquals(Arrays.asList(a1), sent);
+        // a later packet-out stays behind the held messages
+        OFMessage po2 = packetOut();
+        limiter.write(Arrays.asList(po2), now);
+        assertEquals(Arrays.asList(a1), sent);
+
+        // the delete overtakes the queued install, the barrier doesn't
+        advance(100);
+        limiter.drain(now);
+        assertEquals(Arrays.asList(a1, d3), sent);
+        advance(100);
+        limiter.drain(now);
+        assertEquals(Arrays.asList(a1, d3, a2, b, po, po2), sent);
+
+        // a barrier waits for the flow-mods of earlier writes too
+        sent.clear();
+        advance(100);
+        OFMessage a4 = flowMod(OFFlowMod.OFPFC_ADD, 4);
+        OFMessage a5 = flowMod(OFFlowMod.OFPFC_ADD, 5);
+        limiter.write(Arrays.asList(a4, a5), now);
+        OFMessage b2 = barrier();
+        limiter.write(Arrays.asList(b2), now);
+        assertEquals(Arrays.asList(a4), sent);
+        advance(100);
+        limiter.drain(now);
+        assertEquals(Arrays.asList(a4, a5, b2), sent);
+
+        // nothing queued: the barrier goes right out
+        sent.clear();
+        OFMessage b3 = barrier();
+        limiter.write(Arrays.asList(b3), now);
+        assertEquals(Arrays.asList(b3), sent);
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    public void testDisable() {
+        limiter.setLimits(10, 1, 10, now);
+        OFMessage a1 = flowMod(OFFlowMod.OFPFC_ADD, 1);
+        OFMessage a2 = flowMod(OFFlowMod.OFPFC_ADD, 2);
+        limiter.write(Arrays.asList(a1, a2), now);
+        assertEquals(1, sent.size());
+        // disabling sends everything that is queued
+        limiter.setLimits(0, 0, 0, now);
+        assertEquals(Arrays.asList(a1, a2), sent);
+        assertFalse(limiter.isEnabled());
+        OFMessage a3 = flowMod(OFFlowMod.OFPFC_ADD, 3);
+        limiter.write(Arrays.asList(a3), now);
+        assertEquals(3, sent.size());
+
+        limiter.setLimits(10, 1, 10, now);
+        OFMessage po = packetOut();
+        limiter.write(Arrays.asList(a1, a2, po), now);
+        limiter.clear();
+        assertEquals(0, limiter.getQueueDepth());
+        sent.clear();
+        limiter.setLimits(0, 0, 0, now);
+        assertTrue(sent.isEmpty());
+    }
+}
@@ -0,0 +1,157 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HandshakeAdmissionTest {
+    private static class Handshake implements HandshakeAdmission.Handshake {
+        final int id;
+        boolean admitted;
+
+        Handshake(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void admitted() {
+            assertFalse(admitted);
+            admitted = true;
+        }
+
+        @Override
+        public String toString() {
+            return "Handshake " + id;
+        }
+    }
+
+    @Test
+    public void testAdmission() {
+        HandshakeAdmission admission = new HandshakeAdmission(2);
+        List<Handshake> hs = new ArrayList<Handshake>();
+        for (int i = 0; i < 5; i++)
+            hs.add(new Handshake(i));
+
+        long now = 0;
+        assertTrue(admission.admit(hs.get(0), now));
+        assertTrue(admission.admit(hs.get(1), now));
+        assertFalse(admission.admit(hs.get(2), now));
+        assertFalse(admission.admit(hs.get(3), now));
+        assertFalse(admission.admit(hs.get(4), now));
+        assertEquals(2, admission.getInFlight());
+        assertEquals(3, admission.getWaiting());
+
+        // a waiting channel closes
+        admission.release(hs.get(3), false, now);
+        assertEquals(2, admission.getWaiting());
+        assertFalse(hs.get(3).admitted);
+
+        // admitted in FIFO order
+        now = TimeUnit.MILLISECONDS.toNanos(10);
+        admission.release(hs.get(1), true, now);
+        assertTrue(hs.get(2).admitted);
+        assertFalse(hs.get(4).admitted);
+        // releasing again does nothing
+        admission.release(hs.get(1), true, now);
+        assertFalse(hs.get(4).admitted);
+        admission.release(hs.get(0), false, now);
+        assertTrue(hs.get(4).admitted);
+        assertEquals(2, admission.getInFlight());
+        assertEquals(0, admission.getWaiting());
+        assertEquals(3, admission.getMaxWaiting());
+
+        // the burst ends with the last handshake
+        admission.release(hs.get(2), true, now);
+        assertEquals(0, admission.getLastBurstMs());
+        now = TimeUnit.MILLISECONDS.toNanos(25);
+        admission.release(hs.get(4), true, now);
+        assertEquals(0, admission.getInFlight());
+        assertEquals(25, admission.getLastBurstMs());
+        assertEquals(3, admission.getLastBurstCompleted());
+        assertEquals(1, admission.getLastBurstFailed());
+
+        // a new burst
+        now = TimeUnit.MILLISECONDS.toNanos(100);
+        assertTrue(admission.admit(hs.get(0), now));
+        now = TimeUnit.MILLISECONDS.toNanos(105);
+        admission.release(hs.get(0), true, now);
+        assertEquals(5, admission.getLastBurstMs());
+        assertEquals(1, admission.getLastBurstCompleted());
+        assertEquals(0, admission.getLastBurstFailed());
+    }
+
+    @Test
+    public void testUnlimited() {
+        HandshakeAdmission admission = new HandshakeAdmission(0);
+        for (int i = 0; i < 1000; i++)
+            assertTrue(admission.admit(new Handshake(i), 0));
+        assertEquals(1000, admission.getInFlight());
+        assertEquals(0, admission.getWaiting());
+    }
+
+    /**
+     * A reconnect storm: every switch connects at once and its handshake
+     * completes on an I/O thread some time after it was admitted
+     */
+    @Test
+    public void testReconnectStorm() throws Exception {
+        final int switches = 500;
+        final int maxInFlight = 16;
+        final HandshakeAdmission admission =
+                new HandshakeAdmission(maxInFlight);
+        final ExecutorService ioThreads = Executors.newFixedThreadPool(8);
+        final CountDownLatch activated = new CountDownLatch(switches);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxSeen = new AtomicInteger();
+
+        class StormHandshake implements HandshakeAdmission.Handshake {
+            @Override
+            public void admitted() {
+                start();
+            }
+
+            void start() {
+                int n = inFlight.incrementAndGet();
+                while (true) {
+                    int m = maxSeen.get();
+                    if (n <= m || maxSeen.compareAndSet(m, n))
+                        break;
+                }
+                ioThreads.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the switch replies
+                        Thread.yield();
+                        inFlight.decrementAndGet();
+                        admission.release(StormHandshake.this, true,
+                                          System.nanoTime());
+                        activated.countDown();
+                    }
+                });
+            }
+        }
+
+        try {
+            for (int i = 0; i < switches; i++) {
+                StormHandshake h = new StormHandshake();
+                if (admission.admit(h, System.nanoTime()))
+                    h.start();
+            }
+            assertTrue(activated.await(30, TimeUnit.SECONDS));
+        } finally {
+            ioThreads.shutdown();
+            ioThreads.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertTrue(maxSeen.get() <= maxInFlight);
+        assertEquals(0, admission.getInFlight());
+        assertEquals(0, admission.getWaiting());
+    }
+}
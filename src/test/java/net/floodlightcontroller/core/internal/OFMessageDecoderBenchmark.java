@@ -0,0 +1,91 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+
+import net.floodlightcontroller.core.test.PacketFactory;
+import net.floodlightcontroller.test.MicroBenchmark;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+
+/**
+ * Compares time and bytes allocated per decoded PACKET_IN for the legacy
+ * and the in-place decoding mode of {@link OFMessageDecoder}.
+ *
+ * Run with the test classpath:
+ * java net.floodlightcontroller.core.internal.OFMessageDecoderBenchmark
+ */
+public class OFMessageDecoderBenchmark {
+    private static final int BATCH = 32;
+
+    static class DecodeBenchmark extends MicroBenchmark {
+        private final OFMessageDecoder decoder;
+        private final Channel channel;
+        private final byte[] wire;
+        private final boolean composite;
+
+        DecodeBenchmark(String name, OFMessageDecoder decoder,
+                        Channel channel, byte[] wire, boolean composite) {
+            super(name, BATCH);
+            this.decoder = decoder;
+            this.channel = channel;
+            this.wire = wire;
+            this.composite = composite;
+        }
+
+        @Override
+        protected void runOnce() throws Exception {
+            ChannelBuffer buf;
+            if (composite) {
+                int split = wire.length / 2;
+                buf = ChannelBuffers.wrappedBuffer(
+                        ChannelBuffers.wrappedBuffer(wire, 0, split),
+                        ChannelBuffers.wrappedBuffer(wire, split,
+                                                     wire.length - split));
+            } else {
+                buf = ChannelBuffers.wrappedBuffer(wire);
+            }
+            // Like FrameDecoder, only call decode while data is readable
+            while (buf.readable() &&
+                   decoder.decode(null, channel, buf) != null);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) :
+                200000;
+        Channel channel = createMock(Channel.class);
+        expect(channel.isConnected()).andReturn(true).anyTimes();
+        replay(channel);
+
+        OFPacketIn pi = PacketFactory.DhcpDiscoveryRequestOFPacketIn(
+                MACAddress.valueOf("00:11:22:33:44:55"));
+        OFMessage[] batch = new OFMessage[BATCH];
+        for (int i = 0; i < BATCH; i++)
+            batch[i] = pi;
+        byte[] wire = OFMessageDecoderTest.serialize(batch);
+
+        System.out.println("Per decoded PACKET_IN, " + BATCH +
+                           " messages per read:");
+        int warmup = iterations / 4;
+        new DecodeBenchmark("legacy", new OFMessageDecoder(),
+                            channel, wire, false)
+                .runAndPrint(warmup, iterations);
+        new DecodeBenchmark("in-place", new OFMessageDecoder(true, true),
+                            channel, wire, false)
+                .runAndPrint(warmup, iterations);
+        new DecodeBenchmark("legacy, composite buffer",
+                            new OFMessageDecoder(), channel, wire, true)
+                .runAndPrint(warmup, iterations);
+        new DecodeBenchmark("in-place, composite buffer",
+                            new OFMessageDecoder(true, true),
+                            channel, wire, true)
+                .runAndPrint(warmup, iterations);
+        // the debug event appender keeps a non-daemon thread around
+        System.exit(0);
+    }
+}
@@ -0,0 +1,150 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.core.test.PacketFactory;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFEchoRequest;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+
+public class OFMessageDecoderTest {
+    private Channel channel;
+    private OFPacketIn pi;
+    private OFEchoRequest echo;
+
+    @Before
+    public void setUp() {
+        channel = createMock(Channel.class);
+        expect(channel.isConnected()).andReturn(true).anyTimes();
+        replay(channel);
+
+        pi = PacketFactory.DhcpDiscoveryRequestOFPacketIn(
+                MACAddress.valueOf("00:11:22:33:44:55"));
+        echo = new OFEchoRequest();
+        echo.setXid(42);
+    }
+
+    static byte[] serialize(OFMessage... msgs) {
+        int size = 0;
+        for (OFMessage m: msgs) {
+            m.computeLength();
+            size += m.getLengthU();
+        }
+        ByteBuffer bb = ByteBuffer.allocate(size);
+        for (OFMessage m: msgs)
+            m.writeTo(bb);
+        return bb.array();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<OFMessage> decodeAll(OFMessageDecoder decoder,
+                                      ChannelBuffer buf) throws Exception {
+        List<OFMessage> all = new ArrayList<OFMessage>();
+        Object o;
+        while ((o = decoder.decode(null, channel, buf)) != null) {
+            all.addAll((List<OFMessage>)o);
+        }
+        return all;
+    }
+
+    @Test
+    public void testInPlaceMatchesLegacy() throws Exception {
+        byte[] wire = serialize(pi, echo, pi);
+        List<OFMessage> legacy = decodeAll(new OFMessageDecoder(),
+                ChannelBuffers.wrappedBuffer(wire));
+        ChannelBuffer buf = ChannelBuffers.wrappedBuffer(wire);
+        List<OFMessage> inPlace = decodeAll(new OFMessageDecoder(true, false),
+                                            buf);
+        assertEquals(3, inPlace.size());
+        assertEquals(legacy.size(), inPlace.size());
+        // Both modes must produce messages with identical wire images
+        assertArrayEquals(
+                serialize(legacy.toArray(new OFMessage[legacy.size()])),
+                serialize(inPlace.toArray(new OFMessage[inPlace.size()])));
+        assertEquals(OFType.PACKET_IN, inPlace.get(0).getType());
+        assertEquals(42, inPlace.get(1).getXid());
+        assertArrayEquals(pi.getPacketData(),
+                          ((OFPacketIn)inPlace.get(2)).getPacketData());
+        assertEquals(0, buf.readableBytes());
+    }
+
+    @Test
+    public void testPartialFrame() throws Exception {
+        byte[] wire = serialize(pi, echo);
+        int piLen = pi.getLengthU();
+        OFMessageDecoder decoder = new OFMessageDecoder(true, false);
+
+        // Only a partial header
+        ChannelBuffer buf = ChannelBuffers.wrappedBuffer(wire, 0, 4);
+        assertNull(decoder.decode(null, channel, buf));
+        assertEquals(0, buf.readerIndex());
+
+        // The packet in and half of the echo request
+        buf = ChannelBuffers.wrappedBuffer(wire, 0, piLen + 4);
+        List<?> l = (List<?>)decoder.decode(null, channel, buf);
+        assertEquals(1, l.size());
+        assertEquals(piLen, buf.readerIndex());
+        assertNull(decoder.decode(null, channel, buf));
+    }
+
+    @Test
+    public void testCompositeBuffer() throws Exception {
+        byte[] wire = serialize(pi, echo);
+        int split = pi.getLengthU() / 2;
+        ChannelBuffer buf = ChannelBuffers.wrappedBuffer(
+                ChannelBuffers.wrappedBuffer(wire, 0, split),
+                ChannelBuffers.wrappedBuffer(wire, split,
+                                             wire.length - split));
+        List<OFMessage> msgs = decodeAll(new OFMessageDecoder(true, false),
+                                         buf);
+        assertEquals(2, msgs.size());
+        assertArrayEquals(serialize(pi), serialize(msgs.get(0)));
+        assertEquals(OFType.ECHO_REQUEST, msgs.get(1).getType());
+    }
+
+    @Test
+    public void testMessageListReuse() throws Exception {
+        byte[] wire = serialize(pi);
+        OFMessageDecoder decoder = new OFMessageDecoder(true, true);
+        Object first = decoder.decode(null, channel,
+                                      ChannelBuffers.wrappedBuffer(wire));
+        Object second = decoder.decode(null, channel,
+                                       ChannelBuffers.wrappedBuffer(wire));
+        assertSame(first, second);
+        assertEquals(1, ((List<?>)second).size());
+
+        decoder = new OFMessageDecoder(true, false);
+        first = decoder.decode(null, channel,
+                               ChannelBuffers.wrappedBuffer(wire));
+        second = decoder.decode(null, channel,
+                                ChannelBuffers.wrappedBuffer(wire));
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testInvalidLength() throws Exception {
+        byte[] wire = serialize(echo);
+        wire[2] = 0;
+        wire[3] = 4;
+        try {
+            new OFMessageDecoder(true, false).decode(null, channel,
+                    ChannelBuffers.wrappedBuffer(wire));
+            fail("Expected IOException");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+}
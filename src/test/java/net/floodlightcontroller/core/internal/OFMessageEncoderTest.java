@@ -0,0 +1,164 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.easymock.Capture;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFEchoRequest;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+
+public class OFMessageEncoderTest {
+    private Channel channel;
+    private ChannelFuture closeFuture;
+    private EncodeBufferPool.Stats stats;
+
+    @Before
+    public void setUp() {
+        channel = createMock(Channel.class);
+        closeFuture = new DefaultChannelFuture(channel, false);
+        expect(channel.getCloseFuture()).andReturn(closeFuture).anyTimes();
+        expect(channel.getRemoteAddress()).andReturn(null).anyTimes();
+        replay(channel);
+        stats = new EncodeBufferPool.Stats();
+    }
+
+    private static List<OFMessage> messages(int count) {
+        List<OFMessage> msglist = new ArrayList<OFMessage>();
+        for (int i = 0; i < count; i++) {
+            OFFlowMod fm = new OFFlowMod();
+            fm.setMatch(new OFMatch().setInPort(i)
+                        .setDataLayerSource("00:11:22:33:44:55"));
+            msglist.add(fm);
+            msglist.add(new OFEchoRequest());
+        }
+        return msglist;
+    }
+
+    private static byte[] toBytes(ChannelBuffer buf) {
+        byte[] b = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), b);
+        return b;
+    }
+
+    /**
+     * Send msglist through the encoder
+     * @return the buffer written downstream
+     */
+    private ChannelBuffer write(OFMessageEncoder encoder,
+                                List<OFMessage> msglist,
+                                ChannelFuture future) throws Exception {
+        Capture<ChannelEvent> event = new Capture<ChannelEvent>();
+        ChannelHandlerContext ctx = createMock(ChannelHandlerContext.class);
+        expect(ctx.getChannel()).andReturn(channel).anyTimes();
+        ctx.sendDownstream(capture(event));
+        expectLastCall().once();
+        replay(ctx);
+        encoder.handleDownstream(ctx,
+                new DownstreamMessageEvent(channel, future, msglist, null));
+        verify(ctx);
+        MessageEvent e = (MessageEvent) event.getValue();
+        assertSame(future, e.getFuture());
+        return (ChannelBuffer) e.getMessage();
+    }
+
+    @Test
+    public void testSizeClass() {
+        assertEquals(0, EncodeBufferPool.sizeClass(1));
+        assertEquals(0, EncodeBufferPool.sizeClass(512));
+        assertEquals(1, EncodeBufferPool.sizeClass(513));
+        assertEquals(1, EncodeBufferPool.sizeClass(1024));
+        assertEquals(7, EncodeBufferPool.sizeClass(64 * 1024));
+        assertEquals(-1, EncodeBufferPool.sizeClass(64 * 1024 + 1));
+    }
+
+    @Test
+    public void testSameBytesAsUnpooled() throws Exception {
+        List<OFMessage> msglist = messages(20);
+        ChannelBuffer legacy = (ChannelBuffer)
+                new OFMessageEncoder().encode(null, channel, msglist);
+
+        OFMessageEncoder encoder =
+                new OFMessageEncoder(new EncodeBufferPool(stats));
+        ChannelFuture future = new DefaultChannelFuture(channel, false);
+        ChannelBuffer pooled = write(encoder, msglist, future);
+        assertArrayEquals(toBytes(legacy), toBytes(pooled));
+        assertTrue(pooled.isDirect());
+    }
+
+    @Test
+    public void testReuseAfterWrite() throws Exception {
+        OFMessageEncoder encoder =
+                new OFMessageEncoder(new EncodeBufferPool(stats));
+        List<OFMessage> msglist = messages(4);
+
+        ChannelFuture f1 = new DefaultChannelFuture(channel, false);
+        ChannelBuffer b1 = write(encoder, msglist, f1);
+        // b1 is still being written, so a new buffer is needed
+        ChannelFuture f2 = new DefaultChannelFuture(channel, false);
+        ChannelBuffer b2 = write(encoder, msglist, f2);
+        assertNotSame(b1, b2);
+        assertEquals(0, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(2 * b1.capacity(), stats.getBytesHeld());
+
+        f1.setSuccess();
+        ChannelBuffer b3 = write(encoder, msglist,
+                                 new DefaultChannelFuture(channel, false));
+        assertSame(b1, b3);
+        assertEquals(1, stats.getHits());
+        assertEquals(1.0 / 3, stats.getHitRate(), 1e-9);
+
+        // failed writes release their buffer as well
+        f2.setFailure(new Exception());
+        ChannelBuffer b4 = write(encoder, msglist,
+                                 new DefaultChannelFuture(channel, false));
+        assertSame(b2, b4);
+        assertEquals(2, stats.getHits());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        OFMessageEncoder encoder =
+                new OFMessageEncoder(new EncodeBufferPool(stats));
+        ChannelFuture f1 = new DefaultChannelFuture(channel, false);
+        ChannelFuture f2 = new DefaultChannelFuture(channel, false);
+        ChannelBuffer b1 = write(encoder, messages(1), f1);
+        write(encoder, messages(1), f2);
+        f1.setSuccess();
+        assertEquals(2 * b1.capacity(), stats.getBytesHeld());
+
+        // idle buffers are dropped on close, busy ones when released
+        closeFuture.setSuccess();
+        assertEquals(b1.capacity(), stats.getBytesHeld());
+        f2.setSuccess();
+        assertEquals(0, stats.getBytesHeld());
+    }
+
+    @Test
+    public void testLargeWrite() throws Exception {
+        OFMessageEncoder encoder =
+                new OFMessageEncoder(new EncodeBufferPool(stats));
+        List<OFMessage> msglist = messages(1000);
+        ChannelFuture f = new DefaultChannelFuture(channel, false);
+        ChannelBuffer buf = write(encoder, msglist, f);
+        assertTrue(buf.readableBytes() > EncodeBufferPool.MAX_BUFFER_SIZE);
+        f.setSuccess();
+        assertEquals(1, stats.getMisses());
+        assertEquals(0, stats.getBytesHeld());
+    }
+}
@@ -2,8 +2,15 @@ package net.floodlightcontroller.core.internal;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.test.MockThreadPoolService;
@@ -18,6 +25,8 @@ import org.openflow.protocol.statistics.OFStatisticsType;
 
 import static org.easymock.EasyMock.*;
 
+import com.google.common.util.concurrent.MoreExecutors;
+
 public class OFStatisticsFutureTest {
     private MockThreadPoolService tp;
 
@@ -43,6 +52,7 @@ public class OFStatisticsFutureTest {
 
     public class FutureFetcher<E> implements Runnable {
         public E value;
+        public Exception exception;
         public Future<E> future;
 
         public FutureFetcher(Future<E> future) {
@@ -54,7 +64,7 @@ public class OFStatisticsFutureTest {
             try {
                 value = future.get();
             } catch (Exception e) {
-                throw new RuntimeException(e);
+                exception = e;
             }
         }
 
@@ -126,9 +136,14 @@ public class OFStatisticsFutureTest {
        sf.cancel(true);
        t.join();
 
-       stats = sf.get();
+       assertTrue(ff.exception instanceof CancellationException);
+       try {
+           sf.get();
+           fail("Expected CancellationException");
+       } catch (CancellationException e) {
+           // expected
+       }
        verify(sw);
-       assertEquals(0, stats.size());
 
        // Test self timeout
        reset(sw);
@@ -141,9 +156,133 @@ public class OFStatisticsFutureTest {
        t.start();
        t.join(2000);
 
-       stats = sf.get();
+       assertTrue(ff.exception instanceof CancellationException);
+       assertTrue(sf.isCancelled());
+       verify(sw);
+
+       // a partial reply is not returned after a timeout
+       reset(sw);
+       sw.cancelStatisticsReply(1);
+       sf = new OFStatisticsFuture(tp, sw, 1, 75, TimeUnit.MILLISECONDS);
+       replay(sw);
+       sf.deliverFuture(sw, getStatisticsReply(1, 10, true));
+       try {
+           sf.get(2, TimeUnit.SECONDS);
+           fail("Expected CancellationException");
+       } catch (CancellationException e) {
+           // expected
+       }
        verify(sw);
-       assertEquals(0, stats.size());
    }
 
+   /**
+    * Listeners run once when the future completes, is cancelled or times
+    * out, including listeners added after that
+    */
+   @Test
+   public void testListeners() throws Exception {
+       IOFSwitch sw = createNiceMock(IOFSwitch.class);
+       replay(sw);
+       final AtomicInteger count = new AtomicInteger();
+       Runnable listener = new Runnable() {
+           @Override
+           public void run() {
+               count.incrementAndGet();
+           }
+       };
+
+       // reply
+       OFStatisticsFuture sf = new OFStatisticsFuture(tp, sw, 1);
+       sf.addListener(listener, MoreExecutors.sameThreadExecutor());
+       sf.deliverFuture(sw, getStatisticsReply(1, 10, true));
+       assertEquals(0, count.get());
+       sf.deliverFuture(sw, getStatisticsReply(1, 5, false));
+       assertEquals(1, count.get());
+       assertNull(sf.timeoutTimer);
+       assertEquals(15, sf.get().size());
+       sf.addListener(listener, MoreExecutors.sameThreadExecutor());
+       assertEquals(2, count.get());
+       // later cancels don't run the listeners again
+       assertFalse(sf.cancel(true));
+       assertFalse(sf.isCancelled());
+       assertEquals(2, count.get());
+
+       // cancel
+       count.set(0);
+       sf = new OFStatisticsFuture(tp, sw, 1);
+       sf.addListener(listener, MoreExecutors.sameThreadExecutor());
+       assertTrue(sf.cancel(true));
+       assertTrue(sf.isCancelled());
+       assertEquals(1, count.get());
+       sf.deliverFuture(sw, getStatisticsReply(1, 5, false));
+       assertEquals(1, count.get());
+
+       // timeout on the timer
+       final CountDownLatch timedOut = new CountDownLatch(1);
+       sf = new OFStatisticsFuture(tp, sw, 1, 50, TimeUnit.MILLISECONDS);
+       sf.addListener(new Runnable() {
+           @Override
+           public void run() {
+               timedOut.countDown();
+           }
+       }, MoreExecutors.sameThreadExecutor());
+       assertTrue(timedOut.await(2, TimeUnit.SECONDS));
+       assertTrue(sf.isCancelled());
+   }
+
+   /**
+    * Listeners of a timed out future don't run on the timer thread
+    */
+   @Test
+   public void testTimeoutListenerThread() throws Exception {
+       final ScheduledExecutorService executor =
+               Executors.newSingleThreadScheduledExecutor();
+       MockThreadPoolService pool = new MockThreadPoolService() {
+           @Override
+           public ScheduledExecutorService getScheduledExecutor() {
+               return executor;
+           }
+       };
+       try {
+           IOFSwitch sw = createNiceMock(IOFSwitch.class);
+           replay(sw);
+           final AtomicReference<Thread> ran = new AtomicReference<Thread>();
+           final Thread[] poolThread = new Thread[1];
+           executor.submit(new Runnable() {
+               @Override
+               public void run() {
+                   poolThread[0] = Thread.currentThread();
+               }
+           }).get();
+           OFStatisticsFuture sf = new OFStatisticsFuture(pool, sw, 1, 50,
+                   TimeUnit.MILLISECONDS);
+           final CountDownLatch timedOut = new CountDownLatch(1);
+           sf.addListener(new Runnable() {
+               @Override
+               public void run() {
+                   ran.set(Thread.currentThread());
+                   timedOut.countDown();
+               }
+           }, MoreExecutors.sameThreadExecutor());
+           assertTrue(timedOut.await(2, TimeUnit.SECONDS));
+           assertSame(poolThread[0], ran.get());
+       } finally {
+           executor.shutdownNow();
+       }
+   }
+
+   @Test
+   public void testGetTimeout() throws Exception {
+       IOFSwitch sw = createNiceMock(IOFSwitch.class);
+       replay(sw);
+       OFStatisticsFuture sf = new OFStatisticsFuture(tp, sw, 1);
+       try {
+           sf.get(10, TimeUnit.MILLISECONDS);
+           fail("Expected TimeoutException");
+       } catch (TimeoutException e) {
+           // expected
+       }
+       assertFalse(sf.isDone());
+       sf.cancel(true);
+   }
 }
@@ -16,6 +16,11 @@
 
 package net.floodlightcontroller.core.internal;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.floodlightcontroller.core.ImmutablePort;
 import net.floodlightcontroller.core.SwitchDriverSubHandshakeAlreadyStarted;
 import net.floodlightcontroller.core.SwitchDriverSubHandshakeCompleted;
 import net.floodlightcontroller.core.SwitchDriverSubHandshakeNotStarted;
@@ -24,6 +29,7 @@ import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 import org.junit.Before;
 import org.junit.Test;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPhysicalPort.OFPortConfig;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.factory.FloodlightFactory;
 
@@ -79,4 +85,46 @@ public class OFSwitchImplTest {
             fail("Expected exception not thrown");
         } catch (SwitchDriverSubHandshakeAlreadyStarted e) { /* expected */ }
     }
+
+    @Test
+    public void testPortLookup() {
+        assertNull(sw.getPort(1));
+        assertFalse(sw.portEnabled(1));
+        assertEquals(0, sw.getEnabledPortNumberArray().length);
+
+        // enough ports to collide in the table, including LOCAL
+        List<ImmutablePort> ports = new ArrayList<ImmutablePort>();
+        List<Integer> enabled = new ArrayList<Integer>();
+        int[] numbers = new int[50];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = (i == 0) ? 0xfffffffe : i * 16;
+            ImmutablePort.Builder b = new ImmutablePort.Builder()
+                    .setPortNumber(numbers[i])
+                    .setName("eth" + numbers[i]);
+            if (i % 3 == 0)
+                b.addConfig(OFPortConfig.OFPPC_PORT_DOWN);
+            else
+                enabled.add(numbers[i]);
+            ports.add(b.build());
+        }
+        sw.setPorts(ports);
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(ports.get(i), sw.getPort(numbers[i]));
+            assertEquals(i % 3 != 0, sw.portEnabled(numbers[i]));
+            assertEquals(ports.get(i), sw.getPort("ETH" + numbers[i]));
+        }
+        assertNull(sw.getPort(17));
+        assertFalse(sw.portEnabled(17));
+        assertEquals(enabled, sw.getEnabledPortNumbers());
+        int[] array = sw.getEnabledPortNumberArray();
+        assertEquals(enabled.size(), array.length);
+        for (int i = 0; i < array.length; i++)
+            assertEquals(enabled.get(i).intValue(), array[i]);
+
+        // a new snapshot, the old one is unchanged
+        sw.setPorts(Arrays.asList(ports.get(1)));
+        assertNull(sw.getPort(numbers[2]));
+        assertEquals(Arrays.asList(numbers[1]), sw.getEnabledPortNumbers());
+        assertEquals(enabled.size(), array.length);
+    }
 }
@@ -0,0 +1,312 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.FlowTableOccupancy;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.OFErrorException;
+import net.floodlightcontroller.core.test.MockThreadPoolService;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.SucceededChannelFuture;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFError;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.FloodlightFactory;
+import org.openflow.protocol.instruction.OFInstruction;
+import org.openflow.protocol.instruction.OFInstructionApplyActions;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.openflow.protocol.statistics.OFTableStatistics;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class OFTransactionFutureTest {
+    private IFloodlightProviderService floodlightProvider;
+    private Channel channel;
+    private OFSwitchImpl sw;
+    private Capture<List<OFMessage>> written;
+
+    @Before
+    public void setUp() {
+        floodlightProvider =
+                createNiceMock(IFloodlightProviderService.class);
+        expect(floodlightProvider.getOFMessageFactory())
+            .andReturn(FloodlightFactory.getInstance()).anyTimes();
+        written = new Capture<List<OFMessage>>(CaptureType.ALL);
+        channel = createNiceMock(Channel.class);
+        expect(channel.write(capture(written)))
+            .andReturn(new SucceededChannelFuture(channel)).anyTimes();
+        expect(channel.getRemoteAddress())
+            .andReturn(new InetSocketAddress("127.0.0.1", 6633)).anyTimes();
+        replay(floodlightProvider, channel);
+
+        sw = new OFSwitchImpl();
+        connect(sw);
+    }
+
+    private void connect(OFSwitchImpl sw) {
+        sw.setFloodlightProvider(floodlightProvider);
+        sw.setThreadPoolService(new MockThreadPoolService());
+        sw.setChannel(channel);
+        sw.setConnected(true);
+    }
+
+    private List<OFMessage> flowMods(int n) {
+        List<OFMessage> l = new ArrayList<OFMessage>();
+        for (int i = 0; i < n; i++)
+            l.add(FloodlightFactory.getInstance().getMessage(OFType.FLOW_MOD));
+        return l;
+    }
+
+    private OFMessage barrierReply(OFMessage request) {
+        OFBarrierReply reply = (OFBarrierReply)FloodlightFactory.getInstance()
+                .getMessage(OFType.BARRIER_REPLY);
+        reply.setXid(request.getXid());
+        return reply;
+    }
+
+    private OFError error(OFMessage request) {
+        OFError error = (OFError)FloodlightFactory.getInstance()
+                .getMessage(OFType.ERROR);
+        error.setXid(request.getXid());
+        return error;
+    }
+
+    @Test
+    public void testPipelinedTransactions() throws Exception {
+        ListenableFuture<OFBarrierReply> f1 =
+                sw.writeTransaction(flowMods(3), new FloodlightContext());
+        ListenableFuture<OFBarrierReply> f2 =
+                sw.writeTransaction(flowMods(2), new FloodlightContext());
+        assertEquals(2, written.getValues().size());
+
+        // each batch is followed by a barrier and has consecutive xids
+        List<OFMessage> b1 = written.getValues().get(0);
+        List<OFMessage> b2 = written.getValues().get(1);
+        assertEquals(4, b1.size());
+        assertEquals(3, b2.size());
+        assertEquals(OFType.BARRIER_REQUEST, b1.get(3).getType());
+        assertEquals(OFType.BARRIER_REQUEST, b2.get(2).getType());
+        for (int i = 1; i < b1.size(); i++)
+            assertEquals(b1.get(0).getXid() + i, b1.get(i).getXid());
+        assertTrue(b2.get(0).getXid() > b1.get(3).getXid());
+
+        // the second transaction completes first
+        sw.deliverBarrierReply((OFBarrierReply)barrierReply(b2.get(2)));
+        assertFalse(f1.isDone());
+        assertTrue(f2.isDone());
+        assertEquals(b2.get(2).getXid(), f2.get().getXid());
+        assertEquals(1, sw.getFlowInstallLatency().getCount());
+
+        sw.deliverBarrierReply((OFBarrierReply)barrierReply(b1.get(3)));
+        assertTrue(f1.isDone());
+        assertNotNull(f1.get());
+        assertEquals(2, sw.getFlowInstallLatency().getCount());
+
+        // a repeated reply is ignored
+        sw.deliverBarrierReply((OFBarrierReply)barrierReply(b1.get(3)));
+        assertEquals(2, sw.getFlowInstallLatency().getCount());
+    }
+
+    @Test
+    public void testError() throws Exception {
+        ListenableFuture<OFBarrierReply> f1 =
+                sw.writeTransaction(flowMods(3), new FloodlightContext());
+        ListenableFuture<OFBarrierReply> f2 =
+                sw.writeTransaction(flowMods(1), new FloodlightContext());
+        List<OFMessage> b1 = written.getValues().get(0);
+        List<OFMessage> b2 = written.getValues().get(1);
+
+        // an error for a message outside any transaction
+        OFMessage other = FloodlightFactory.getInstance()
+                .getMessage(OFType.FLOW_MOD);
+        other.setXid(b2.get(1).getXid() + 10);
+        assertFalse(sw.deliverTransactionError(error(other)));
+
+        assertTrue(sw.deliverTransactionError(error(b1.get(1))));
+        assertTrue(f1.isDone());
+        assertFalse(f2.isDone());
+        try {
+            f1.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof OFErrorException);
+            assertEquals(b1.get(1).getXid(),
+                         ((OFErrorException)e.getCause()).getError().getXid());
+        }
+        // the barrier reply of the failed transaction is ignored
+        sw.deliverBarrierReply((OFBarrierReply)barrierReply(b1.get(3)));
+        assertEquals(0, sw.getFlowInstallLatency().getCount());
+
+        sw.deliverBarrierReply((OFBarrierReply)barrierReply(b2.get(1)));
+        assertTrue(f2.isDone());
+        assertNotNull(f2.get());
+    }
+
+    @Test
+    public void testDroppedFlowMod() throws Exception {
+        // one flow-mod per second, at most one queued
+        sw = new OFSwitchImpl() {
+            {
+                setFlowModRateLimit(1, 1, 1);
+            }
+        };
+        connect(sw);
+        List<OFMessage> installs = new ArrayList<OFMessage>();
+        for (int i = 0; i < 3; i++) {
+            OFFlowMod fm = (OFFlowMod)FloodlightFactory.getInstance()
+                    .getMessage(OFType.FLOW_MOD);
+            OFMatch match = new OFMatch();
+            match.setInPort(i + 1);
+            fm.setMatch(match);
+            fm.setInstructions(Collections.<OFInstruction>singletonList(
+                    new OFInstructionApplyActions()));
+            installs.add(fm);
+        }
+        ListenableFuture<OFBarrierReply> f =
+                sw.writeTransaction(installs, new FloodlightContext());
+        // the first is sent, the second queued and the third dropped
+        assertTrue(f.isDone());
+        // only the one that was sent is counted
+        assertEquals(1, sw.getFlowTableOccupancy().getActiveEntries(0));
+        try {
+            f.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testClearAllFlowMods() throws Exception {
+        // ten flow-mods per second, no burst
+        sw = new OFSwitchImpl() {
+            {
+                setFlowModRateLimit(10, 1, 10);
+            }
+        };
+        connect(sw);
+        List<OFMessage> installs = new ArrayList<OFMessage>();
+        for (int i = 0; i < 3; i++) {
+            OFFlowMod fm = (OFFlowMod)FloodlightFactory.getInstance()
+                    .getMessage(OFType.FLOW_MOD);
+            OFMatch match = new OFMatch();
+            match.setInPort(i + 1);
+            fm.setMatch(match);
+            fm.setInstructions(Collections.<OFInstruction>singletonList(
+                    new OFInstructionApplyActions()));
+            installs.add(fm);
+        }
+        sw.write(installs, null);
+        sw.clearAllFlowMods();
+
+        // the queued installs are dropped, the delete and its barrier
+        // follow the install that was already sent
+        List<OFMessage> sent = new ArrayList<OFMessage>();
+        for (int i = 0; i < 100 && sent.size() < 3; i++) {
+            Thread.sleep(20);
+            sent.clear();
+            for (List<OFMessage> l : written.getValues())
+                sent.addAll(l);
+        }
+        assertEquals(3, sent.size());
+        assertSame(installs.get(0), sent.get(0));
+        assertEquals(OFFlowMod.OFPFC_DELETE,
+                     ((OFFlowMod)sent.get(1)).getCommand());
+        assertEquals(OFType.BARRIER_REQUEST, sent.get(2).getType());
+        assertEquals(0, sw.getFlowModQueueDepth());
+    }
+
+    @Test
+    public void testTableFullRecheck() throws Exception {
+        sw = new OFSwitchImpl() {
+            {
+                setTableFullRecheckInterval(10);
+            }
+        };
+        connect(sw);
+        sw.setTableFull(true);
+        assertEquals(FlowTableOccupancy.Level.FULL,
+                     sw.getFlowTableOccupancy().getLevel());
+
+        // the switch asks for the table stats itself
+        OFStatisticsRequest req = null;
+        for (int i = 0; i < 100 && req == null; i++) {
+            Thread.sleep(20);
+            for (List<OFMessage> l : written.getValues()) {
+                for (OFMessage m : l) {
+                    if (m.getType() == OFType.STATS_REQUEST)
+                        req = (OFStatisticsRequest)m;
+                }
+            }
+        }
+        assertNotNull(req);
+        assertEquals(OFStatisticsType.TABLE, req.getStatisticsType());
+
+        OFStatisticsReply reply = new OFStatisticsReply();
+        reply.setXid(req.getXid());
+        reply.setStatisticsType(OFStatisticsType.TABLE);
+        reply.setStatistics(Collections.<OFStatistics>singletonList(
+                new OFTableStatistics().setTableId((byte)0)
+                                       .setActiveCount(10)));
+        sw.deliverStatisticsReply(reply);
+        assertEquals(FlowTableOccupancy.Level.NORMAL,
+                     sw.getFlowTableOccupancy().getLevel());
+    }
+
+    @Test
+    public void testCancelAll() throws Exception {
+        ListenableFuture<OFBarrierReply> f1 =
+                sw.writeTransaction(flowMods(1), new FloodlightContext());
+        sw.cancelAllTransactions();
+        assertTrue(f1.isCancelled());
+        assertFalse(sw.deliverTransactionError(
+                error(written.getValue().get(0))));
+    }
+
+    @Test
+    public void testXidWrap() {
+        IOFSwitch mockSwitch = createNiceMock(IOFSwitch.class);
+        replay(mockSwitch);
+        OFTransactionFuture f = new OFTransactionFuture(
+                new MockThreadPoolService(), mockSwitch,
+                Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1);
+        assertTrue(f.contains(Integer.MAX_VALUE));
+        assertTrue(f.contains(Integer.MIN_VALUE));
+        assertFalse(f.contains(Integer.MAX_VALUE - 2));
+        assertFalse(f.contains(Integer.MIN_VALUE + 2));
+        f.cancel(true);
+    }
+
+    @Test
+    public void testNotConnected() {
+        sw.setConnected(false);
+        try {
+            sw.writeTransaction(flowMods(1), new FloodlightContext());
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(written.hasCaptured());
+    }
+}
@@ -0,0 +1,262 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.core.internal.OutboundQueue.OverflowPolicy;
+
+import org.easymock.IAnswer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.FloodlightFactory;
+import org.openflow.protocol.instruction.OFInstruction;
+import org.openflow.protocol.instruction.OFInstructionApplyActions;
+
+public class OutboundQueueTest {
+    private Channel channel;
+    private OutboundQueue queue;
+    // the messages of every write and their futures
+    private List<List<OFMessage>> written;
+    private List<DefaultChannelFuture> futures;
+    private List<Boolean> changes;
+    private int overflows;
+    private List<OFMessage> dropped;
+    // the messages reported as sent
+    private List<OFMessage> sent;
+
+    @Before
+    public void setUp() {
+        written = new ArrayList<List<OFMessage>>();
+        futures = new ArrayList<DefaultChannelFuture>();
+        changes = new ArrayList<Boolean>();
+        overflows = 0;
+        dropped = new ArrayList<OFMessage>();
+        sent = new ArrayList<OFMessage>();
+        channel = createNiceMock(Channel.class);
+        expect(channel.write(anyObject())).andAnswer(
+                new IAnswer<DefaultChannelFuture>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public DefaultChannelFuture answer() {
+                written.add(new ArrayList<OFMessage>(
+                        (List<OFMessage>)getCurrentArguments()[0]));
+                DefaultChannelFuture f = new DefaultChannelFuture(channel, false);
+                futures.add(f);
+                return f;
+            }
+        }).anyTimes();
+        replay(channel);
+        queue = new OutboundQueue(new OutboundQueue.Listener() {
+            @Override
+            public void backpressureChanged(boolean congested) {
+                changes.add(congested);
+            }
+
+            @Override
+            public void overflowed() {
+                overflows++;
+            }
+
+            @Override
+            public void dropped(OFMessage msg) {
+                dropped.add(msg);
+            }
+
+            @Override
+            public void sent(List<OFMessage> msglist) {
+                sent.addAll(msglist);
+            }
+        });
+        queue.setChannel(channel);
+    }
+
+    private OFMessage flowMod(int port) {
+        OFFlowMod fm = (OFFlowMod)FloodlightFactory.getInstance()
+                .getMessage(OFType.FLOW_MOD);
+        fm.setCommand(OFFlowMod.OFPFC_ADD);
+        OFMatch match = new OFMatch();
+        match.setInPort(port);
+        fm.setMatch(match);
+        fm.setInstructions(Collections.<OFInstruction>singletonList(
+                new OFInstructionApplyActions()));
+        return fm;
+    }
+
+    private OFMessage delete(int port) {
+        OFFlowMod fm = (OFFlowMod)flowMod(port);
+        fm.setCommand(OFFlowMod.OFPFC_DELETE);
+        return fm;
+    }
+
+    private OFMessage packetOut() {
+        return FloodlightFactory.getInstance().getMessage(OFType.PACKET_OUT);
+    }
+
+    private OFMessage barrier() {
+        return FloodlightFactory.getInstance()
+                .getMessage(OFType.BARRIER_REQUEST);
+    }
+
+    private static int length(OFMessage m) {
+        m.computeLength();
+        return m.getLengthU();
+    }
+
+    private void write(OFMessage... msgs) {
+        queue.write(Arrays.asList(msgs));
+    }
+
+    /**
+     * Complete all writes, including the ones they cause
+     * @return the messages written after the first write
+     */
+    private List<OFMessage> completeAll() {
+        for (int i = 0; i < futures.size(); i++)
+            futures.get(i).setSuccess();
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        for (int i = 1; i < written.size(); i++)
+            msgs.addAll(written.get(i));
+        return msgs;
+    }
+
+    @Test
+    public void testWatermarks() {
+        OFMessage fm1 = flowMod(1);
+        int len = length(fm1);
+        // congested after two flow-mods, writable again when none is left
+        queue.setLimits(2 * len, 0, 100 * len,
+                        OverflowPolicy.DROP_OLDEST_PACKET_OUT);
+        OFMessage fm2 = flowMod(2);
+        OFMessage fm3 = flowMod(3);
+        OFMessage fm4 = flowMod(4);
+        write(fm1);
+        assertFalse(queue.isCongested());
+        write(fm2);
+        assertTrue(queue.isCongested());
+        assertEquals(Arrays.asList(Boolean.TRUE), changes);
+        write(fm3);
+        write(fm4);
+        assertEquals(2, written.size());
+        assertEquals(4 * len, queue.getBufferedBytes());
+
+        futures.get(0).setSuccess();
+        // not below the low water mark yet
+        assertEquals(2, written.size());
+        futures.get(1).setSuccess();
+        assertEquals(3, written.size());
+        assertEquals(Arrays.asList(fm3, fm4), written.get(2));
+        assertTrue(queue.isCongested());
+
+        // a failed write is done too
+        futures.get(2).setFailure(new Exception());
+        assertFalse(queue.isCongested());
+        assertEquals(Arrays.asList(Boolean.TRUE, Boolean.FALSE), changes);
+        assertEquals(0, queue.getBufferedBytes());
+    }
+
+    @Test
+    public void testDropOldestPacketOut() {
+        OFMessage po1 = packetOut();
+        OFMessage fm1 = flowMod(1);
+        int poLen = length(po1);
+        int fmLen = length(fm1);
+        queue.setLimits(1, 0, 2 * poLen + fmLen,
+                        OverflowPolicy.DROP_OLDEST_PACKET_OUT);
+        OFMessage fm0 = flowMod(0);
+        write(fm0);
+        OFMessage po2 = packetOut();
+        OFMessage po3 = packetOut();
+        write(po1, fm1, po2);
+        // the oldest packet-out makes room
+        write(po3);
+        assertEquals(2 * poLen + fmLen, queue.getBufferedBytes() - fmLen);
+        // dropping the packet-outs wouldn't make enough room for a
+        // flow-mod, so it is dropped instead
+        assertTrue(fmLen > 2 * poLen);
+        OFMessage fm2 = flowMod(2);
+        write(fm2);
+        assertEquals(Arrays.asList(po1, fm2), dropped);
+        assertEquals(Arrays.asList(fm1, po2, po3), completeAll());
+        assertEquals(0, overflows);
+        assertFalse(queue.isCongested());
+    }
+
+    @Test
+    public void testControlNotDropped() {
+        OFMessage fm1 = flowMod(1);
+        int fmLen = length(fm1);
+        queue.setLimits(1, 0, fmLen, OverflowPolicy.DROP_OLDEST_PACKET_OUT);
+        write(flowMod(0));
+        write(fm1);
+        // the delete evicts the add instead of being dropped
+        OFMessage del = delete(2);
+        write(del);
+        assertEquals(Arrays.asList(fm1), dropped);
+        // nothing left to evict, so the barrier goes over the cap
+        OFMessage b = barrier();
+        write(b);
+        assertEquals(Arrays.asList(fm1), dropped);
+        assertEquals(fmLen + length(b),
+                     queue.getBufferedBytes() - fmLen);
+        assertEquals(Arrays.asList(del, b), completeAll());
+    }
+
+    @Test
+    public void testClear() {
+        queue.setLimits(1, 0, 1 << 20, OverflowPolicy.DROP_OLDEST_PACKET_OUT);
+        write(flowMod(0));
+        write(flowMod(1));
+        assertTrue(queue.isCongested());
+        // the switch disconnected
+        queue.clear();
+        assertFalse(queue.isCongested());
+        assertEquals(Arrays.asList(Boolean.TRUE, Boolean.FALSE), changes);
+        assertEquals(0, queue.getQueueLength());
+        futures.get(0).setSuccess();
+        write(flowMod(2));
+        assertEquals(1, written.size());
+        assertEquals(Arrays.asList(Boolean.TRUE, Boolean.FALSE), changes);
+    }
+
+    @Test
+    public void testCoalesceFlowMods() {
+        queue.setLimits(1, 0, 1 << 20, OverflowPolicy.COALESCE_FLOW_MODS);
+        write(flowMod(0));
+        OFMessage fm1 = flowMod(1);
+        OFMessage fm2 = flowMod(2);
+        OFMessage fm1b = flowMod(1);
+        OFMessage b = barrier();
+        OFMessage fm2b = flowMod(2);
+        write(fm1, fm2, fm1b);
+        // not across the barrier
+        write(b, fm2b);
+        assertEquals(Arrays.asList(fm1b, fm2, b, fm2b), completeAll());
+        // the replaced flow-mod isn't reported
+        assertEquals(5, sent.size());
+        for (OFMessage m : sent)
+            assertNotSame(fm1, m);
+    }
+
+    @Test
+    public void testDisconnect() {
+        OFMessage fm1 = flowMod(1);
+        queue.setLimits(1, 0, length(fm1), OverflowPolicy.DISCONNECT);
+        write(flowMod(0));
+        write(fm1);
+        assertEquals(0, overflows);
+        write(flowMod(2));
+        assertEquals(1, overflows);
+        assertEquals(0, queue.getQueueLength());
+    }
+}
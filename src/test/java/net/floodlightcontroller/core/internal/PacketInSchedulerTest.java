@@ -0,0 +1,126 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.OFSwitchBase;
+import net.floodlightcontroller.debugcounter.DebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterType;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFPacketIn;
+
+public class PacketInSchedulerTest {
+    private static final long ROUND_MS = 100;
+    private static final long ROUND = TimeUnit.MILLISECONDS.toNanos(ROUND_MS);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long FAST = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private DebugCounter debugCounters;
+    private PacketInScheduler scheduler;
+    private long now;
+    private OFPacketIn pi;
+    private OFPacketIn lldp;
+
+    @Before
+    public void setUp() throws Exception {
+        debugCounters = new DebugCounter();
+        now = 0;
+        scheduler = new PacketInScheduler(debugCounters, 5, ROUND_MS, now);
+        pi = new OFPacketIn();
+        pi.setPacketData(new byte[60]);
+        byte[] data = new byte[60];
+        data[12] = (byte)0x88;
+        data[13] = (byte)0xcc;
+        lldp = new OFPacketIn();
+        lldp.setPacketData(data);
+    }
+
+    private PacketInScheduler.Flow flow(String id) throws Exception {
+        // the levels OFSwitchBase registers for every switch
+        String module = OFSwitchBase.class.getPackage().getName();
+        debugCounters.registerCounter(module, id, "",
+                                      CounterType.ALWAYS_COUNT);
+        debugCounters.registerCounter(module, id + "/pktin", "",
+                                      CounterType.ALWAYS_COUNT);
+        return scheduler.newFlow(id);
+    }
+
+    /**
+     * Offer count packet-ins with the given delay in the current round
+     * @return how many were admitted
+     */
+    private int offer(PacketInScheduler.Flow flow, int count, long delay) {
+        int admitted = 0;
+        for (int i = 0; i < count; i++) {
+            if (flow.admit(pi, delay, now))
+                admitted++;
+        }
+        return admitted;
+    }
+
+    @Test
+    public void testNoCongestion() throws Exception {
+        PacketInScheduler.Flow f = flow("00:01");
+        for (int r = 0; r < 5; r++) {
+            assertEquals(1000, offer(f, 1000, FAST));
+            now += ROUND;
+        }
+        assertFalse(scheduler.isLimited());
+    }
+
+    @Test
+    public void testFairShare() throws Exception {
+        PacketInScheduler.Flow heavy = flow("00:01");
+        PacketInScheduler.Flow light = flow("00:02");
+        // one round with a standing queue
+        assertEquals(2000, offer(heavy, 2000, SLOW));
+        assertEquals(20, offer(light, 20, SLOW));
+        now += ROUND;
+
+        // the light switch stays within its share and loses nothing,
+        // the heavy one is cut to half the capacity
+        assertEquals(20, offer(light, 20, SLOW));
+        assertTrue(scheduler.isLimited());
+        long capacity = scheduler.getCapacity();
+        assertEquals(2020 - 2020 / 4, capacity);
+        assertEquals(capacity / 2, offer(heavy, 2000, SLOW));
+
+        // topology probes always get through
+        assertTrue(heavy.admit(lldp, SLOW, now));
+        assertFalse(heavy.admit(pi, SLOW, now));
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        PacketInScheduler.Flow f = flow("00:01");
+        offer(f, 1000, SLOW);
+        now += ROUND;
+        assertEquals(750, offer(f, 2000, FAST));
+        assertTrue(scheduler.isLimited());
+        assertEquals(750, scheduler.getCapacity());
+        now += ROUND;
+
+        // no more queue: the capacity grows back
+        assertTrue(offer(f, 2000, FAST) > 750);
+        assertTrue(scheduler.getCapacity() > 750);
+        assertTrue(scheduler.isLimited());
+        now += ROUND;
+
+        // once demand is well below the allowance packet-ins aren't
+        // limited any more
+        offer(f, 10, FAST);
+        now += ROUND;
+        assertEquals(5000, offer(f, 5000, FAST));
+        assertFalse(scheduler.isLimited());
+    }
+
+    @Test
+    public void testTopologyProbe() {
+        assertTrue(PacketInScheduler.isTopologyProbe(lldp));
+        assertFalse(PacketInScheduler.isTopologyProbe(pi));
+        assertFalse(PacketInScheduler.isTopologyProbe(new OFPacketIn()));
+    }
+}
@@ -0,0 +1,234 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+
+import org.easymock.IAnswer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.UpstreamChannelStateEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFEchoRequest;
+import org.openflow.protocol.OFHello;
+import org.openflow.protocol.OFMessage;
+
+public class PipelineExecutorTest {
+    private Controller controller;
+    private IDebugCounter eventRun;
+    private PipelineExecutor executor;
+
+    @Before
+    public void setUp() {
+        Controller.Counters counters = new Controller.Counters();
+        eventRun = createMock(IDebugCounter.class);
+        counters.pipelineEventRun = eventRun;
+        counters.pipelineQueueDelayUs = createNiceMock(IDebugCounter.class);
+        replay(counters.pipelineQueueDelayUs);
+        controller = createMock(Controller.class);
+        expect(controller.getCounters()).andReturn(counters).anyTimes();
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    private static Channel channel() {
+        Channel channel = createNiceMock(Channel.class);
+        expect(channel.isOpen()).andReturn(true).anyTimes();
+        expect(channel.isReadable()).andReturn(true).anyTimes();
+        return channel;
+    }
+
+    /**
+     * A context that hands every event it gets to the given answer
+     */
+    private ChannelHandlerContext context(Channel channel,
+                                          IAnswer<Object> answer) {
+        ChannelHandlerContext ctx = createNiceMock(ChannelHandlerContext.class);
+        expect(ctx.getChannel()).andReturn(channel).anyTimes();
+        expect(ctx.getHandler())
+            .andReturn(new ExecutionHandler(executor)).anyTimes();
+        ctx.sendUpstream(anyObject(ChannelEvent.class));
+        expectLastCall().andAnswer(answer).anyTimes();
+        replay(ctx);
+        return ctx;
+    }
+
+    @Test
+    public void testOrderPerChannel() throws Exception {
+        final int n = 500;
+        eventRun.updateCounterNoFlush();
+        expectLastCall().times(2 * n);
+        replay(eventRun, controller);
+        executor = new PipelineExecutor(controller, 4, 0, 0);
+
+        Channel[] channels = { channel(), channel() };
+        final List<List<Integer>> seen = new ArrayList<List<Integer>>();
+        final CountDownLatch done = new CountDownLatch(2 * n);
+        ChannelHandlerContext[] ctxs = new ChannelHandlerContext[2];
+        for (int c = 0; c < 2; c++) {
+            replay(channels[c]);
+            final List<Integer> list =
+                    Collections.synchronizedList(new ArrayList<Integer>());
+            seen.add(list);
+            ctxs[c] = context(channels[c], new IAnswer<Object>() {
+                @Override
+                public Object answer() {
+                    UpstreamMessageEvent e = (UpstreamMessageEvent)
+                            getCurrentArguments()[0];
+                    list.add((Integer) e.getMessage());
+                    done.countDown();
+                    return null;
+                }
+            });
+        }
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < 2; c++) {
+                executor.execute(new ChannelEventRunnable(ctxs[c],
+                        new UpstreamMessageEvent(channels[c], i, null)));
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++)
+            expected.add(i);
+        assertEquals(expected, seen.get(0));
+        assertEquals(expected, seen.get(1));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueueDepth());
+        assertTrue(executor.getMaxQueueDepth() > 0);
+        assertEquals(2 * n, executor.getEventsRun());
+        assertTrue(executor.getMeanQueueDelayUs() >= 0);
+        verify(eventRun);
+    }
+
+    @Test
+    public void testFlushAfterStateEvent() throws Exception {
+        eventRun.updateCounterNoFlush();
+        expectLastCall().times(2);
+        // only the state event is flushed by the executor
+        controller.flushAll();
+        expectLastCall().once();
+        replay(eventRun, controller);
+        executor = new PipelineExecutor(controller, 1, 0, 0);
+
+        Channel channel = channel();
+        replay(channel);
+        ChannelHandlerContext ctx = context(channel, new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                return null;
+            }
+        });
+        executor.execute(new ChannelEventRunnable(ctx,
+                new UpstreamChannelStateEvent(channel,
+                        ChannelState.CONNECTED, null)));
+        executor.execute(new ChannelEventRunnable(ctx,
+                new UpstreamMessageEvent(channel,
+                        Arrays.asList(new OFHello()), null)));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        verify(eventRun, controller);
+    }
+
+    @Test
+    public void testChannelMemoryLimit() throws Exception {
+        eventRun.updateCounterNoFlush();
+        expectLastCall().anyTimes();
+        replay(eventRun, controller);
+        // room for about two echo requests
+        executor = new PipelineExecutor(controller, 1, 200, 0);
+
+        // reads are suspended, then resumed when the backlog drains
+        final AtomicBoolean readable = new AtomicBoolean(true);
+        final AtomicInteger suspended = new AtomicInteger();
+        Channel channel = createMock(Channel.class);
+        expect(channel.isOpen()).andReturn(true).anyTimes();
+        expect(channel.getRemoteAddress()).andReturn(null).anyTimes();
+        expect(channel.isReadable()).andAnswer(new IAnswer<Boolean>() {
+            @Override
+            public Boolean answer() {
+                return readable.get();
+            }
+        }).anyTimes();
+        expect(channel.setReadable(anyBoolean()))
+            .andAnswer(new IAnswer<ChannelFuture>() {
+            @Override
+            public ChannelFuture answer() {
+                boolean r = (Boolean) getCurrentArguments()[0];
+                if (!r)
+                    suspended.incrementAndGet();
+                readable.set(r);
+                return null;
+            }
+        }).anyTimes();
+        replay(channel);
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(4);
+        ChannelHandlerContext ctx = context(channel, new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Exception {
+                blocked.countDown();
+                release.await();
+                done.countDown();
+                return null;
+            }
+        });
+        for (int i = 0; i < 4; i++) {
+            executor.execute(new ChannelEventRunnable(ctx,
+                    new UpstreamMessageEvent(channel,
+                            Arrays.asList(new OFEchoRequest()), null)));
+        }
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        assertTrue(executor.getQueueDepth() >= 3);
+        assertFalse(readable.get());
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(suspended.get() > 0);
+        assertTrue(readable.get());
+    }
+
+    @Test
+    public void testSizeEstimate() {
+        PipelineExecutor.OFMessageSizeEstimator estimator =
+                new PipelineExecutor.OFMessageSizeEstimator();
+        int overhead = PipelineExecutor.OFMessageSizeEstimator.MESSAGE_OVERHEAD;
+        List<OFMessage> msglist = new ArrayList<OFMessage>();
+        msglist.add(new OFHello());
+        msglist.add(new OFEchoRequest());
+        Channel channel = channel();
+        replay(channel);
+        assertEquals(overhead + 2 * (overhead + OFMessage.MINIMUM_LENGTH),
+                     estimator.estimateSize(
+                             new UpstreamMessageEvent(channel, msglist, null)));
+        assertEquals(overhead + OFMessage.MINIMUM_LENGTH,
+                     estimator.estimateSize(new OFHello()));
+    }
+}
@@ -0,0 +1,125 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import net.floodlightcontroller.core.IOFSwitch.PortChangeType;
+import net.floodlightcontroller.core.ImmutablePort;
+import net.floodlightcontroller.core.SwitchChange;
+import net.floodlightcontroller.core.SwitchChange.PortChange;
+import net.floodlightcontroller.core.internal.Controller.SwitchUpdateType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SwitchUpdateBatchTest {
+    private final ImmutablePort port1 = ImmutablePort.create("p1", 1);
+    private final ImmutablePort port2 = ImmutablePort.create("p2", 2);
+    private SwitchUpdateBatch batch;
+
+    @Before
+    public void setUp() {
+        batch = new SwitchUpdateBatch();
+    }
+
+    private boolean add(long dpid, SwitchUpdateType type) {
+        return batch.add(dpid, type, null, null);
+    }
+
+    private boolean addPort(long dpid, ImmutablePort port,
+                            PortChangeType type) {
+        return batch.add(dpid, SwitchUpdateType.PORTCHANGED, port, type);
+    }
+
+    @Test
+    public void testNetChange() {
+        assertTrue(add(1L, SwitchUpdateType.ADDED));
+        assertTrue(add(2L, SwitchUpdateType.ADDED));
+        assertTrue(add(1L, SwitchUpdateType.ACTIVATED));
+        assertTrue(addPort(1L, port2, PortChangeType.ADD));
+        assertTrue(addPort(1L, port1, PortChangeType.DOWN));
+        assertTrue(addPort(1L, port2, PortChangeType.UP));
+
+        List<SwitchChange> changes = batch.getChanges();
+        assertEquals(2, changes.size());
+        SwitchChange c = changes.get(0);
+        assertEquals(1L, c.getSwitchId());
+        assertFalse(c.isRemoved());
+        assertTrue(c.isAdded());
+        assertTrue(c.isActivated());
+        assertFalse(c.isChanged());
+        // latest change per port, in order of the first change
+        assertEquals(2, c.getPortChanges().size());
+        assertEquals(port2, c.getPortChanges().get(0).getPort());
+        assertEquals(PortChangeType.UP, c.getPortChanges().get(0).getType());
+        assertEquals(PortChangeType.DOWN,
+                     c.getPortChanges().get(1).getType());
+
+        assertEquals(2L, changes.get(1).getSwitchId());
+        assertTrue(changes.get(1).isAdded());
+        assertFalse(changes.get(1).isActivated());
+
+        batch.clear();
+        assertTrue(batch.getChanges().isEmpty());
+    }
+
+    @Test
+    public void testRemoveCancelsEarlierChanges() {
+        add(1L, SwitchUpdateType.ADDED);
+        add(1L, SwitchUpdateType.ACTIVATED);
+        addPort(1L, port1, PortChangeType.UP);
+        add(1L, SwitchUpdateType.REMOVED);
+        add(1L, SwitchUpdateType.ADDED);
+
+        SwitchChange c = batch.getChanges().get(0);
+        assertTrue(c.isRemoved());
+        assertTrue(c.isAdded());
+        assertFalse(c.isActivated());
+        assertTrue(c.getPortChanges().isEmpty());
+    }
+
+    @Test
+    public void testRepeatsCoalesced() {
+        assertTrue(add(1L, SwitchUpdateType.OTHERCHANGE));
+        assertFalse(add(1L, SwitchUpdateType.OTHERCHANGE));
+        assertTrue(addPort(1L, port1, PortChangeType.DOWN));
+        assertFalse(addPort(1L, port1, PortChangeType.DOWN));
+        assertTrue(addPort(1L, port1, PortChangeType.UP));
+        // not a repeat: another update came in between
+        assertTrue(add(1L, SwitchUpdateType.OTHERCHANGE));
+        // only the same switch counts
+        assertTrue(add(2L, SwitchUpdateType.OTHERCHANGE));
+    }
+
+    @Test
+    public void testPortDownKept() {
+        addPort(1L, port1, PortChangeType.DOWN);
+        addPort(1L, port1, PortChangeType.UP);
+        addPort(1L, port2, PortChangeType.UP);
+        addPort(1L, port2, PortChangeType.DOWN);
+        addPort(1L, port2, PortChangeType.UP);
+        addPort(1L, port2, PortChangeType.OTHER_UPDATE);
+
+        List<PortChange> ports = batch.getChanges().get(0).getPortChanges();
+        assertEquals(4, ports.size());
+        assertEquals(port1, ports.get(0).getPort());
+        assertEquals(PortChangeType.DOWN, ports.get(0).getType());
+        assertEquals(PortChangeType.UP, ports.get(1).getType());
+        assertEquals(port2, ports.get(2).getPort());
+        assertEquals(PortChangeType.DOWN, ports.get(2).getType());
+        assertEquals(PortChangeType.OTHER_UPDATE, ports.get(3).getType());
+
+        // going down again undoes the up
+        addPort(1L, port1, PortChangeType.DELETE);
+        ports = batch.getChanges().get(0).getPortChanges();
+        assertEquals(3, ports.size());
+        assertEquals(PortChangeType.DELETE, ports.get(0).getType());
+    }
+
+    @Test
+    public void testDeactivatedOnly() {
+        add(1L, SwitchUpdateType.DEACTIVATED);
+        assertTrue(batch.getChanges().isEmpty());
+    }
+}
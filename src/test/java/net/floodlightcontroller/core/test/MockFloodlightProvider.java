@@ -40,6 +40,7 @@ import net.floodlightcontroller.core.IHAListener;
 import net.floodlightcontroller.core.IInfoProvider;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.IOFSwitchBackpressureListener;
 import net.floodlightcontroller.core.IOFSwitchDriver;
 import net.floodlightcontroller.core.IOFSwitchListener;
 import net.floodlightcontroller.core.IListener.Command;
@@ -67,6 +68,7 @@ public class MockFloodlightProvider implements IFloodlightModule, IFloodlightPro
     protected static Logger log = LoggerFactory.getLogger(MockFloodlightProvider.class);
     protected ConcurrentMap<OFType, ListenerDispatcher<OFType,IOFMessageListener>> listeners;
     protected List<IOFSwitchListener> switchListeners;
+    protected List<IOFSwitchBackpressureListener> backpressureListeners;
     protected ListenerDispatcher<HAListenerTypeMarker, IHAListener> haListeners;
     protected Map<Long, IOFSwitch> switches;
     protected FloodlightFactory factory;
@@ -80,6 +82,8 @@ public class MockFloodlightProvider implements IFloodlightModule, IFloodlightPro
                                    IOFMessageListener>>();
         switches = new ConcurrentHashMap<Long, IOFSwitch>();
         switchListeners = new CopyOnWriteArrayList<IOFSwitchListener>();
+        backpressureListeners =
+                new CopyOnWriteArrayList<IOFSwitchBackpressureListener>();
         haListeners =
                 new ListenerDispatcher<HAListenerTypeMarker, IHAListener>();
         factory = FloodlightFactory.getInstance();
@@ -157,6 +161,25 @@ public class MockFloodlightProvider implements IFloodlightModule, IFloodlightPro
         switchListeners.remove(listener);
     }
 
+    @Override
+    public void addSwitchBackpressureListener(
+            IOFSwitchBackpressureListener listener) {
+        backpressureListeners.add(listener);
+    }
+
+    @Override
+    public void removeSwitchBackpressureListener(
+            IOFSwitchBackpressureListener listener) {
+        backpressureListeners.remove(listener);
+    }
+
+    @Override
+    public void handleSwitchBackpressure(IOFSwitch sw, boolean congested) {
+        for (IOFSwitchBackpressureListener listener : backpressureListeners) {
+            listener.switchBackpressureChanged(sw, congested);
+        }
+    }
+
     public void dispatchMessage(IOFSwitch sw, OFMessage msg) {
         dispatchMessage(sw, msg, new FloodlightContext());
     }
@@ -21,6 +21,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
@@ -28,6 +30,9 @@ import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+
 public class MockThreadPoolService implements IFloodlightModule, IThreadPoolService {
     
     protected ScheduledExecutorService mockExecutor = new MockScheduledExecutor();
@@ -41,6 +46,27 @@ public class MockThreadPoolService implements IFloodlightModule, IThreadPoolServ
         return mockExecutor;
     }
 
+    protected Timer timer;
+
+    /**
+     * Return a real timer with a short tick, running on a daemon thread
+     */
+    @Override
+    public synchronized Timer getTimer() {
+        if (timer == null) {
+            ThreadFactory f = new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MockTimer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+            timer = new HashedWheelTimer(f, 10, TimeUnit.MILLISECONDS);
+        }
+        return timer;
+    }
+
     // IFloodlightModule
     
     @Override
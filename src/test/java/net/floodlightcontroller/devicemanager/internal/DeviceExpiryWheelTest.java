@@ -0,0 +1,88 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class DeviceExpiryWheelTest {
+    private static final long TICK = 1000;
+    private static final long HORIZON = 60 * TICK;
+
+    private long[] poll(DeviceExpiryWheel wheel, long now, int max) {
+        long[] out = new long[max];
+        int n = wheel.poll(now, out);
+        long[] keys = Arrays.copyOf(out, n);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    @Test
+    public void testDue() {
+        long start = 100 * TICK;
+        DeviceExpiryWheel wheel = new DeviceExpiryWheel(TICK, HORIZON, start);
+        wheel.schedule(1L, start + 10 * TICK);
+        wheel.schedule(2L, start + 10 * TICK + 1);
+        wheel.schedule(3L, start + 20 * TICK);
+        // already expired
+        wheel.schedule(4L, start - 5 * TICK);
+        assertEquals(4, wheel.size());
+
+        assertArrayEquals(new long[] { 4L }, poll(wheel, start, 10));
+        assertArrayEquals(new long[0], poll(wheel, start + 10 * TICK - 1, 10));
+        // due from the start of the tick of the deadline
+        assertArrayEquals(new long[] { 1L, 2L },
+                          poll(wheel, start + 10 * TICK, 10));
+        assertArrayEquals(new long[] { 3L },
+                          poll(wheel, start + 30 * TICK, 10));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testReschedule() {
+        long start = 100 * TICK;
+        DeviceExpiryWheel wheel = new DeviceExpiryWheel(TICK, HORIZON, start);
+        wheel.schedule(1L, start + 10 * TICK);
+        // later: stays due at the earlier deadline
+        wheel.schedule(1L, start + 20 * TICK);
+        // earlier: the stale entry is skipped
+        wheel.schedule(1L, start + 5 * TICK);
+        assertEquals(1, wheel.size());
+        assertArrayEquals(new long[] { 1L }, poll(wheel, start + 5 * TICK, 10));
+        assertArrayEquals(new long[0], poll(wheel, start + 30 * TICK, 10));
+
+        // beyond the horizon
+        wheel.schedule(2L, start + 1000 * TICK);
+        assertArrayEquals(new long[0],
+                          poll(wheel, start + 30 * TICK + HORIZON - 1, 10));
+        assertArrayEquals(new long[] { 2L },
+                          poll(wheel, start + 31 * TICK + HORIZON, 10));
+    }
+
+    @Test
+    public void testBudget() {
+        long start = 100 * TICK;
+        DeviceExpiryWheel wheel = new DeviceExpiryWheel(TICK, HORIZON, start);
+        int n = 2500;
+        for (long i = 0; i < n; i++) {
+            wheel.schedule(i, start + (i % 3) * TICK);
+        }
+        long now = start + 10 * TICK;
+        boolean[] seen = new boolean[n];
+        int total = 0;
+        while (true) {
+            long[] keys = poll(wheel, now, 1000);
+            if (keys.length == 0)
+                break;
+            assertTrue(keys.length <= 1000);
+            for (long k : keys) {
+                assertFalse(seen[(int)k]);
+                seen[(int)k] = true;
+            }
+            total += keys.length;
+        }
+        assertEquals(n, total);
+        assertEquals(0, wheel.size());
+    }
+}
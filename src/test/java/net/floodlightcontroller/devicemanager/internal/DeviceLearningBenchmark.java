@@ -0,0 +1,126 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
+import net.floodlightcontroller.devicemanager.IEntityClassifierService;
+import net.floodlightcontroller.test.MicroBenchmark;
+import net.floodlightcontroller.topology.ITopologyService;
+
+/**
+ * Packet-ins per second on one core that the device manager learns from
+ * for hosts it already knows: the same entity on the same attachment
+ * point, with a new Entity for every packet-in like the packet-in path
+ * creates. The second run sends from fewer hosts through the lookup
+ * cache of the thread like the packet-in path does.
+ *
+ * Run with the test classpath:
+ * java net.floodlightcontroller.devicemanager.internal.DeviceLearningBenchmark
+ */
+public class DeviceLearningBenchmark {
+    private static final int HOSTS = 10000;
+    private static final int SWITCHES = 16;
+    // active hosts that fit into the lookup cache of the thread
+    private static final int CACHED_HOSTS = 128;
+
+    // keeps the JIT from dropping the lookups
+    static long sink;
+
+    /**
+     * A topology where every port is an attachment point and every switch
+     * is its own L2 domain
+     */
+    private static ITopologyService topology() {
+        return (ITopologyService) Proxy.newProxyInstance(
+                ITopologyService.class.getClassLoader(),
+                new Class<?>[] { ITopologyService.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method m,
+                                         Object[] args) {
+                        String name = m.getName();
+                        if (name.equals("isAttachmentPointPort"))
+                            return true;
+                        if (name.equals("getL2DomainId"))
+                            return args[0];
+                        Class<?> t = m.getReturnType();
+                        if (t == boolean.class)
+                            return false;
+                        if (t == long.class)
+                            return 0L;
+                        if (t == int.class)
+                            return 0;
+                        if (t == short.class)
+                            return (short)0;
+                        return null;
+                    }
+                });
+    }
+
+    private static Entity packetIn(int host) {
+        return new Entity(0x0a0000000000L + host, (short)(host % 100),
+                          0x0a000000 + host, (long)(host % SWITCHES) + 1,
+                          host % 48 + 1, System.currentTimeMillis());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) :
+                5000000;
+
+        final DeviceManagerImpl dm = new DeviceManagerImpl();
+        FloodlightModuleContext fmc = new FloodlightModuleContext();
+        fmc.addService(ITopologyService.class, topology());
+        fmc.addService(IEntityClassifierService.class,
+                       new DefaultEntityClassifier());
+        dm.init(fmc);
+        dm.primaryIndex = new MacVlanDeviceIndex(
+                dm.entityClassifier.getKeyFields());
+        dm.secondaryIndexMap =
+                new HashMap<java.util.EnumSet<DeviceField>, DeviceIndex>();
+        dm.deviceMap = new ConcurrentHashMap<Long, Device>();
+        dm.classStateMap =
+                new ConcurrentHashMap<String, DeviceManagerImpl.ClassState>();
+        dm.apComparator = dm.new AttachmentPointComparator();
+
+        for (int i = 0; i < HOSTS; i++) {
+            Entity e = packetIn(i);
+            Device d = dm.allocateDevice((long)i, e,
+                    dm.entityClassifier.classifyEntity(e));
+            dm.deviceMap.put((long)i, d);
+            dm.primaryIndex.updateIndex(d, (long)i);
+        }
+
+        System.out.println("Learning from packet-ins of " + HOSTS +
+                           " known hosts:");
+        new MicroBenchmark("learnDeviceByEntity, known host") {
+            int host;
+
+            @Override
+            protected void runOnce() {
+                Device d = dm.learnDeviceByEntity(packetIn(host));
+                sink += d.getDeviceKey();
+                if (++host == HOSTS)
+                    host = 0;
+            }
+        }.runAndPrint(iterations / 4, iterations);
+
+        new MicroBenchmark("learnSourceDevice, known host") {
+            int host;
+
+            @Override
+            protected void runOnce() {
+                Device d = dm.learnSourceDevice(packetIn(host));
+                sink += d.getDeviceKey();
+                if (++host == CACHED_HOSTS)
+                    host = 0;
+            }
+        }.runAndPrint(iterations / 4, iterations);
+        // the debug event appender keeps a non-daemon thread around
+        System.exit(0);
+    }
+}
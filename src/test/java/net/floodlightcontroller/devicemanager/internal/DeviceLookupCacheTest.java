@@ -0,0 +1,87 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Date;
+
+import net.floodlightcontroller.devicemanager.IEntityClass;
+
+import org.junit.Test;
+
+public class DeviceLookupCacheTest {
+    private Device device(long deviceKey, Entity entity) {
+        return new Device(null, deviceKey, null, null, null,
+                          Collections.singletonList(entity), null);
+    }
+
+    @Test
+    public void testSource() {
+        DeviceLookupCache cache = new DeviceLookupCache(16);
+        Entity known = new Entity(1L, (short)1, 1, 1L, 1, new Date());
+        Device d = device(1L, known);
+        long generation = DeviceLookupCache.getGeneration();
+        cache.putSource(known, generation, d);
+
+        // an equal entity from another packet
+        Entity e = new Entity(1L, (short)1, 1, 1L, 1, new Date());
+        DeviceLookupCache.Entry entry = cache.getSource(e, generation);
+        assertNotNull(entry);
+        assertSame(d, entry.device);
+        assertSame(known, entry.entity);
+
+        // same MAC and VLAN on another port
+        assertNull(cache.getSource(new Entity(1L, (short)1, 1, 1L, 2,
+                                              new Date()), generation));
+        // another IP
+        assertNull(cache.getSource(new Entity(1L, (short)1, 2, 1L, 1,
+                                              new Date()), generation));
+
+        DeviceLookupCache.invalidate();
+        assertNull(cache.getSource(e, DeviceLookupCache.getGeneration()));
+    }
+
+    @Test
+    public void testDestination() {
+        DeviceLookupCache cache = new DeviceLookupCache(16);
+        IEntityClass c1 = new DefaultEntityClassifier.DefaultEntityClass("c1");
+        IEntityClass c2 = new DefaultEntityClassifier.DefaultEntityClass("c2");
+        Entity dst = new Entity(2L, (short)1, 2, null, null, null);
+        Device d = device(2L, new Entity(2L, (short)1, 2, 2L, 2, new Date()));
+        long generation = DeviceLookupCache.getGeneration();
+        cache.putDestination(dst, c1, generation, d);
+        // no device
+        Entity unknown = new Entity(3L, (short)1, null, null, null, null);
+        cache.putDestination(unknown, c1, generation, null);
+
+        Entity e = new Entity(2L, (short)1, 2, null, null, null);
+        assertSame(d, cache.getDestination(e, c1, generation).device);
+        assertNull(cache.getDestination(e, c2, generation));
+        DeviceLookupCache.Entry entry = cache.getDestination(
+                new Entity(3L, (short)1, null, null, null, null), c1,
+                generation);
+        assertNotNull(entry);
+        assertNull(entry.device);
+
+        DeviceLookupCache.invalidate();
+        assertNull(cache.getDestination(e, c1,
+                                        DeviceLookupCache.getGeneration()));
+    }
+
+    @Test
+    public void testThreadCache() throws Exception {
+        final DeviceLookupCache mine = DeviceLookupCache.getThreadCache();
+        assertSame(mine, DeviceLookupCache.getThreadCache());
+        final DeviceLookupCache[] other = new DeviceLookupCache[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                other[0] = DeviceLookupCache.getThreadCache();
+            }
+        };
+        t.start();
+        t.join();
+        assertNotNull(other[0]);
+        assertNotSame(mine, other[0]);
+    }
+}
@@ -99,6 +99,7 @@ import org.openflow.util.HexString;
 import org.sdnplatform.sync.IClosableIterator;
 import org.sdnplatform.sync.IStoreClient;
 import org.sdnplatform.sync.ISyncService;
+import org.sdnplatform.sync.IVersion;
 import org.sdnplatform.sync.Versioned;
 import org.sdnplatform.sync.test.MockSyncService;
 import org.slf4j.Logger;
@@ -1553,7 +1554,7 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
 
         mockListener.deviceIPV4AddrChanged(isA(IDevice.class));
         replay(mockListener);
-        deviceManager.entityCleanupTask.reschedule(0, null);
+        deviceManager.expireEntities();
 
         d = deviceManager.getDevice(d.getDeviceKey());
         assertArrayEquals(new Integer[] { 2 }, d.getIPv4Addresses());
@@ -1625,7 +1626,7 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
 
         mockListener.deviceRemoved(isA(IDevice.class));
         replay(mockListener);
-        deviceManager.entityCleanupTask.reschedule(0, null);
+        deviceManager.expireEntities();
 
         IDevice r = deviceManager.getDevice(d.getDeviceKey());
         assertNull(r);
@@ -1682,7 +1683,7 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
                                                        e.ipv4Address,
                                                        e.switchDPID,
                                                        e.switchPort,
-                                                       e.lastSeenTimestamp);
+                                                       e.getLastSeenTimestamp());
                         if (e.vlan == null)
                             newEntity.vlan = (short)1;
                         else
@@ -2689,10 +2690,11 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
      * list. We don't return the key from the store however, we assert
      * that the key from the store matches the key in the representation.
      * If we have a null value (tombstone) we simply add the null value to
-     * the list to return.
+     * the list to return. Pending device writes are flushed first.
      */
     private List<DeviceSyncRepresentation> getEntriesFromStore()
             throws Exception {
+        deviceManager.flushSyncStoreWrites();
         List<DeviceSyncRepresentation> entries =
                 new ArrayList<DeviceSyncRepresentation>();
         IClosableIterator<Entry<String, Versioned<DeviceSyncRepresentation>>> iter =
@@ -2827,7 +2829,7 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
         // Run entity cleanup. Since we've used phony time stamps for
         // device 1 its entities should be cleared and the device should be
         // removed from the store. Device 2 should remain in the store.
-        deviceManager.cleanupEntities();
+        deviceManager.expireEntities();
         entries = getEntriesFromStore();
         assertEquals(2, entries.size());
         for (DeviceSyncRepresentation dsr: entries) {
@@ -2860,6 +2862,81 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
         return d;
     }
 
+    /**
+     * Device changes are coalesced until the pending writes are flushed
+     * and unchanged devices aren't written again within the write interval
+     */
+    @Test
+    public void testCoalescedWriteToSyncStore() throws Exception {
+        ITopologyService mockTopology = makeMockTopologyAllPortsAp();
+        replay(mockTopology);
+        deviceManager.topology = mockTopology;
+        deviceManager.setSyncStoreWriteInterval(60*1000);
+
+        Entity e1a = new Entity(1L, (short)2, 3, 4L, 5, new Date(1000));
+        deviceManager.learnDeviceByEntity(e1a);
+        Entity e1b = new Entity(1L, (short)2, 33, 4L, 5, new Date(2000));
+        Device d1 = deviceManager.learnDeviceByEntity(e1b);
+        Entity e2 = new Entity(2L, null, null, 5L, 5, new Date(3000));
+        deviceManager.learnDeviceByEntity(e2);
+
+        String key = DeviceSyncRepresentation.computeKey(d1);
+        assertNull(storeClient.getValue(key));
+
+        List<DeviceSyncRepresentation> entries = getEntriesFromStore();
+        assertEquals(2, entries.size());
+        DeviceSyncRepresentation dsr1 = storeClient.getValue(key);
+        assertEquals(2, dsr1.getEntities().size());
+        assertEntityEquals(e1a, dsr1.getEntities().get(0));
+        assertEntityEquals(e1b, dsr1.getEntities().get(1));
+
+        // nothing changed but the timestamps
+        IVersion version = storeClient.get(key).getVersion();
+        e1b = new Entity(1L, (short)2, 33, 4L, 5, new Date(4000));
+        d1 = deviceManager.learnDeviceByEntity(e1b);
+        getEntriesFromStore();
+        assertEquals(version, storeClient.get(key).getVersion());
+
+        // a move is written even if only the timestamps changed, e.g.,
+        // back to an attachment point the device has an entity for
+        deviceManager.sendDeviceMovedNotification(d1);
+        getEntriesFromStore();
+        assertFalse(version.equals(storeClient.get(key).getVersion()));
+    }
+
+    /**
+     * A device that expires and is learned again under a new device key
+     * has the same store key, so its removal and its write are flushed
+     * in the order they were queued
+     */
+    @Test
+    public void testRelearnedWriteToSyncStore() throws Exception {
+        ITopologyService mockTopology = makeMockTopologyAllPortsAp();
+        replay(mockTopology);
+        deviceManager.topology = mockTopology;
+        deviceManager.setSyncStoreWriteInterval(60*1000);
+
+        Calendar c = Calendar.getInstance();
+        c.add(Calendar.MILLISECOND, -DeviceManagerImpl.ENTITY_TIMEOUT-1);
+        Entity e1 = new Entity(1L, null, 1, 1L, 1, c.getTime());
+        Device d1 = deviceManager.learnDeviceByEntity(e1);
+        String key = DeviceSyncRepresentation.computeKey(d1);
+        getEntriesFromStore();
+        assertNotNull(storeClient.getValue(key));
+
+        deviceManager.expireEntities();
+        Entity e2 = new Entity(1L, null, 2, 1L, 1, new Date());
+        Device d2 = deviceManager.learnDeviceByEntity(e2);
+        assertFalse(d1.getDeviceKey().equals(d2.getDeviceKey()));
+        assertEquals(key, DeviceSyncRepresentation.computeKey(d2));
+
+        getEntriesFromStore();
+        DeviceSyncRepresentation dsr = storeClient.getValue(key);
+        assertNotNull(dsr);
+        assertEquals(1, dsr.getEntities().size());
+        assertEntityEquals(e2, dsr.getEntities().get(0));
+    }
+
     @Test
     public void testToMaster() throws Exception {
         int syncStoreWriteIntervalMs = 0;
@@ -2906,6 +2983,8 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
         storeClient.put("FooBar", versionedDsr);
 
         deviceManager.getHAListener().transitionToMaster();
+        // the restored devices expire like learned ones
+        assertEquals(2, deviceManager.expiryWheel.size());
 
         // Query for the Device1. Make sure we have the two IPs we stored.
         IDevice d = getSingleDeviceFromDeviceManager(1L);
@@ -0,0 +1,158 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
+import junit.framework.TestCase;
+
+public class MacVlanDeviceIndexTest extends TestCase {
+    protected Entity e1a;
+    protected Entity e1b;
+    protected Device d1;
+    protected Entity e2;
+    protected Entity e2alt;
+    protected Entity e3;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        e1a = new Entity(1L, (short)1, 1, 1L, 1, new Date());
+        e1b = new Entity(1L, (short)2, 1, 1L, 1, new Date());
+        List<Entity> d1Entities = new ArrayList<Entity>(2);
+        d1Entities.add(e1a);
+        d1Entities.add(e1b);
+        d1 = new Device(null, Long.valueOf(1), null, null, null,
+                        d1Entities, null);
+
+        // e2 and e2 alt match in MAC and VLAN
+        e2 = new Entity(2L, (short)2, 2, 2L, 2, new Date());
+        e2alt = new Entity(2, (short)2, null, null, null, null);
+
+        // untagged
+        e3 = new Entity(3L, null, null, 3L, 3, new Date());
+    }
+
+    protected void verifyIterator(Set<Long> expected, Iterator<Long> it) {
+        HashSet<Long> actual = new HashSet<Long>();
+        while (it.hasNext()) {
+            actual.add(it.next());
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testMacVlanDeviceIndex() {
+        assertTrue(MacVlanDeviceIndex.supports(
+                EnumSet.of(DeviceField.MAC, DeviceField.VLAN)));
+        assertTrue(MacVlanDeviceIndex.supports(EnumSet.of(DeviceField.MAC)));
+        assertFalse(MacVlanDeviceIndex.supports(
+                EnumSet.of(DeviceField.MAC, DeviceField.IPV4)));
+
+        MacVlanDeviceIndex idx1 = new MacVlanDeviceIndex(
+                                             EnumSet.of(DeviceField.MAC,
+                                                        DeviceField.VLAN));
+        idx1.updateIndex(d1, d1.getDeviceKey());
+        idx1.updateIndex(e2, 2L);
+        idx1.updateIndex(e3, 0L);
+
+        assertEquals(Long.valueOf(1L), idx1.findByEntity(e1a));
+        assertEquals(Long.valueOf(1L), idx1.findByEntity(e1b));
+        assertEquals(Long.valueOf(2L), idx1.findByEntity(e2));
+        assertEquals(Long.valueOf(2L), idx1.findByEntity(e2alt));
+        // device key 0 is valid
+        assertEquals(Long.valueOf(0L), idx1.findByEntity(e3));
+        // only the key fields matter
+        assertEquals(Long.valueOf(0L), idx1.findByEntity(
+                new Entity(3L, null, null, null, null, null)));
+        assertNull(idx1.findByEntity(
+                new Entity(3L, (short)3, null, null, null, null)));
+        assertEquals(Long.valueOf(2L), idx1.findByEntity(
+                new Entity(2L, (short)2, null, null, null, null)));
+        assertEquals(4, idx1.size());
+
+        HashSet<Long> expectedKeys = new HashSet<Long>();
+        expectedKeys.add(0L);
+        expectedKeys.add(1L);
+        expectedKeys.add(2L);
+        verifyIterator(expectedKeys, idx1.getAll());
+        verifyIterator(Collections.<Long>singleton(2L),
+                       idx1.queryByEntity(e2alt));
+
+        // removal
+        idx1.removeEntity(e1a, 42L); // No-op. e1a isn't mapped to this key
+        assertEquals(Long.valueOf(1L), idx1.findByEntity(e1a));
+        idx1.removeEntity(e1a, 1L);
+        assertEquals(null, idx1.findByEntity(e1a));
+        assertEquals(Long.valueOf(1L), idx1.findByEntity(e1b));
+        idx1.removeEntity(e2);
+        assertEquals(null, idx1.findByEntity(e2));
+        assertEquals(2, idx1.size());
+        // another entity with the same key fields keeps the entry
+        idx1.removeEntityIfNeeded(e2alt, 2L, Collections.singleton(e2));
+        idx1.removeEntityIfNeeded(e1b, 1L, Collections.singleton(e1a));
+        assertEquals(null, idx1.findByEntity(e1b));
+        idx1.updateIndex(e2, 2L);
+        idx1.removeEntityIfNeeded(e2alt, 2L, Collections.singleton(e2));
+        assertEquals(Long.valueOf(2L), idx1.findByEntity(e2));
+
+        // entity already exists with different deviceKey
+        MacVlanDeviceIndex idx3 = new MacVlanDeviceIndex(
+                                             EnumSet.of(DeviceField.MAC,
+                                                        DeviceField.VLAN));
+        idx3.updateIndex(e1a, 42L);
+        assertEquals(false, idx3.updateIndex(d1, 1L));
+        idx3.updateIndex(e1a, 1L);
+        assertEquals(true, idx3.updateIndex(d1, 1L));
+
+        // without VLAN
+        MacVlanDeviceIndex idx4 = new MacVlanDeviceIndex(
+                                             EnumSet.of(DeviceField.MAC));
+        idx4.updateIndex(e1a, 1L);
+        assertEquals(Long.valueOf(1L), idx4.findByEntity(e1b));
+    }
+
+    @Test
+    public void testGrowAndShrink() {
+        MacVlanDeviceIndex idx = new MacVlanDeviceIndex(
+                                             EnumSet.of(DeviceField.MAC,
+                                                        DeviceField.VLAN));
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            idx.updateIndex(new Entity(0x0a0000000000L + i, (short)(i % 4096),
+                                       null, null, null, null), (long)i);
+        }
+        assertEquals(n, idx.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(Long.valueOf(i), idx.findByEntity(
+                    new Entity(0x0a0000000000L + i, (short)(i % 4096),
+                               null, null, null, null)));
+        }
+        // two slots of two longs at most per entry
+        assertTrue(idx.getMemoryPerEntry() <= 64);
+        long full = idx.getMemoryUsage();
+
+        for (int i = 0; i < n; i++) {
+            idx.removeEntity(new Entity(0x0a0000000000L + i, (short)(i % 4096),
+                                        null, null, null, null));
+        }
+        assertEquals(0, idx.size());
+        assertFalse(idx.getAll().hasNext());
+        // deleted slots are dropped when the table is rebuilt
+        for (int i = 0; i < n; i++) {
+            Entity e = new Entity(0x0b0000000000L + i, null,
+                                  null, null, null, null);
+            idx.updateIndex(e, (long)i);
+            assertEquals(Long.valueOf(i), idx.findByEntity(e));
+        }
+        assertEquals(n, idx.size());
+        assertEquals(full, idx.getMemoryUsage());
+    }
+}
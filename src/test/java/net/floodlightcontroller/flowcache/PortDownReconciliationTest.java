@@ -29,8 +29,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
 
 import org.easymock.Capture;
 import org.easymock.CaptureType;
@@ -55,6 +53,9 @@ import org.openflow.util.U16;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFSwitch;
@@ -173,11 +174,11 @@ public class PortDownReconciliationTest extends FloodlightTestCase {
         Callable<List<OFStatistics>> replyFuture = new ReplyFuture();
         // Assign the callable object to a Futuretask so that it will produce
         // future results
-        FutureTask<List<OFStatistics>> futureStats = new FutureTask<List<OFStatistics>>(
-                                                                                        replyFuture);
+        ListenableFutureTask<List<OFStatistics>> futureStats =
+                ListenableFutureTask.create(replyFuture);
 
         // Assign the results of calling the object (the asynchronous reply)
-        Future<List<OFStatistics>> results = getResults(futureStats);
+        ListenableFuture<List<OFStatistics>> results = getResults(futureStats);
 
         // SW1 -- Mock switch for base and multiple switch test case
         sw1 = EasyMock.createNiceMock(IOFSwitch.class);
@@ -275,8 +276,8 @@ public class PortDownReconciliationTest extends FloodlightTestCase {
     }
 
     // This generates the asynchronous reply to sw.getStatistics()
-    public Future<List<OFStatistics>>
-            getResults(FutureTask<List<OFStatistics>> futureStats) {
+    public ListenableFuture<List<OFStatistics>>
+            getResults(ListenableFutureTask<List<OFStatistics>> futureStats) {
         Thread t = new Thread(futureStats);
         t.start();
         return futureStats;
@@ -0,0 +1,89 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyEthernetTest {
+    private byte[] udpFrame;
+
+    @Before
+    public void setUp() {
+        udpFrame = new Ethernet()
+            .setDestinationMACAddress("00:11:22:33:44:55")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setVlanID((short) 42)
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(
+                new IPv4()
+                .setTtl((byte) 128)
+                .setSourceAddress("192.168.1.1")
+                .setDestinationAddress("192.168.1.2")
+                .setPayload(new UDP()
+                            .setSourcePort((short) 5000)
+                            .setDestinationPort((short) 5001)
+                            .setPayload(new Data(new byte[] {0x01}))))
+            .serialize();
+    }
+
+    @Test
+    public void testHeaderOnly() {
+        LazyEthernet eth = new LazyEthernet();
+        assertSame(eth, eth.deserialize(udpFrame, 0, udpFrame.length));
+        assertEquals(Ethernet.TYPE_IPv4, eth.getEtherType());
+        assertEquals(42, eth.getVlanID());
+        assertEquals("00:44:33:22:11:00", eth.getSourceMAC().toString());
+        assertFalse(eth.isPayloadDecoded());
+        assertEquals(IPv4.PROTOCOL_UDP, eth.peekIPv4Protocol());
+        assertFalse(eth.isPayloadDecoded());
+    }
+
+    @Test
+    public void testPayloadMemoized() {
+        LazyEthernet eth = new LazyEthernet();
+        eth.deserialize(udpFrame, 0, udpFrame.length);
+        IPacket ip = eth.getPayload();
+        assertTrue(eth.isPayloadDecoded());
+        assertTrue(ip instanceof IPv4);
+        assertSame(eth, ip.getParent());
+        assertSame(ip, eth.getPayload());
+        assertTrue(ip.getPayload() instanceof UDP);
+        assertEquals(IPv4.PROTOCOL_UDP, eth.peekIPv4Protocol());
+    }
+
+    @Test
+    public void testSameAsEager() {
+        Ethernet eager = new Ethernet();
+        eager.deserialize(udpFrame, 0, udpFrame.length);
+        LazyEthernet lazy = new LazyEthernet();
+        lazy.deserialize(udpFrame, 0, udpFrame.length);
+        assertEquals(eager, lazy);
+        lazy = new LazyEthernet();
+        lazy.deserialize(udpFrame, 0, udpFrame.length);
+        assertEquals(lazy, eager);
+        assertEquals(eager.hashCode(), lazy.hashCode());
+        lazy = new LazyEthernet();
+        lazy.deserialize(udpFrame, 0, udpFrame.length);
+        assertTrue(Arrays.equals(udpFrame, lazy.serialize()));
+    }
+
+    @Test
+    public void testSetPayload() {
+        LazyEthernet eth = new LazyEthernet();
+        eth.deserialize(udpFrame, 0, udpFrame.length);
+        Data d = new Data(new byte[] {1, 2, 3});
+        eth.setPayload(d);
+        assertTrue(eth.isPayloadDecoded());
+        assertSame(d, eth.getPayload());
+        assertEquals(0, eth.peekIPv4Protocol());
+    }
+
+    @Test
+    public void testShortFrame() {
+        LazyEthernet eth = new LazyEthernet();
+        assertNull(eth.deserialize(new byte[10], 0, 10));
+    }
+}
@@ -0,0 +1,66 @@
+package net.floodlightcontroller.packet;
+
+import net.floodlightcontroller.test.MicroBenchmark;
+
+/**
+ * Compares time and bytes allocated per packet for reading the header
+ * fields the device manager and forwarding look at through a
+ * {@link PacketHeaderView} and through {@link Ethernet#deserialize}.
+ *
+ * Run with the test classpath:
+ * java net.floodlightcontroller.packet.PacketHeaderViewBenchmark
+ */
+public class PacketHeaderViewBenchmark {
+    // keeps the JIT from dropping the reads
+    static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) :
+                2000000;
+        final byte[] data = new Ethernet()
+            .setDestinationMACAddress("00:11:22:33:44:55")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setVlanID((short) 42)
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(
+                new IPv4()
+                .setTtl((byte) 128)
+                .setSourceAddress("192.168.1.1")
+                .setDestinationAddress("192.168.1.2")
+                .setPayload(new TCP()
+                            .setSourcePort((short) 5000)
+                            .setDestinationPort((short) 80)
+                            .setPayload(new Data(new byte[64]))))
+            .serialize();
+
+        System.out.println("Per packet, MACs, VLAN, IPv4 addresses, ports:");
+        int warmup = iterations / 4;
+        new MicroBenchmark("Ethernet.deserialize") {
+            @Override
+            protected void runOnce() {
+                Ethernet eth = new Ethernet();
+                eth.deserialize(data, 0, data.length);
+                IPv4 ip = (IPv4) eth.getPayload();
+                TCP tcp = (TCP) ip.getPayload();
+                sink += eth.getSourceMAC().toLong() +
+                        eth.getDestinationMAC().toLong() +
+                        eth.getVlanID() + ip.getSourceAddress() +
+                        ip.getDestinationAddress() + tcp.getSourcePort() +
+                        tcp.getDestinationPort();
+            }
+        }.runAndPrint(warmup, iterations);
+        new MicroBenchmark("PacketHeaderView") {
+            @Override
+            protected void runOnce() {
+                PacketHeaderView pkt = PacketHeaderView.getThreadView();
+                pkt.reset(data);
+                sink += pkt.getSourceMAC() + pkt.getDestinationMAC() +
+                        pkt.getVlanID() + pkt.getIPv4Source() +
+                        pkt.getIPv4Destination() + pkt.getTransportSource() +
+                        pkt.getTransportDestination();
+            }
+        }.runAndPrint(warmup, iterations);
+        // the debug event appender keeps a non-daemon thread around
+        System.exit(0);
+    }
+}
@@ -0,0 +1,191 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PacketHeaderViewTest {
+
+    private static byte[] udpFrame(short vlan, short srcPort, short dstPort) {
+        return new Ethernet()
+            .setDestinationMACAddress("00:11:22:33:44:55")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setVlanID(vlan)
+            .setPriorityCode((byte) 3)
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(
+                new IPv4()
+                .setTtl((byte) 128)
+                .setSourceAddress("192.168.1.1")
+                .setDestinationAddress("192.168.1.2")
+                .setPayload(new UDP()
+                            .setSourcePort(srcPort)
+                            .setDestinationPort(dstPort)
+                            .setPayload(new Data(new byte[] {0x01}))))
+            .serialize();
+    }
+
+    @Test
+    public void testUdp() {
+        byte[] data = udpFrame((short) 42, (short) 5000, (short) 5001);
+        PacketHeaderView pkt = new PacketHeaderView();
+        assertTrue(pkt.reset(data));
+
+        Ethernet eth = new Ethernet();
+        eth.deserialize(data, 0, data.length);
+        IPv4 ip = (IPv4) eth.getPayload();
+        UDP udp = (UDP) ip.getPayload();
+
+        assertEquals(eth.getSourceMAC().toLong(), pkt.getSourceMAC());
+        assertEquals(eth.getDestinationMAC().toLong(),
+                     pkt.getDestinationMAC());
+        assertEquals(eth.getVlanID(), pkt.getVlanID());
+        assertEquals(eth.getPriorityCode(), pkt.getPriorityCode());
+        assertEquals(eth.getEtherType(), pkt.getEtherType());
+        assertFalse(pkt.isBroadcast());
+        assertFalse(pkt.isMulticast());
+        assertFalse(pkt.isSourceMulticast());
+        assertTrue(pkt.isIPv4());
+        assertFalse(pkt.isARP());
+        assertFalse(pkt.isIPv4Fragment());
+        assertEquals(ip.getSourceAddress(), pkt.getIPv4Source());
+        assertEquals(ip.getDestinationAddress(), pkt.getIPv4Destination());
+        assertEquals(IPv4.PROTOCOL_UDP, pkt.getIPProtocol());
+        assertTrue(pkt.hasTransportPorts());
+        assertEquals(udp.getSourcePort(), pkt.getTransportSource());
+        assertEquals(udp.getDestinationPort(), pkt.getTransportDestination());
+    }
+
+    @Test
+    public void testUntaggedTcp() {
+        byte[] data = new Ethernet()
+            .setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(
+                new IPv4()
+                .setSourceAddress("10.0.0.1")
+                .setDestinationAddress("10.0.0.255")
+                .setPayload(new TCP()
+                            .setSourcePort((short) 80)
+                            .setDestinationPort((short) 8080)))
+            .serialize();
+        PacketHeaderView pkt = new PacketHeaderView();
+        assertTrue(pkt.reset(data));
+        assertEquals(Ethernet.VLAN_UNTAGGED, pkt.getVlanID());
+        assertTrue(pkt.isBroadcast());
+        assertFalse(pkt.isMulticast());
+        assertEquals(IPv4.PROTOCOL_TCP, pkt.getIPProtocol());
+        assertEquals(IPv4.toIPv4Address("10.0.0.255"),
+                     pkt.getIPv4Destination());
+        assertEquals(80, pkt.getTransportSource());
+        assertEquals(8080, pkt.getTransportDestination());
+    }
+
+    @Test
+    public void testArp() {
+        byte[] data = new Ethernet()
+            .setSourceMACAddress("00:00:00:00:00:01")
+            .setDestinationMACAddress("01:00:5e:00:00:01")
+            .setEtherType(Ethernet.TYPE_ARP)
+            .setPayload(
+                new ARP()
+                .setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) 6)
+                .setProtocolAddressLength((byte) 4)
+                .setOpCode(ARP.OP_REPLY)
+                .setSenderHardwareAddress(
+                        Ethernet.toMACAddress("00:00:00:00:00:02"))
+                .setSenderProtocolAddress(
+                        IPv4.toIPv4AddressBytes("192.168.1.1"))
+                .setTargetHardwareAddress(
+                        Ethernet.toMACAddress("00:00:00:00:00:03"))
+                .setTargetProtocolAddress(
+                        IPv4.toIPv4AddressBytes("192.168.1.2")))
+            .serialize();
+        PacketHeaderView pkt = new PacketHeaderView();
+        assertTrue(pkt.reset(data));
+        assertTrue(pkt.isMulticast());
+        assertTrue(pkt.isARP());
+        assertFalse(pkt.isIPv4());
+        assertFalse(pkt.hasTransportPorts());
+        assertEquals(ARP.PROTO_TYPE_IP, pkt.getARPProtocolType());
+        assertEquals(ARP.OP_REPLY, pkt.getARPOpCode());
+        assertEquals(2L, pkt.getARPSenderHardwareAddress());
+        assertEquals(3L, pkt.getARPTargetHardwareAddress());
+        assertEquals(IPv4.toIPv4Address("192.168.1.1"),
+                     pkt.getARPSenderProtocolAddress());
+        assertEquals(IPv4.toIPv4Address("192.168.1.2"),
+                     pkt.getARPTargetProtocolAddress());
+    }
+
+    @Test
+    public void testFragment() {
+        byte[] data = udpFrame((short) 1, (short) 5000, (short) 5001);
+        PacketHeaderView pkt = new PacketHeaderView();
+        pkt.reset(data);
+        // set the more fragments flag in the IPv4 header
+        data[pkt.getPayloadOffset() + 6] = 0x20;
+        pkt.reset(data);
+        assertTrue(pkt.isIPv4());
+        assertTrue(pkt.isIPv4Fragment());
+        assertFalse(pkt.hasTransportPorts());
+        assertEquals(0, pkt.getTransportSource());
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] data = udpFrame((short) 1, (short) 5000, (short) 5001);
+        PacketHeaderView pkt = new PacketHeaderView();
+        assertFalse(pkt.reset(data, 0, 16));
+        assertFalse(pkt.isValid());
+        assertEquals(0, pkt.getSourceMAC());
+        assertFalse(pkt.isIPv4());
+
+        // Ethernet header and half an IPv4 header
+        assertTrue(pkt.reset(data, 0, 28));
+        assertEquals(Ethernet.TYPE_IPv4, pkt.getEtherType());
+        assertFalse(pkt.isIPv4());
+        assertFalse(pkt.hasTransportPorts());
+    }
+
+    @Test
+    public void testTruncatedAfterVlanTag() {
+        // a VLAN tagged IPv4 frame that ends right after the ethertype
+        byte[] data = Arrays.copyOf(
+                udpFrame((short) 1, (short) 5000, (short) 5001), 18);
+        PacketHeaderView pkt = new PacketHeaderView();
+        assertTrue(pkt.reset(data));
+        assertEquals(1, pkt.getVlanID());
+        assertEquals(Ethernet.TYPE_IPv4, pkt.getEtherType());
+        assertFalse(pkt.isIPv4());
+        assertFalse(pkt.hasTransportPorts());
+
+        // and one byte of the IPv4 header
+        data = Arrays.copyOf(
+                udpFrame((short) 1, (short) 5000, (short) 5001), 19);
+        assertTrue(pkt.reset(data));
+        assertFalse(pkt.isIPv4());
+    }
+
+    @Test
+    public void testReset() {
+        PacketHeaderView pkt = PacketHeaderView.getThreadView();
+        assertSame(pkt, PacketHeaderView.getThreadView());
+        pkt.reset(udpFrame((short) 42, (short) 67, (short) 68));
+        assertTrue(pkt.hasTransportPorts());
+
+        byte[] data = new byte[64];
+        data[12] = (byte) 0x88;
+        data[13] = (byte) 0xcc;
+        pkt.reset(data);
+        assertEquals(Ethernet.TYPE_LLDP, pkt.getEtherType());
+        assertEquals(Ethernet.VLAN_UNTAGGED, pkt.getVlanID());
+        assertFalse(pkt.isIPv4());
+        assertFalse(pkt.hasTransportPorts());
+        assertEquals(0, pkt.getSourceMAC());
+    }
+}
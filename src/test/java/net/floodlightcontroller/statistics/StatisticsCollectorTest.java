@@ -0,0 +1,245 @@
+package net.floodlightcontroller.statistics;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.debugcounter.DebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+public class StatisticsCollectorTest {
+    private static final long DPID = 1L;
+
+    private StatisticsCollector collector;
+    private IFloodlightProviderService floodlightProvider;
+    private Map<Long, IOFSwitch> switches;
+    private IOFSwitch sw;
+    private List<ListenableFutureTask<List<OFStatistics>>> requests;
+    private List<OFStatisticsType> requestTypes;
+    // packets reported by the next reply
+    private long packets;
+
+    @Before
+    public void setUp() throws Exception {
+        requests = new ArrayList<ListenableFutureTask<List<OFStatistics>>>();
+        requestTypes = new ArrayList<OFStatisticsType>();
+        sw = createMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(DPID).anyTimes();
+        expect(sw.queryStatistics(anyObject(OFStatisticsRequest.class)))
+            .andAnswer(new IAnswer<ListenableFutureTask<List<OFStatistics>>>() {
+                @Override
+                public ListenableFutureTask<List<OFStatistics>> answer() {
+                    OFStatisticsRequest req =
+                            (OFStatisticsRequest)getCurrentArguments()[0];
+                    final OFStatisticsType type = req.getStatisticsType();
+                    requestTypes.add(type);
+                    ListenableFutureTask<List<OFStatistics>> f =
+                        ListenableFutureTask.create(
+                                new Callable<List<OFStatistics>>() {
+                            @Override
+                            public List<OFStatistics> call() {
+                                if (type != OFStatisticsType.PORT)
+                                    return Collections.<OFStatistics>emptyList();
+                                OFPortStatisticsReply r =
+                                        new OFPortStatisticsReply();
+                                r.setReceivePackets(packets);
+                                return Collections.<OFStatistics>singletonList(r);
+                            }
+                        });
+                    requests.add(f);
+                    return f;
+                }
+            }).anyTimes();
+        replay(sw);
+
+        switches = new HashMap<Long, IOFSwitch>();
+        switches.put(DPID, sw);
+        floodlightProvider = createMock(IFloodlightProviderService.class);
+        expect(floodlightProvider.getAllSwitchMap()).andReturn(switches)
+            .anyTimes();
+        expect(floodlightProvider.getSwitch(DPID))
+            .andAnswer(new IAnswer<IOFSwitch>() {
+                @Override
+                public IOFSwitch answer() {
+                    return switches.get(DPID);
+                }
+            }).anyTimes();
+        replay(floodlightProvider);
+    }
+
+    private void startCollector(String types, String maxOutstanding)
+            throws Exception {
+        collector = new StatisticsCollector();
+        FloodlightModuleContext fmc = new FloodlightModuleContext();
+        fmc.addService(IFloodlightProviderService.class, floodlightProvider);
+        // completions are only processed by tick()
+        IThreadPoolService threadPool = createMock(IThreadPoolService.class);
+        expect(threadPool.getScheduledExecutor())
+            .andReturn(createNiceMock(ScheduledExecutorService.class))
+            .anyTimes();
+        replay(threadPool);
+        fmc.addService(IThreadPoolService.class, threadPool);
+        fmc.addService(IDebugCounterService.class, new DebugCounter());
+        fmc.addConfigParam(collector, "types", types);
+        fmc.addConfigParam(collector, "intervalms", "10000");
+        fmc.addConfigParam(collector, "minintervalms", "2500");
+        fmc.addConfigParam(collector, "maxintervalms", "40000");
+        fmc.addConfigParam(collector, "maxoutstanding", maxOutstanding);
+        collector.init(fmc);
+        collector.registerCounters();
+        // no jitter: first poll half an interval in, then every interval
+        collector.random = new Random() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            public double nextDouble() {
+                return 0.5;
+            }
+        };
+    }
+
+    @Test
+    public void testPollAndCache() throws Exception {
+        startCollector("port", "1");
+        collector.tick(0);
+        assertTrue(requests.isEmpty());
+        collector.tick(5000);
+        assertEquals(1, requests.size());
+        assertEquals(OFStatisticsType.PORT, requestTypes.get(0));
+
+        // no reply yet
+        collector.tick(5250);
+        assertEquals(1, requests.size());
+        assertNull(collector.getStatistics(DPID, OFStatisticsType.PORT));
+
+        requests.get(0).run();
+        collector.tick(5500);
+        StatisticsSnapshot s =
+                collector.getStatistics(DPID, OFStatisticsType.PORT);
+        assertNotNull(s);
+        assertEquals(1, s.getValues().size());
+        assertEquals(5500, s.getCollectedAt());
+        assertEquals(collector.getVersion(), s.getVersion());
+        assertEquals(1, collector.getAllStatistics(OFStatisticsType.PORT)
+                     .size());
+
+        // next poll one interval after the reply
+        collector.tick(15000);
+        assertEquals(1, requests.size());
+        collector.tick(15500);
+        assertEquals(2, requests.size());
+
+        // the switch goes away
+        switches.clear();
+        collector.tick(15750);
+        assertNull(collector.getStatistics(DPID, OFStatisticsType.PORT));
+    }
+
+    @Test
+    public void testOutstandingCap() throws Exception {
+        startCollector("port,flow", "1");
+        collector.tick(0);
+        collector.tick(5000);
+        // both are due, only one is sent
+        assertEquals(1, requests.size());
+        collector.tick(5250);
+        assertEquals(1, requests.size());
+
+        // the deferred poll goes out as soon as the first one completes
+        requests.get(0).run();
+        collector.processCompleted(5400);
+        assertEquals(2, requests.size());
+        assertFalse(requestTypes.get(0) == requestTypes.get(1));
+        assertEquals(5400, collector.getStatistics(DPID, requestTypes.get(0))
+                     .getCollectedAt());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        startCollector("port", "1");
+        collector.tick(0);
+        collector.tick(5000);
+        assertEquals(1, requests.size());
+        collector.tick(5000 + StatisticsCollector.REQUEST_TIMEOUT_MS + 1);
+        assertTrue(requests.get(0).isCancelled());
+        assertNull(collector.getStatistics(DPID, OFStatisticsType.PORT));
+    }
+
+    private long pollOnce(long now) {
+        int n = requests.size();
+        long t = now;
+        while (requests.size() == n) {
+            t += StatisticsCollector.TICK_MS;
+            collector.tick(t);
+        }
+        requests.get(n).run();
+        collector.tick(t);
+        return t;
+    }
+
+    @Test
+    public void testAdaptiveInterval() throws Exception {
+        startCollector("port", "1");
+        collector.tick(0);
+        long t = pollOnce(0);
+        long prev = t;
+
+        // busy: 1000 packets per second
+        packets += 10000;
+        t = pollOnce(t);
+        assertEquals(10000, t - prev);
+        prev = t;
+        packets += 10000;
+        t = pollOnce(t);
+        // the interval was halved after the busy reply
+        assertEquals(5000, t - prev);
+        prev = t;
+        packets += 5000;
+        t = pollOnce(t);
+        assertEquals(2500, t - prev);
+        prev = t;
+        packets += 2500;
+        t = pollOnce(t);
+        // never below the minimum
+        assertEquals(2500, t - prev);
+
+        // idle: the interval doubles up to the maximum
+        for (int i = 0; i < 6; i++)
+            t = pollOnce(t);
+        prev = t;
+        t = pollOnce(t);
+        assertEquals(40000, t - prev);
+    }
+
+    @Test
+    public void testParseTypes() {
+        assertEquals(2, StatisticsCollector.parseTypes("port, flow,").size());
+        try {
+            StatisticsCollector.parseTypes("desc");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
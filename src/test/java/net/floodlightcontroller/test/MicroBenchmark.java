@@ -0,0 +1,130 @@
+/**
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A minimal single threaded micro benchmark harness for the benchmark
+ * mains in the test tree. Measures wall clock time and, when the JVM
+ * supports it, the bytes allocated by the benchmarking thread.
+ *
+ * Subclasses implement {@link #runOnce()}; the harness runs it for a
+ * number of warmup iterations followed by the measured iterations.
+ */
+public abstract class MicroBenchmark {
+    /**
+     * The result of a benchmark run
+     */
+    public static class Result {
+        public final String name;
+        public final long iterations;
+        public final double nanosPerOp;
+        /** bytes allocated per operation or -1 if not supported */
+        public final double bytesPerOp;
+
+        public Result(String name, long iterations,
+                      double nanosPerOp, double bytesPerOp) {
+            this.name = name;
+            this.iterations = iterations;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        public double opsPerSecond() {
+            return 1e9 / nanosPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %12.1f ns/op %14.0f ops/s %10.1f B/op",
+                                 name, nanosPerOp, opsPerSecond(),
+                                 bytesPerOp);
+        }
+    }
+
+    private final String name;
+    private final int opsPerRun;
+
+    public MicroBenchmark(String name) {
+        this(name, 1);
+    }
+
+    /**
+     * @param name
+     * @param opsPerRun the number of operations a single call to
+     * {@link #runOnce()} performs. Results are reported per operation.
+     */
+    public MicroBenchmark(String name, int opsPerRun) {
+        this.name = name;
+        this.opsPerRun = opsPerRun;
+    }
+
+    /**
+     * Called before warmup
+     */
+    protected void setUp() throws Exception {
+    }
+
+    /**
+     * Run a single operation.
+     */
+    protected abstract void runOnce() throws Exception;
+
+    /**
+     * Run the benchmark and print the result to stdout
+     */
+    public Result runAndPrint(int warmupIterations, int iterations)
+            throws Exception {
+        Result r = run(warmupIterations, iterations);
+        System.out.println(r);
+        return r;
+    }
+
+    public Result run(int warmupIterations, int iterations) throws Exception {
+        setUp();
+        for (int i = 0; i < warmupIterations; i++)
+            runOnce();
+
+        long allocStart = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            runOnce();
+        long elapsed = System.nanoTime() - start;
+        long allocEnd = allocatedBytes();
+
+        long ops = (long)iterations * opsPerRun;
+        double bytesPerOp = (allocStart < 0 || allocEnd < 0) ? -1 :
+                (double)(allocEnd - allocStart) / ops;
+        return new Result(name, ops, (double)elapsed / ops, bytesPerOp);
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread or -1
+     * if this JVM can't tell us
+     */
+    public static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean sunBean =
+                (com.sun.management.ThreadMXBean)bean;
+        if (!sunBean.isThreadAllocatedMemorySupported() ||
+                !sunBean.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,39 @@
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class EwmaRateTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testSteadyRate() {
+        EwmaRate rate = new EwmaRate(100, 0.5, 0);
+        long now = 0;
+        // 1000 events per second for 2 seconds
+        for (int i = 0; i < 2000; i++) {
+            now += MS;
+            rate.add(now);
+        }
+        assertEquals(1000, rate.getRate(), 10);
+    }
+
+    @Test
+    public void testDecay() {
+        EwmaRate rate = new EwmaRate(100, 0.5, 0);
+        assertFalse(rate.add(50 * MS));
+        assertTrue(rate.add(100 * MS));
+        // two events in 100ms, half of it folded into the average
+        assertEquals(10, rate.getRate(), 0.001);
+
+        // one event after an idle second weighs like ten intervals
+        assertTrue(rate.add(1100 * MS));
+        assertTrue(rate.getRate() < 1.1);
+
+        rate.reset(2000 * MS);
+        assertEquals(0, rate.getRate(), 0);
+    }
+}
@@ -0,0 +1,82 @@
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HeavyHitterSketchTest {
+
+    @Test
+    public void testHeavyHitter() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(4, 256, 4, 1000);
+        long now = 0;
+        // one heavy key among many light ones
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(0x0a0b0c0d0e0fL, now);
+            sketch.add(i, now);
+        }
+        int heavy = sketch.estimate(0x0a0b0c0d0e0fL);
+        // never below the real count, overestimation bounded by the
+        // light keys that share every counter
+        assertTrue(heavy >= 1000);
+        assertTrue(heavy < 1100);
+
+        long[] keys = new long[4];
+        int[] counts = new int[4];
+        int n = sketch.getTopKeys(keys, counts);
+        assertTrue(n > 0);
+        boolean found = false;
+        for (int i = 0; i < n; i++) {
+            if (keys[i] == 0x0a0b0c0d0e0fL) {
+                found = true;
+                assertEquals(heavy, counts[i]);
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testDistinctKeyFlood() {
+        // as used for source MACs by OFSwitchBase
+        HeavyHitterSketch sketch = new HeavyHitterSketch(4, 256, 16, 1000);
+        int threshold = 50;
+        long heavyKey = 0x0a0b0c0d0e0fL;
+        long now = 0;
+        int overEstimate = 0;
+        int confirmed = 0;
+        boolean heavyConfirmed = false;
+        // 20000 spoofed MACs, one packet each, and a host at 100/s
+        for (int i = 0; i < 20000; i++) {
+            long key = 0x020000000000L + i;
+            if (sketch.add(key, now) >= threshold) {
+                overEstimate++;
+                if (sketch.getExactCount(key) >= threshold)
+                    confirmed++;
+            }
+            if (i % 200 == 0 && sketch.add(heavyKey, now) >= threshold &&
+                    sketch.getExactCount(heavyKey) >= threshold)
+                heavyConfirmed = true;
+        }
+        // the estimate alone would block the flood once it's big enough
+        assertTrue(overEstimate > 5000);
+        assertEquals(0, confirmed);
+        assertTrue(heavyConfirmed);
+        assertEquals(0, sketch.getExactCount(0x020000000000L));
+    }
+
+    @Test
+    public void testWindow() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(2, 16, 2, 1000);
+        assertEquals(1, sketch.add(7, 0));
+        assertEquals(2, sketch.add(7, 999));
+        // a new window starts from scratch
+        assertEquals(1, sketch.add(7, 1000));
+        sketch.clear();
+        assertEquals(0, sketch.estimate(7));
+        assertEquals(0, sketch.getTopKeys(new long[2], new int[2]));
+        assertEquals(0, sketch.getExactCount(7));
+        sketch.add(7, 1000);
+        sketch.add(7, 1000);
+        assertEquals(2, sketch.getExactCount(7));
+    }
+}
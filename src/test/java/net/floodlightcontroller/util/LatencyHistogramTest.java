@@ -0,0 +1,49 @@
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentileUs(50));
+        h.record(0);
+        h.record(TimeUnit.MICROSECONDS.toNanos(1));
+        h.record(TimeUnit.MICROSECONDS.toNanos(3));
+        h.record(TimeUnit.MICROSECONDS.toNanos(4));
+        assertEquals(1, h.getBucketCount(0));
+        assertEquals(1, h.getBucketCount(1));
+        assertEquals(1, h.getBucketCount(2));
+        assertEquals(1, h.getBucketCount(3));
+        assertEquals(4, h.getCount());
+        assertEquals(4, h.getMaxUs());
+        assertEquals(2, h.getMeanUs());
+
+        // very long latencies end up in the last bucket
+        h.record(TimeUnit.DAYS.toNanos(100));
+        assertEquals(1, h.getBucketCount(LatencyHistogram.BUCKETS - 1));
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMaxUs());
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        // 90 fast ones around 100us, 10 slow ones around 5ms
+        for (int i = 0; i < 90; i++)
+            h.record(TimeUnit.MICROSECONDS.toNanos(100));
+        for (int i = 0; i < 10; i++)
+            h.record(TimeUnit.MICROSECONDS.toNanos(5000));
+        assertEquals(128, h.getPercentileUs(50));
+        assertEquals(128, h.getPercentileUs(90));
+        // bounded by the maximum
+        assertEquals(5000, h.getPercentileUs(99));
+        assertEquals(5000, h.getPercentileUs(100));
+    }
+}
@@ -0,0 +1,30 @@
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LongTimedCacheTest {
+
+    @Test
+    public void testUpdate() {
+        LongTimedCache cache = new LongTimedCache(16, 1000);
+        assertFalse(cache.update(42, 0));
+        assertTrue(cache.update(42, 500));
+        // the first sighting isn't refreshed, like TimedCache
+        assertTrue(cache.update(42, 1000));
+        assertFalse(cache.update(42, 1001));
+        assertTrue(cache.update(42, 1500));
+
+        cache.clear();
+        assertFalse(cache.update(42, 1500));
+    }
+
+    @Test
+    public void testNoFalsePositives() {
+        LongTimedCache cache = new LongTimedCache(4, 1000);
+        for (long key = 0; key < 100; key++) {
+            assertFalse(cache.update(key, 0));
+        }
+    }
+}
@@ -24,8 +24,8 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
 import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.FlowTableOccupancy;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IFloodlightProviderService.Role;
@@ -35,6 +35,8 @@ import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 
 import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFError;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPortStatus;
@@ -43,6 +45,8 @@ import org.openflow.protocol.OFStatisticsRequest;
 import org.openflow.protocol.statistics.OFDescriptionStatistics;
 import org.openflow.protocol.statistics.OFStatistics;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 
 /**
  * A mock implementation of IFOSwitch we use for {@link OFMessageDamper}
@@ -153,6 +157,12 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
         return null;
     }
 
+    @Override
+    public int[] getEnabledPortNumberArray() {
+        assertTrue("Unexpected method call", false);
+        return null;
+    }
+
     @Override
     public ImmutablePort getPort(short portNumber) {
         assertTrue("Unexpected method call", false);
@@ -220,7 +230,7 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
     }
 
     @Override
-    public Future<List<OFStatistics>>
+    public ListenableFuture<List<OFStatistics>>
             queryStatistics(OFStatisticsRequest request) throws IOException {
         assertTrue("Unexpected method call", false);
         return null;
@@ -258,6 +268,53 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
         assertTrue("Unexpected method call", false);
     }
 
+    @Override
+    public ListenableFuture<OFBarrierReply>
+            writeTransaction(List<OFMessage> msglist, FloodlightContext bc)
+                    throws IOException {
+        fail("Unexpected method call");
+        return null;
+    }
+
+    @Override
+    public void deliverBarrierReply(OFBarrierReply reply) {
+        fail("Unexpected method call");
+    }
+
+    @Override
+    public boolean deliverTransactionError(OFError error) {
+        fail("Unexpected method call");
+        return false;
+    }
+
+    @Override
+    public void cancelTransaction(int transactionId) {
+        fail("Unexpected method call");
+    }
+
+    @Override
+    public void cancelAllTransactions() {
+        fail("Unexpected method call");
+    }
+
+    @Override
+    public LatencyHistogram getFlowInstallLatency() {
+        fail("Unexpected method call");
+        return null;
+    }
+
+    @Override
+    public Log2Histogram getWriteBatchSizes() {
+        fail("Unexpected method call");
+        return null;
+    }
+
+    @Override
+    public FlowTableOccupancy getFlowTableOccupancy() {
+        fail("Unexpected method call");
+        return null;
+    }
+
     @Override
     public boolean hasAttribute(String name) {
         assertTrue("Unexpected method call", false);
@@ -311,7 +368,7 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
     }
 
     @Override
-    public Future<OFFeaturesReply> querySwitchFeaturesReply()
+    public ListenableFuture<OFFeaturesReply> querySwitchFeaturesReply()
             throws IOException {
         fail("Unexpected method call");
         return null;
@@ -421,6 +478,18 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
         return false;
     }
 
+    @Override
+    public boolean isBackpressured() {
+        fail("Unexpected method call");
+        return false;
+    }
+
+    @Override
+    public long getBufferedWriteBytes() {
+        fail("Unexpected method call");
+        return 0;
+    }
+
     @Override
     public void setDebugCounterService(IDebugCounterService debugCounters) {
         fail("Unexpected method call");
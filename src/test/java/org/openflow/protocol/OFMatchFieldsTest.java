@@ -0,0 +1,253 @@
+package org.openflow.protocol;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class OFMatchFieldsTest {
+
+    private static byte[] serialize(OFMatch match) {
+        ByteBuffer bb = ByteBuffer.allocate(match.getLengthU());
+        match.writeTo(bb);
+        assertEquals(match.getLengthU(), bb.position());
+        return bb.array();
+    }
+
+    /**
+     * Serialize a list of match fields the way the OXM match is laid out
+     * on the wire, independently of OFMatch
+     */
+    private static byte[] serialize(OFMatchField... matchFields) {
+        int matchLength = 4;
+        for (OFMatchField f: matchFields)
+            matchLength += f.getLength();
+        int length = 8 * ((matchLength + 7) / 8);
+        ByteBuffer bb = ByteBuffer.allocate(length);
+        bb.putShort((short) 1); // OXM
+        bb.putShort((short) matchLength);
+        for (OFMatchField f: matchFields)
+            f.writeTo(bb);
+        return bb.array();
+    }
+
+    private static OFMatch sampleMatch() {
+        return new OFMatch()
+            .setInPort(5)
+            .setDataLayerSource("00:44:33:22:11:00")
+            .setDataLayerDestination("00:11:22:33:44:55")
+            .setDataLayerType(OFMatch.ETH_TYPE_IPV4)
+            .setDataLayerVirtualLan((short) 42)
+            .setNetworkProtocol(OFMatch.IP_PROTO_TCP)
+            .setNetworkSource(0x0a000001)
+            .setNetworkDestinationMask(0x0a000102, 0xffffff00)
+            .setTransportSource((short) 80)
+            .setTransportDestination((short) 0xc000);
+    }
+
+    @Test
+    public void testWireFormat() {
+        OFMatch match = sampleMatch();
+        byte[] expected = serialize(
+            new OFMatchField(OFOXMFieldType.IN_PORT, 5),
+            new OFMatchField(OFOXMFieldType.ETH_SRC,
+                new byte[] {0x00, 0x44, 0x33, 0x22, 0x11, 0x00}),
+            new OFMatchField(OFOXMFieldType.ETH_DST,
+                new byte[] {0x00, 0x11, 0x22, 0x33, 0x44, 0x55}),
+            new OFMatchField(OFOXMFieldType.ETH_TYPE, (short) 0x800),
+            new OFMatchField(OFOXMFieldType.VLAN_VID, (short) (42 | 0x1000)),
+            new OFMatchField(OFOXMFieldType.IP_PROTO, (byte) 6),
+            new OFMatchField(OFOXMFieldType.IPV4_SRC, 0x0a000001),
+            new OFMatchField(OFOXMFieldType.IPV4_DST, 0x0a000102, 0xffffff00),
+            new OFMatchField(OFOXMFieldType.TCP_SRC, (short) 80),
+            new OFMatchField(OFOXMFieldType.TCP_DST, (short) 0xc000));
+        assertArrayEquals(expected, serialize(match));
+        assertEquals(expected.length, match.getLengthU());
+    }
+
+    @Test
+    public void testGetters() {
+        OFMatch match = sampleMatch();
+        assertEquals(5, match.getInPort());
+        assertArrayEquals(new byte[] {0x00, 0x44, 0x33, 0x22, 0x11, 0x00},
+                          match.getDataLayerSource());
+        assertEquals(OFMatch.ETH_TYPE_IPV4, match.getDataLayerType());
+        assertEquals(42, match.getDataLayerVirtualLan());
+        assertEquals(0x0a000001, match.getNetworkSource());
+        assertEquals(0, match.getNetworkSourceMask());
+        assertEquals(0x0a000100, match.getNetworkDestination());
+        assertEquals(0xffffff00, match.getNetworkDestinationMask());
+        assertEquals(80, match.getTransportSource());
+        assertEquals((short) 0xc000, match.getTransportDestination());
+        assertEquals(Short.valueOf((short) 0x800),
+                     match.getMatchFieldValue(OFOXMFieldType.ETH_TYPE));
+        assertEquals(Integer.valueOf(0xffffff00),
+                     match.getMatchFieldMask(OFOXMFieldType.IPV4_DST));
+        assertNull(match.getMatchFieldMask(OFOXMFieldType.IPV4_SRC));
+
+        OFMatch empty = new OFMatch();
+        assertEquals(OFPort.OFPP_ANY.getValue(), empty.getInPort());
+        assertNull(empty.getDataLayerDestination());
+        assertEquals(OFVlanId.OFPVID_NONE.getValue(),
+                     empty.getDataLayerVirtualLan());
+        assertFalse(empty.fieldExists(OFOXMFieldType.IN_PORT));
+        try {
+            empty.getMatchFieldValue(OFOXMFieldType.IN_PORT);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // protocol set without a port
+        empty.setNetworkProtocol(OFMatch.IP_PROTO_UDP);
+        assertEquals(0, empty.getTransportSource());
+    }
+
+    @Test
+    public void testReadWrite() {
+        OFMatch match = sampleMatch();
+        match.setField(OFOXMFieldType.IPV6_SRC, new byte[] {
+            0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1});
+        byte[] wire = serialize(match);
+
+        OFMatch read = new OFMatch();
+        read.readFrom(ByteBuffer.wrap(wire));
+        assertEquals(match, read);
+        assertEquals(match.hashCode(), read.hashCode());
+        assertEquals(match.getLength(), read.getLength());
+        assertArrayEquals(wire, serialize(read));
+
+        List<OFMatchField> fields = read.getMatchFields();
+        assertEquals(11, fields.size());
+        assertEquals(OFOXMFieldType.IN_PORT, fields.get(0).getType());
+        assertEquals(OFOXMFieldType.IPV6_SRC, fields.get(10).getType());
+        OFMatch copy = new OFMatch().setMatchFields(fields);
+        assertArrayEquals(wire, serialize(copy));
+    }
+
+    @Test
+    public void testReplaceField() {
+        OFMatch match = new OFMatch()
+            .setInPort(1)
+            .setNetworkDestination(0x0a000001)
+            .setDataLayerType(OFMatch.ETH_TYPE_IPV4);
+        int length = match.getMatchLength();
+        match.setNetworkDestinationMask(0x0a000001, 0xffff0000);
+        assertEquals(length + 4, match.getMatchLength());
+        match.setNetworkDestination(0x0a000002);
+        assertEquals(length, match.getMatchLength());
+        match.setInPort(2);
+
+        byte[] expected = serialize(
+            new OFMatchField(OFOXMFieldType.IN_PORT, 2),
+            new OFMatchField(OFOXMFieldType.IPV4_DST, 0x0a000002),
+            new OFMatchField(OFOXMFieldType.ETH_TYPE, (short) 0x800));
+        assertArrayEquals(expected, serialize(match));
+    }
+
+    @Test
+    public void testEqualsAndHash() {
+        OFMatch m1 = new OFMatch()
+            .setInPort(1)
+            .setDataLayerType(OFMatch.ETH_TYPE_ARP);
+        OFMatch m2 = new OFMatch()
+            .setDataLayerType(OFMatch.ETH_TYPE_ARP)
+            .setInPort(1);
+        assertEquals(m1, m2);
+        assertEquals(m1.hashCode(), m2.hashCode());
+
+        // the cached hash must follow changes
+        int hash = m1.hashCode();
+        m1.setInPort(2);
+        assertFalse(m1.equals(m2));
+        assertFalse(hash == m1.hashCode());
+        m1.setInPort(1);
+        assertEquals(m1, m2);
+        assertEquals(hash, m1.hashCode());
+
+        assertFalse(m1.equals(m1.clone().setNetworkSourceMask(1, 0xff)));
+        assertFalse(new OFMatch().equals(null));
+    }
+
+    @Test
+    public void testClone() {
+        OFMatch match = sampleMatch();
+        OFMatch clone = match.clone();
+        assertEquals(match, clone);
+        assertArrayEquals(serialize(match), serialize(clone));
+        clone.setInPort(7);
+        assertEquals(5, match.getInPort());
+        assertFalse(match.equals(clone));
+    }
+
+    @Test
+    public void testSetNonWildcards() {
+        OFMatch match = sampleMatch();
+        match.setNonWildcards(EnumSet.of(OFOXMFieldType.IPV4_DST,
+                                         OFOXMFieldType.IN_PORT,
+                                         OFOXMFieldType.ETH_TYPE));
+        byte[] expected = serialize(
+            new OFMatchField(OFOXMFieldType.IN_PORT, 5),
+            new OFMatchField(OFOXMFieldType.ETH_TYPE, (short) 0x800),
+            new OFMatchField(OFOXMFieldType.IPV4_DST, 0x0a000102, 0xffffff00));
+        assertArrayEquals(expected, serialize(match));
+        assertFalse(match.fieldExists(OFOXMFieldType.TCP_SRC));
+        assertEquals(new OFMatch()
+                        .setInPort(5)
+                        .setDataLayerType(OFMatch.ETH_TYPE_IPV4)
+                        .setNetworkDestinationMask(0x0a000102, 0xffffff00),
+                     match);
+
+        match.setNonWildcards(null);
+        assertEquals(new OFMatch(), match);
+        assertEquals(OFMatch.MINIMUM_LENGTH, match.getLengthU());
+    }
+
+    @Test
+    public void testLoadFromPacket() {
+        byte[] packet = new byte[] {
+            0x00, 0x11, 0x22, 0x33, 0x44, 0x55,   // dst
+            0x00, 0x44, 0x33, 0x22, 0x11, 0x00,   // src
+            0x08, 0x00,                           // IPv4
+            0x45, 0x00, 0x00, 0x28, 0, 0, 0, 0, 0x40, 0x11, 0, 0,
+            0x0a, 0x00, 0x00, 0x01, 0x0a, 0x00, 0x00, 0x02,
+            0x13, (byte) 0x88, 0x13, (byte) 0x89, 0x00, 0x08, 0, 0};
+        OFMatch match = OFMatch.load(packet, 3);
+        assertEquals(3, match.getInPort());
+        assertTrue(Arrays.equals(new byte[] {0x00, 0x11, 0x22, 0x33, 0x44, 0x55},
+                                 match.getDataLayerDestination()));
+        assertEquals(OFMatch.IP_PROTO_UDP, match.getNetworkProtocol());
+        assertEquals(0x0a000002, match.getNetworkDestination());
+        assertEquals(5000, match.getTransportSource());
+        assertEquals(5001, match.getTransportDestination());
+        assertEquals(match, OFMatch.load(packet, 3));
+        assertEquals(match.hashCode(), OFMatch.load(packet, 3).hashCode());
+    }
+
+    @Test
+    public void testIsDisjoint() {
+        OFMatch all = new OFMatch();
+        OFMatch port1 = new OFMatch().setInPort(1);
+        OFMatch port2 = new OFMatch().setInPort(2);
+        assertFalse(all.isDisjoint(port1));
+        assertFalse(port1.isDisjoint(port1.clone()));
+        assertTrue(port1.isDisjoint(port2));
+
+        // only the bits both masks cover are compared
+        OFMatch net = new OFMatch().setNetworkDestinationMask(
+                OFMatch.ETH_TYPE_IPV4, 0x0a000000, 0xff000000);
+        OFMatch host = new OFMatch().setNetworkDestination(
+                OFMatch.ETH_TYPE_IPV4, 0x0a000001);
+        OFMatch other = new OFMatch().setNetworkDestination(
+                OFMatch.ETH_TYPE_IPV4, 0x0b000001);
+        assertFalse(net.isDisjoint(host));
+        assertFalse(host.isDisjoint(net));
+        assertTrue(net.isDisjoint(other));
+        assertTrue(host.isDisjoint(other));
+        // a field only one of them matches on
+        assertFalse(port1.isDisjoint(host));
+    }
+}